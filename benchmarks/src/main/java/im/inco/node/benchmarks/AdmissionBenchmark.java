@@ -0,0 +1,192 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.admission.RateLimits;
+import im.inco.node.receive.PortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip latency of a well behaved pair of endpoints while another endpoint floods the message port,
+ * without and with a rate limit. Compare the high percentiles of the samples.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdmissionBenchmark {
+    /**
+     * Size of the message payload in bytes
+     */
+    private static final int PAYLOAD_SIZE = 1024;
+
+    /**
+     * Size of the messages of the flooding endpoint in bytes
+     */
+    private static final int FLOOD_PAYLOAD_SIZE = 64 * 1024;
+
+    /**
+     * Messages per second every nickname may send, 0 for unlimited
+     */
+    @Param({"0", "1000"})
+    public long messagesPerSecond;
+
+    /**
+     * Node relaying the messages
+     */
+    private BenchmarkNode node;
+
+    /**
+     * Endpoint sending the messages
+     */
+    private FakeEndpoint first;
+
+    /**
+     * Endpoint answering the messages
+     */
+    private FakeEndpoint second;
+
+    /**
+     * Endpoint flooding the node
+     */
+    private FakeEndpoint flooder;
+
+    /**
+     * Endpoint the flood is sent to
+     */
+    private FakeEndpoint sink;
+
+    /**
+     * Thread sending the flood
+     */
+    private Thread floodThread;
+
+    /**
+     * Thread reading the flood
+     */
+    private Thread sinkThread;
+
+    /**
+     * Message payload
+     */
+    private ByteBuffer payload;
+
+    /**
+     * Starts the node, connects the endpoints and starts the flood.
+     *
+     * @throws IOException when the node can't be started
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = new BenchmarkNode();
+        node.getAdmission().setLimits(new RateLimits(messagesPerSecond, 0, 0, 0, 0, 0));
+        first = new FakeEndpoint(node.getMessagePort(), "first");
+        second = new FakeEndpoint(node.getMessagePort(), "second");
+        flooder = new FakeEndpoint(node.getMessagePort(), "flooder");
+        sink = new FakeEndpoint(node.getMessagePort(), "sink");
+        for (FakeEndpoint endpoint : new FakeEndpoint[]{first, second, flooder, sink}) {
+            node.awaitAttached(endpoint.getNickname(), PortType.MESSAGE);
+        }
+        payload = ByteBuffer.allocateDirect(PAYLOAD_SIZE);
+        floodThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flood();
+            }
+        }, "flooder");
+        sinkThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainSink();
+            }
+        }, "sink");
+        floodThread.start();
+        sinkThread.start();
+    }
+
+    /**
+     * Stops the flood, disconnects the endpoints and stops the node.
+     *
+     * @throws Exception when the node can't be stopped
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        floodThread.interrupt();
+        flooder.close();
+        floodThread.join();
+        sink.close();
+        sinkThread.join();
+        first.close();
+        second.close();
+        node.stop();
+    }
+
+    /**
+     * Relays a message from the first endpoint to the second and back.
+     *
+     * @return size of the answer
+     *
+     * @throws IOException when relaying fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public int roundTrip() throws IOException {
+        first.sendMessage(second.getNickname(), payload);
+        second.sendMessage(first.getNickname(), second.readFrame().getPayload());
+        return first.readFrame().getPayload().remaining();
+    }
+
+    /**
+     * Sends large messages to the sink until the flooder is closed.
+     *
+     * @author Albert Veldman
+     */
+    private void flood() {
+        ByteBuffer flood = ByteBuffer.allocateDirect(FLOOD_PAYLOAD_SIZE);
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                flooder.sendMessage(sink.getNickname(), flood);
+            }
+        } catch (IOException exception) {
+            // the flooder was closed
+        }
+    }
+
+    /**
+     * Reads the flood until the sink is closed.
+     *
+     * @author Albert Veldman
+     */
+    private void drainSink() {
+        try {
+            while(true) {
+                sink.readFrame();
+            }
+        } catch (IOException exception) {
+            // the sink was closed
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.receive.PortType;
+import im.inco.node.relay.DrainBudget;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An endpoint connecting to a backlog of stored messages: the time until a message sent right after it
+ * connected reaches it, and the time to receive the whole backlog, with small and default drain windows.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BacklogDrainBenchmark {
+    /**
+     * Size of a stored message
+     */
+    private static final int MESSAGE_SIZE = 1024;
+
+    /**
+     * Size of the message sent after the endpoint connected, tells it apart from the backlog
+     */
+    private static final int LIVE_SIZE = 16;
+
+    /**
+     * Number of messages stored for the endpoint before it connects
+     */
+    @Param({"1000", "20000"})
+    public int backlog;
+
+    /**
+     * Maximum size of a window of stored messages
+     */
+    @Param({"16384", "262144"})
+    public int windowBytes;
+
+    /**
+     * Node storing and draining the backlog
+     */
+    private BenchmarkNode node;
+
+    /**
+     * Endpoint sending the backlog and the live message
+     */
+    private FakeEndpoint alice;
+
+    /**
+     * Endpoint confirming that the backlog is stored
+     */
+    private FakeEndpoint carol;
+
+    /**
+     * Endpoint connecting to its backlog, null while it is offline
+     */
+    private FakeEndpoint bob;
+
+    /**
+     * Backlog messages bob still has to read
+     */
+    private int unread;
+
+    /**
+     * Payload of the backlog messages
+     */
+    private ByteBuffer payload;
+
+    /**
+     * Payload of the live message
+     */
+    private ByteBuffer live;
+
+    /**
+     * Starts the node and connects the endpoints that stay online.
+     *
+     * @throws IOException when the node can't be started
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = new BenchmarkNode(1, null, new DrainBudget(windowBytes, DrainBudget.DEFAULT_MAX_BYTES));
+        alice = new FakeEndpoint(node.getMessagePort(), "alice");
+        carol = new FakeEndpoint(node.getMessagePort(), "carol");
+        node.awaitAttached("alice", PortType.MESSAGE);
+        node.awaitAttached("carol", PortType.MESSAGE);
+        payload = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+        live = ByteBuffer.allocateDirect(LIVE_SIZE);
+    }
+
+    /**
+     * Stores the backlog for bob while bob is offline. Carol receives a message once the backlog messages
+     * are all handled, since the node handles the frames of a connection in order.
+     *
+     * @throws IOException when the backlog can't be sent
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Invocation)
+    public void storeBacklog() throws IOException {
+        for (int i = 0; i < backlog; i++) {
+            alice.sendMessage("bob", payload);
+        }
+        alice.sendMessage("carol", live);
+        carol.readFrame();
+        unread = backlog;
+    }
+
+    /**
+     * Reads what is left of the backlog and disconnects bob.
+     *
+     * @throws IOException when reading fails
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Invocation)
+    public void disconnect() throws IOException {
+        while(unread > 0) {
+            bob.readFrame();
+            unread--;
+        }
+        bob.close();
+        bob = null;
+        node.awaitDetached("bob");
+    }
+
+    /**
+     * Disconnects the endpoints and stops the node.
+     *
+     * @throws Exception when the node can't be stopped
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        alice.close();
+        carol.close();
+        node.stop();
+    }
+
+    /**
+     * Connects bob and sends bob a message right away, until that message arrived.
+     *
+     * @return backlog messages bob received before the live message
+     *
+     * @throws IOException when relaying fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public int liveMessage() throws IOException {
+        bob = new FakeEndpoint(node.getMessagePort(), "bob");
+        node.awaitAttached("bob", PortType.MESSAGE);
+        alice.sendMessage("bob", live);
+        int before = 0;
+        while(bob.readFrame().getPayload().remaining() != LIVE_SIZE) {
+            before++;
+        }
+        unread -= before;
+        return before;
+    }
+
+    /**
+     * Connects bob and receives the whole backlog.
+     *
+     * @return bytes received
+     *
+     * @throws IOException when relaying fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public long drainBacklog() throws IOException {
+        bob = new FakeEndpoint(node.getMessagePort(), "bob");
+        long bytes = 0;
+        while(unread > 0) {
+            bytes += bob.readFrame().getPayload().remaining();
+            unread--;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,350 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.admission.AdmissionControl;
+import im.inco.node.admission.RateLimits;
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.compression.FrameCompressor;
+import im.inco.node.mesh.Mesh;
+import im.inco.node.mesh.MeshSecret;
+import im.inco.node.mesh.RouteCache;
+import im.inco.node.metrics.NodeMetrics;
+import im.inco.node.protocol.Codec;
+import im.inco.node.receive.NioReceiveHandler;
+import im.inco.node.receive.OutboundOptions;
+import im.inco.node.receive.PortType;
+import im.inco.node.receive.SelectorLoop;
+import im.inco.node.relay.ChunkStore;
+import im.inco.node.relay.DirectoryRelayStore;
+import im.inco.node.relay.DrainBudget;
+import im.inco.node.relay.FileRelay;
+import im.inco.node.relay.RelayDispatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+
+/**
+ * A node running the NIO receive engine in-process on free loopback ports, with its relay directories in a
+ * temporary directory that is removed when the node stops.
+ *
+ * @author Albert Veldman
+ */
+public class BenchmarkNode {
+    /**
+     * Secret shared by the benchmark nodes that are part of a mesh
+     */
+    private static final String MESH_SECRET = "benchmark-mesh";
+
+    /**
+     * Temporary directory holding the relay and temp directories
+     */
+    private final Path directory;
+
+    /**
+     * Dispatcher relaying frames between the fake endpoints
+     */
+    private final RelayDispatcher dispatcher;
+
+    /**
+     * Admission control of the node
+     */
+    private final AdmissionControl admission;
+
+    /**
+     * Pool of the buffers of the node
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * Instrumentation of the node
+     */
+    private final NodeMetrics metrics;
+
+    /**
+     * Compressor of the node
+     */
+    private final FrameCompressor compressor;
+
+    /**
+     * Memory the windows of stored messages of the node and its tenants may hold
+     */
+    private final DrainBudget drainBudget;
+
+    /**
+     * Number of tenants hosted by the node
+     */
+    private int tenants;
+
+    /**
+     * Receive handler of the node
+     */
+    private final NioReceiveHandler receiveHandler;
+
+    /**
+     * Mesh of the node, null when it is not part of a mesh
+     */
+    private final Mesh mesh;
+
+    /**
+     * Port the node receives messages on
+     */
+    private final int messagePort;
+
+    /**
+     * Port the node receives files on
+     */
+    private final int filePort;
+
+    /**
+     * Thread running the receive handler
+     */
+    private final Thread thread;
+
+    /**
+     * Starts a node with one receive loop.
+     *
+     * @throws IOException when the directories or ports can't be set up
+     *
+     * @author Albert Veldman
+     */
+    public BenchmarkNode() throws IOException {
+        this(1);
+    }
+
+    /**
+     * Starts a node.
+     *
+     * @param receiveLoops number of loops serving the connections
+     *
+     * @throws IOException when the directories or ports can't be set up
+     *
+     * @author Albert Veldman
+     */
+    public BenchmarkNode(int receiveLoops) throws IOException {
+        this(receiveLoops, null);
+    }
+
+    /**
+     * Starts a node that is part of a mesh when a node name is given. Link it to the other nodes with linkTo.
+     *
+     * @param receiveLoops number of loops serving the connections
+     * @param nodeName name of the node in the mesh or null
+     *
+     * @throws IOException when the directories or ports can't be set up
+     *
+     * @author Albert Veldman
+     */
+    public BenchmarkNode(int receiveLoops, String nodeName) throws IOException {
+        this(receiveLoops, nodeName, DrainBudget.defaults());
+    }
+
+    /**
+     * Starts a node that sends stored messages in windows of the given budget.
+     *
+     * @param receiveLoops number of loops serving the connections
+     * @param nodeName name of the node in the mesh or null
+     * @param drainBudget memory the windows of stored messages may hold
+     *
+     * @throws IOException when the directories or ports can't be set up
+     *
+     * @author Albert Veldman
+     */
+    public BenchmarkNode(int receiveLoops, String nodeName, DrainBudget drainBudget) throws IOException {
+        this.drainBudget = drainBudget;
+        directory = Files.createTempDirectory("inco-node-benchmark");
+        File relayDirectory = new File(directory.toFile(), "Relay");
+        FileRelay fileRelay = new FileRelay(new File(directory.toFile(), "Temp"), new File(relayDirectory, "files"));
+        bufferPool = new BufferPool(BufferPool.DEFAULT_MAX_IDLE_BYTES_PER_CLASS, false);
+        metrics = new NodeMetrics();
+        ChunkStore chunkStore = new ChunkStore(new File(relayDirectory, "chunks"),
+                ChunkStore.DEFAULT_RETENTION_MILLIS);
+        mesh = nodeName == null ? null : new Mesh(nodeName, new MeshSecret(MESH_SECRET),
+                new RouteCache(RouteCache.DEFAULT_TTL_MILLIS, RouteCache.DEFAULT_MAX_ROUTES,
+                RouteCache.DEFAULT_NEGATIVE_TTL_MILLIS), metrics);
+        compressor = new FrameCompressor(Codec.DEFLATE, SelectorLoop.MAX_MESSAGE_FRAME_LENGTH,
+                bufferPool, metrics);
+        dispatcher = new RelayDispatcher(new DirectoryRelayStore(new File(relayDirectory, "messages")), fileRelay,
+                chunkStore, bufferPool, metrics, mesh, compressor, drainBudget);
+        messagePort = freePort();
+        filePort = freePort();
+        admission = new AdmissionControl(RateLimits.unlimited(), metrics);
+        receiveHandler = new NioReceiveHandler(messagePort, filePort, dispatcher,
+                OutboundOptions.defaults(), bufferPool, metrics, admission, receiveLoops);
+        receiveHandler.setupHandler();
+        thread = new Thread(receiveHandler, "benchmark-node");
+        thread.start();
+    }
+
+    /**
+     * Stops the node and removes its directories.
+     *
+     * @throws IOException when the directories can't be removed
+     * @throws InterruptedException when interrupted while waiting for the node to stop
+     *
+     * @author Albert Veldman
+     */
+    public void stop() throws IOException, InterruptedException {
+        if(mesh != null) {
+            mesh.stop();
+        }
+        thread.interrupt();
+        thread.join();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exception) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Hosts another identity on the loops of this node, with a dispatcher and relay directories of its own,
+     * like a tenant of a node started with --tenant.
+     *
+     * @param tenantMessagePort port the tenant receives messages on
+     * @param tenantFilePort port the tenant receives files on
+     *
+     * @return dispatcher of the tenant
+     *
+     * @throws IOException when the ports can't be bound
+     *
+     * @author Albert Veldman
+     */
+    public RelayDispatcher hostTenant(int tenantMessagePort, int tenantFilePort) throws IOException {
+        File relayDirectory = new File(directory.toFile(), "Tenants" + File.separator + (tenants++));
+        FileRelay fileRelay = new FileRelay(new File(relayDirectory, "Temp"), new File(relayDirectory, "files"));
+        RelayDispatcher tenant = new RelayDispatcher(new DirectoryRelayStore(new File(relayDirectory, "messages")),
+                fileRelay, new ChunkStore(new File(relayDirectory, "chunks"), ChunkStore.DEFAULT_RETENTION_MILLIS),
+                bufferPool, metrics, null, compressor, drainBudget);
+        receiveHandler.listen(tenantMessagePort, tenantFilePort, tenant);
+        return tenant;
+    }
+
+    /**
+     * Waits until an endpoint is connected on the given port.
+     *
+     * @param nickname nickname of the endpoint
+     * @param portType port the endpoint connects to
+     *
+     * @author Albert Veldman
+     */
+    public void awaitAttached(String nickname, PortType portType) {
+        while(dispatcher.getEndpoints().getConnection(nickname, portType) == null) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Waits until an endpoint is no longer connected on any port.
+     *
+     * @param nickname nickname of the endpoint
+     *
+     * @author Albert Veldman
+     */
+    public void awaitDetached(String nickname) {
+        while(dispatcher.getEndpoints().get(nickname) != null) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Opens a link from this node to another node of the mesh and waits until both ends accepted it.
+     *
+     * @param peer the other node
+     *
+     * @author Albert Veldman
+     */
+    public void linkTo(BenchmarkNode peer) {
+        mesh.start(receiveHandler, Collections.singletonList(new InetSocketAddress("127.0.0.1",
+                peer.getMessagePort())));
+        while(mesh.getLinks().isEmpty() || peer.mesh.getLinks().isEmpty()) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Waits until this node knows which node of the mesh an endpoint is connected to.
+     *
+     * @param nickname nickname of the endpoint
+     *
+     * @author Albert Veldman
+     */
+    public void awaitRoute(String nickname) {
+        while(mesh.route(nickname) == null) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Get the admission control of this node, every limit is off until it is changed.
+     *
+     * @return admission control
+     *
+     * @author Albert Veldman
+     */
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Get the dispatcher of this node.
+     *
+     * @return relay dispatcher
+     *
+     * @author Albert Veldman
+     */
+    public RelayDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Get the port this node receives messages on.
+     *
+     * @return message port
+     *
+     * @author Albert Veldman
+     */
+    public int getMessagePort() {
+        return messagePort;
+    }
+
+    /**
+     * Get the port this node receives files on.
+     *
+     * @return file port
+     *
+     * @author Albert Veldman
+     */
+    public int getFilePort() {
+        return filePort;
+    }
+
+    /**
+     * Finds a loopback port that is not in use.
+     *
+     * @return free port
+     *
+     * @throws IOException when no port can be found
+     *
+     * @author Albert Veldman
+     */
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
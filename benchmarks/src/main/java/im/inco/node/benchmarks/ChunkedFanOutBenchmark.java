@@ -0,0 +1,104 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.receive.PortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to offer a file in chunks to a number of offline recipients. Only the first offer of a trial uploads
+ * the chunks, every other offer is answered from the chunk store.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkedFanOutBenchmark {
+    /**
+     * Size of the offered file
+     */
+    private static final long FILE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Size of the chunks of the offered file
+     */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Number of recipients the file is offered to per operation
+     */
+    @Param({"1", "100"})
+    public int recipients;
+
+    /**
+     * Node relaying the file
+     */
+    private BenchmarkNode node;
+
+    /**
+     * Endpoint offering the file
+     */
+    private FakeEndpoint sender;
+
+    /**
+     * Starts the node and connects the sender to the file port.
+     *
+     * @throws IOException when the node can't be started
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = new BenchmarkNode();
+        sender = new FakeEndpoint(node.getFilePort(), "sender");
+        node.awaitAttached("sender", PortType.FILE);
+    }
+
+    /**
+     * Disconnects the sender and stops the node.
+     *
+     * @throws Exception when the node can't be stopped
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        sender.close();
+        node.stop();
+    }
+
+    /**
+     * Offers the file to every recipient.
+     *
+     * @return number of chunks the node asked for
+     *
+     * @throws IOException when offering fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public int fanOut() throws IOException {
+        int uploaded = 0;
+        for (int i = 0; i < recipients; i++) {
+            uploaded += sender.sendChunkedFile("recipient-" + i, "attachment", FILE_SIZE, CHUNK_SIZE);
+        }
+        return uploaded;
+    }
+}
@@ -0,0 +1,126 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.protocol.Codec;
+import im.inco.node.receive.PortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip latency of a message between two endpoints that negotiated deflate, compared to two endpoints
+ * that did not. The payload is JSON-like text, which compresses about five to one. On loopback bandwidth is
+ * free, so this measures what compressing and decompressing on the endpoints and the node costs; the bytes it
+ * saves on a real link are reported by /stats.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    /**
+     * Whether both endpoints negotiate deflate
+     */
+    @Param({"false", "true"})
+    public boolean compression;
+
+    /**
+     * Size of the message payload in bytes
+     */
+    @Param({"1024", "65536"})
+    public int payloadSize;
+
+    /**
+     * Node relaying the messages
+     */
+    private BenchmarkNode node;
+
+    /**
+     * Endpoint sending the messages
+     */
+    private FakeEndpoint alice;
+
+    /**
+     * Endpoint answering the messages
+     */
+    private FakeEndpoint bob;
+
+    /**
+     * Message payload
+     */
+    private ByteBuffer payload;
+
+    /**
+     * Starts the node and connects both endpoints.
+     *
+     * @throws IOException when the node can't be started
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = new BenchmarkNode(1);
+        Codec codec = compression ? Codec.DEFLATE : Codec.NONE;
+        alice = new FakeEndpoint(node.getMessagePort(), "alice", codec);
+        bob = new FakeEndpoint(node.getMessagePort(), "bob", codec);
+        node.awaitAttached("alice", PortType.MESSAGE);
+        node.awaitAttached("bob", PortType.MESSAGE);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < payloadSize; i++) {
+            text.append("{\"id\":").append(i).append(",\"from\":\"alice\",\"to\":\"bob\",\"sent\":")
+                    .append(1700000000000L + i * 37).append(",\"body\":\"see you at ").append(i % 24)
+                    .append(" o'clock\"},");
+        }
+        byte[] bytes = text.toString().getBytes(Charset.forName("UTF-8"));
+        payload = ByteBuffer.allocateDirect(payloadSize);
+        payload.put(bytes, 0, payloadSize).flip();
+    }
+
+    /**
+     * Disconnects both endpoints and stops the node.
+     *
+     * @throws Exception when the node can't be stopped
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        alice.close();
+        bob.close();
+        node.stop();
+    }
+
+    /**
+     * Relays a message to bob and the answer back to alice.
+     *
+     * @return size of the answer
+     *
+     * @throws IOException when relaying fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public int roundTrip() throws IOException {
+        alice.sendMessage("bob", payload);
+        bob.sendMessage("alice", bob.readFrame().getPayload());
+        return alice.readFrame().getPayload().remaining();
+    }
+}
@@ -0,0 +1,134 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.receive.PortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connect and disconnect churn against the connected endpoint registry. Every operation connects an
+ * endpoint, waits until it is registered, disconnects it and waits until it is removed, while a number of
+ * idle endpoints stay connected.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(4)
+@Fork(1)
+public class EndpointChurnBenchmark {
+    /**
+     * Number of endpoints that stay connected during the benchmark
+     */
+    @Param({"0", "1000"})
+    public int idleEndpoints;
+
+    /**
+     * Node the endpoints connect to
+     */
+    private BenchmarkNode node;
+
+    /**
+     * Endpoints that stay connected
+     */
+    private final List<FakeEndpoint> idle = new ArrayList<>();
+
+    /**
+     * Used to give every benchmark thread its own nickname
+     */
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Starts the node and connects the idle endpoints.
+     *
+     * @throws IOException when the node can't be started
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = new BenchmarkNode();
+        for (int i = 0; i < idleEndpoints; i++) {
+            idle.add(new FakeEndpoint(node.getMessagePort(), "idle-" + i));
+        }
+        for (int i = 0; i < idleEndpoints; i++) {
+            node.awaitAttached("idle-" + i, PortType.MESSAGE);
+        }
+    }
+
+    /**
+     * Disconnects the idle endpoints and stops the node.
+     *
+     * @throws Exception when the node can't be stopped
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (FakeEndpoint endpoint : idle) {
+            endpoint.close();
+        }
+        idle.clear();
+        node.stop();
+    }
+
+    /**
+     * Connects an endpoint and disconnects it again.
+     *
+     * @param churner nickname of the benchmark thread
+     *
+     * @throws IOException when connecting fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public void connectDisconnect(Churner churner) throws IOException {
+        try (FakeEndpoint endpoint = new FakeEndpoint(node.getMessagePort(), churner.nickname)) {
+            node.awaitAttached(endpoint.getNickname(), PortType.MESSAGE);
+        }
+        node.awaitDetached(churner.nickname);
+    }
+
+    /**
+     * Nickname used by one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Churner {
+        /**
+         * Nickname of the thread
+         */
+        private String nickname;
+
+        /**
+         * Picks a nickname for the thread.
+         *
+         * @param benchmark the benchmark state
+         *
+         * @author Albert Veldman
+         */
+        @Setup(Level.Trial)
+        public void setup(EndpointChurnBenchmark benchmark) {
+            nickname = "churn-" + benchmark.threadCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.protocol.ChunkHeader;
+import im.inco.node.protocol.ChunkManifest;
+import im.inco.node.protocol.ChunkNeed;
+import im.inco.node.protocol.Codec;
+import im.inco.node.protocol.CodecOffer;
+import im.inco.node.protocol.FileHeader;
+import im.inco.node.protocol.Frame;
+import im.inco.node.protocol.FrameType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An endpoint speaking the node relay protocol over a blocking loopback connection.
+ *
+ * @author Albert Veldman
+ */
+public class FakeEndpoint implements AutoCloseable {
+    /**
+     * Nickname of this endpoint
+     */
+    private final String nickname;
+
+    /**
+     * Connection to the node
+     */
+    private final SocketChannel channel;
+
+    /**
+     * Buffer used to read frames, grown when a larger frame arrives
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    /**
+     * Codec the node picked, NONE when the endpoint offered none or the node turned compression off
+     */
+    private Codec codec = Codec.NONE;
+
+    /**
+     * Compresses the messages this endpoint sends once a codec is negotiated
+     */
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+    /**
+     * Decompresses the frames and file blocks the node sends compressed
+     */
+    private final Inflater inflater = new Inflater(true);
+
+    /**
+     * Connects to a node port and announces the nickname.
+     *
+     * @param port message or file port of the node
+     * @param nickname nickname of the endpoint
+     *
+     * @throws IOException when connecting fails
+     *
+     * @author Albert Veldman
+     */
+    public FakeEndpoint(int port, String nickname) throws IOException {
+        this(port, nickname, Codec.NONE);
+    }
+
+    /**
+     * Connects to a node port, announces the nickname and offers a codec. The endpoint waits for the answer of
+     * the node when it offers one.
+     *
+     * @param port message or file port of the node
+     * @param nickname nickname of the endpoint
+     * @param offered codec to offer, NONE to offer none
+     *
+     * @throws IOException when connecting fails
+     *
+     * @author Albert Veldman
+     */
+    public FakeEndpoint(int port, String nickname, Codec offered) throws IOException {
+        this.nickname = nickname;
+        this.channel = SocketChannel.open();
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.connect(new InetSocketAddress("127.0.0.1", port));
+        if(offered == Codec.NONE) {
+            write(new Frame(FrameType.HELLO, nickname, "", ByteBuffer.allocate(0)).encode());
+            return;
+        }
+        write(new Frame(FrameType.HELLO, nickname, "",
+                new CodecOffer(Collections.singletonList(offered)).encode()).encode());
+        List<Codec> picked = CodecOffer.decode(readFrame().getPayload()).getCodecs();
+        codec = picked.isEmpty() ? Codec.NONE : picked.get(0);
+    }
+
+    /**
+     * Sends a message to another endpoint.
+     *
+     * @param recipient nickname of the recipient
+     * @param payload message payload, its position is not changed
+     *
+     * @throws IOException when writing fails
+     *
+     * @author Albert Veldman
+     */
+    public void sendMessage(String recipient, ByteBuffer payload) throws IOException {
+        ByteBuffer encoded = new Frame(FrameType.MESSAGE, nickname, recipient, payload.duplicate()).encode();
+        if(codec == Codec.NONE) {
+            write(encoded);
+            return;
+        }
+        int length = encoded.getInt();
+        byte[] inner = new byte[length];
+        encoded.get(inner);
+        byte[] compressed = new byte[length + length / 1000 + 64];
+        deflater.reset();
+        deflater.setInput(inner);
+        deflater.finish();
+        int size = 0;
+        while(!deflater.finished()) {
+            size += deflater.deflate(compressed, size, compressed.length - size);
+        }
+        ByteBuffer compressedPayload = ByteBuffer.allocate(4 + size);
+        compressedPayload.putInt(length).put(compressed, 0, size).flip();
+        write(new Frame(FrameType.COMPRESSED, "", "", compressedPayload).encode());
+    }
+
+    /**
+     * Sends a file to another endpoint, repeating the given chunk until size bytes are written.
+     *
+     * @param recipient nickname of the recipient
+     * @param name name of the file
+     * @param size size of the file
+     * @param chunk contents that are repeated, its position is not changed
+     *
+     * @throws IOException when writing fails
+     *
+     * @author Albert Veldman
+     */
+    public void sendFile(String recipient, String name, long size, ByteBuffer chunk) throws IOException {
+        write(new Frame(FrameType.FILE, nickname, recipient, new FileHeader(size, name).encode()).encode());
+        long remaining = size;
+        while(remaining > 0) {
+            ByteBuffer buffer = chunk.duplicate();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            remaining -= buffer.remaining();
+            write(buffer);
+        }
+    }
+
+    /**
+     * Sends a file in chunks to another endpoint: offers it, sends the chunks the node asks for and offers it
+     * again until the node accepts it. Chunk i holds i in its first bytes, so files of the same size share
+     * their chunks.
+     *
+     * @param recipient nickname of the recipient
+     * @param name name of the file
+     * @param size size of the file
+     * @param chunkSize size of every chunk but the last
+     *
+     * @return number of chunks the node asked for
+     *
+     * @throws IOException when writing fails or the node doesn't accept the file
+     *
+     * @author Albert Veldman
+     */
+    public int sendChunkedFile(String recipient, String name, long size, int chunkSize) throws IOException {
+        int count = (int) ((size + chunkSize - 1) / chunkSize);
+        List<byte[]> hashes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hashes.add(hash(chunk(i, (int) Math.min(chunkSize, size - (long) i * chunkSize))));
+        }
+        ChunkManifest manifest = new ChunkManifest(size, chunkSize, name, hashes);
+        ByteBuffer offer = new Frame(FrameType.CHUNK_OFFER, nickname, recipient, manifest.encode()).encode();
+        write(offer.duplicate());
+        List<Integer> missing = ChunkNeed.decode(readFrame().getPayload()).getMissing();
+        for (int index : missing) {
+            ByteBuffer chunk = chunk(index, manifest.getChunkLength(index));
+            ChunkHeader header = new ChunkHeader(hashes.get(index), chunk.remaining());
+            write(new Frame(FrameType.CHUNK, nickname, "", header.encode()).encode());
+            write(chunk);
+        }
+        if(!missing.isEmpty()) {
+            write(offer.duplicate());
+            if(!ChunkNeed.decode(readFrame().getPayload()).getMissing().isEmpty()) {
+                throw new IOException("Node didn't accept the file");
+            }
+        }
+        return missing.size();
+    }
+
+    /**
+     * Reads the next frame. The payload is only valid until the next read.
+     *
+     * @return the frame
+     *
+     * @throws IOException when reading fails or the node closed the connection
+     *
+     * @author Albert Veldman
+     */
+    public Frame readFrame() throws IOException {
+        readBuffer.clear().limit(Frame.LENGTH_FIELD_SIZE);
+        readFully(readBuffer);
+        int length = readBuffer.getInt(0);
+        if(readBuffer.capacity() < length) {
+            readBuffer = ByteBuffer.allocateDirect(length);
+        }
+        readBuffer.clear().limit(length);
+        readFully(readBuffer);
+        readBuffer.flip();
+        Frame frame = Frame.decode(readBuffer, length);
+        if(frame.getType() != FrameType.COMPRESSED) {
+            return frame;
+        }
+        ByteBuffer payload = frame.getPayload();
+        int innerLength = payload.getInt();
+        byte[] compressed = new byte[payload.remaining()];
+        payload.get(compressed);
+        return Frame.decode(ByteBuffer.wrap(inflate(compressed, innerLength)), innerLength);
+    }
+
+    /**
+     * Reads a relayed file and discards its contents. A file the node sends compressed is decompressed.
+     *
+     * @return header of the file
+     *
+     * @throws IOException when reading fails or the node closed the connection
+     *
+     * @author Albert Veldman
+     */
+    public FileHeader readFile() throws IOException {
+        Frame frame = readFrame();
+        FileHeader header = FileHeader.decode(frame.getPayload());
+        long remaining = header.getSize();
+        if(frame.getType() == FrameType.COMPRESSED_FILE) {
+            ByteBuffer sizes = ByteBuffer.allocate(8);
+            while(remaining > 0) {
+                sizes.clear();
+                readFully(sizes);
+                int size = sizes.getInt(0);
+                ByteBuffer block = ByteBuffer.allocate(sizes.getInt(4));
+                readFully(block);
+                if(block.capacity() != size) {
+                    inflate(block.array(), size);
+                }
+                remaining -= size;
+            }
+            return header;
+        }
+        while(remaining > 0) {
+            readBuffer.clear();
+            if(readBuffer.capacity() > remaining) {
+                readBuffer.limit((int) remaining);
+            }
+            if(channel.read(readBuffer) == -1) {
+                throw new EOFException("Connection closed during file");
+            }
+            remaining -= readBuffer.position();
+        }
+        return header;
+    }
+
+    /**
+     * Get the codec the node picked.
+     *
+     * @return codec, NONE when no codec was negotiated
+     *
+     * @author Albert Veldman
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Get the nickname of this endpoint.
+     *
+     * @return nickname
+     *
+     * @author Albert Veldman
+     */
+    public String getNickname() {
+        return nickname;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Creates the contents of a chunk of a chunked file.
+     *
+     * @param index index of the chunk
+     * @param length size of the chunk
+     *
+     * @return chunk contents in read mode
+     *
+     * @author Albert Veldman
+     */
+    private static ByteBuffer chunk(int index, int length) {
+        ByteBuffer chunk = ByteBuffer.allocate(length);
+        for (int i = 0; i + 4 <= length; i += 4) {
+            chunk.putInt(i, index);
+        }
+        return chunk;
+    }
+
+    /**
+     * Hashes the contents of a chunk.
+     *
+     * @param chunk chunk contents, its position is not changed
+     *
+     * @return SHA-256 hash
+     *
+     * @author Albert Veldman
+     */
+    private static byte[] hash(ByteBuffer chunk) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(chunk.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Inflates bytes the node deflated.
+     *
+     * @param compressed deflated bytes
+     * @param length expected number of inflated bytes
+     *
+     * @return inflated bytes
+     *
+     * @throws IOException when the bytes don't inflate to length bytes
+     *
+     * @author Albert Veldman
+     */
+    private byte[] inflate(byte[] compressed, int length) throws IOException {
+        byte[] inflated = new byte[length];
+        inflater.reset();
+        inflater.setInput(compressed);
+        int size = 0;
+        try {
+            while(size < length && !inflater.needsInput() && !inflater.finished()) {
+                size += inflater.inflate(inflated, size, length - size);
+            }
+        } catch (DataFormatException exception) {
+            throw new IOException("Node sent malformed compressed data", exception);
+        }
+        if(size != length) {
+            throw new IOException("Compressed data doesn't match its length");
+        }
+        return inflated;
+    }
+
+    /**
+     * Writes the whole buffer.
+     *
+     * @param buffer buffer to write
+     *
+     * @throws IOException when writing fails
+     *
+     * @author Albert Veldman
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads until the buffer is full.
+     *
+     * @param buffer buffer to fill
+     *
+     * @throws IOException when reading fails or the node closed the connection
+     *
+     * @author Albert Veldman
+     */
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer) == -1) {
+                throw new EOFException("Connection closed by node");
+            }
+        }
+    }
+}
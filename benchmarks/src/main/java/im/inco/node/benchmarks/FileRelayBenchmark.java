@@ -0,0 +1,107 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.receive.PortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to relay a file over the file port of the node, from the first byte sent until the last byte is
+ * received by the recipient. The file passes through the relay directory on disk, so the result includes
+ * the disk throughput of the machine.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FileRelayBenchmark {
+    /**
+     * Size of the relayed file in bytes, from 1 KB to 1 GB
+     */
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long fileSize;
+
+    /**
+     * Node relaying the files
+     */
+    private BenchmarkNode node;
+
+    /**
+     * Endpoint sending the files
+     */
+    private FakeEndpoint alice;
+
+    /**
+     * Endpoint receiving the files
+     */
+    private FakeEndpoint bob;
+
+    /**
+     * Contents repeated to fill the file
+     */
+    private ByteBuffer chunk;
+
+    /**
+     * Starts the node and connects both endpoints to the file port.
+     *
+     * @throws IOException when the node can't be started
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = new BenchmarkNode();
+        alice = new FakeEndpoint(node.getFilePort(), "alice");
+        bob = new FakeEndpoint(node.getFilePort(), "bob");
+        node.awaitAttached("alice", PortType.FILE);
+        node.awaitAttached("bob", PortType.FILE);
+        chunk = ByteBuffer.allocateDirect(256 * 1024);
+    }
+
+    /**
+     * Disconnects both endpoints and stops the node.
+     *
+     * @throws Exception when the node can't be stopped
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        alice.close();
+        bob.close();
+        node.stop();
+    }
+
+    /**
+     * Uploads a file for bob and waits until bob received all of it.
+     *
+     * @return size of the received file
+     *
+     * @throws IOException when relaying fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public long relayFile() throws IOException {
+        alice.sendFile("bob", "benchmark.bin", fileSize, chunk);
+        return bob.readFile().getSize();
+    }
+}
@@ -0,0 +1,136 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.logging.AsyncLog;
+import im.inco.node.logging.interfaces.ILogSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time 4 threads spend logging a line: formatting it and printing it to a shared stream on the calling thread,
+ * as the node used to, against handing it to the asynchronous log, and a line below the log level. The output
+ * is discarded, so this measures formatting and contention, not the console.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class LoggingBenchmark {
+    /**
+     * Message of the logged line
+     */
+    private static final String MESSAGE = "Relayed message from alice to bob";
+
+    /**
+     * Stream the synchronous lines are printed to
+     */
+    private PrintStream stream;
+
+    /**
+     * Asynchronous log writing to a discarding sink
+     */
+    private AsyncLog log;
+
+    /**
+     * Creates the stream and starts the log.
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        stream = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                // discarded
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                // discarded
+            }
+        }, true);
+        log = new AsyncLog(AsyncLog.DEFAULT_CAPACITY, new ILogSink() {
+            @Override
+            public void write(CharSequence line) {
+                // discarded
+            }
+
+            @Override
+            public void flush() {
+                // nothing buffered
+            }
+
+            @Override
+            public void close() {
+                // nothing to close
+            }
+        });
+        log.start();
+    }
+
+    /**
+     * Stops the log.
+     *
+     * @throws InterruptedException when interrupted while waiting for the writer
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        log.close(1000);
+    }
+
+    /**
+     * Formats the line with a new calendar and date format and prints it on the calling thread.
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public void synchronousLine() {
+        Calendar calendar = Calendar.getInstance();
+        SimpleDateFormat df = new SimpleDateFormat("HH:mm:ss");
+        String time = ("[" + df.format(calendar.getTime()) + "] ");
+        stream.println(time + "INFO: " + MESSAGE);
+    }
+
+    /**
+     * Hands the line to the asynchronous log.
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public void asynchronousLine() {
+        log.log(java.util.logging.Level.INFO, MESSAGE);
+    }
+
+    /**
+     * Logs a line below the level of the log, which is filtered before anything is recorded.
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public void filteredLine() {
+        log.log(java.util.logging.Level.FINE, MESSAGE);
+    }
+}
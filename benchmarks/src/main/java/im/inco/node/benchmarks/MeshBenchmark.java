@@ -0,0 +1,127 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.receive.PortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip latency of a message between two endpoints on different nodes of a mesh, compared to two
+ * endpoints on the same node. Across nodes every message is relayed by the node of the sender, forwarded over
+ * the link and relayed again by the node of the recipient.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MeshBenchmark {
+    /**
+     * Whether bob is connected to the node of alice or to the other node of the mesh
+     */
+    @Param({"false", "true"})
+    public boolean crossNode;
+
+    /**
+     * Size of the message payload in bytes
+     */
+    @Param({"64", "16384"})
+    public int payloadSize;
+
+    /**
+     * Node alice is connected to
+     */
+    private BenchmarkNode first;
+
+    /**
+     * Other node of the mesh
+     */
+    private BenchmarkNode second;
+
+    /**
+     * Endpoint sending the messages
+     */
+    private FakeEndpoint alice;
+
+    /**
+     * Endpoint answering the messages
+     */
+    private FakeEndpoint bob;
+
+    /**
+     * Message payload
+     */
+    private ByteBuffer payload;
+
+    /**
+     * Starts two linked nodes and connects both endpoints.
+     *
+     * @throws IOException when the nodes can't be started
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        first = new BenchmarkNode(1, "first");
+        second = new BenchmarkNode(1, "second");
+        first.linkTo(second);
+        BenchmarkNode bobNode = crossNode ? second : first;
+        alice = new FakeEndpoint(first.getMessagePort(), "alice");
+        bob = new FakeEndpoint(bobNode.getMessagePort(), "bob");
+        first.awaitAttached("alice", PortType.MESSAGE);
+        bobNode.awaitAttached("bob", PortType.MESSAGE);
+        if(crossNode) {
+            first.awaitRoute("bob");
+            second.awaitRoute("alice");
+        }
+        payload = ByteBuffer.allocateDirect(payloadSize);
+    }
+
+    /**
+     * Disconnects both endpoints and stops the nodes.
+     *
+     * @throws Exception when a node can't be stopped
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        alice.close();
+        bob.close();
+        first.stop();
+        second.stop();
+    }
+
+    /**
+     * Relays a message to bob and the answer back to alice.
+     *
+     * @return size of the answer
+     *
+     * @throws IOException when relaying fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public int roundTrip() throws IOException {
+        alice.sendMessage("bob", payload);
+        bob.sendMessage("alice", bob.readFrame().getPayload());
+        return alice.readFrame().getPayload().remaining();
+    }
+}
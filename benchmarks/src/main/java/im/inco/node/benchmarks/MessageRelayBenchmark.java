@@ -0,0 +1,107 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.receive.PortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip latency of a message relayed by the node over loopback. One endpoint sends a message to a
+ * second endpoint, which answers with the same message.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MessageRelayBenchmark {
+    /**
+     * Size of the message payload in bytes
+     */
+    @Param({"64", "1024", "16384", "262144"})
+    public int payloadSize;
+
+    /**
+     * Node relaying the messages
+     */
+    private BenchmarkNode node;
+
+    /**
+     * Endpoint sending the messages
+     */
+    private FakeEndpoint alice;
+
+    /**
+     * Endpoint answering the messages
+     */
+    private FakeEndpoint bob;
+
+    /**
+     * Message payload
+     */
+    private ByteBuffer payload;
+
+    /**
+     * Starts the node and connects both endpoints.
+     *
+     * @throws IOException when the node can't be started
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = new BenchmarkNode();
+        alice = new FakeEndpoint(node.getMessagePort(), "alice");
+        bob = new FakeEndpoint(node.getMessagePort(), "bob");
+        node.awaitAttached("alice", PortType.MESSAGE);
+        node.awaitAttached("bob", PortType.MESSAGE);
+        payload = ByteBuffer.allocateDirect(payloadSize);
+    }
+
+    /**
+     * Disconnects both endpoints and stops the node.
+     *
+     * @throws Exception when the node can't be stopped
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        alice.close();
+        bob.close();
+        node.stop();
+    }
+
+    /**
+     * Relays a message to bob and the answer back to alice.
+     *
+     * @return size of the answer
+     *
+     * @throws IOException when relaying fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public int roundTrip() throws IOException {
+        alice.sendMessage("bob", payload);
+        bob.sendMessage("alice", bob.readFrame().getPayload());
+        return alice.readFrame().getPayload().remaining();
+    }
+}
@@ -0,0 +1,206 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.admission.RateLimits;
+import im.inco.node.receive.PortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip latency of a pair of endpoints on the message port while other endpoints relay large files over
+ * the file port of the same receive loop, without and with a bulk rate. Compare the high percentiles of the
+ * samples.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriorityBenchmark {
+    /**
+     * Size of the message payload in bytes
+     */
+    private static final int PAYLOAD_SIZE = 1024;
+
+    /**
+     * Size of every relayed file in bytes
+     */
+    private static final long FILE_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Number of endpoint pairs relaying files
+     */
+    private static final int TRANSFERS = 4;
+
+    /**
+     * Bytes per second the file port may receive and send together, 0 for unlimited
+     */
+    @Param({"0", "104857600"})
+    public long bulkBytesPerSecond;
+
+    /**
+     * Node relaying the messages and files
+     */
+    private BenchmarkNode node;
+
+    /**
+     * Endpoint sending the messages
+     */
+    private FakeEndpoint first;
+
+    /**
+     * Endpoint answering the messages
+     */
+    private FakeEndpoint second;
+
+    /**
+     * Endpoints sending and receiving the files
+     */
+    private final List<FakeEndpoint> fileEndpoints = new ArrayList<>();
+
+    /**
+     * Threads sending and receiving the files
+     */
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * Message payload
+     */
+    private ByteBuffer payload;
+
+    /**
+     * Starts the node, connects the endpoints and starts the file transfers.
+     *
+     * @throws IOException when the node can't be started
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = new BenchmarkNode();
+        node.getAdmission().setLimits(new RateLimits(0, 0, 0, 0, 0, bulkBytesPerSecond));
+        first = new FakeEndpoint(node.getMessagePort(), "first");
+        second = new FakeEndpoint(node.getMessagePort(), "second");
+        node.awaitAttached(first.getNickname(), PortType.MESSAGE);
+        node.awaitAttached(second.getNickname(), PortType.MESSAGE);
+        final ByteBuffer chunk = ByteBuffer.allocateDirect(256 * 1024);
+        for (int i = 0; i < TRANSFERS; i++) {
+            final FakeEndpoint source = new FakeEndpoint(node.getFilePort(), "source" + i);
+            final FakeEndpoint target = new FakeEndpoint(node.getFilePort(), "target" + i);
+            node.awaitAttached(source.getNickname(), PortType.FILE);
+            node.awaitAttached(target.getNickname(), PortType.FILE);
+            fileEndpoints.add(source);
+            fileEndpoints.add(target);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sendFiles(source, target.getNickname(), chunk);
+                }
+            }, source.getNickname()));
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    receiveFiles(target);
+                }
+            }, target.getNickname()));
+        }
+        payload = ByteBuffer.allocateDirect(PAYLOAD_SIZE);
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the file transfers, disconnects the endpoints and stops the node.
+     *
+     * @throws Exception when the node can't be stopped
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (FakeEndpoint endpoint : fileEndpoints) {
+            endpoint.close();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        first.close();
+        second.close();
+        node.stop();
+    }
+
+    /**
+     * Relays a message from the first endpoint to the second and back.
+     *
+     * @return size of the answer
+     *
+     * @throws IOException when relaying fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public int roundTrip() throws IOException {
+        first.sendMessage(second.getNickname(), payload);
+        second.sendMessage(first.getNickname(), second.readFrame().getPayload());
+        return first.readFrame().getPayload().remaining();
+    }
+
+    /**
+     * Sends files to a recipient until the sender is closed.
+     *
+     * @param source endpoint sending the files
+     * @param recipient nickname of the recipient
+     * @param chunk contents that are repeated in every file
+     *
+     * @author Albert Veldman
+     */
+    private static void sendFiles(FakeEndpoint source, String recipient, ByteBuffer chunk) {
+        try {
+            for (int i = 0; !Thread.currentThread().isInterrupted(); i++) {
+                source.sendFile(recipient, "file-" + i, FILE_SIZE, chunk);
+            }
+        } catch (IOException exception) {
+            // the sender was closed
+        }
+    }
+
+    /**
+     * Reads files until the recipient is closed.
+     *
+     * @param target endpoint receiving the files
+     *
+     * @author Albert Veldman
+     */
+    private static void receiveFiles(FakeEndpoint target) {
+        try {
+            while(true) {
+                target.readFile();
+            }
+        } catch (IOException exception) {
+            // the recipient was closed
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.mesh.RouteCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route lookups from four threads against a route cache that holds a fraction of the recipients. Recipients
+ * are drawn from a Zipf distribution, like the few busy and many quiet endpoints of a real mesh; a lookup that
+ * misses learns the route, as the answer to a LOCATE would.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(4)
+@Fork(1)
+public class RouteCacheBenchmark {
+    /**
+     * Number of distinct recipients
+     */
+    private static final int RECIPIENTS = 100000;
+
+    /**
+     * Skew of the recipient distribution
+     */
+    private static final double ZIPF_EXPONENT = 0.9;
+
+    /**
+     * Maximum number of cached routes
+     */
+    @Param({"1000", "10000", "100000"})
+    public int cacheSize;
+
+    /**
+     * Cache under test
+     */
+    private RouteCache routes;
+
+    /**
+     * Nickname of every recipient
+     */
+    private String[] nicknames;
+
+    /**
+     * Cumulative probability of every recipient
+     */
+    private double[] distribution;
+
+    /**
+     * Creates the cache and the recipient distribution.
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        routes = new RouteCache(RouteCache.DEFAULT_TTL_MILLIS, cacheSize, RouteCache.DEFAULT_NEGATIVE_TTL_MILLIS);
+        nicknames = new String[RECIPIENTS];
+        distribution = new double[RECIPIENTS];
+        double sum = 0;
+        for (int i = 0; i < RECIPIENTS; i++) {
+            nicknames[i] = "endpoint-" + i;
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            distribution[i] = sum;
+        }
+        for (int i = 0; i < RECIPIENTS; i++) {
+            distribution[i] /= sum;
+        }
+    }
+
+    /**
+     * Looks up the route of a recipient and learns it when it is missing.
+     *
+     * @param recipients source of the recipients of one thread
+     *
+     * @return the node of the recipient
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public String lookup(Recipients recipients) {
+        String nickname = nicknames[recipients.next(distribution)];
+        String node = routes.get(nickname);
+        if(node == null) {
+            node = "node";
+            routes.put(nickname, node);
+        }
+        return node;
+    }
+
+    /**
+     * Recipients drawn by one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Recipients {
+        /**
+         * Source of the draws
+         */
+        private final Random random = new Random();
+
+        /**
+         * Draws a recipient.
+         *
+         * @param distribution cumulative probability of every recipient
+         *
+         * @return index of the recipient
+         *
+         * @author Albert Veldman
+         */
+        int next(double[] distribution) {
+            double draw = random.nextDouble();
+            int low = 0;
+            int high = distribution.length - 1;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(distribution[middle] < draw) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
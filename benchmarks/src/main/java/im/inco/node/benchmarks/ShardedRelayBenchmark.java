@@ -0,0 +1,153 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.receive.PortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Message throughput of a node with a growing number of receive loops. Every benchmark thread owns a pair of
+ * endpoints that relay a message back and forth, so the pairs only share the node.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(8)
+@Fork(1)
+public class ShardedRelayBenchmark {
+    /**
+     * Size of the message payload in bytes
+     */
+    private static final int PAYLOAD_SIZE = 1024;
+
+    /**
+     * Number of loops serving the connections of the node
+     */
+    @Param({"1", "2", "4", "8"})
+    public int receiveLoops;
+
+    /**
+     * Node relaying the messages
+     */
+    private BenchmarkNode node;
+
+    /**
+     * Used to give every benchmark thread its own endpoints
+     */
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Starts the node.
+     *
+     * @throws IOException when the node can't be started
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = new BenchmarkNode(receiveLoops);
+    }
+
+    /**
+     * Stops the node.
+     *
+     * @throws Exception when the node can't be stopped
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        node.stop();
+    }
+
+    /**
+     * Relays a message from the first endpoint of the pair to the second and back.
+     *
+     * @param pair endpoints of the benchmark thread
+     *
+     * @return size of the answer
+     *
+     * @throws IOException when relaying fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public int roundTrip(Pair pair) throws IOException {
+        pair.first.sendMessage(pair.second.getNickname(), pair.payload);
+        pair.second.sendMessage(pair.first.getNickname(), pair.second.readFrame().getPayload());
+        return pair.first.readFrame().getPayload().remaining();
+    }
+
+    /**
+     * Endpoints used by one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Pair {
+        /**
+         * Endpoint sending the messages
+         */
+        private FakeEndpoint first;
+
+        /**
+         * Endpoint answering the messages
+         */
+        private FakeEndpoint second;
+
+        /**
+         * Message payload
+         */
+        private ByteBuffer payload;
+
+        /**
+         * Connects the endpoints of the thread.
+         *
+         * @param benchmark the benchmark state
+         *
+         * @throws IOException when connecting fails
+         *
+         * @author Albert Veldman
+         */
+        @Setup(Level.Trial)
+        public void setup(ShardedRelayBenchmark benchmark) throws IOException {
+            int pair = benchmark.threadCount.incrementAndGet();
+            first = new FakeEndpoint(benchmark.node.getMessagePort(), "pair-" + pair + "-a");
+            second = new FakeEndpoint(benchmark.node.getMessagePort(), "pair-" + pair + "-b");
+            benchmark.node.awaitAttached(first.getNickname(), PortType.MESSAGE);
+            benchmark.node.awaitAttached(second.getNickname(), PortType.MESSAGE);
+            payload = ByteBuffer.allocateDirect(PAYLOAD_SIZE);
+        }
+
+        /**
+         * Disconnects the endpoints of the thread.
+         *
+         * @throws IOException when disconnecting fails
+         *
+         * @author Albert Veldman
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            first.close();
+            second.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package im.inco.node.benchmarks;
+
+import im.inco.node.receive.PortType;
+import im.inco.node.relay.RelayDispatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip latency of messages between endpoint pairs spread over the tenants of one node. Every tenant has
+ * its own ports and dispatcher and an alice and bob of its own, all tenants share the receive loop and buffer
+ * pool of the node; the pairs take turns, so every invocation relays through the next tenant.
+ *
+ * @author Albert Veldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TenantBenchmark {
+    /**
+     * Number of tenants hosted by the node
+     */
+    @Param({"1", "16", "128"})
+    public int tenants;
+
+    /**
+     * Node hosting the tenants
+     */
+    private BenchmarkNode node;
+
+    /**
+     * Endpoint sending the messages, per tenant
+     */
+    private FakeEndpoint[] alices;
+
+    /**
+     * Endpoint answering the messages, per tenant
+     */
+    private FakeEndpoint[] bobs;
+
+    /**
+     * Message payload
+     */
+    private ByteBuffer payload;
+
+    /**
+     * Tenant relaying the next round trip
+     */
+    private int next;
+
+    /**
+     * Starts the node, hosts the tenants and connects a pair of endpoints to every tenant.
+     *
+     * @throws IOException when the node or a tenant can't be started
+     *
+     * @author Albert Veldman
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = new BenchmarkNode();
+        alices = new FakeEndpoint[tenants];
+        bobs = new FakeEndpoint[tenants];
+        for (int i = 0; i < tenants; i++) {
+            int messagePort = BenchmarkNode.freePort();
+            RelayDispatcher tenant = node.hostTenant(messagePort, BenchmarkNode.freePort());
+            alices[i] = new FakeEndpoint(messagePort, "alice");
+            bobs[i] = new FakeEndpoint(messagePort, "bob");
+            awaitAttached(tenant, "alice");
+            awaitAttached(tenant, "bob");
+        }
+        payload = ByteBuffer.allocateDirect(1024);
+    }
+
+    /**
+     * Disconnects all endpoints and stops the node.
+     *
+     * @throws Exception when the node can't be stopped
+     *
+     * @author Albert Veldman
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (int i = 0; i < tenants; i++) {
+            alices[i].close();
+            bobs[i].close();
+        }
+        node.stop();
+    }
+
+    /**
+     * Relays a message to bob and the answer back to alice, through the next tenant.
+     *
+     * @return size of the answer
+     *
+     * @throws IOException when relaying fails
+     *
+     * @author Albert Veldman
+     */
+    @Benchmark
+    public int roundTrip() throws IOException {
+        FakeEndpoint alice = alices[next];
+        FakeEndpoint bob = bobs[next];
+        next = (next + 1) % tenants;
+        alice.sendMessage("bob", payload);
+        bob.sendMessage("alice", bob.readFrame().getPayload());
+        return alice.readFrame().getPayload().remaining();
+    }
+
+    /**
+     * Waits until an endpoint is connected to the message port of a tenant.
+     *
+     * @param tenant dispatcher of the tenant
+     * @param nickname nickname of the endpoint
+     *
+     * @author Albert Veldman
+     */
+    private static void awaitAttached(RelayDispatcher tenant, String nickname) {
+        while(tenant.getEndpoints().getConnection(nickname, PortType.MESSAGE) == null) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package im.inco.node.benchmarks.load;
+
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.protocol.FileHeader;
+import im.inco.node.protocol.Frame;
+import im.inco.node.protocol.FrameDecoder;
+import im.inco.node.protocol.FrameType;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * A non-blocking connection of a simulated endpoint to the message or file port of the node. Only the loop
+ * that owns it uses it.
+ *
+ * @author Albert Veldman
+ */
+class LoadConnection {
+    /**
+     * Unwritten bytes above which new sends are dropped instead of queued
+     */
+    private static final long MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Largest frame accepted from the node
+     */
+    private static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * Nickname of the endpoint
+     */
+    private final String nickname;
+
+    /**
+     * Whether this connection is to the file port
+     */
+    private final boolean filePort;
+
+    /**
+     * Counters of the load test
+     */
+    private final LoadStats stats;
+
+    /**
+     * Decodes the frames from the node
+     */
+    private final FrameDecoder decoder;
+
+    /**
+     * Buffers waiting to be written
+     */
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+
+    /**
+     * Bytes waiting to be written
+     */
+    private long pendingBytes;
+
+    /**
+     * The channel
+     */
+    private SocketChannel channel;
+
+    /**
+     * Key of the channel
+     */
+    private SelectionKey key;
+
+    /**
+     * Whether the connection is open and announced
+     */
+    private boolean open;
+
+    /**
+     * Bytes of the file being received that didn't arrive yet
+     */
+    private long fileRemaining;
+
+    /**
+     * Time the file being received was scheduled
+     */
+    private long fileScheduled;
+
+    /**
+     * Creates a connection, call connect to open it.
+     *
+     * @param nickname nickname of the endpoint
+     * @param filePort whether the connection is to the file port
+     * @param stats counters of the load test
+     * @param pool pool the read buffer is leased from
+     *
+     * @author Albert Veldman
+     */
+    LoadConnection(String nickname, boolean filePort, LoadStats stats, BufferPool pool) {
+        this.nickname = nickname;
+        this.filePort = filePort;
+        this.stats = stats;
+        decoder = new FrameDecoder(MAX_FRAME_LENGTH, pool);
+    }
+
+    /**
+     * Starts connecting.
+     *
+     * @param address address of the node port
+     * @param selector selector of the loop
+     *
+     * @author Albert Veldman
+     */
+    void connect(SocketAddress address, Selector selector) {
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            key = channel.register(selector, 0, this);
+            if(channel.connect(address)) {
+                connected();
+            }
+            else {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException exception) {
+            stats.connectFailed();
+            close();
+        }
+    }
+
+    /**
+     * Handles the ready operations of the channel.
+     *
+     * @author Albert Veldman
+     */
+    void handle() {
+        try {
+            if(key.isConnectable()) {
+                if(channel.finishConnect()) {
+                    connected();
+                }
+                return;
+            }
+            if(key.isWritable()) {
+                flush();
+            }
+            if(key.isValid() && key.isReadable()) {
+                read();
+            }
+        } catch (ProtocolException exception) {
+            stats.protocolError();
+            close();
+        } catch (IOException exception) {
+            if(open) {
+                stats.disconnected();
+            }
+            else {
+                stats.connectFailed();
+            }
+            close();
+        }
+    }
+
+    /**
+     * Queues a frame, or drops it when too much is waiting to be written.
+     *
+     * @param buffers encoded frame, followed by raw bytes for a file
+     *
+     * @return false when the frame was dropped
+     *
+     * @author Albert Veldman
+     */
+    boolean send(ByteBuffer... buffers) {
+        if(!open || pendingBytes > MAX_PENDING_BYTES) {
+            return false;
+        }
+        boolean idle = outbound.isEmpty();
+        for (ByteBuffer buffer : buffers) {
+            outbound.add(buffer);
+            pendingBytes += buffer.remaining();
+        }
+        if(idle) {
+            try {
+                flush();
+            } catch (IOException exception) {
+                stats.disconnected();
+                close();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get whether the connection is open and announced.
+     *
+     * @return true when open
+     *
+     * @author Albert Veldman
+     */
+    boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Closes the connection.
+     *
+     * @author Albert Veldman
+     */
+    void close() {
+        open = false;
+        outbound.clear();
+        pendingBytes = 0;
+        decoder.release();
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                // closing anyway
+            }
+        }
+    }
+
+    /**
+     * Announces the nickname once the channel is connected.
+     *
+     * @author Albert Veldman
+     */
+    private void connected() {
+        open = true;
+        stats.connected();
+        key.interestOps(SelectionKey.OP_READ);
+        send(new Frame(FrameType.HELLO, nickname, "", ByteBuffer.allocate(0)).encode());
+    }
+
+    /**
+     * Writes the queued buffers until the channel is full.
+     *
+     * @throws IOException when writing fails
+     *
+     * @author Albert Veldman
+     */
+    private void flush() throws IOException {
+        while(!outbound.isEmpty()) {
+            ByteBuffer head = outbound.peek();
+            pendingBytes -= channel.write(head);
+            if(head.hasRemaining()) {
+                break;
+            }
+            outbound.poll();
+        }
+        key.interestOps(outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Reads what the node sent and counts the delivered messages and files.
+     *
+     * @throws IOException when reading fails, the node closed the connection or sent a malformed frame
+     *
+     * @author Albert Veldman
+     */
+    private void read() throws IOException {
+        if(channel.read(decoder.getReadBuffer()) == -1) {
+            throw new IOException("Connection closed by node");
+        }
+        long now = System.nanoTime();
+        while(true) {
+            if(fileRemaining > 0) {
+                int count = (int) Math.min(decoder.buffered().remaining(), fileRemaining);
+                decoder.skip(count);
+                fileRemaining -= count;
+                if(fileRemaining > 0) {
+                    break;
+                }
+                stats.fileDelivered(fileScheduled, now);
+            }
+            Frame frame = decoder.next();
+            if(frame == null) {
+                break;
+            }
+            if(frame.getType() == FrameType.MESSAGE && !filePort) {
+                ByteBuffer payload = frame.getPayload();
+                if(payload.remaining() >= 8) {
+                    stats.messageDelivered(payload.getLong(payload.position()), payload.remaining(), now);
+                }
+            }
+            else if(frame.getType() == FrameType.FILE && filePort) {
+                FileHeader header = FileHeader.decode(frame.getPayload());
+                fileScheduled = LoadLoop.scheduledOf(header.getName());
+                fileRemaining = header.getSize();
+                if(fileRemaining == 0) {
+                    stats.fileDelivered(fileScheduled, now);
+                }
+            }
+        }
+        decoder.releaseIfEmpty();
+    }
+}
@@ -0,0 +1,388 @@
+package im.inco.node.benchmarks.load;
+
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.protocol.FileHeader;
+import im.inco.node.protocol.Frame;
+import im.inco.node.protocol.FrameType;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One thread serving a share of the simulated endpoints from a selector. Sends are scheduled at a fixed rate
+ * whatever the node does, and a send that is late is still stamped with its scheduled time. Sends that are
+ * still due when sending stops are counted as late.
+ *
+ * @author Albert Veldman
+ */
+class LoadLoop implements Runnable {
+    /**
+     * Prefix of the names of the sent files, followed by the time they were scheduled
+     */
+    private static final String FILE_NAME_PREFIX = "load-";
+
+    /**
+     * Largest number of sends per pass, so reading isn't starved while catching up
+     */
+    private static final int MAX_SENDS_PER_PASS = 1024;
+
+    /**
+     * Contents of the sent files, repeated until the file size is reached
+     */
+    private static final ByteBuffer FILE_CONTENTS = ByteBuffer.allocateDirect(64 * 1024).asReadOnlyBuffer();
+
+    /**
+     * Options of the load test
+     */
+    private final LoadTestOptions options;
+
+    /**
+     * Address of the message port
+     */
+    private final SocketAddress messageAddress;
+
+    /**
+     * Address of the file port
+     */
+    private final SocketAddress fileAddress;
+
+    /**
+     * Number of the first endpoint of this loop
+     */
+    private final int first;
+
+    /**
+     * Message port connections of the endpoints of this loop
+     */
+    private final LoadConnection[] messageConnections;
+
+    /**
+     * File port connections of the endpoints of this loop
+     */
+    private final LoadConnection[] fileConnections;
+
+    /**
+     * Time between two messages of this loop, 0 when it sends no messages
+     */
+    private final long messageInterval;
+
+    /**
+     * Time between two files of this loop, 0 when it sends no files
+     */
+    private final long fileInterval;
+
+    /**
+     * Counters of the load test
+     */
+    private final LoadStats stats;
+
+    /**
+     * Picks sizes, fan-outs and recipients
+     */
+    private final Random random;
+
+    /**
+     * Selector of the connections
+     */
+    private final Selector selector;
+
+    /**
+     * Whether the endpoints should send
+     */
+    private volatile boolean sending;
+
+    /**
+     * Whether the loop should keep running
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Scheduled time of the next message
+     */
+    private long nextMessage;
+
+    /**
+     * Scheduled time of the next file
+     */
+    private long nextFile;
+
+    /**
+     * Endpoint sending the next message
+     */
+    private int nextMessageSender;
+
+    /**
+     * Endpoint sending the next file
+     */
+    private int nextFileSender;
+
+    /**
+     * Creates a loop, the endpoints connect when it runs.
+     *
+     * @param options options of the load test
+     * @param messageAddress address of the message port
+     * @param fileAddress address of the file port
+     * @param first number of the first endpoint of this loop
+     * @param count number of endpoints of this loop
+     * @param stats counters of the load test
+     * @param pool pool the read buffers are leased from
+     *
+     * @throws IOException when the selector can't be opened
+     *
+     * @author Albert Veldman
+     */
+    LoadLoop(LoadTestOptions options, SocketAddress messageAddress, SocketAddress fileAddress, int first,
+             int count, LoadStats stats, BufferPool pool) throws IOException {
+        this.options = options;
+        this.messageAddress = messageAddress;
+        this.fileAddress = fileAddress;
+        this.first = first;
+        this.stats = stats;
+        messageConnections = new LoadConnection[count];
+        fileConnections = new LoadConnection[count];
+        for (int i = 0; i < count; i++) {
+            messageConnections[i] = new LoadConnection(options.getNickname(first + i), false, stats, pool);
+            fileConnections[i] = new LoadConnection(options.getNickname(first + i), true, stats, pool);
+        }
+        messageInterval = interval(options.getRate() * count);
+        fileInterval = interval(options.getFilesPerSecond() * count / options.getEndpoints());
+        random = new Random(first);
+        selector = Selector.open();
+    }
+
+    /**
+     * Starts or stops sending.
+     *
+     * @param sending whether the endpoints should send
+     *
+     * @author Albert Veldman
+     */
+    void setSending(boolean sending) {
+        this.sending = sending;
+        selector.wakeup();
+    }
+
+    /**
+     * Lets the loop close the connections and stop.
+     *
+     * @author Albert Veldman
+     */
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the time a sent file was scheduled, from its name.
+     *
+     * @param name name of the file
+     *
+     * @return scheduled time in System.nanoTime, or Long.MIN_VALUE when the file wasn't sent by a load test
+     *
+     * @author Albert Veldman
+     */
+    static long scheduledOf(String name) {
+        if(!name.startsWith(FILE_NAME_PREFIX)) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return Long.parseLong(name.substring(FILE_NAME_PREFIX.length()));
+        } catch (NumberFormatException exception) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Connects the endpoints, then sends and reads until the loop is stopped.
+     *
+     * @author Albert Veldman
+     */
+    @Override
+    public void run() {
+        for (int i = 0; i < messageConnections.length; i++) {
+            messageConnections[i].connect(messageAddress, selector);
+            fileConnections[i].connect(fileAddress, selector);
+        }
+        boolean wasSending = false;
+        try {
+            while(running) {
+                long now = System.nanoTime();
+                long timeout = 100;
+                if(sending) {
+                    if(!wasSending) {
+                        // spread the loops over the first interval instead of sending all at once
+                        nextMessage = now + (messageInterval > 0 ? (long) (random.nextDouble() * messageInterval) : 0);
+                        nextFile = now + (fileInterval > 0 ? (long) (random.nextDouble() * fileInterval) : 0);
+                        wasSending = true;
+                    }
+                    timeout = sendDue(now);
+                }
+                else if(wasSending) {
+                    stats.sendsNotMade(nextMessage, messageInterval);
+                    stats.sendsNotMade(nextFile, fileInterval);
+                    wasSending = false;
+                }
+                selector.select(timeout);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(key.isValid()) {
+                        ((LoadConnection) key.attachment()).handle();
+                    }
+                }
+            }
+        } catch (IOException exception) {
+            System.err.println("Load loop failed: " + exception.getMessage());
+        } finally {
+            for (int i = 0; i < messageConnections.length; i++) {
+                messageConnections[i].close();
+                fileConnections[i].close();
+            }
+            try {
+                selector.close();
+            } catch (IOException exception) {
+                // closing anyway
+            }
+        }
+    }
+
+    /**
+     * Sends the messages and files that are due.
+     *
+     * @param now current time
+     *
+     * @return milliseconds until the next send is due, at least 1
+     *
+     * @author Albert Veldman
+     */
+    private long sendDue(long now) {
+        int budget = MAX_SENDS_PER_PASS;
+        while(messageInterval > 0 && nextMessage <= now && budget-- > 0) {
+            sendMessage(nextMessage);
+            nextMessage += messageInterval;
+        }
+        while(fileInterval > 0 && nextFile <= now && budget-- > 0) {
+            sendFile(nextFile);
+            nextFile += fileInterval;
+        }
+        long next = Long.MAX_VALUE;
+        if(messageInterval > 0) {
+            next = nextMessage;
+        }
+        if(fileInterval > 0) {
+            next = Math.min(next, nextFile);
+        }
+        if(next == Long.MAX_VALUE) {
+            return 100;
+        }
+        if(next <= now) {
+            stats.generatorBehind(now, now - next);
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - now));
+    }
+
+    /**
+     * Sends a message from the next endpoint of this loop to recipients picked from all endpoints.
+     *
+     * @param scheduled time the message was scheduled
+     *
+     * @author Albert Veldman
+     */
+    private void sendMessage(long scheduled) {
+        int sender = nextMessageSender;
+        nextMessageSender = (nextMessageSender + 1) % messageConnections.length;
+        LoadConnection connection = messageConnections[sender];
+        int size = Math.max(8, options.getSizes().pick(random));
+        int[] recipients = pickRecipients(first + sender, options.getFanOut().pick(random));
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        payload.putLong(0, scheduled);
+        String nickname = options.getNickname(first + sender);
+        ByteBuffer[] frames = new ByteBuffer[recipients.length];
+        for (int i = 0; i < recipients.length; i++) {
+            frames[i] = new Frame(FrameType.MESSAGE, nickname, options.getNickname(recipients[i]),
+                    payload.duplicate()).encode();
+        }
+        if(connection.send(frames)) {
+            stats.messageSent(scheduled, recipients.length, size);
+        }
+        else {
+            stats.sendDropped(scheduled);
+        }
+    }
+
+    /**
+     * Sends a file from the next endpoint of this loop to a recipient picked from all endpoints.
+     *
+     * @param scheduled time the file was scheduled
+     *
+     * @author Albert Veldman
+     */
+    private void sendFile(long scheduled) {
+        int sender = nextFileSender;
+        nextFileSender = (nextFileSender + 1) % fileConnections.length;
+        int recipient = pickRecipients(first + sender, 1)[0];
+        long size = options.getFileSize();
+        int chunks = (int) ((size + FILE_CONTENTS.capacity() - 1) / FILE_CONTENTS.capacity());
+        ByteBuffer[] buffers = new ByteBuffer[chunks + 1];
+        buffers[0] = new Frame(FrameType.FILE, options.getNickname(first + sender), options.getNickname(recipient),
+                new FileHeader(size, FILE_NAME_PREFIX + scheduled).encode()).encode();
+        long remaining = size;
+        for (int i = 1; i <= chunks; i++) {
+            buffers[i] = FILE_CONTENTS.duplicate();
+            buffers[i].limit((int) Math.min(buffers[i].capacity(), remaining));
+            remaining -= buffers[i].remaining();
+        }
+        if(fileConnections[sender].send(buffers)) {
+            stats.fileSent(scheduled);
+        }
+        else {
+            stats.sendDropped(scheduled);
+        }
+    }
+
+    /**
+     * Picks distinct recipients other than the sender.
+     *
+     * @param sender number of the sending endpoint
+     * @param count number of recipients, below the number of endpoints
+     *
+     * @return numbers of the recipients
+     *
+     * @author Albert Veldman
+     */
+    private int[] pickRecipients(int sender, int count) {
+        int[] recipients = new int[count];
+        int picked = 0;
+        while(picked < count) {
+            int candidate = random.nextInt(options.getEndpoints());
+            boolean taken = candidate == sender;
+            for (int i = 0; i < picked && !taken; i++) {
+                taken = recipients[i] == candidate;
+            }
+            if(!taken) {
+                recipients[picked++] = candidate;
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * Converts a rate to the time between two events.
+     *
+     * @param perSecond events per second
+     *
+     * @return nanoseconds between two events, 0 when the rate is 0
+     *
+     * @author Albert Veldman
+     */
+    private static long interval(double perSecond) {
+        return perSecond > 0 ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond)) : 0;
+    }
+}
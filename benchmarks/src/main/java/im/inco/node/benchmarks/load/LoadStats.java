@@ -0,0 +1,432 @@
+package im.inco.node.benchmarks.load;
+
+import im.inco.node.metrics.LatencyHistogram;
+import im.inco.node.metrics.StatsReport;
+import im.inco.node.metrics.StripedCounter;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies of a load test. Sends and deliveries are only counted for messages and files that
+ * were scheduled inside the measured window, latencies are measured from the time a send was scheduled, so a
+ * node that falls behind shows in the latency instead of lowering the offered load. Sends the generator itself
+ * didn't make before the window ended are counted as late, so a generator that can't keep up doesn't report
+ * an empty window as a clean run.
+ *
+ * @author Albert Veldman
+ */
+public class LoadStats {
+    /**
+     * Largest share of the sends of the window that may be late before the result is flagged as unreliable
+     */
+    private static final double MAX_LATE_FRACTION = 0.1;
+
+    /**
+     * Endpoint connections that are open
+     */
+    private final AtomicInteger connected = new AtomicInteger();
+
+    /**
+     * Endpoint connections that could not be opened
+     */
+    private final StripedCounter connectFailures = new StripedCounter();
+
+    /**
+     * Endpoint connections the node closed or reset
+     */
+    private final StripedCounter disconnects = new StripedCounter();
+
+    /**
+     * Frames from the node that could not be decoded
+     */
+    private final StripedCounter protocolErrors = new StripedCounter();
+
+    /**
+     * Messages and files not sent because the connection had too much unwritten data
+     */
+    private final StripedCounter droppedSends = new StripedCounter();
+
+    /**
+     * Messages and files scheduled inside the measured window that the generator didn't send before it ended
+     */
+    private final StripedCounter lateSends = new StripedCounter();
+
+    /**
+     * Longest time the generator was behind its schedule during the measured window
+     */
+    private final AtomicLong maxGeneratorLag = new AtomicLong();
+
+    /**
+     * Messages sent, one per message whatever its fan-out
+     */
+    private final StripedCounter messagesSent = new StripedCounter();
+
+    /**
+     * Message deliveries expected, one per recipient
+     */
+    private final StripedCounter deliveriesExpected = new StripedCounter();
+
+    /**
+     * Messages delivered to recipients
+     */
+    private final StripedCounter deliveries = new StripedCounter();
+
+    /**
+     * Message bytes sent, counted once per recipient
+     */
+    private final StripedCounter bytesSent = new StripedCounter();
+
+    /**
+     * Message bytes delivered
+     */
+    private final StripedCounter bytesDelivered = new StripedCounter();
+
+    /**
+     * Files sent
+     */
+    private final StripedCounter filesSent = new StripedCounter();
+
+    /**
+     * Files delivered
+     */
+    private final StripedCounter filesDelivered = new StripedCounter();
+
+    /**
+     * Messages sent since the start, measured or not
+     */
+    private final StripedCounter totalSent = new StripedCounter();
+
+    /**
+     * Messages delivered since the start, measured or not
+     */
+    private final StripedCounter totalDelivered = new StripedCounter();
+
+    /**
+     * Time from scheduling a message to its delivery
+     */
+    private final LatencyHistogram messageLatency = new LatencyHistogram();
+
+    /**
+     * Time from scheduling a file to the delivery of its last byte
+     */
+    private final LatencyHistogram fileLatency = new LatencyHistogram();
+
+    /**
+     * Start of the measured window in System.nanoTime
+     */
+    private volatile long windowStart = Long.MAX_VALUE;
+
+    /**
+     * End of the measured window in System.nanoTime
+     */
+    private volatile long windowEnd = Long.MAX_VALUE;
+
+    /**
+     * Sets the measured window.
+     *
+     * @param start start in System.nanoTime
+     * @param end end in System.nanoTime
+     *
+     * @author Albert Veldman
+     */
+    public void setWindow(long start, long end) {
+        windowStart = start;
+        windowEnd = end;
+    }
+
+    /**
+     * Checks whether a send was scheduled inside the measured window.
+     *
+     * @param scheduled time the send was scheduled in System.nanoTime
+     *
+     * @return true when it is measured
+     *
+     * @author Albert Veldman
+     */
+    public boolean isMeasured(long scheduled) {
+        return scheduled >= windowStart && scheduled < windowEnd;
+    }
+
+    /**
+     * Counts an opened connection.
+     *
+     * @author Albert Veldman
+     */
+    public void connected() {
+        connected.incrementAndGet();
+    }
+
+    /**
+     * Counts a connection that could not be opened.
+     *
+     * @author Albert Veldman
+     */
+    public void connectFailed() {
+        connectFailures.increment();
+    }
+
+    /**
+     * Counts a connection the node closed.
+     *
+     * @author Albert Veldman
+     */
+    public void disconnected() {
+        connected.decrementAndGet();
+        disconnects.increment();
+    }
+
+    /**
+     * Counts a frame that could not be decoded.
+     *
+     * @author Albert Veldman
+     */
+    public void protocolError() {
+        protocolErrors.increment();
+    }
+
+    /**
+     * Counts a send that was dropped.
+     *
+     * @param scheduled time the send was scheduled
+     *
+     * @author Albert Veldman
+     */
+    public void sendDropped(long scheduled) {
+        if(isMeasured(scheduled)) {
+            droppedSends.increment();
+        }
+    }
+
+    /**
+     * Counts the sends of a schedule that fall inside the measured window and were not made, because sending
+     * stopped before the generator caught up.
+     *
+     * @param next scheduled time of the first send that was not made
+     * @param interval time between two sends, 0 when nothing is sent
+     *
+     * @author Albert Veldman
+     */
+    public void sendsNotMade(long next, long interval) {
+        if(interval <= 0 || next >= windowEnd) {
+            return;
+        }
+        long first = next;
+        if(first < windowStart) {
+            first += (windowStart - first + interval - 1) / interval * interval;
+        }
+        if(first < windowEnd) {
+            lateSends.add((windowEnd - first + interval - 1) / interval);
+        }
+    }
+
+    /**
+     * Records how far the generator is behind its schedule, when it is inside the measured window.
+     *
+     * @param now current time
+     * @param lag time since the oldest send that is due but not made
+     *
+     * @author Albert Veldman
+     */
+    public void generatorBehind(long now, long lag) {
+        if(now < windowStart || now >= windowEnd) {
+            return;
+        }
+        long max = maxGeneratorLag.get();
+        while(lag > max && !maxGeneratorLag.compareAndSet(max, lag)) {
+            max = maxGeneratorLag.get();
+        }
+    }
+
+    /**
+     * Checks whether the generator made too few of the sends scheduled in the measured window for the result
+     * to tell anything about the node.
+     *
+     * @return true when more than a tenth of the sends were late
+     *
+     * @author Albert Veldman
+     */
+    public boolean isGeneratorBehind() {
+        long late = lateSends.sum();
+        return late > 0 && late > (messagesSent.sum() + filesSent.sum() + droppedSends.sum() + late)
+                * MAX_LATE_FRACTION;
+    }
+
+    /**
+     * Counts a sent message.
+     *
+     * @param scheduled time the message was scheduled
+     * @param recipients number of recipients
+     * @param size payload size
+     *
+     * @author Albert Veldman
+     */
+    public void messageSent(long scheduled, int recipients, int size) {
+        totalSent.increment();
+        if(isMeasured(scheduled)) {
+            messagesSent.increment();
+            deliveriesExpected.add(recipients);
+            bytesSent.add((long) recipients * size);
+        }
+    }
+
+    /**
+     * Counts a delivered message.
+     *
+     * @param scheduled time the message was scheduled
+     * @param size payload size
+     * @param now time of the delivery
+     *
+     * @author Albert Veldman
+     */
+    public void messageDelivered(long scheduled, int size, long now) {
+        totalDelivered.increment();
+        if(isMeasured(scheduled)) {
+            deliveries.increment();
+            bytesDelivered.add(size);
+            messageLatency.record(now - scheduled);
+        }
+    }
+
+    /**
+     * Counts a sent file.
+     *
+     * @param scheduled time the file was scheduled
+     *
+     * @author Albert Veldman
+     */
+    public void fileSent(long scheduled) {
+        if(isMeasured(scheduled)) {
+            filesSent.increment();
+        }
+    }
+
+    /**
+     * Counts a delivered file.
+     *
+     * @param scheduled time the file was scheduled
+     * @param now time its last byte was delivered
+     *
+     * @author Albert Veldman
+     */
+    public void fileDelivered(long scheduled, long now) {
+        if(isMeasured(scheduled)) {
+            filesDelivered.increment();
+            fileLatency.record(now - scheduled);
+        }
+    }
+
+    /**
+     * Get the open connections.
+     *
+     * @return connections
+     *
+     * @author Albert Veldman
+     */
+    public int getConnected() {
+        return connected.get();
+    }
+
+    /**
+     * Get the connections that could not be opened.
+     *
+     * @return failed connections
+     *
+     * @author Albert Veldman
+     */
+    public long getConnectFailures() {
+        return connectFailures.sum();
+    }
+
+    /**
+     * Get the messages sent since the start, measured or not.
+     *
+     * @return sent messages
+     *
+     * @author Albert Veldman
+     */
+    public long getTotalSent() {
+        return totalSent.sum();
+    }
+
+    /**
+     * Get the messages delivered since the start, measured or not.
+     *
+     * @return delivered messages
+     *
+     * @author Albert Veldman
+     */
+    public long getTotalDelivered() {
+        return totalDelivered.sum();
+    }
+
+    /**
+     * Prints the result of the measured window.
+     *
+     * @param out where the result is printed
+     * @param seconds length of the measured window
+     *
+     * @author Albert Veldman
+     */
+    public void print(PrintStream out, double seconds) {
+        long expected = deliveriesExpected.sum();
+        long delivered = deliveries.sum();
+        long errors = connectFailures.sum() + disconnects.sum() + protocolErrors.sum() + droppedSends.sum();
+        out.println(String.format(Locale.ENGLISH, "Sent:      %d messages (%.1f /s), %s to %d recipients",
+                messagesSent.sum(), messagesSent.sum() / seconds, StatsReport.formatBytes(bytesSent.sum()), expected));
+        out.println(String.format(Locale.ENGLISH, "Delivered: %d of %d (%.2f %%), %.1f /s, %s/s", delivered, expected,
+                percentage(delivered, expected), delivered / seconds,
+                StatsReport.formatBytes((long) (bytesDelivered.sum() / seconds))));
+        out.println("Latency:   " + latencies(messageLatency));
+        if(filesSent.sum() > 0) {
+            out.println(String.format(Locale.ENGLISH, "Files:     %d of %d delivered (%.2f %%)", filesDelivered.sum(),
+                    filesSent.sum(), percentage(filesDelivered.sum(), filesSent.sum())));
+            out.println("File time: " + latencies(fileLatency));
+        }
+        out.println(String.format(Locale.ENGLISH, "Errors:    %d (%.2f %% of sends): %d connect failures, %d "
+                + "disconnects, %d protocol errors, %d dropped sends", errors,
+                percentage(errors, messagesSent.sum() + filesSent.sum()), connectFailures.sum(), disconnects.sum(),
+                protocolErrors.sum(), droppedSends.sum()));
+        long late = lateSends.sum();
+        out.println(String.format(Locale.ENGLISH, "Generator: %d late sends (%.2f %% of scheduled), up to %s behind "
+                + "schedule", late, percentage(late, messagesSent.sum() + filesSent.sum() + droppedSends.sum() + late),
+                StatsReport.formatNanos(maxGeneratorLag.get())));
+        if(isGeneratorBehind()) {
+            out.println("WARNING: the generator could not send at the requested rate, the result doesn't measure "
+                    + "the node. Lower the rate or add --client-loops=.");
+        }
+    }
+
+    /**
+     * Formats the percentiles of a histogram.
+     *
+     * @param histogram the histogram
+     *
+     * @return formatted percentiles
+     *
+     * @author Albert Veldman
+     */
+    private static String latencies(LatencyHistogram histogram) {
+        return "p50 " + StatsReport.formatNanos(histogram.getQuantile(0.5))
+                + ", p90 " + StatsReport.formatNanos(histogram.getQuantile(0.9))
+                + ", p99 " + StatsReport.formatNanos(histogram.getQuantile(0.99))
+                + ", p99.9 " + StatsReport.formatNanos(histogram.getQuantile(0.999))
+                + ", max " + StatsReport.formatNanos(histogram.getMax());
+    }
+
+    /**
+     * Calculates a percentage.
+     *
+     * @param part the part
+     * @param total the total
+     *
+     * @return percentage, 0 when the total is 0
+     *
+     * @author Albert Veldman
+     */
+    private static double percentage(long part, long total) {
+        return total == 0 ? 0 : part * 100.0 / total;
+    }
+}
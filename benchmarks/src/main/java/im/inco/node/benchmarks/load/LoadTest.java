@@ -0,0 +1,228 @@
+package im.inco.node.benchmarks.load;
+
+import im.inco.node.benchmarks.BenchmarkNode;
+import im.inco.node.buffer.BufferPool;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator that simulates thousands of endpoints against a node. The endpoints connect to the message
+ * and file port, send messages with a mix of sizes and fan-outs and files at a fixed rate, and the test reports
+ * throughput, latency percentiles and errors of the measured window.
+ *
+ * <p>Without --message-port and --file-port a node is started in-process, it doesn't need a graph. To test a
+ * running node without a graph server, start it with --graph=offline.
+ *
+ * @author Albert Veldman
+ */
+public class LoadTest {
+    /**
+     * Time the connections get to open
+     */
+    private static final long CONNECT_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Time without new deliveries after which the test stops waiting for late messages
+     */
+    private static final long QUIET_MILLIS = 1000;
+
+    /**
+     * Longest time the test waits for late messages after the measured window
+     */
+    private static final long MAX_DRAIN_MILLIS = 10000;
+
+    /**
+     * Options of the load test
+     */
+    private final LoadTestOptions options;
+
+    /**
+     * Counters of the load test
+     */
+    private final LoadStats stats = new LoadStats();
+
+    /**
+     * Creates a load test.
+     *
+     * @param options options of the load test
+     *
+     * @author Albert Veldman
+     */
+    public LoadTest(LoadTestOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Runs a load test with the options given on the command line. Exits with status 2 when the generator
+     * couldn't send at the requested rate.
+     *
+     * @param args command line arguments
+     *
+     * @throws Exception when the test can't be run
+     *
+     * @author Albert Veldman
+     */
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException exception) {
+            System.err.println(exception.getMessage());
+            System.exit(1);
+            return;
+        }
+        if(new LoadTest(options).run(System.out).isGeneratorBehind()) {
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Runs the test: connects the endpoints, warms up, measures, waits for late messages and prints the result.
+     *
+     * @param out where progress and the result are printed
+     *
+     * @return counters of the test
+     *
+     * @throws IOException when the node or the loops can't be started
+     * @throws InterruptedException when interrupted while the test runs
+     *
+     * @author Albert Veldman
+     */
+    public LoadStats run(PrintStream out) throws IOException, InterruptedException {
+        BenchmarkNode node = null;
+        InetSocketAddress messageAddress;
+        InetSocketAddress fileAddress;
+        if(options.getMessagePort() == 0) {
+            node = new BenchmarkNode(options.getReceiveLoops());
+            messageAddress = new InetSocketAddress("127.0.0.1", node.getMessagePort());
+            fileAddress = new InetSocketAddress("127.0.0.1", node.getFilePort());
+        }
+        else {
+            messageAddress = new InetSocketAddress(options.getHost(), options.getMessagePort());
+            fileAddress = new InetSocketAddress(options.getHost(), options.getFilePort());
+        }
+        out.println(String.format(Locale.ENGLISH, "%d endpoints on %d loops against %s, %.1f messages/s each, sizes %s,"
+                + " fan-out %s, %.1f files/s of %d bytes", options.getEndpoints(), options.getClientLoops(),
+                node == null ? messageAddress.toString() : "an in-process node", options.getRate(), options.getSizes(),
+                options.getFanOut(), options.getFilesPerSecond(), options.getFileSize()));
+        List<LoadLoop> loops = startLoops(messageAddress, fileAddress);
+        try {
+            awaitConnections(out);
+            measure(out, loops);
+        } finally {
+            for (LoadLoop loop : loops) {
+                loop.stop();
+            }
+            if(node != null) {
+                node.stop();
+            }
+        }
+        stats.print(out, options.getDurationSeconds());
+        return stats;
+    }
+
+    /**
+     * Divides the endpoints over the loops and starts them.
+     *
+     * @param messageAddress address of the message port
+     * @param fileAddress address of the file port
+     *
+     * @return the loops
+     *
+     * @throws IOException when a loop can't be created
+     *
+     * @author Albert Veldman
+     */
+    private List<LoadLoop> startLoops(InetSocketAddress messageAddress, InetSocketAddress fileAddress)
+            throws IOException {
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_IDLE_BYTES_PER_CLASS, false);
+        int loopCount = Math.min(options.getClientLoops(), options.getEndpoints());
+        List<LoadLoop> loops = new ArrayList<>();
+        int first = 0;
+        for (int i = 0; i < loopCount; i++) {
+            int count = (options.getEndpoints() - first) / (loopCount - i);
+            LoadLoop loop = new LoadLoop(options, messageAddress, fileAddress, first, count, stats, pool);
+            Thread thread = new Thread(loop, "load-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            loops.add(loop);
+            first += count;
+        }
+        return loops;
+    }
+
+    /**
+     * Waits until every connection is opened or failed.
+     *
+     * @param out where progress is printed
+     *
+     * @throws InterruptedException when interrupted while waiting
+     *
+     * @author Albert Veldman
+     */
+    private void awaitConnections(PrintStream out) throws InterruptedException {
+        long start = System.nanoTime();
+        int expected = options.getEndpoints() * 2;
+        while(stats.getConnected() + stats.getConnectFailures() < expected
+                && System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS)) {
+            Thread.sleep(10);
+        }
+        out.println(String.format(Locale.ENGLISH, "Connected %d of %d connections in %d ms, %d failed",
+                stats.getConnected(), expected, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                stats.getConnectFailures()));
+    }
+
+    /**
+     * Lets the loops send through the warmup and the measured window, printing the rates every second, then
+     * waits until no more late messages arrive.
+     *
+     * @param out where progress is printed
+     * @param loops the loops
+     *
+     * @throws InterruptedException when interrupted while waiting
+     *
+     * @author Albert Veldman
+     */
+    private void measure(PrintStream out, List<LoadLoop> loops) throws InterruptedException {
+        long start = System.nanoTime();
+        long windowStart = start + TimeUnit.SECONDS.toNanos(options.getWarmupSeconds());
+        long windowEnd = windowStart + TimeUnit.SECONDS.toNanos(options.getDurationSeconds());
+        stats.setWindow(windowStart, windowEnd);
+        for (LoadLoop loop : loops) {
+            loop.setSending(true);
+        }
+        long sent = 0;
+        long delivered = 0;
+        for (int second = 1; System.nanoTime() < windowEnd; second++) {
+            long secondEnd = start + TimeUnit.SECONDS.toNanos(second);
+            Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(secondEnd - System.nanoTime())));
+            long sentNow = stats.getTotalSent();
+            long deliveredNow = stats.getTotalDelivered();
+            out.println(String.format(Locale.ENGLISH, "%4d s %s: %d messages/s sent, %d/s delivered, %d connections",
+                    second, secondEnd <= windowStart ? "warmup" : "measure", sentNow - sent,
+                    deliveredNow - delivered, stats.getConnected()));
+            sent = sentNow;
+            delivered = deliveredNow;
+        }
+        for (LoadLoop loop : loops) {
+            loop.setSending(false);
+        }
+        long drainStart = System.nanoTime();
+        long lastChange = drainStart;
+        while(System.nanoTime() - lastChange < TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS)
+                && System.nanoTime() - drainStart < TimeUnit.MILLISECONDS.toNanos(MAX_DRAIN_MILLIS)) {
+            Thread.sleep(100);
+            long deliveredNow = stats.getTotalDelivered();
+            if(deliveredNow != delivered) {
+                delivered = deliveredNow;
+                lastChange = System.nanoTime();
+            }
+        }
+    }
+}
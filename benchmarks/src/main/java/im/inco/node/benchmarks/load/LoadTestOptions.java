@@ -0,0 +1,415 @@
+package im.inco.node.benchmarks.load;
+
+/**
+ * Options of the load test, parsed from the command line arguments.
+ *
+ * @author Albert Veldman
+ */
+public class LoadTestOptions {
+    /**
+     * Prefix of the option that sets the host of the node
+     */
+    private static final String HOST_OPTION = "--host=";
+
+    /**
+     * Prefix of the option that sets the message port of the node, without it a node is started in-process
+     */
+    private static final String MESSAGE_PORT_OPTION = "--message-port=";
+
+    /**
+     * Prefix of the option that sets the file port of the node
+     */
+    private static final String FILE_PORT_OPTION = "--file-port=";
+
+    /**
+     * Prefix of the option that sets the number of receive loops of the in-process node
+     */
+    private static final String RECEIVE_LOOPS_OPTION = "--receive-loops=";
+
+    /**
+     * Prefix of the option that sets the number of simulated endpoints
+     */
+    private static final String ENDPOINTS_OPTION = "--endpoints=";
+
+    /**
+     * Prefix of the option that sets the number of threads serving the simulated endpoints
+     */
+    private static final String CLIENT_LOOPS_OPTION = "--client-loops=";
+
+    /**
+     * Prefix of the option that sets the nicknames of the simulated endpoints
+     */
+    private static final String PREFIX_OPTION = "--prefix=";
+
+    /**
+     * Prefix of the option that sets the messages every endpoint sends per second
+     */
+    private static final String RATE_OPTION = "--rate=";
+
+    /**
+     * Prefix of the option that sets the mix of message sizes
+     */
+    private static final String SIZES_OPTION = "--sizes=";
+
+    /**
+     * Prefix of the option that sets the mix of recipients per message
+     */
+    private static final String FAN_OUT_OPTION = "--fan-out=";
+
+    /**
+     * Prefix of the option that sets the files all endpoints together send per second
+     */
+    private static final String FILES_PER_SECOND_OPTION = "--files-per-second=";
+
+    /**
+     * Prefix of the option that sets the size of the files
+     */
+    private static final String FILE_SIZE_OPTION = "--file-size=";
+
+    /**
+     * Prefix of the option that sets the warmup time in seconds
+     */
+    private static final String WARMUP_OPTION = "--warmup=";
+
+    /**
+     * Prefix of the option that sets the measured time in seconds
+     */
+    private static final String DURATION_OPTION = "--duration=";
+
+    /**
+     * Host of the node
+     */
+    private String host = "127.0.0.1";
+
+    /**
+     * Message port of the node, 0 to start a node in-process
+     */
+    private int messagePort;
+
+    /**
+     * File port of the node
+     */
+    private int filePort;
+
+    /**
+     * Number of receive loops of the in-process node
+     */
+    private int receiveLoops = 1;
+
+    /**
+     * Number of simulated endpoints
+     */
+    private int endpoints = 1000;
+
+    /**
+     * Number of threads serving the simulated endpoints
+     */
+    private int clientLoops = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Nicknames of the simulated endpoints are this prefix followed by a number
+     */
+    private String prefix = "load-";
+
+    /**
+     * Messages every endpoint sends per second
+     */
+    private double rate = 1;
+
+    /**
+     * Mix of message sizes in bytes
+     */
+    private Mix sizes = Mix.parse("256:70,4096:25,65536:5");
+
+    /**
+     * Mix of recipients per message
+     */
+    private Mix fanOut = Mix.parse("1:90,10:10");
+
+    /**
+     * Files all endpoints together send per second
+     */
+    private double filesPerSecond;
+
+    /**
+     * Size of the files in bytes
+     */
+    private long fileSize = 1024 * 1024;
+
+    /**
+     * Warmup time in seconds, not measured
+     */
+    private int warmupSeconds = 5;
+
+    /**
+     * Measured time in seconds
+     */
+    private int durationSeconds = 30;
+
+    /**
+     * Parses the command line arguments.
+     *
+     * @param args command line arguments
+     *
+     * @return the parsed options
+     *
+     * @throws IllegalArgumentException when an argument is not a known option or has an invalid value
+     *
+     * @author Albert Veldman
+     */
+    public static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            if(arg.startsWith(HOST_OPTION)) {
+                options.host = arg.substring(HOST_OPTION.length());
+            }
+            else if(arg.startsWith(MESSAGE_PORT_OPTION)) {
+                options.messagePort = Integer.parseInt(arg.substring(MESSAGE_PORT_OPTION.length()));
+            }
+            else if(arg.startsWith(FILE_PORT_OPTION)) {
+                options.filePort = Integer.parseInt(arg.substring(FILE_PORT_OPTION.length()));
+            }
+            else if(arg.startsWith(RECEIVE_LOOPS_OPTION)) {
+                options.receiveLoops = positive(arg, Integer.parseInt(arg.substring(RECEIVE_LOOPS_OPTION.length())));
+            }
+            else if(arg.startsWith(ENDPOINTS_OPTION)) {
+                options.endpoints = positive(arg, Integer.parseInt(arg.substring(ENDPOINTS_OPTION.length())));
+            }
+            else if(arg.startsWith(CLIENT_LOOPS_OPTION)) {
+                options.clientLoops = positive(arg, Integer.parseInt(arg.substring(CLIENT_LOOPS_OPTION.length())));
+            }
+            else if(arg.startsWith(PREFIX_OPTION)) {
+                options.prefix = arg.substring(PREFIX_OPTION.length());
+            }
+            else if(arg.startsWith(RATE_OPTION)) {
+                options.rate = Double.parseDouble(arg.substring(RATE_OPTION.length()));
+            }
+            else if(arg.startsWith(SIZES_OPTION)) {
+                options.sizes = Mix.parse(arg.substring(SIZES_OPTION.length()));
+            }
+            else if(arg.startsWith(FAN_OUT_OPTION)) {
+                options.fanOut = Mix.parse(arg.substring(FAN_OUT_OPTION.length()));
+            }
+            else if(arg.startsWith(FILES_PER_SECOND_OPTION)) {
+                options.filesPerSecond = Double.parseDouble(arg.substring(FILES_PER_SECOND_OPTION.length()));
+            }
+            else if(arg.startsWith(FILE_SIZE_OPTION)) {
+                options.fileSize = positive(arg, Long.parseLong(arg.substring(FILE_SIZE_OPTION.length())));
+            }
+            else if(arg.startsWith(WARMUP_OPTION)) {
+                options.warmupSeconds = Integer.parseInt(arg.substring(WARMUP_OPTION.length()));
+            }
+            else if(arg.startsWith(DURATION_OPTION)) {
+                options.durationSeconds = positive(arg, Integer.parseInt(arg.substring(DURATION_OPTION.length())));
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if(options.rate < 0 || options.filesPerSecond < 0 || options.warmupSeconds < 0) {
+            throw new IllegalArgumentException("Rates and times can't be negative");
+        }
+        if(options.fanOut.getMax() >= options.endpoints) {
+            throw new IllegalArgumentException("Fan-out " + options.fanOut + " needs more than "
+                    + options.endpoints + " endpoints");
+        }
+        if((options.messagePort == 0) != (options.filePort == 0)) {
+            throw new IllegalArgumentException(MESSAGE_PORT_OPTION + " and " + FILE_PORT_OPTION + " go together");
+        }
+        return options;
+    }
+
+    /**
+     * Checks that a value is at least 1.
+     *
+     * @param arg the argument holding the value
+     * @param value the value
+     *
+     * @return the value
+     *
+     * @throws IllegalArgumentException when the value is below 1
+     *
+     * @author Albert Veldman
+     */
+    private static int positive(String arg, int value) {
+        if(value < 1) {
+            throw new IllegalArgumentException("Invalid value: " + arg);
+        }
+        return value;
+    }
+
+    /**
+     * Checks that a value is at least 1.
+     *
+     * @param arg the argument holding the value
+     * @param value the value
+     *
+     * @return the value
+     *
+     * @throws IllegalArgumentException when the value is below 1
+     *
+     * @author Albert Veldman
+     */
+    private static long positive(String arg, long value) {
+        if(value < 1) {
+            throw new IllegalArgumentException("Invalid value: " + arg);
+        }
+        return value;
+    }
+
+    /**
+     * Get the host of the node.
+     *
+     * @return host
+     *
+     * @author Albert Veldman
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Get the message port of the node.
+     *
+     * @return message port, 0 when a node should be started in-process
+     *
+     * @author Albert Veldman
+     */
+    public int getMessagePort() {
+        return messagePort;
+    }
+
+    /**
+     * Get the file port of the node.
+     *
+     * @return file port, 0 when a node should be started in-process
+     *
+     * @author Albert Veldman
+     */
+    public int getFilePort() {
+        return filePort;
+    }
+
+    /**
+     * Get the number of receive loops of the in-process node.
+     *
+     * @return receive loops
+     *
+     * @author Albert Veldman
+     */
+    public int getReceiveLoops() {
+        return receiveLoops;
+    }
+
+    /**
+     * Get the number of simulated endpoints.
+     *
+     * @return endpoints
+     *
+     * @author Albert Veldman
+     */
+    public int getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Get the number of threads serving the simulated endpoints.
+     *
+     * @return client loops
+     *
+     * @author Albert Veldman
+     */
+    public int getClientLoops() {
+        return clientLoops;
+    }
+
+    /**
+     * Get the nickname of a simulated endpoint.
+     *
+     * @param index number of the endpoint
+     *
+     * @return nickname
+     *
+     * @author Albert Veldman
+     */
+    public String getNickname(int index) {
+        return prefix + index;
+    }
+
+    /**
+     * Get the messages every endpoint sends per second.
+     *
+     * @return rate
+     *
+     * @author Albert Veldman
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Get the mix of message sizes.
+     *
+     * @return sizes in bytes
+     *
+     * @author Albert Veldman
+     */
+    public Mix getSizes() {
+        return sizes;
+    }
+
+    /**
+     * Get the mix of recipients per message.
+     *
+     * @return fan-out
+     *
+     * @author Albert Veldman
+     */
+    public Mix getFanOut() {
+        return fanOut;
+    }
+
+    /**
+     * Get the files all endpoints together send per second.
+     *
+     * @return file rate
+     *
+     * @author Albert Veldman
+     */
+    public double getFilesPerSecond() {
+        return filesPerSecond;
+    }
+
+    /**
+     * Get the size of the files.
+     *
+     * @return file size in bytes
+     *
+     * @author Albert Veldman
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Get the warmup time.
+     *
+     * @return warmup in seconds
+     *
+     * @author Albert Veldman
+     */
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    /**
+     * Get the measured time.
+     *
+     * @return duration in seconds
+     *
+     * @author Albert Veldman
+     */
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+}
@@ -0,0 +1,116 @@
+package im.inco.node.benchmarks.load;
+
+import java.util.Random;
+
+/**
+ * A weighted choice between values, parsed from a list like 256:70,4096:25,65536:5 where every value is
+ * followed by its weight.
+ *
+ * @author Albert Veldman
+ */
+public class Mix {
+    /**
+     * The values
+     */
+    private final int[] values;
+
+    /**
+     * Sum of the weights up to and including every value
+     */
+    private final int[] cumulativeWeights;
+
+    /**
+     * Creates a mix.
+     *
+     * @param values the values
+     * @param weights weight of every value, at least 1
+     *
+     * @author Albert Veldman
+     */
+    public Mix(int[] values, int[] weights) {
+        this.values = values.clone();
+        cumulativeWeights = new int[weights.length];
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    /**
+     * Parses a mix.
+     *
+     * @param value comma separated value:weight pairs, a value without weight has weight 1
+     *
+     * @return the mix
+     *
+     * @throws IllegalArgumentException when the list is malformed or has a value or weight below 1
+     *
+     * @author Albert Veldman
+     */
+    public static Mix parse(String value) {
+        String[] entries = value.split(",");
+        int[] values = new int[entries.length];
+        int[] weights = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String[] parts = entries[i].trim().split(":");
+            if(parts.length > 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + entries[i]);
+            }
+            values[i] = Integer.parseInt(parts[0].trim());
+            weights[i] = parts.length == 2 ? Integer.parseInt(parts[1].trim()) : 1;
+            if(values[i] < 1 || weights[i] < 1) {
+                throw new IllegalArgumentException("Invalid mix entry: " + entries[i]);
+            }
+        }
+        return new Mix(values, weights);
+    }
+
+    /**
+     * Picks a value with a probability proportional to its weight.
+     *
+     * @param random source of randomness
+     *
+     * @return the value
+     *
+     * @author Albert Veldman
+     */
+    public int pick(Random random) {
+        int target = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if(target < cumulativeWeights[i]) {
+                return values[i];
+            }
+        }
+        return values[values.length - 1];
+    }
+
+    /**
+     * Get the largest value of the mix.
+     *
+     * @return largest value
+     *
+     * @author Albert Veldman
+     */
+    public int getMax() {
+        int max = 0;
+        for (int value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        int previous = 0;
+        for (int i = 0; i < values.length; i++) {
+            if(i > 0) {
+                text.append(',');
+            }
+            text.append(values[i]).append(':').append(cumulativeWeights[i] - previous);
+            previous = cumulativeWeights[i];
+        }
+        return text.toString();
+    }
+}
@@ -1,5 +1,7 @@
 package im.inco.node;
 
+import im.inco.node.control.interfaces.ICommandOutput;
+
 import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -8,6 +10,16 @@ import java.util.regex.Pattern;
  * @author Albert Veldman
  */
 public class CommandHandler {
+    /**
+     * Output that prints to the console with a timestamp
+     */
+    public static final ICommandOutput CONSOLE = new ICommandOutput() {
+        @Override
+        public void printLine(String line) {
+            NodeMain.printLine(line);
+        }
+    };
+
     /**
      * Scanner, reads user input
      */
@@ -31,14 +43,17 @@ public class CommandHandler {
     }
 
     /**
-     * Waits for input and processes it
+     * Reads commands from the console and executes them until the node is shut down or the console is closed
      *
      * @author Albert Veldman
      */
     public void waitForInput() {
         NodeMain.printLine("Ready for input...");
-        if(scanner.hasNextLine()) {
-            processInput();
+        while(scanner.hasNextLine()) {
+            if(!execute(scanner.nextLine(), CONSOLE)) {
+                return;
+            }
+            NodeMain.printLine("Ready for input...");
         }
     }
 
@@ -55,9 +70,9 @@ public class CommandHandler {
     public int askPort(int standardPort, String usage) {
         NodeMain.printLine("Which port should be used to receive " + usage +
                 "? (Press enter without a value if you want to use the standard port: " + standardPort + "): ");
-        if(scanner.hasNextLine()) {
+        Pattern pat = Pattern.compile("[0-9]{4,5}");
+        while(scanner.hasNextLine()) {
             String input = scanner.nextLine();
-            Pattern pat = Pattern.compile("[0-9]{4,5}");
             Matcher matcher = pat.matcher(input);
             if(input.isEmpty()) {
                 return -1;
@@ -65,10 +80,7 @@ public class CommandHandler {
             else if(matcher.matches()){
                 return Integer.parseInt(input);
             }
-            else {
-                NodeMain.printLine("Input not valid, try again");
-                return askPort(standardPort, usage);
-            }
+            NodeMain.printLine("Input not valid, try again");
         }
         return -1;
     }
@@ -144,34 +156,40 @@ public class CommandHandler {
      * @author Albert Veldman
      */
     private String generateAscii(String text) {
-        String ascii = "";
         int amountOfHyphen = 6;
         int size = text.length() + amountOfHyphen;
-        int leftAmount = (int)Math.floor((100 - size)/2);
+        int leftAmount = (100 - size) / 2;
         int rightAmount = 100 - size - leftAmount;
-        System.out.println(leftAmount);
-        System.out.println(rightAmount);
-
+        StringBuilder ascii = new StringBuilder(100);
         for(int i = leftAmount; i > 0; i--) {
-            ascii += "M";
+            ascii.append('M');
         }
-        ascii += ("---" + text + "---");
+        ascii.append("---").append(text).append("---");
         for(int i = rightAmount; i > 0; i--) {
-            ascii += "M";
+            ascii.append('M');
         }
-        return ascii;
+        return ascii.toString();
     }
 
     /**
-     * Determines input and sends it to the correct processing method.
+     * Determines input and sends it to the correct processing method. Commands from the console and from
+     * control connections are executed one at a time.
+     *
+     * @param input the command
+     * @param output where the output of the command is printed
+     *
+     * @return false when the command shut down the node
      *
      * @author Albert Veldman
      */
-    private void processInput() {
-        String input = scanner.nextLine();
+    public synchronized boolean execute(String input, ICommandOutput output) {
+        if(input.toLowerCase().startsWith("/limits ")) {
+            node.changeLimits(input.substring("/limits ".length()).trim().toLowerCase().split("\\s+"), output);
+            return true;
+        }
         switch(input.toLowerCase()) {
             case "/help":
-                printHelp();
+                printHelp(output);
                 break;
             case "/unregister":
                 node.unregisterNode();
@@ -187,16 +205,31 @@ public class CommandHandler {
                 node.logoutNode();
                 break;
             case "/nickname":
-                NodeMain.printLine("Nickname: " + node.getNickName());
+                output.printLine("Nickname: " + node.getNickName());
                 break;
             case "/messageport":
-                NodeMain.printLine("Message port: " + node.getMessagePort());
+                output.printLine("Message port: " + node.getMessagePort());
                 break;
             case "/fileport":
-                NodeMain.printLine("File port: " + node.getFilePort());
+                output.printLine("File port: " + node.getFilePort());
                 break;
             case "/relay":
-                node.printRelay();
+                node.printRelay(output);
+                break;
+            case "/stats":
+                node.printStats(output);
+                break;
+            case "/startup":
+                node.printStartup(output);
+                break;
+            case "/limits":
+                node.printLimits(output);
+                break;
+            case "/peers":
+                node.printPeers(output);
+                break;
+            case "/tenants":
+                node.printTenants(output);
                 break;
             case "/shutdown":
                 node.shutdownNode();
@@ -205,7 +238,7 @@ public class CommandHandler {
                 incoLogo();
                 break;
             case "/version":
-                node.printVersion();
+                node.printVersion(output);
                 break;
             case "/help unregister":
             case "/help register":
@@ -215,82 +248,121 @@ public class CommandHandler {
             case "/help fileport":
             case "/help nickname":
             case "/help relay":
+            case "/help stats":
+            case "/help startup":
+            case "/help limits":
+            case "/help peers":
+            case "/help tenants":
             case "/help shutdown":
             case "/help version":
-                printHelpCommand(input);
+                printHelpCommand(input, output);
                 break;
             default:
-                NodeMain.printLine("!Invalid Command! /help for available commands");
+                output.printLine("!Invalid Command! /help for available commands");
                 break;
         }
-        if(!input.toLowerCase().equals("/shutdown"))
-            waitForInput();
+        return !input.toLowerCase().equals("/shutdown");
     }
 
     /**
-     * prints all available commands to the console
+     * prints all available commands
+     *
+     * @param output where the commands are printed
      *
      * @author Albert Veldman
      */
-    private void printHelp() {
-        NodeMain.printLine("Available Commands:");
-        NodeMain.printLine("- /unregister");
-        NodeMain.printLine("- /register");
-        NodeMain.printLine("- /logout");
-        NodeMain.printLine("- /login");
-        NodeMain.printLine("- /messageport");
-        NodeMain.printLine("- /fileport");
-        NodeMain.printLine("- /nickname");
-        NodeMain.printLine("- /relay");
-        NodeMain.printLine("- /shutdown");
-        NodeMain.printLine("- /version");
-        NodeMain.printLine("- /help");
-        NodeMain.printLine("- /help <command>");
+    private void printHelp(ICommandOutput output) {
+        output.printLine("Available Commands:");
+        output.printLine("- /unregister");
+        output.printLine("- /register");
+        output.printLine("- /logout");
+        output.printLine("- /login");
+        output.printLine("- /messageport");
+        output.printLine("- /fileport");
+        output.printLine("- /nickname");
+        output.printLine("- /relay");
+        output.printLine("- /stats");
+        output.printLine("- /startup");
+        output.printLine("- /limits");
+        output.printLine("- /limits <name>=<value> ...");
+        output.printLine("- /peers");
+        output.printLine("- /tenants");
+        output.printLine("- /shutdown");
+        output.printLine("- /version");
+        output.printLine("- /help");
+        output.printLine("- /help <command>");
     }
 
     /**
      * Prints explanation of the given command.
      *
      * @param command command that needs explanation
+     * @param output where the explanation is printed
      *
      * @author Albert Veldman
      */
-    private void printHelpCommand(String command) {
+    private void printHelpCommand(String command, ICommandOutput output) {
         switch(command.toLowerCase()) {
             case "/help unregister":
-                NodeMain.printLine("Unregister: Unregisters this Node from the Graph. Removing this Node from the network.");
+                output.printLine("Unregister: Unregisters this Node from the Graph. Removing this Node from the network.");
                 break;
             case "/help register":
-                NodeMain.printLine("Register: Registers this Node at the Graph. Adding this Node to the network.");
-                NodeMain.printLine("This is done automatically the first time this software is started.");
+                output.printLine("Register: Registers this Node at the Graph. Adding this Node to the network.");
+                output.printLine("This is done automatically the first time this software is started.");
                 break;
             case "/help logout":
-                NodeMain.printLine("Logout: Logs this node out at the Graph. Disabling this node in the network.");
+                output.printLine("Logout: Logs this node out at the Graph. Disabling this node in the network.");
                 break;
             case "/help login":
-                NodeMain.printLine("Login: Logs this node in at the Graph. Enabling this node in the network.");
-                NodeMain.printLine("The Node is automatically logged in when it's registered.");
+                output.printLine("Login: Logs this node in at the Graph. Enabling this node in the network.");
+                output.printLine("The Node is automatically logged in when it's registered.");
                 break;
             case "/help nickname":
-                NodeMain.printLine("Shows this node's current nickname.");
+                output.printLine("Shows this node's current nickname.");
                 break;
             case "/help fileport":
-                NodeMain.printLine("Shows this node's current port used to receive files.");
+                output.printLine("Shows this node's current port used to receive files.");
                 break;
             case "/help messageport":
-                NodeMain.printLine("Shows this node's current port used to receive messages.");
+                output.printLine("Shows this node's current port used to receive messages.");
                 break;
             case "/help relay":
-                NodeMain.printLine("Shows all endpoints that use this node as a relay.");
+                output.printLine("Shows all endpoints that use this node as a relay.");
+                break;
+            case "/help stats":
+                output.printLine("Shows messages and bytes per second, queue depth and forwarding latency per port.");
+                output.printLine("Rates are measured since the previous /stats.");
+                break;
+            case "/help startup":
+                output.printLine("Shows how long after the start each startup phase completed, including the first");
+                output.printLine("accepted connection.");
+                break;
+            case "/help limits":
+                output.printLine("Shows the rate limits and the connection cap endpoints are admitted with.");
+                output.printLine("Change them with /limits <name>=<value>, 0 is unlimited. Rates apply to the message port:");
+                output.printLine("messages and bytes per second per nickname, address-messages and address-bytes per");
+                output.printLine("second per remote address. connections caps the open connections of both ports.");
+                output.printLine("bulk caps the bytes per second the file port receives and sends together, so file");
+                output.printLine("transfers leave bandwidth for messages.");
+                break;
+            case "/help peers":
+                output.printLine("Shows the other nodes of the mesh this node is linked to, the number of cached");
+                output.printLine("routes to their endpoints and how many routes were evicted because the cache");
+                output.printLine("was full.");
+                break;
+            case "/help tenants":
+                output.printLine("Shows the identities this node hosts next to its own, with their nickname,");
+                output.printLine("ports and number of connected endpoints. Tenants are added at startup with");
+                output.printLine("--tenant=name:messagePort:filePort.");
                 break;
             case "/help shutdown":
-                NodeMain.printLine("Shuts down the application. This can take a few seconds.");
+                output.printLine("Shuts down the application. This can take a few seconds.");
                 break;
             case "/help version":
-                NodeMain.printLine("Shows the current node software version.");
+                output.printLine("Shows the current node software version.");
                 break;
             default:
-                NodeMain.printLine("!Invalid /help command!");
+                output.printLine("!Invalid /help command!");
                 break;
         }
     }
@@ -1,30 +1,72 @@
 package im.inco.node;
 
+import im.inco.node.admission.AdmissionControl;
+import im.inco.node.admission.RateLimits;
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.compression.FrameCompressor;
+import im.inco.node.control.ControlServer;
+import im.inco.node.control.interfaces.ICommandOutput;
+import im.inco.node.graph.GraphClient;
+import im.inco.node.graph.GraphRequest;
+import im.inco.node.graph.GraphType;
+import im.inco.node.graph.IdentityGraphService;
+import im.inco.node.graph.OfflineGraphService;
+import im.inco.node.graph.SharedGraphService;
+import im.inco.node.graph.interfaces.IGraphListener;
+import im.inco.node.graph.interfaces.IGraphService;
+import im.inco.node.logging.AsyncLog;
+import im.inco.node.logging.AsyncLogHandler;
+import im.inco.node.logging.ConsoleSink;
+import im.inco.node.logging.RollingFileSink;
+import im.inco.node.mesh.Mesh;
+import im.inco.node.mesh.MeshSecret;
+import im.inco.node.mesh.PeerLink;
+import im.inco.node.mesh.RouteCache;
+import im.inco.node.metrics.NodeMetrics;
+import im.inco.node.metrics.PrometheusExporter;
+import im.inco.node.metrics.StatsReport;
+import im.inco.node.receive.NioReceiveHandler;
+import im.inco.node.receive.SelectorLoop;
+import im.inco.node.receive.ReceiveEngine;
+import im.inco.node.relay.ChunkStore;
+import im.inco.node.relay.ConnectedEndpoints;
+import im.inco.node.relay.DirectoryRelayStore;
+import im.inco.node.relay.DrainBudget;
+import im.inco.node.relay.EndpointRoute;
+import im.inco.node.relay.FileRelay;
+import im.inco.node.relay.MappedRelayStore;
+import im.inco.node.relay.RelayDispatcher;
+import im.inco.node.relay.interfaces.IRelayStore;
+import im.inco.node.storage.FileStorageManager;
+import im.inco.node.storage.WriteBehindStorageManager;
+import im.inco.node.tenant.Tenant;
+import im.inco.node.tenant.TenantConfig;
 import im.inco.shared.components.cryptography.KeyGenerator;
 import im.inco.shared.components.receivehandler.ReceiveHandler;
 import im.inco.shared.components.receivehandler.interfaces.IReceive;
-import im.inco.shared.components.register.LoginService;
-import im.inco.shared.components.register.RegisterService;
-import im.inco.shared.components.register.exceptions.KeySetNotSetException;
-import im.inco.shared.components.register.exceptions.RoleNotSetException;
-import im.inco.shared.components.register.exceptions.TokenNotSetException;
-import im.inco.shared.components.register.exceptions.UserDataNotSetException;
-import im.inco.shared.components.register.interfaces.ILogin;
-import im.inco.shared.components.register.interfaces.IRegisterOnGraph;
 import im.inco.shared.components.relay.ProcessRelay;
 import im.inco.shared.components.utils.KeySet;
 import im.inco.shared.components.utils.UserData;
 import im.inco.shared.components.utils.DesktopLocalStorageManager;
 import im.inco.shared.components.utils.UserConfig;
 import im.inco.shared.components.utils.VertexRole;
-import im.inco.shared.components.utils.api.exceptions.APIHandlerException;
-import im.inco.shared.components.utils.interfaces.ILocalStorageManager;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,25 +80,187 @@ public class NodeMain {
     private final int standardMessagePort = 1312;
     private final int standardFilePort = 1337;
 
+    /**
+     * Name of the startup phase in which the user data is read
+     */
+    private static final String PHASE_USER_DATA_READ = "User data read";
+
+    /**
+     * Name of the startup phase in which the key set is generated
+     */
+    private static final String PHASE_KEYS_READY = "RSA keys ready";
+
+    /**
+     * Name of the startup phase in which the listeners are started
+     */
+    private static final String PHASE_RECEIVE_SERVICE = "Receive service started";
+
+    /**
+     * Name of the startup phase in which the user data is written
+     */
+    private static final String PHASE_USER_DATA_WRITTEN = "User data written";
+
+    /**
+     * Name of the startup phase in which the node logs in at the graph
+     */
+    private static final String PHASE_LOGGED_IN = "Logged in at graph";
+
+    /**
+     * Name of the last startup phase
+     */
+    private static final String PHASE_COMPLETED = "Startup completed";
+
+    /**
+     * Time the receive service gets to stop after the drain timeout, before it is interrupted
+     */
+    private static final long SHUTDOWN_GRACE_MILLIS = 2000;
+
+    /**
+     * Time the graph requests queued at shutdown get to be sent
+     */
+    private static final long GRAPH_CLOSE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Directory in the working directory holding a directory per tenant
+     */
+    private static final String TENANTS_DIRECTORY = "Tenants";
+
+    /**
+     * File holding the user data, in the working directory for the node and in the directory of every tenant
+     */
+    private static final String USER_DATA_FILE = "userdata.ser";
+
+    /**
+     * Creates the threads that run startup phases in the background
+     */
+    private static final ThreadFactory STARTUP_THREADS = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "node-startup");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /**
+     * Time the log writer gets to write the remaining lines when the node stops
+     */
+    private static final long LOG_CLOSE_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * Log the console lines and the loggers of the node are written to by a background thread
+     */
+    private static final AsyncLog LOG = startLog();
+
     /**
      * The logger
      */
     private static final Logger LOGGER = Logger.getLogger(NodeMain.class.getName());
 
     /**
-     * LocalStorageManager used to create Userdata
+     * LocalStorageManager used to create Userdata, writes the user data behind the caller
      */
-    private ILocalStorageManager storageManager;
+    private WriteBehindStorageManager storageManager;
 
     /**
      * UserData object used to initialize stuff
      */
     private UserData userData;
 
+    /**
+     * Startup options given on the command line
+     */
+    private NodeOptions options;
+
     /**
      * ReceiveHandler that initializes listeners.
      */
-    private IReceive receiveHandler = new ReceiveHandler(null);
+    private IReceive receiveHandler;
+
+    /**
+     * Dispatcher relaying frames between endpoints, only used by the NIO receive engine
+     */
+    private RelayDispatcher relayDispatcher;
+
+    /**
+     * Store for messages to offline endpoints, only used by the NIO receive engine
+     */
+    private IRelayStore messageStore;
+
+    /**
+     * Pool of direct buffers shared by the message and file port, only used by the NIO receive engine
+     */
+    private BufferPool bufferPool;
+
+    /**
+     * Report printed by the /stats command, only used by the NIO receive engine
+     */
+    private StatsReport statsReport;
+
+    /**
+     * Exporter serving the metrics over HTTP, null when disabled
+     */
+    private PrometheusExporter metricsExporter;
+
+    /**
+     * Server accepting commands on the control port, null when there is no control port
+     */
+    private ControlServer controlServer;
+
+    /**
+     * Records the duration of the startup phases
+     */
+    private final StartupTimer startupTimer = new StartupTimer();
+
+    /**
+     * Key set that is being generated in the background, null when the key set is known
+     */
+    private Future<KeySet> pendingKeySet;
+
+    /**
+     * Instrumentation of the NIO receive engine, null with the legacy engine
+     */
+    private NodeMetrics metrics;
+
+    /**
+     * Admission control of the NIO receive engine, null with the legacy engine
+     */
+    private AdmissionControl admission;
+
+    /**
+     * Mesh of the NIO receive engine, null when no mesh secret was given or with the legacy engine
+     */
+    private Mesh mesh;
+
+    /**
+     * Compressor of the NIO receive engine, null with the legacy engine
+     */
+    private FrameCompressor compressor;
+
+    /**
+     * Memory the windows of stored messages of the node and its tenants may hold, null with the legacy engine
+     */
+    private DrainBudget drainBudget;
+
+    /**
+     * Identities hosted next to the node's own, empty until they are started
+     */
+    private volatile List<Tenant> tenants = Collections.emptyList();
+
+    /**
+     * Client sending register, login and logout requests to the graph in the background
+     */
+    private GraphClient graphClient;
+
+    /**
+     * Set once the shutdown started, so it runs once when both a command and a signal ask for it
+     */
+    private final AtomicBoolean shutdownStarted = new AtomicBoolean();
+
+    /**
+     * Counted down once the shutdown finished, a second caller waits for it
+     */
+    private final CountDownLatch shutdownFinished = new CountDownLatch(1);
 
     /**
      * ReceiveHandler thread
@@ -76,174 +280,514 @@ public class NodeMain {
      * @author Albert Veldman
      */
     public static void main(String[] args) {
-        NodeMain main = new NodeMain();
+        NodeOptions options;
+        try {
+            options = NodeOptions.parse(args);
+        } catch (IllegalArgumentException exception) {
+            printLine(Level.SEVERE, exception.getMessage());
+            closeLog();
+            return;
+        }
+        NodeMain main = new NodeMain(options);
     }
 
     /**
-     * Calls Initialize, and sets up and starts a ReceiveHandler thread
+     * Creates a node with the default options
      *
      * @author Albert Veldman
      */
     public NodeMain () {
-        System.setProperty("java.util.logging.SimpleFormatter.format", "[%1$tT] %4$s: %5$s%n");
+        this(new NodeOptions());
+    }
+
+    /**
+     * Calls Initialize, and sets up and starts a ReceiveHandler thread
+     *
+     * @param options startup options
+     *
+     * @author Albert Veldman
+     */
+    public NodeMain (NodeOptions options) {
+        this.options = options;
+        configureLog();
         commandHandler = new CommandHandler(this);
-        commandHandler.incoLogo();
-        printLine("INFO: Starting Initialize...");
-        initialize();
-        printLine("INFO: Initialized config.");
+        if(!options.isDaemon()) {
+            commandHandler.incoLogo();
+        }
+        printLine(Level.INFO, "Starting Initialize...");
+        ExecutorService startupExecutor = Executors.newCachedThreadPool(STARTUP_THREADS);
+        initialize(startupExecutor);
+        IGraphService graphService = createGraphService();
+        if(!options.getTenants().isEmpty()) {
+            graphService = new IdentityGraphService(graphService, userData);
+        }
+        graphClient = new GraphClient(graphService, createGraphListener());
+        printLine(Level.INFO, "Initialized config.");
         //registerNode();
         printLine("Nickname: " + userData.getNickname());
-        printLine("INFO: Initializing receive service...");
-        setupReceiveService();
-        printLine("INFO: Initialized receive service.");
-        printLine("INFO: Done Initializing.");
-        try {
-            storageManager.writeUserData(userData);
-        } catch (IOException exception) {
-            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+        if(options.getReceiveEngine() == ReceiveEngine.LEGACY) {
+            awaitKeySet();
         }
+        printLine(Level.INFO, "Initializing receive service...");
+        setupReceiveService();
+        setupTenants();
+        startupTimer.mark(PHASE_RECEIVE_SERVICE);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                shutdownNode();
+            }
+        }, "node-shutdown"));
+        printLine(Level.INFO, "Initialized receive service.");
+        startupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                completeStartup();
+            }
+        });
+        startupExecutor.shutdown();
+        printLine(Level.INFO, "Done Initializing.");
         mainProgram();
     }
 
     /**
-     * Prints the received message with a timestamp in front of it
+     * Prints the received message with a timestamp in front of it. The line is written by the log writer,
+     * the caller doesn't wait for the console.
      *
      * @param message message that has to be displayed on the console
      *
      * @author Albert Veldman
      */
     public static void printLine(String message) {
-        Calendar calendar = Calendar.getInstance();
-        SimpleDateFormat df = new SimpleDateFormat("HH:mm:ss");
-        String time = ("[" + df.format(calendar.getTime()) + "] ");
+        LOG.print(message);
+    }
 
-        System.out.println(time + message);
+    /**
+     * Prints a message with a timestamp and its level in front of it, when the level is logged.
+     *
+     * @param level level of the message
+     * @param message message that has to be displayed on the console
+     *
+     * @author Albert Veldman
+     */
+    public static void printLine(Level level, String message) {
+        LOG.log(level, message);
     }
 
     /**
-     * Call registerService to register node at graph
+     * Creates the log writing to the console and starts its writer.
+     *
+     * @return the log
      *
      * @author Albert Veldman
      */
-    protected void registerNode() {
-        if(userData.getNickname() == null) {
-            printLine("INFO: Registering Node...");
+    private static AsyncLog startLog() {
+        AsyncLog log = new AsyncLog(AsyncLog.DEFAULT_CAPACITY, new ConsoleSink());
+        log.start();
+        return log;
+    }
+
+    /**
+     * Sets the log level, opens the log file when one is configured and sends the loggers of the node to the
+     * log instead of the console.
+     *
+     * @author Albert Veldman
+     */
+    private void configureLog() {
+        LOG.setLevel(options.getLogLevel());
+        Logger root = Logger.getLogger("");
+        for (Handler handler : root.getHandlers()) {
+            root.removeHandler(handler);
+        }
+        root.addHandler(new AsyncLogHandler(LOG));
+        root.setLevel(options.getLogLevel());
+        if(options.getLogFile() != null) {
             try {
-                IRegisterOnGraph registerService = new RegisterService();
-                registerService.register();
-                printLine("INFO: Node Registered.");
-                userData.setOnline(true);
-                storageManager.writeUserData(userData);
+                LOG.addSink(new RollingFileSink(options.getLogFile(), options.getLogFileSize(),
+                        RollingFileSink.DEFAULT_MAX_FILES));
             } catch (IOException exception) {
-                LOGGER.log(Level.WARNING, exception.getMessage(), exception);
-            } catch (KeySetNotSetException exception) {
-                LOGGER.log(Level.WARNING, exception.getMessage(), exception);
-            } catch (APIHandlerException exception) {
-                LOGGER.log(Level.WARNING, exception.getMessage(), exception);
-            } catch (RoleNotSetException exception) {
-                LOGGER.log(Level.WARNING, exception.getMessage(), exception);
-            } catch (UserDataNotSetException exception) {
-                LOGGER.log(Level.WARNING, exception.getMessage(), exception);
+                printLine(Level.WARNING, "Could not open log file: " + exception.getMessage());
             }
         }
+    }
+
+    /**
+     * Lets the log writer write the remaining lines.
+     *
+     * @author Albert Veldman
+     */
+    private static void closeLog() {
+        try {
+            LOG.close(LOG_CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Asks the graph client to register the node at the graph
+     *
+     * @author Albert Veldman
+     */
+    protected void registerNode() {
+        if(userData.getNickname() == null) {
+            printLine(Level.INFO, "Registering Node...");
+            graphClient.submit(GraphRequest.REGISTER);
+        }
         else {
-            printLine("INFO: Node already registered.");
+            printLine(Level.INFO, "Node already registered.");
         }
     }
 
     /**
-     * Call registerService to unregister node at graph
+     * Asks the graph client to unregister the node at the graph
      *
      * @author Albert Veldman
      */
     protected void unregisterNode() {
-        printLine("INFO: Unregistering Node...");
-        try {
-            IRegisterOnGraph registerService = new RegisterService();
-            registerService.unregister();
-            printLine("INFO: Node Unregistered");
-            storageManager.writeUserData(userData);
-        } catch (IOException exception) {
-            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
-        } catch (TokenNotSetException exception) {
-            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
-        } catch (APIHandlerException exception) {
-            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
-        } catch (UserDataNotSetException exception) {
-            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
-        }
+        printLine(Level.INFO, "Unregistering Node...");
+        graphClient.submit(GraphRequest.UNREGISTER);
     }
 
     /**
-     * Call LoginService to logoff node at graph
+     * Asks the graph client to logoff the node at the graph
      *
      * @author Albert Veldman
      */
     protected void logoutNode() {
-        printLine("INFO: Logging out Node...");
+        printLine(Level.INFO, "Logging out Node...");
         if(userData.getNickname() != null) {
-            try {
-                ILogin logoff = new LoginService();
-                logoff.logoff();
-                storageManager.writeUserData(userData);
-                printLine("INFO: Node logged out.");
-            } catch (APIHandlerException exception) {
-                LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
-            } catch (IOException exception) {
-                LOGGER.log(Level.WARNING, exception.getMessage(), exception);
-            }
+            graphClient.submit(GraphRequest.LOGOUT);
         }
         else {
-            printLine("INFO: Node not registered");
+            printLine(Level.INFO, "Node not registered");
         }
     }
 
     /**
-     * Call LoginService to login node at graph
+     * Asks the graph client to login the node at the graph
      *
      * @author Albert Veldman
      */
     protected void loginNode() {
-        printLine("INFO: Logging in Node...");
-        try {
-            ILogin login = new LoginService();
-            login.login();
-            storageManager.writeUserData(userData);
-            printLine("INFO: Node Logged in.");
-        } catch (APIHandlerException exception) {
-            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
-        } catch (IOException exception) {
-            LOGGER.log(Level.WARNING, exception.getMessage(), exception);
+        awaitKeySet();
+        printLine(Level.INFO, "Logging in Node...");
+        graphClient.submit(GraphRequest.LOGIN);
+    }
+
+    /**
+     * Creates the graph service selected by the options.
+     *
+     * @return the graph service
+     *
+     * @author Albert Veldman
+     */
+    private IGraphService createGraphService() {
+        if(options.getGraph() == GraphType.OFFLINE) {
+            printLine(Level.INFO, "Using offline graph, the node is not registered anywhere.");
+            return new OfflineGraphService();
         }
+        return new SharedGraphService();
+    }
+
+    /**
+     * Creates the listener that reports the outcome of graph requests and writes the user data once per batch.
+     *
+     * @return the listener
+     *
+     * @author Albert Veldman
+     */
+    private IGraphListener createGraphListener() {
+        return new IGraphListener() {
+            @Override
+            public void onCompleted(GraphRequest request, boolean success) {
+                if(!success) {
+                    printLine(Level.WARNING, request + " at graph failed.");
+                    return;
+                }
+                switch(request) {
+                    case REGISTER:
+                        userData.setOnline(true);
+                        printLine(Level.INFO, "Node Registered.");
+                        break;
+                    case UNREGISTER:
+                        printLine(Level.INFO, "Node Unregistered");
+                        break;
+                    case LOGIN:
+                        startupTimer.mark(PHASE_LOGGED_IN);
+                        printLine(Level.INFO, "Node Logged in.");
+                        break;
+                    default:
+                        printLine(Level.INFO, "Node logged out.");
+                        break;
+                }
+            }
+
+            @Override
+            public void onBatchCompleted() {
+                storageManager.writeUserData(userData);
+            }
+        };
     }
 
     /**
      * Prints all connected endpoints
      *
+     * @param output where the endpoints are printed
+     *
      * @author Albert Veldman
      */
-    protected void printRelay() {
+    protected void printRelay(ICommandOutput output) {
+        if(relayDispatcher != null) {
+            printEndpoints(relayDispatcher.getEndpoints(), output);
+            return;
+        }
         ArrayList<String> nicknames = ProcessRelay.getConnectedNicknames();
         if(!nicknames.isEmpty()) {
             for (String nickname : nicknames) {
-                printLine("- " + nickname);
+                output.printLine("- " + nickname);
             }
         } else {
-            printLine("No connected endpoints.");
+            output.printLine("No connected endpoints.");
+        }
+    }
+
+    /**
+     * Prints all endpoints connected on the message port of the NIO receive engine
+     *
+     * @param endpoints registry of the connected endpoints
+     * @param output where the endpoints are printed
+     *
+     * @author Albert Veldman
+     */
+    private void printEndpoints(ConnectedEndpoints endpoints, ICommandOutput output) {
+        if(endpoints.size() == 0) {
+            output.printLine("No connected endpoints.");
+            return;
+        }
+        for (EndpointRoute route : endpoints) {
+            if(route.getMessageConnection() != null) {
+                output.printLine("- " + route.getNickname());
+            }
+        }
+    }
+
+    /**
+     * Prints the traffic statistics of the receive engine
+     *
+     * @param output where the statistics are printed
+     *
+     * @author Albert Veldman
+     */
+    protected void printStats(ICommandOutput output) {
+        if(statsReport == null) {
+            output.printLine("Statistics are only available with the NIO receive engine.");
+            return;
+        }
+        for (String line : statsReport.lines()) {
+            output.printLine(line);
+        }
+    }
+
+    /**
+     * Prints the links to the other nodes of the mesh.
+     *
+     * @param output where the links are printed
+     *
+     * @author Albert Veldman
+     */
+    protected void printPeers(ICommandOutput output) {
+        if(mesh == null) {
+            output.printLine("This node is not part of a mesh.");
+            return;
+        }
+        output.printLine("Node name: " + mesh.getName());
+        if(mesh.getLinks().isEmpty()) {
+            output.printLine("No linked nodes.");
+        }
+        for (PeerLink link : mesh.getLinks()) {
+            output.printLine("- " + link.getNode());
+        }
+        RouteCache routes = mesh.getRoutes();
+        output.printLine("Routes: " + routes.size() + " of " + routes.getMaxRoutes() + ", " + routes.getEvictions()
+                + " evicted");
+    }
+
+    /**
+     * Prints the limits endpoints are admitted with.
+     *
+     * @param output where the limits are printed
+     *
+     * @author Albert Veldman
+     */
+    protected void printLimits(ICommandOutput output) {
+        if(admission == null) {
+            output.printLine("Limits are only available with the NIO receive engine.");
+            return;
+        }
+        RateLimits limits = admission.getLimits();
+        output.printLine("Messages per second per nickname: " + formatLimit(limits.getMessagesPerSecond()));
+        output.printLine("Bytes per second per nickname: " + formatLimit(limits.getBytesPerSecond()));
+        output.printLine("Messages per second per address: " + formatLimit(limits.getAddressMessagesPerSecond()));
+        output.printLine("Bytes per second per address: " + formatLimit(limits.getAddressBytesPerSecond()));
+        output.printLine("Connections: " + admission.getConnections() + " of "
+                + formatLimit(limits.getMaxConnections()));
+        output.printLine("Bytes per second on the file port: " + formatLimit(limits.getBulkBytesPerSecond()));
+    }
+
+    /**
+     * Changes the limits endpoints are admitted with.
+     *
+     * @param settings limits to change as name=value
+     * @param output where the result is printed
+     *
+     * @author Albert Veldman
+     */
+    protected void changeLimits(String[] settings, ICommandOutput output) {
+        if(admission == null) {
+            output.printLine("Limits are only available with the NIO receive engine.");
+            return;
+        }
+        RateLimits limits = admission.getLimits();
+        try {
+            for (String setting : settings) {
+                limits = limits.with(setting);
+            }
+        } catch (IllegalArgumentException exception) {
+            output.printLine("!Invalid limit! " + exception.getMessage());
+            return;
         }
+        admission.setLimits(limits);
+        LOGGER.log(Level.INFO, "Limits changed to " + limits);
+        printLimits(output);
+    }
+
+    /**
+     * Formats a limit, 0 is shown as unlimited.
+     *
+     * @param limit the limit
+     *
+     * @return formatted limit
+     *
+     * @author Albert Veldman
+     */
+    private static String formatLimit(long limit) {
+        return limit == 0 ? "unlimited" : String.valueOf(limit);
     }
 
     /**
-     * Starts shutdown by interrupting receiveHandlerThread
+     * Shuts the node down: queues the logout, lets the receive service drain its connections and waits for
+     * it to stop, then closes the stores and waits for the logout to be sent. Runs once; a caller that comes
+     * second, like the shutdown hook on a signal during /shutdown, waits until the first one finished, so the
+     * JVM doesn't exit in the middle of the drain.
      *
      * @author Albert Veldman
      */
     protected void shutdownNode() {
-        printLine("INFO: Initiated shutdown...");
+        if(!shutdownStarted.compareAndSet(false, true)) {
+            awaitShutdown();
+            return;
+        }
+        try {
+            runShutdown();
+        } finally {
+            shutdownFinished.countDown();
+        }
+    }
+
+    /**
+     * Waits until the shutdown started by another caller finished.
+     *
+     * @author Albert Veldman
+     */
+    private void awaitShutdown() {
+        boolean interrupted = false;
+        while(true) {
+            try {
+                shutdownFinished.await();
+                break;
+            } catch (InterruptedException exception) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the steps of the shutdown.
+     *
+     * @author Albert Veldman
+     */
+    private void runShutdown() {
+        printLine(Level.INFO, "Initiated shutdown...");
         logoutNode();
-        printLine("INFO: Shutting down receiver...");
-        receiveHandlerThread.interrupt();
+        for (Tenant tenant : tenants) {
+            tenant.logout();
+        }
+        if(mesh != null) {
+            mesh.stop();
+        }
+        printLine(Level.INFO, "Shutting down receiver...");
+        stopReceiveService();
         waitForShutdown();
+        closeRelayStore();
+        closeGraphClient();
+        closeUserData();
+        for (Tenant tenant : tenants) {
+            tenant.close(GRAPH_CLOSE_TIMEOUT_MILLIS);
+        }
+        if(metricsExporter != null) {
+            metricsExporter.stop();
+        }
+        if(controlServer != null) {
+            controlServer.stop();
+        }
+        closeLog();
+    }
+
+    /**
+     * Lets the NIO receive engine stop accepting and drain its connections within the drain timeout. The
+     * legacy receive handler is interrupted.
+     *
+     * @author Albert Veldman
+     */
+    private void stopReceiveService() {
+        if(receiveHandler instanceof NioReceiveHandler) {
+            ((NioReceiveHandler) receiveHandler).drain(options.getDrainTimeoutMillis());
+        }
+        else {
+            receiveHandlerThread.interrupt();
+        }
+    }
+
+    /**
+     * Waits for the queued graph requests, like the logout at shutdown, to be sent.
+     *
+     * @author Albert Veldman
+     */
+    private void closeGraphClient() {
+        try {
+            if(!graphClient.close(GRAPH_CLOSE_TIMEOUT_MILLIS)) {
+                printLine(Level.WARNING, "Graph requests still pending at shutdown were dropped.");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the user data when it changed since the last write.
+     *
+     * @author Albert Veldman
+     */
+    private void closeUserData() {
+        try {
+            storageManager.close();
+        } catch (IOException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+        }
     }
 
     /**
@@ -252,10 +796,20 @@ public class NodeMain {
      * @author Albert Veldman
      */
     protected void setUserData() {
+        awaitKeySet();
         if(userData.getKeySet() == null) {
             KeySet keySet = KeyGenerator.toKeySet(KeyGenerator.generateRSAKeyPair());
             userData.setKeySet(keySet);
         }
+        setUserSettings();
+    }
+
+    /**
+     * Sets the ports, paths and role of this node
+     *
+     * @author Albert Veldman
+     */
+    private void setUserSettings() {
         if(userData.getNickname() == null) {
             userData.setMessagePort(askMessagePort());
             userData.setFilePort(askFilePort());
@@ -269,10 +823,12 @@ public class NodeMain {
     /**
      * Prints the version number
      *
+     * @param output where the version is printed
+     *
      * @author Albert Veldman
      */
-    protected void printVersion() {
-        printLine("Node version: " + getVersion());
+    protected void printVersion(ICommandOutput output) {
+        output.printLine("Node version: " + getVersion());
     }
 
     /**
@@ -281,19 +837,259 @@ public class NodeMain {
      * @author Albert Veldman
      */
     private void setupReceiveService() {
+        receiveHandler = createReceiveHandler();
         receiveHandler.setupHandler();
+        if(mesh != null) {
+            mesh.start((NioReceiveHandler) receiveHandler, options.getPeers());
+        }
         receiveHandlerThread = new Thread(receiveHandler);
         receiveHandlerThread.start();
     }
 
     /**
-     * Calls CommandHandler and waits for input
+     * Creates the receive handler of the receive engine chosen at startup.
+     *
+     * @return the receive handler
+     *
+     * @author Albert Veldman
+     */
+    private IReceive createReceiveHandler() {
+        switch(options.getReceiveEngine()) {
+            case NIO:
+                printLine(Level.INFO, "Using NIO receive engine.");
+                File relayDirectory = new File(userData.getRelayPath());
+                FileRelay fileRelay = new FileRelay(new File(userData.getTempPath()), new File(relayDirectory, "files"));
+                fileRelay.removeStaleUploads();
+                ChunkStore chunkStore = new ChunkStore(new File(relayDirectory, "chunks"),
+                        ChunkStore.DEFAULT_RETENTION_MILLIS);
+                chunkStore.open(fileRelay);
+                messageStore = createRelayStore(new File(relayDirectory, "messages"));
+                bufferPool = new BufferPool(BufferPool.DEFAULT_MAX_IDLE_BYTES_PER_CLASS,
+                        options.isBufferLeakDetection());
+                metrics = new NodeMetrics();
+                statsReport = new StatsReport(metrics, bufferPool);
+                startMetricsExporter(metrics);
+                mesh = createMesh(metrics);
+                compressor = new FrameCompressor(options.getCompression(),
+                        SelectorLoop.MAX_MESSAGE_FRAME_LENGTH, bufferPool, metrics);
+                drainBudget = new DrainBudget(options.getDrainWindowBytes(), options.getDrainBudgetBytes());
+                relayDispatcher = new RelayDispatcher(messageStore, fileRelay, chunkStore, bufferPool, metrics,
+                        mesh, compressor, drainBudget);
+                admission = new AdmissionControl(options.getRateLimits(), metrics);
+                return new NioReceiveHandler(getMessagePort(), getFilePort(), relayDispatcher,
+                        options.getOutboundOptions(), bufferPool, metrics, admission, options.getReceiveLoops());
+            default:
+                return new ReceiveHandler(null);
+        }
+    }
+
+    /**
+     * Binds the ports of the tenants given at startup on the loops of the NIO receive engine. A tenant that
+     * can't be set up is skipped, the others and the node itself keep running.
+     *
+     * @author Albert Veldman
+     */
+    private void setupTenants() {
+        if(options.getTenants().isEmpty()) {
+            return;
+        }
+        List<Tenant> started = new ArrayList<>();
+        for (TenantConfig config : options.getTenants()) {
+            try {
+                started.add(setupTenant(config));
+                printLine(Level.INFO, "Hosting tenant " + config.getName() + " on ports " + config.getMessagePort()
+                        + " and " + config.getFilePort() + ".");
+            } catch (IOException | IllegalStateException exception) {
+                LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+                printLine(Level.WARNING, "Could not set up tenant " + config.getName() + ".");
+            }
+        }
+        tenants = Collections.unmodifiableList(started);
+    }
+
+    /**
+     * Reads or creates the user data of a tenant, opens its relay directories and binds its ports. Its
+     * directories are in Tenants/name in the working directory. The tenant is started with the rest of the
+     * startup in the background.
+     *
+     * @param config name and ports of the tenant
+     *
+     * @return the tenant, not started yet
+     *
+     * @throws IOException when the user data can't be read or a port can't be bound
+     *
+     * @author Albert Veldman
+     */
+    private Tenant setupTenant(TenantConfig config) throws IOException {
+        File home = new File(System.getProperty("user.dir"), TENANTS_DIRECTORY + File.separator + config.getName());
+        WriteBehindStorageManager tenantStorage = new WriteBehindStorageManager(
+                new FileStorageManager(new File(home, USER_DATA_FILE)),
+                WriteBehindStorageManager.DEFAULT_FLUSH_DELAY_MILLIS);
+        UserData tenantData;
+        try {
+            tenantData = tenantStorage.readUserData();
+        } catch (FileNotFoundException exception) {
+            tenantData = new UserData();
+        }
+        tenantData.setMessagePort(config.getMessagePort());
+        tenantData.setFilePort(config.getFilePort());
+        tenantData.setRelayPath(new File(home, "Relay").getPath());
+        tenantData.setEndpointPath(new File(home, "Endpoint").getPath());
+        tenantData.setTempPath(new File(home, "Temp").getPath());
+        tenantData.setRole(VertexRole.NODE);
+        File relayDirectory = new File(tenantData.getRelayPath());
+        FileRelay fileRelay = new FileRelay(new File(tenantData.getTempPath()), new File(relayDirectory, "files"));
+        fileRelay.removeStaleUploads();
+        ChunkStore chunkStore = new ChunkStore(new File(relayDirectory, "chunks"), ChunkStore.DEFAULT_RETENTION_MILLIS);
+        chunkStore.open(fileRelay);
+        IRelayStore store = createRelayStore(new File(relayDirectory, "messages"));
+        RelayDispatcher dispatcher = new RelayDispatcher(store, fileRelay, chunkStore, bufferPool, metrics, null,
+                compressor, drainBudget);
+        try {
+            ((NioReceiveHandler) receiveHandler).listen(config.getMessagePort(), config.getFilePort(), dispatcher);
+        } catch (IOException | RuntimeException exception) {
+            store.close();
+            throw exception;
+        }
+        return new Tenant(config, tenantData, tenantStorage, store, dispatcher, createGraphService());
+    }
+
+    /**
+     * Prints the tenants this node hosts with their nickname, ports and number of connected endpoints.
+     *
+     * @param output where the tenants are printed
+     *
+     * @author Albert Veldman
+     */
+    protected void printTenants(ICommandOutput output) {
+        List<Tenant> current = tenants;
+        if(current.isEmpty()) {
+            output.printLine("This node hosts no tenants.");
+            return;
+        }
+        for (Tenant tenant : current) {
+            TenantConfig config = tenant.getConfig();
+            String nickname = tenant.getNickname() != null ? tenant.getNickname() : "not registered";
+            output.printLine("- " + config.getName() + " (" + nickname + "): message port " + config.getMessagePort()
+                    + ", file port " + config.getFilePort() + ", "
+                    + tenant.getRelayDispatcher().getEndpoints().size() + " endpoints");
+        }
+    }
+
+    /**
+     * Creates the mesh when a mesh secret was given at startup. The node is named after its nickname unless a
+     * node name was given.
+     *
+     * @param metrics counters for route lookups and forwarded messages
+     *
+     * @return the mesh or null
+     *
+     * @author Albert Veldman
+     */
+    private Mesh createMesh(NodeMetrics metrics) {
+        if(options.getMeshSecret() == null) {
+            return null;
+        }
+        String name = options.getNodeName() != null ? options.getNodeName() : userData.getNickname();
+        if(name == null) {
+            printLine(Level.WARNING, "Mesh disabled, the node has no nickname or node name yet.");
+            return null;
+        }
+        printLine(Level.INFO, "Joining mesh as " + name + " with " + options.getPeers().size() + " peers.");
+        RouteCache routes = new RouteCache(options.getRouteTtlMillis(), options.getRouteCacheSize(),
+                options.getNegativeRouteTtlMillis());
+        return new Mesh(name, new MeshSecret(options.getMeshSecret()), routes, metrics);
+    }
+
+    /**
+     * Starts serving the metrics over HTTP when a metrics port was given at startup.
+     *
+     * @param metrics metrics to serve
+     *
+     * @author Albert Veldman
+     */
+    private void startMetricsExporter(NodeMetrics metrics) {
+        if(options.getMetricsPort() == 0) {
+            return;
+        }
+        PrometheusExporter exporter = new PrometheusExporter(metrics, bufferPool);
+        try {
+            exporter.start(options.getMetricsPort());
+            metricsExporter = exporter;
+            printLine(Level.INFO, "Serving metrics on http://127.0.0.1:" + options.getMetricsPort() + "/metrics");
+        } catch (IOException exception) {
+            LOGGER.log(Level.WARNING, exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Creates the relay store chosen at startup. Falls back to a directory store when the mapped store can't
+     * be opened, so messages are still kept.
+     *
+     * @param directory directory of the store
+     *
+     * @return the relay store
+     *
+     * @author Albert Veldman
+     */
+    private IRelayStore createRelayStore(File directory) {
+        switch(options.getRelayStore()) {
+            case MAPPED:
+                MappedRelayStore store = new MappedRelayStore(directory, MappedRelayStore.DEFAULT_SEGMENT_SIZE);
+                try {
+                    store.open();
+                    return store;
+                } catch (IOException exception) {
+                    LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+                    printLine(Level.WARNING, "Could not open relay store, using directory store.");
+                    return new DirectoryRelayStore(new File(directory, "directory"));
+                }
+            default:
+                return new DirectoryRelayStore(directory);
+        }
+    }
+
+    /**
+     * Closes the relay store so the next start doesn't have to replay it.
+     *
+     * @author Albert Veldman
+     */
+    private void closeRelayStore() {
+        if(messageStore != null) {
+            try {
+                messageStore.close();
+            } catch (IOException exception) {
+                LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+            }
+        }
+    }
+
+    /**
+     * Starts the control server when a control port was given and waits for console input, unless the node
+     * runs as a daemon. A daemon keeps running on the receive and control threads.
      *
      * @author Albert Veldman
      */
     private void mainProgram() {
-        printLine("/help for available commands");
-        commandHandler.waitForInput();
+        if(options.getControlPort() != 0) {
+            controlServer = new ControlServer(options.getControlPort(), commandHandler);
+            try {
+                controlServer.start();
+                printLine(Level.INFO, "Accepting commands on 127.0.0.1:" + options.getControlPort());
+            } catch (IOException exception) {
+                LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+                controlServer = null;
+                if(options.isDaemon()) {
+                    printLine(Level.SEVERE, "Could not start control server, shutting down.");
+                    shutdownNode();
+                    return;
+                }
+            }
+        }
+        if(!options.isDaemon()) {
+            printLine("/help for available commands");
+            commandHandler.waitForInput();
+        }
     }
 
     /**
@@ -301,36 +1097,130 @@ public class NodeMain {
      *
      * @author Albert Veldman
      */
-    private void initialize() {
+    private void initialize(ExecutorService startupExecutor) {
         try {
             initializeUserData();
         } catch (IOException exception) {
             LOGGER.log(Level.INFO, "INFO: No userdata found! Creating new userdata...");
         }
-        setUserData();
+        startupTimer.mark(PHASE_USER_DATA_READ);
+        if(userData.getKeySet() == null) {
+            pendingKeySet = startupExecutor.submit(new Callable<KeySet>() {
+                @Override
+                public KeySet call() {
+                    return KeyGenerator.toKeySet(KeyGenerator.generateRSAKeyPair());
+                }
+            });
+        }
+        else {
+            startupTimer.mark(PHASE_KEYS_READY);
+        }
+        setUserSettings();
+    }
+
+    /**
+     * Waits for the key set that is generated in the background and stores it in the user data.
+     *
+     * @author Albert Veldman
+     */
+    private synchronized void awaitKeySet() {
+        if(pendingKeySet == null) {
+            return;
+        }
+        try {
+            userData.setKeySet(pendingKeySet.get());
+            startupTimer.mark(PHASE_KEYS_READY);
+        } catch (ExecutionException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception.getCause());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        pendingKeySet = null;
     }
 
     /**
-     * Creates a new userdata object using the LocalStorageManager
+     * Runs the startup phases that don't have to finish before the node accepts connections. Waits for the
+     * key set, writes the user data and queues the login when the node is registered, then starts the
+     * tenants. The logins complete on the graph client threads, so a slow graph doesn't delay the startup.
+     *
+     * @author Albert Veldman
+     */
+    private void completeStartup() {
+        awaitKeySet();
+        try {
+            storageManager.writeUserData(userData);
+            storageManager.flush();
+            startupTimer.mark(PHASE_USER_DATA_WRITTEN);
+        } catch (IOException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+        }
+        if(userData.getNickname() != null) {
+            loginNode();
+        }
+        for (Tenant tenant : tenants) {
+            tenant.start();
+        }
+        startupTimer.mark(PHASE_COMPLETED);
+        printLine(Level.INFO, "Startup completed in " + startupTimer.getMillis(PHASE_COMPLETED) + " ms.");
+    }
+
+    /**
+     * Prints how long after the start each startup phase completed
+     *
+     * @param output where the phases are printed
+     *
+     * @author Albert Veldman
+     */
+    protected void printStartup(ICommandOutput output) {
+        for (String line : startupTimer.lines()) {
+            output.printLine(line);
+        }
+        if(metrics == null) {
+            return;
+        }
+        long firstConnection = metrics.getFirstConnectionNanos();
+        if(firstConnection != 0) {
+            output.printLine(String.format(Locale.ENGLISH, "%8.1f ms  %s",
+                    (firstConnection - startupTimer.getStartNanos()) / 1e6, "First connection accepted"));
+        }
+        else {
+            output.printLine("No connection accepted yet.");
+        }
+    }
+
+    /**
+     * Creates a new userdata object using the LocalStorageManager. The user data is kept in the working
+     * directory; until it is written there the first time it is read from the desktop storage manager, so a
+     * node keeps the identity it had before.
      *
      * @throws IOException
      *
      * @author Albert Veldman
      */
     private void initializeUserData() throws IOException {
-        storageManager = new DesktopLocalStorageManager();
+        File file = new File(System.getProperty("user.dir"), USER_DATA_FILE);
+        storageManager = new WriteBehindStorageManager(new FileStorageManager(file, new DesktopLocalStorageManager()),
+                WriteBehindStorageManager.DEFAULT_FLUSH_DELAY_MILLIS);
         UserConfig.getInstance(storageManager).setUserData(storageManager.readUserData());
         userData = UserConfig.getInstance().getUserData();
     }
 
     /**
-     * Ask user if they want to use the standard port or want to choose one themself
+     * Ask user if they want to use the standard port or want to choose one themself, unless the port was given
+     * at startup. A daemon uses the standard port without asking.
      *
      * @return Standard message port or message port that user specified
      *
      * @author Albert Veldman
      */
     private int askMessagePort() {
+        if(options.getMessagePort() != 0) {
+            return options.getMessagePort();
+        }
+        if(options.isDaemon()) {
+            return standardMessagePort;
+        }
         int messagePort = commandHandler.askPort(standardMessagePort, "messages");
         if(messagePort == -1) {
             return standardMessagePort;
@@ -339,13 +1229,20 @@ public class NodeMain {
     }
 
     /**
-     * Ask user if they want to use the standard port or want to choose one themself
+     * Ask user if they want to use the standard port or want to choose one themself, unless the port was given
+     * at startup. A daemon uses the standard port without asking.
      *
      * @return Standard file port or file port that user specified
      *
      * @author Albert Veldman
      */
     private int askFilePort() {
+        if(options.getFilePort() != 0) {
+            return options.getFilePort();
+        }
+        if(options.isDaemon()) {
+            return standardFilePort;
+        }
         int filePort = commandHandler.askPort(standardFilePort, "files");
         if(filePort == -1) {
             return standardFilePort;
@@ -355,17 +1252,21 @@ public class NodeMain {
     }
 
     /**
-     * Waits until receiver thread is shutdown and closes the application
+     * Waits until receiver thread is shutdown. When it is still running after the drain timeout it is
+     * interrupted.
      *
      * @author Albert Veldman
      */
     private void waitForShutdown() {
-        while(receiveHandlerThread.isAlive()) {
-            try {
-                Thread.sleep(200);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        try {
+            receiveHandlerThread.join(options.getDrainTimeoutMillis() + SHUTDOWN_GRACE_MILLIS);
+            if(receiveHandlerThread.isAlive()) {
+                LOGGER.log(Level.WARNING, "Receive service did not stop in time, interrupting it");
+                receiveHandlerThread.interrupt();
+                receiveHandlerThread.join();
             }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -0,0 +1,871 @@
+package im.inco.node;
+
+import im.inco.node.admission.RateLimits;
+import im.inco.node.graph.GraphType;
+import im.inco.node.logging.RollingFileSink;
+import im.inco.node.mesh.RouteCache;
+import im.inco.node.protocol.Codec;
+import im.inco.node.receive.OutboundOptions;
+import im.inco.node.receive.ReceiveEngine;
+import im.inco.node.relay.DrainBudget;
+import im.inco.node.relay.RelayStoreType;
+import im.inco.node.tenant.TenantConfig;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+
+/**
+ * Startup options of the node, parsed from the command line arguments.
+ *
+ * @author Albert Veldman
+ */
+public class NodeOptions {
+    /**
+     * Prefix of the option that selects the receive engine
+     */
+    private static final String RECEIVE_ENGINE_OPTION = "--receive-engine=";
+
+    /**
+     * Prefix of the option that sets the number of loops serving the connections of the NIO receive engine
+     */
+    private static final String RECEIVE_LOOPS_OPTION = "--receive-loops=";
+
+    /**
+     * Prefix of the option that selects the relay store
+     */
+    private static final String RELAY_STORE_OPTION = "--relay-store=";
+
+    /**
+     * Prefix of the option that sets the maximum number of messages per gathering write
+     */
+    private static final String BATCH_MESSAGES_OPTION = "--batch-messages=";
+
+    /**
+     * Prefix of the option that sets the maximum number of bytes per gathering write
+     */
+    private static final String BATCH_BYTES_OPTION = "--batch-bytes=";
+
+    /**
+     * Prefix of the option that sets the time writes wait for more writes to the same endpoint
+     */
+    private static final String LINGER_OPTION = "--linger-ms=";
+
+    /**
+     * Prefix of the option that sets the maximum number of bytes queued for one endpoint
+     */
+    private static final String MAX_PENDING_OPTION = "--max-pending-bytes=";
+
+    /**
+     * Prefix of the option that sets the maximum size of a window of stored messages sent to an endpoint
+     */
+    private static final String DRAIN_WINDOW_OPTION = "--drain-window-bytes=";
+
+    /**
+     * Prefix of the option that sets the memory all windows of stored messages may hold together
+     */
+    private static final String DRAIN_BUDGET_OPTION = "--drain-budget-bytes=";
+
+    /**
+     * Option that reports pooled buffers which are never released
+     */
+    private static final String BUFFER_LEAK_DETECTION_OPTION = "--buffer-leak-detection";
+
+    /**
+     * Prefix of the option that sets the loopback port the metrics are served on
+     */
+    private static final String METRICS_PORT_OPTION = "--metrics-port=";
+
+    /**
+     * Option that runs the node without console, commands are only accepted on the control port
+     */
+    private static final String DAEMON_OPTION = "--daemon";
+
+    /**
+     * Prefix of the option that sets the loopback port commands are accepted on
+     */
+    private static final String CONTROL_PORT_OPTION = "--control-port=";
+
+    /**
+     * Prefix of the option that sets the message port used when the node is registered
+     */
+    private static final String MESSAGE_PORT_OPTION = "--message-port=";
+
+    /**
+     * Prefix of the option that sets the file port used when the node is registered
+     */
+    private static final String FILE_PORT_OPTION = "--file-port=";
+
+    /**
+     * Prefix of the option that sets the time connections get to drain when the node shuts down
+     */
+    private static final String DRAIN_TIMEOUT_OPTION = "--drain-timeout-ms=";
+
+    /**
+     * Prefix of the option that sets the frames per second every nickname may send
+     */
+    private static final String MAX_MESSAGES_PER_SECOND_OPTION = "--max-messages-per-second=";
+
+    /**
+     * Prefix of the option that sets the bytes per second every nickname may send
+     */
+    private static final String MAX_BYTES_PER_SECOND_OPTION = "--max-bytes-per-second=";
+
+    /**
+     * Prefix of the option that sets the frames per second every remote address may send
+     */
+    private static final String MAX_ADDRESS_MESSAGES_PER_SECOND_OPTION = "--max-address-messages-per-second=";
+
+    /**
+     * Prefix of the option that sets the bytes per second every remote address may send
+     */
+    private static final String MAX_ADDRESS_BYTES_PER_SECOND_OPTION = "--max-address-bytes-per-second=";
+
+    /**
+     * Prefix of the option that sets the maximum number of open connections
+     */
+    private static final String MAX_CONNECTIONS_OPTION = "--max-connections=";
+
+    /**
+     * Prefix of the option that sets the bytes per second the file port may receive and send together
+     */
+    private static final String MAX_BULK_BYTES_PER_SECOND_OPTION = "--max-bulk-bytes-per-second=";
+
+    /**
+     * Prefix of the option that sets the lowest logged level
+     */
+    private static final String LOG_LEVEL_OPTION = "--log-level=";
+
+    /**
+     * Prefix of the option that writes the log to a rolling file as well
+     */
+    private static final String LOG_FILE_OPTION = "--log-file=";
+
+    /**
+     * Prefix of the option that sets the size in bytes at which the log file is rolled
+     */
+    private static final String LOG_FILE_SIZE_OPTION = "--log-file-size=";
+
+    /**
+     * Prefix of the option that selects the graph the node registers at
+     */
+    private static final String GRAPH_OPTION = "--graph=";
+
+    /**
+     * Prefix of the option that sets the secret shared by the nodes of a mesh
+     */
+    private static final String MESH_SECRET_OPTION = "--mesh-secret=";
+
+    /**
+     * Prefix of the option that lists the message ports of the other nodes of the mesh
+     */
+    private static final String PEERS_OPTION = "--peers=";
+
+    /**
+     * Prefix of the option that sets the name of the node in the mesh
+     */
+    private static final String NODE_NAME_OPTION = "--node-name=";
+
+    /**
+     * Prefix of the option that sets how long a route to a remote endpoint is used
+     */
+    private static final String ROUTE_TTL_OPTION = "--route-ttl-ms=";
+
+    /**
+     * Prefix of the option that sets the maximum number of cached routes to remote endpoints
+     */
+    private static final String ROUTE_CACHE_SIZE_OPTION = "--route-cache-size=";
+
+    /**
+     * Prefix of the option that sets how long a remote endpoint without a route is not asked for again
+     */
+    private static final String NEGATIVE_ROUTE_TTL_OPTION = "--negative-route-ttl-ms=";
+
+    /**
+     * Prefix of the option that selects the codec offered to endpoints
+     */
+    private static final String COMPRESSION_OPTION = "--compression=";
+
+    /**
+     * Prefix of the option that adds an identity hosted next to the node's own, may be given more than once
+     */
+    private static final String TENANT_OPTION = "--tenant=";
+
+    /**
+     * Default time connections get to drain when the node shuts down
+     */
+    private static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Receive engine used to listen on the message and file port
+     */
+    private ReceiveEngine receiveEngine = ReceiveEngine.LEGACY;
+
+    /**
+     * Number of loops serving the connections of the NIO receive engine
+     */
+    private int receiveLoops = 1;
+
+    /**
+     * Store used for messages to offline endpoints
+     */
+    private RelayStoreType relayStore = RelayStoreType.MAPPED;
+
+    /**
+     * Limits for batching and buffering writes to endpoints
+     */
+    private OutboundOptions outboundOptions = OutboundOptions.defaults();
+
+    /**
+     * Maximum size of a window of stored messages sent to an endpoint
+     */
+    private int drainWindowBytes = DrainBudget.DEFAULT_WINDOW_BYTES;
+
+    /**
+     * Memory all windows of stored messages may hold together
+     */
+    private long drainBudgetBytes = DrainBudget.DEFAULT_MAX_BYTES;
+
+    /**
+     * Whether pooled buffers that are never released are reported
+     */
+    private boolean bufferLeakDetection;
+
+    /**
+     * Loopback port the metrics are served on, 0 when they are not served
+     */
+    private int metricsPort;
+
+    /**
+     * Whether the node runs without console
+     */
+    private boolean daemon;
+
+    /**
+     * Loopback port commands are accepted on, 0 when there is no control server
+     */
+    private int controlPort;
+
+    /**
+     * Message port used when the node is registered, 0 to ask or use the standard port
+     */
+    private int messagePort;
+
+    /**
+     * File port used when the node is registered, 0 to ask or use the standard port
+     */
+    private int filePort;
+
+    /**
+     * Time connections get to drain when the node shuts down
+     */
+    private long drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MILLIS;
+
+    /**
+     * Limits endpoints are admitted with
+     */
+    private RateLimits rateLimits = RateLimits.unlimited();
+
+    /**
+     * Lowest logged level
+     */
+    private Level logLevel = Level.INFO;
+
+    /**
+     * File the log is written to as well, null for the console only
+     */
+    private File logFile;
+
+    /**
+     * Size in bytes at which the log file is rolled
+     */
+    private long logFileSize = RollingFileSink.DEFAULT_MAX_BYTES;
+
+    /**
+     * Graph the node registers and logs in at
+     */
+    private GraphType graph = GraphType.SHARED;
+
+    /**
+     * Secret shared by the nodes of the mesh, null when the node is not part of a mesh
+     */
+    private String meshSecret;
+
+    /**
+     * Message ports of the other nodes of the mesh this node opens links to
+     */
+    private List<InetSocketAddress> peers = Collections.emptyList();
+
+    /**
+     * Name of the node in the mesh, null to use the nickname of the node
+     */
+    private String nodeName;
+
+    /**
+     * Time a route to a remote endpoint is used after it was learned
+     */
+    private long routeTtlMillis = RouteCache.DEFAULT_TTL_MILLIS;
+
+    /**
+     * Maximum number of cached routes to remote endpoints
+     */
+    private int routeCacheSize = RouteCache.DEFAULT_MAX_ROUTES;
+
+    /**
+     * Time a remote endpoint without a route is not asked for again
+     */
+    private long negativeRouteTtlMillis = RouteCache.DEFAULT_NEGATIVE_TTL_MILLIS;
+
+    /**
+     * Codec offered to endpoints, NONE to turn compression off
+     */
+    private Codec compression = Codec.DEFLATE;
+
+    /**
+     * Identities hosted next to the node's own
+     */
+    private final List<TenantConfig> tenants = new ArrayList<>();
+
+    /**
+     * Parses the command line arguments into a NodeOptions object.
+     *
+     * @param args command line arguments given to the application
+     *
+     * @return the parsed options
+     *
+     * @throws IllegalArgumentException when an argument is not a known option
+     *
+     * @author Albert Veldman
+     */
+    public static NodeOptions parse(String[] args) {
+        NodeOptions options = new NodeOptions();
+        OutboundOptions outbound = OutboundOptions.defaults();
+        int batchMessages = outbound.getMaxBatchMessages();
+        int batchBytes = outbound.getMaxBatchBytes();
+        int lingerMillis = outbound.getLingerMillis();
+        long maxPendingBytes = outbound.getMaxPendingBytes();
+        long messagesPerSecond = 0;
+        long bytesPerSecond = 0;
+        long addressMessagesPerSecond = 0;
+        long addressBytesPerSecond = 0;
+        int maxConnections = 0;
+        long bulkBytesPerSecond = 0;
+        for (String arg : args) {
+            if(arg.startsWith(RECEIVE_ENGINE_OPTION)) {
+                options.receiveEngine = ReceiveEngine.fromOption(arg.substring(RECEIVE_ENGINE_OPTION.length()));
+            }
+            else if(arg.startsWith(RECEIVE_LOOPS_OPTION)) {
+                options.receiveLoops = Integer.parseInt(arg.substring(RECEIVE_LOOPS_OPTION.length()));
+                if(options.receiveLoops < 1) {
+                    throw new IllegalArgumentException("Invalid number of receive loops: " + arg);
+                }
+            }
+            else if(arg.startsWith(RELAY_STORE_OPTION)) {
+                options.relayStore = RelayStoreType.fromOption(arg.substring(RELAY_STORE_OPTION.length()));
+            }
+            else if(arg.startsWith(BATCH_MESSAGES_OPTION)) {
+                batchMessages = Integer.parseInt(arg.substring(BATCH_MESSAGES_OPTION.length()));
+            }
+            else if(arg.startsWith(BATCH_BYTES_OPTION)) {
+                batchBytes = Integer.parseInt(arg.substring(BATCH_BYTES_OPTION.length()));
+            }
+            else if(arg.startsWith(LINGER_OPTION)) {
+                lingerMillis = Integer.parseInt(arg.substring(LINGER_OPTION.length()));
+            }
+            else if(arg.startsWith(MAX_PENDING_OPTION)) {
+                maxPendingBytes = Long.parseLong(arg.substring(MAX_PENDING_OPTION.length()));
+            }
+            else if(arg.startsWith(DRAIN_WINDOW_OPTION)) {
+                options.drainWindowBytes = Integer.parseInt(arg.substring(DRAIN_WINDOW_OPTION.length()));
+                if(options.drainWindowBytes < 1) {
+                    throw new IllegalArgumentException("Invalid drain window: " + arg);
+                }
+            }
+            else if(arg.startsWith(DRAIN_BUDGET_OPTION)) {
+                options.drainBudgetBytes = Long.parseLong(arg.substring(DRAIN_BUDGET_OPTION.length()));
+            }
+            else if(arg.equals(BUFFER_LEAK_DETECTION_OPTION)) {
+                options.bufferLeakDetection = true;
+            }
+            else if(arg.startsWith(METRICS_PORT_OPTION)) {
+                options.metricsPort = parsePort(arg, METRICS_PORT_OPTION);
+            }
+            else if(arg.equals(DAEMON_OPTION)) {
+                options.daemon = true;
+            }
+            else if(arg.startsWith(CONTROL_PORT_OPTION)) {
+                options.controlPort = parsePort(arg, CONTROL_PORT_OPTION);
+            }
+            else if(arg.startsWith(MESSAGE_PORT_OPTION)) {
+                options.messagePort = parsePort(arg, MESSAGE_PORT_OPTION);
+            }
+            else if(arg.startsWith(FILE_PORT_OPTION)) {
+                options.filePort = parsePort(arg, FILE_PORT_OPTION);
+            }
+            else if(arg.startsWith(DRAIN_TIMEOUT_OPTION)) {
+                options.drainTimeoutMillis = Long.parseLong(arg.substring(DRAIN_TIMEOUT_OPTION.length()));
+                if(options.drainTimeoutMillis < 0) {
+                    throw new IllegalArgumentException("Invalid drain timeout: " + arg);
+                }
+            }
+            else if(arg.startsWith(MAX_MESSAGES_PER_SECOND_OPTION)) {
+                messagesPerSecond = Long.parseLong(arg.substring(MAX_MESSAGES_PER_SECOND_OPTION.length()));
+            }
+            else if(arg.startsWith(MAX_BYTES_PER_SECOND_OPTION)) {
+                bytesPerSecond = Long.parseLong(arg.substring(MAX_BYTES_PER_SECOND_OPTION.length()));
+            }
+            else if(arg.startsWith(MAX_ADDRESS_MESSAGES_PER_SECOND_OPTION)) {
+                addressMessagesPerSecond = Long.parseLong(
+                        arg.substring(MAX_ADDRESS_MESSAGES_PER_SECOND_OPTION.length()));
+            }
+            else if(arg.startsWith(MAX_ADDRESS_BYTES_PER_SECOND_OPTION)) {
+                addressBytesPerSecond = Long.parseLong(arg.substring(MAX_ADDRESS_BYTES_PER_SECOND_OPTION.length()));
+            }
+            else if(arg.startsWith(MAX_CONNECTIONS_OPTION)) {
+                maxConnections = Integer.parseInt(arg.substring(MAX_CONNECTIONS_OPTION.length()));
+            }
+            else if(arg.startsWith(MAX_BULK_BYTES_PER_SECOND_OPTION)) {
+                bulkBytesPerSecond = Long.parseLong(arg.substring(MAX_BULK_BYTES_PER_SECOND_OPTION.length()));
+            }
+            else if(arg.startsWith(LOG_LEVEL_OPTION)) {
+                try {
+                    String level = arg.substring(LOG_LEVEL_OPTION.length()).toUpperCase(Locale.ENGLISH);
+                    options.logLevel = Level.parse(level);
+                } catch (IllegalArgumentException exception) {
+                    throw new IllegalArgumentException("Invalid log level: " + arg);
+                }
+            }
+            else if(arg.startsWith(LOG_FILE_OPTION)) {
+                options.logFile = new File(arg.substring(LOG_FILE_OPTION.length()));
+            }
+            else if(arg.startsWith(LOG_FILE_SIZE_OPTION)) {
+                options.logFileSize = Long.parseLong(arg.substring(LOG_FILE_SIZE_OPTION.length()));
+                if(options.logFileSize < 1) {
+                    throw new IllegalArgumentException("Invalid log file size: " + arg);
+                }
+            }
+            else if(arg.startsWith(GRAPH_OPTION)) {
+                options.graph = GraphType.fromOption(arg.substring(GRAPH_OPTION.length()));
+            }
+            else if(arg.startsWith(MESH_SECRET_OPTION)) {
+                options.meshSecret = arg.substring(MESH_SECRET_OPTION.length());
+                if(options.meshSecret.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid mesh secret: " + arg);
+                }
+            }
+            else if(arg.startsWith(PEERS_OPTION)) {
+                options.peers = parsePeers(arg);
+            }
+            else if(arg.startsWith(NODE_NAME_OPTION)) {
+                options.nodeName = arg.substring(NODE_NAME_OPTION.length());
+                if(options.nodeName.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid node name: " + arg);
+                }
+            }
+            else if(arg.startsWith(ROUTE_TTL_OPTION)) {
+                options.routeTtlMillis = Long.parseLong(arg.substring(ROUTE_TTL_OPTION.length()));
+                if(options.routeTtlMillis < 1) {
+                    throw new IllegalArgumentException("Invalid route time to live: " + arg);
+                }
+            }
+            else if(arg.startsWith(ROUTE_CACHE_SIZE_OPTION)) {
+                options.routeCacheSize = Integer.parseInt(arg.substring(ROUTE_CACHE_SIZE_OPTION.length()));
+                if(options.routeCacheSize < 1) {
+                    throw new IllegalArgumentException("Invalid route cache size: " + arg);
+                }
+            }
+            else if(arg.startsWith(NEGATIVE_ROUTE_TTL_OPTION)) {
+                options.negativeRouteTtlMillis = Long.parseLong(arg.substring(NEGATIVE_ROUTE_TTL_OPTION.length()));
+                if(options.negativeRouteTtlMillis < 0) {
+                    throw new IllegalArgumentException("Invalid negative route time to live: " + arg);
+                }
+            }
+            else if(arg.startsWith(COMPRESSION_OPTION)) {
+                options.compression = Codec.fromOption(arg.substring(COMPRESSION_OPTION.length()));
+            }
+            else if(arg.startsWith(TENANT_OPTION)) {
+                options.addTenant(TenantConfig.fromOption(arg.substring(TENANT_OPTION.length())));
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        options.outboundOptions = new OutboundOptions(batchMessages, batchBytes, lingerMillis, maxPendingBytes);
+        options.rateLimits = new RateLimits(messagesPerSecond, bytesPerSecond, addressMessagesPerSecond,
+                addressBytesPerSecond, maxConnections, bulkBytesPerSecond);
+        if(options.drainBudgetBytes < options.drainWindowBytes) {
+            throw new IllegalArgumentException(DRAIN_BUDGET_OPTION + " must be at least the drain window of "
+                    + options.drainWindowBytes + " bytes");
+        }
+        if(options.daemon && options.controlPort == 0) {
+            throw new IllegalArgumentException(DAEMON_OPTION + " needs " + CONTROL_PORT_OPTION + "<port>");
+        }
+        if(options.meshSecret == null && !options.peers.isEmpty()) {
+            throw new IllegalArgumentException(PEERS_OPTION + " needs " + MESH_SECRET_OPTION + "<secret>");
+        }
+        if(!options.tenants.isEmpty() && options.receiveEngine != ReceiveEngine.NIO) {
+            throw new IllegalArgumentException(TENANT_OPTION + " needs " + RECEIVE_ENGINE_OPTION + "nio");
+        }
+        return options;
+    }
+
+    /**
+     * Adds a tenant unless its name or one of its ports is used by another tenant already.
+     *
+     * @param tenant the tenant
+     *
+     * @throws IllegalArgumentException when the name or a port is taken
+     *
+     * @author Albert Veldman
+     */
+    private void addTenant(TenantConfig tenant) {
+        for (TenantConfig other : tenants) {
+            if(other.getName().equals(tenant.getName())) {
+                throw new IllegalArgumentException("Duplicate tenant: " + tenant.getName());
+            }
+            if(other.getMessagePort() == tenant.getMessagePort() || other.getMessagePort() == tenant.getFilePort()
+                    || other.getFilePort() == tenant.getMessagePort() || other.getFilePort() == tenant.getFilePort()) {
+                throw new IllegalArgumentException("Tenant ports already in use: " + tenant);
+            }
+        }
+        tenants.add(tenant);
+    }
+
+    /**
+     * Parses the comma separated host:port list of the peers option. The hosts are resolved when the links
+     * are opened, so a peer that is not up yet doesn't fail the startup.
+     *
+     * @param arg the argument
+     *
+     * @return unresolved addresses of the peers
+     *
+     * @throws IllegalArgumentException when an entry is not a host and a valid port
+     *
+     * @author Albert Veldman
+     */
+    private static List<InetSocketAddress> parsePeers(String arg) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : arg.substring(PEERS_OPTION.length()).split(",")) {
+            int separator = peer.lastIndexOf(':');
+            if(separator < 1) {
+                throw new IllegalArgumentException("Invalid peer: " + peer);
+            }
+            int port = Integer.parseInt(peer.substring(separator + 1));
+            if(port < 1 || port > 65535) {
+                throw new IllegalArgumentException("Invalid peer port: " + peer);
+            }
+            peers.add(InetSocketAddress.createUnresolved(peer.substring(0, separator), port));
+        }
+        return peers;
+    }
+
+    /**
+     * Parses the port of a port option.
+     *
+     * @param arg the argument
+     * @param prefix prefix of the option
+     *
+     * @return the port
+     *
+     * @throws IllegalArgumentException when the value is not a valid port
+     *
+     * @author Albert Veldman
+     */
+    private static int parsePort(String arg, String prefix) {
+        int port = Integer.parseInt(arg.substring(prefix.length()));
+        if(port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port: " + arg);
+        }
+        return port;
+    }
+
+    /**
+     * Get the receive engine that should be started.
+     *
+     * @return receive engine
+     *
+     * @author Albert Veldman
+     */
+    public ReceiveEngine getReceiveEngine() {
+        return receiveEngine;
+    }
+
+    /**
+     * Get the number of loops that should serve the connections of the NIO receive engine.
+     *
+     * @return number of receive loops
+     *
+     * @author Albert Veldman
+     */
+    public int getReceiveLoops() {
+        return receiveLoops;
+    }
+
+    /**
+     * Get the store that should be used for messages to offline endpoints.
+     *
+     * @return relay store type
+     *
+     * @author Albert Veldman
+     */
+    public RelayStoreType getRelayStore() {
+        return relayStore;
+    }
+
+    /**
+     * Get the limits for batching and buffering writes to endpoints.
+     *
+     * @return outbound options
+     *
+     * @author Albert Veldman
+     */
+    public OutboundOptions getOutboundOptions() {
+        return outboundOptions;
+    }
+
+    /**
+     * Get the maximum size of a window of stored messages sent to an endpoint.
+     *
+     * @return drain window in bytes
+     *
+     * @author Albert Veldman
+     */
+    public int getDrainWindowBytes() {
+        return drainWindowBytes;
+    }
+
+    /**
+     * Get the memory all windows of stored messages may hold together.
+     *
+     * @return drain budget in bytes
+     *
+     * @author Albert Veldman
+     */
+    public long getDrainBudgetBytes() {
+        return drainBudgetBytes;
+    }
+
+    /**
+     * Get whether pooled buffers that are never released should be reported.
+     *
+     * @return true when leak detection is on
+     *
+     * @author Albert Veldman
+     */
+    public boolean isBufferLeakDetection() {
+        return bufferLeakDetection;
+    }
+
+    /**
+     * Get the loopback port the metrics should be served on.
+     *
+     * @return metrics port or 0 when the metrics should not be served
+     *
+     * @author Albert Veldman
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Get whether the node runs without console.
+     *
+     * @return true when running as a daemon
+     *
+     * @author Albert Veldman
+     */
+    public boolean isDaemon() {
+        return daemon;
+    }
+
+    /**
+     * Get the loopback port commands are accepted on.
+     *
+     * @return control port or 0 when there is no control server
+     *
+     * @author Albert Veldman
+     */
+    public int getControlPort() {
+        return controlPort;
+    }
+
+    /**
+     * Get the message port to use when the node is registered.
+     *
+     * @return message port or 0 when it was not given
+     *
+     * @author Albert Veldman
+     */
+    public int getMessagePort() {
+        return messagePort;
+    }
+
+    /**
+     * Get the file port to use when the node is registered.
+     *
+     * @return file port or 0 when it was not given
+     *
+     * @author Albert Veldman
+     */
+    public int getFilePort() {
+        return filePort;
+    }
+
+    /**
+     * Get the time connections get to drain when the node shuts down.
+     *
+     * @return drain timeout in milliseconds
+     *
+     * @author Albert Veldman
+     */
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    /**
+     * Get the limits endpoints should be admitted with.
+     *
+     * @return rate limits
+     *
+     * @author Albert Veldman
+     */
+    public RateLimits getRateLimits() {
+        return rateLimits;
+    }
+
+    /**
+     * Get the lowest level that should be logged.
+     *
+     * @return log level
+     *
+     * @author Albert Veldman
+     */
+    public Level getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * Get the file the log should be written to as well.
+     *
+     * @return log file, or null for the console only
+     *
+     * @author Albert Veldman
+     */
+    public File getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * Get the size in bytes at which the log file should be rolled.
+     *
+     * @return log file size
+     *
+     * @author Albert Veldman
+     */
+    public long getLogFileSize() {
+        return logFileSize;
+    }
+
+    /**
+     * Get the graph the node should register and log in at.
+     *
+     * @return graph type
+     *
+     * @author Albert Veldman
+     */
+    public GraphType getGraph() {
+        return graph;
+    }
+
+    /**
+     * Get the secret shared by the nodes of the mesh.
+     *
+     * @return mesh secret or null when the node is not part of a mesh
+     *
+     * @author Albert Veldman
+     */
+    public String getMeshSecret() {
+        return meshSecret;
+    }
+
+    /**
+     * Get the message ports of the other nodes of the mesh this node opens links to.
+     *
+     * @return unresolved peer addresses
+     *
+     * @author Albert Veldman
+     */
+    public List<InetSocketAddress> getPeers() {
+        return peers;
+    }
+
+    /**
+     * Get the name of the node in the mesh.
+     *
+     * @return node name or null to use the nickname of the node
+     *
+     * @author Albert Veldman
+     */
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    /**
+     * Get the time a route to a remote endpoint is used after it was learned.
+     *
+     * @return route time to live in milliseconds
+     *
+     * @author Albert Veldman
+     */
+    public long getRouteTtlMillis() {
+        return routeTtlMillis;
+    }
+
+    /**
+     * Get the maximum number of cached routes to remote endpoints.
+     *
+     * @return route cache size
+     *
+     * @author Albert Veldman
+     */
+    public int getRouteCacheSize() {
+        return routeCacheSize;
+    }
+
+    /**
+     * Get the time a remote endpoint without a route is not asked for again.
+     *
+     * @return negative route time to live in milliseconds
+     *
+     * @author Albert Veldman
+     */
+    public long getNegativeRouteTtlMillis() {
+        return negativeRouteTtlMillis;
+    }
+
+    /**
+     * Get the codec offered to endpoints.
+     *
+     * @return codec, NONE when compression is off
+     *
+     * @author Albert Veldman
+     */
+    public Codec getCompression() {
+        return compression;
+    }
+
+    /**
+     * Get the identities hosted next to the node's own.
+     *
+     * @return tenants, empty when the node hosts only its own identity
+     *
+     * @author Albert Veldman
+     */
+    public List<TenantConfig> getTenants() {
+        return tenants;
+    }
+}
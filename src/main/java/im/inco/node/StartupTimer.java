@@ -0,0 +1,77 @@
+package im.inco.node;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records how long after the start of the node each startup phase completed.
+ *
+ * @author Albert Veldman
+ */
+public class StartupTimer {
+    /**
+     * System.nanoTime when the node started
+     */
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Completed phases in order of completion, with their time since start in nanoseconds
+     */
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    /**
+     * Records that a phase completed. Only the first completion of a phase is kept.
+     *
+     * @param phase name of the phase
+     *
+     * @author Albert Veldman
+     */
+    public synchronized void mark(String phase) {
+        if(!phases.containsKey(phase)) {
+            phases.put(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Get the time the node started.
+     *
+     * @return System.nanoTime of the start
+     *
+     * @author Albert Veldman
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * Get the time since start of a phase.
+     *
+     * @param phase name of the phase
+     *
+     * @return milliseconds since start or -1 when the phase didn't complete yet
+     *
+     * @author Albert Veldman
+     */
+    public synchronized long getMillis(String phase) {
+        Long nanos = phases.get(phase);
+        return nanos == null ? -1 : nanos / 1000000;
+    }
+
+    /**
+     * Creates a line per completed phase.
+     *
+     * @return lines to print
+     *
+     * @author Albert Veldman
+     */
+    public synchronized List<String> lines() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            lines.add(String.format(Locale.ENGLISH, "%8.1f ms  %s", phase.getValue() / 1e6, phase.getKey()));
+        }
+        return lines;
+    }
+}
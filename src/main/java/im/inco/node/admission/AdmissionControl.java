@@ -0,0 +1,318 @@
+package im.inco.node.admission;
+
+import im.inco.node.metrics.NodeMetrics;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which connections and frames the receive engine admits. Connections above the connection cap are
+ * closed as soon as they are accepted. Every remote address and every announced nickname has a token bucket for
+ * frames and one for bytes; a frame is only admitted when the buckets of its connection hold tokens, which is
+ * checked as soon as its length is known and before its payload is buffered. A connection whose frame is not
+ * admitted stops reading until the buckets refilled, so its sender is slowed down by TCP flow control while the
+ * other endpoints are served as usual. The file port of the node shares one byte bucket for the bulk rate; a
+ * file port connection pauses while it is empty. The limits can be changed while the node runs.
+ *
+ * @author Albert Veldman
+ */
+public class AdmissionControl {
+    /**
+     * Time after which the buckets of an address or nickname that sent nothing are dropped
+     */
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * Time between two sweeps for idle buckets
+     */
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Counters for rejected connections and throttled frames
+     */
+    private final NodeMetrics metrics;
+
+    /**
+     * Current limits
+     */
+    private volatile RateLimits limits;
+
+    /**
+     * Number of open connections on both ports
+     */
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * Buckets per remote address
+     */
+    private final ConcurrentMap<InetAddress, Buckets> addresses = new ConcurrentHashMap<>();
+
+    /**
+     * Buckets per announced nickname
+     */
+    private final ConcurrentMap<String, Buckets> nicknames = new ConcurrentHashMap<>();
+
+    /**
+     * System.nanoTime of the next sweep for idle buckets
+     */
+    private final AtomicLong nextSweepNanos = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+
+    /**
+     * Bucket for the bytes of the file port of the node
+     */
+    private final TokenBucket bulk = new TokenBucket(System.nanoTime());
+
+    /**
+     * Creates admission control.
+     *
+     * @param limits initial limits
+     * @param metrics counters for rejected connections and throttled frames
+     *
+     * @author Albert Veldman
+     */
+    public AdmissionControl(RateLimits limits, NodeMetrics metrics) {
+        this.limits = limits;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Admits a new connection when the connection cap allows it. Every admitted connection must be passed to
+     * connectionClosed when it closes.
+     *
+     * @return true when the connection is admitted
+     *
+     * @author Albert Veldman
+     */
+    public boolean admitConnection() {
+        int max = limits.getMaxConnections();
+        while(true) {
+            int open = connections.get();
+            if(max > 0 && open >= max) {
+                metrics.connectionRejected();
+                return false;
+            }
+            if(connections.compareAndSet(open, open + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases the slot of an admitted connection.
+     *
+     * @author Albert Veldman
+     */
+    public void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Admits a frame when the buckets of the address and nickname of its connection hold tokens, and takes
+     * the frame from them.
+     *
+     * @param address remote address of the connection
+     * @param nickname nickname the endpoint announced, null when it didn't yet
+     * @param length length of the frame
+     *
+     * @return 0 when the frame is admitted, otherwise the time to wait in nanoseconds before asking again
+     *
+     * @author Albert Veldman
+     */
+    public long admitFrame(InetAddress address, String nickname, int length) {
+        RateLimits current = limits;
+        if(!current.isRateLimited()) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        sweep(now);
+        long addressMessages = current.getAddressMessagesPerSecond();
+        long addressBytes = current.getAddressBytesPerSecond();
+        Buckets byAddress = null;
+        long delay = 0;
+        if(addressMessages > 0 || addressBytes > 0) {
+            byAddress = buckets(addresses, address, now);
+            delay = byAddress.delayNanos(addressMessages, addressBytes, now);
+        }
+        Buckets byNickname = null;
+        if(nickname != null && (current.getMessagesPerSecond() > 0 || current.getBytesPerSecond() > 0)) {
+            byNickname = buckets(nicknames, nickname, now);
+            delay = Math.max(delay, byNickname.delayNanos(current.getMessagesPerSecond(),
+                    current.getBytesPerSecond(), now));
+        }
+        if(delay > 0) {
+            metrics.frameThrottled();
+            return delay;
+        }
+        if(byAddress != null) {
+            byAddress.take(addressMessages, addressBytes, length);
+        }
+        if(byNickname != null) {
+            byNickname.take(current.getMessagesPerSecond(), current.getBytesPerSecond(), length);
+        }
+        return 0;
+    }
+
+    /**
+     * Asks whether the file port may transfer more bytes under the bulk rate.
+     *
+     * @return 0 when bytes may be transferred, otherwise the time to wait in nanoseconds before asking again
+     *
+     * @author Albert Veldman
+     */
+    public long bulkDelayNanos() {
+        long rate = limits.getBulkBytesPerSecond();
+        if(rate == 0) {
+            return 0;
+        }
+        long delay = bulk.delayNanos(rate, System.nanoTime());
+        if(delay > 0) {
+            metrics.bulkThrottled();
+        }
+        return delay;
+    }
+
+    /**
+     * Takes bytes the file port received or sent from the bulk bucket.
+     *
+     * @param bytes number of bytes transferred
+     *
+     * @author Albert Veldman
+     */
+    public void bulkTransferred(long bytes) {
+        if(bytes > 0 && limits.getBulkBytesPerSecond() > 0) {
+            bulk.take(bytes);
+        }
+    }
+
+    /**
+     * Replaces the limits. Open connections are not closed when the new connection cap is lower, and the
+     * buckets keep their tokens up to the new rates.
+     *
+     * @param limits new limits
+     *
+     * @author Albert Veldman
+     */
+    public void setLimits(RateLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Get the current limits.
+     *
+     * @return the limits
+     *
+     * @author Albert Veldman
+     */
+    public RateLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Get the number of admitted connections that are open.
+     *
+     * @return open connections
+     *
+     * @author Albert Veldman
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Get the buckets of an address or nickname, creating them when needed.
+     *
+     * @param map buckets by key
+     * @param key the address or nickname
+     * @param now current System.nanoTime
+     * @param <K> type of the key
+     *
+     * @return the buckets
+     *
+     * @author Albert Veldman
+     */
+    private static <K> Buckets buckets(ConcurrentMap<K, Buckets> map, K key, long now) {
+        Buckets buckets = map.get(key);
+        if(buckets == null) {
+            Buckets created = new Buckets(now);
+            buckets = map.putIfAbsent(key, created);
+            if(buckets == null) {
+                buckets = created;
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Drops the buckets that were not used for a while, at most once per sweep interval.
+     *
+     * @param now current System.nanoTime
+     *
+     * @author Albert Veldman
+     */
+    private void sweep(long now) {
+        long next = nextSweepNanos.get();
+        if(now - next < 0 || !nextSweepNanos.compareAndSet(next, now + SWEEP_INTERVAL_NANOS)) {
+            return;
+        }
+        sweep(addresses.values().iterator(), now);
+        sweep(nicknames.values().iterator(), now);
+    }
+
+    /**
+     * Removes the idle buckets of one map.
+     *
+     * @param iterator iterator over the buckets of the map
+     * @param now current System.nanoTime
+     *
+     * @author Albert Veldman
+     */
+    private static void sweep(Iterator<Buckets> iterator, long now) {
+        while(iterator.hasNext()) {
+            if(now - iterator.next().getUsedNanos() > IDLE_NANOS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * The frame and byte bucket of an address or nickname.
+     */
+    private static class Buckets {
+        private final TokenBucket messages;
+        private final TokenBucket bytes;
+
+        private Buckets(long now) {
+            messages = new TokenBucket(now);
+            bytes = new TokenBucket(now);
+        }
+
+        private long delayNanos(long messagesPerSecond, long bytesPerSecond, long now) {
+            long delay = 0;
+            if(messagesPerSecond > 0) {
+                delay = messages.delayNanos(messagesPerSecond, now);
+            }
+            if(bytesPerSecond > 0) {
+                delay = Math.max(delay, bytes.delayNanos(bytesPerSecond, now));
+            }
+            return delay;
+        }
+
+        private void take(long messagesPerSecond, long bytesPerSecond, int length) {
+            if(messagesPerSecond > 0) {
+                messages.take(1);
+            }
+            if(bytesPerSecond > 0) {
+                bytes.take(length);
+            }
+        }
+
+        private long getUsedNanos() {
+            return Math.max(messages.getRefilledNanos(), bytes.getRefilledNanos());
+        }
+    }
+}
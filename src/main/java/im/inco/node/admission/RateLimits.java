@@ -0,0 +1,211 @@
+package im.inco.node.admission;
+
+/**
+ * Limits the node admits endpoints with. Rates apply to the message port, per announced nickname and per
+ * remote address; the address limits are separate because endpoints behind one NAT share an address. The bulk
+ * rate caps the bytes of the file port of the whole node, so file transfers leave bandwidth for messages. A
+ * limit of 0 means unlimited.
+ *
+ * @author Albert Veldman
+ */
+public class RateLimits {
+    /**
+     * Frames per second every nickname may send
+     */
+    private final long messagesPerSecond;
+
+    /**
+     * Bytes per second every nickname may send
+     */
+    private final long bytesPerSecond;
+
+    /**
+     * Frames per second every remote address may send
+     */
+    private final long addressMessagesPerSecond;
+
+    /**
+     * Bytes per second every remote address may send
+     */
+    private final long addressBytesPerSecond;
+
+    /**
+     * Maximum number of open connections on both ports together
+     */
+    private final int maxConnections;
+
+    /**
+     * Bytes per second the file port of the node may receive and send together
+     */
+    private final long bulkBytesPerSecond;
+
+    /**
+     * Creates rate limits.
+     *
+     * @param messagesPerSecond frames per second per nickname, 0 for unlimited
+     * @param bytesPerSecond bytes per second per nickname, 0 for unlimited
+     * @param addressMessagesPerSecond frames per second per remote address, 0 for unlimited
+     * @param addressBytesPerSecond bytes per second per remote address, 0 for unlimited
+     * @param maxConnections maximum number of open connections, 0 for unlimited
+     * @param bulkBytesPerSecond bytes per second on the file port of the node, 0 for unlimited
+     *
+     * @throws IllegalArgumentException when a limit is negative
+     *
+     * @author Albert Veldman
+     */
+    public RateLimits(long messagesPerSecond, long bytesPerSecond, long addressMessagesPerSecond,
+                      long addressBytesPerSecond, int maxConnections, long bulkBytesPerSecond) {
+        if(messagesPerSecond < 0 || bytesPerSecond < 0 || addressMessagesPerSecond < 0 || addressBytesPerSecond < 0
+                || maxConnections < 0 || bulkBytesPerSecond < 0) {
+            throw new IllegalArgumentException("Limits can't be negative");
+        }
+        this.messagesPerSecond = messagesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.addressMessagesPerSecond = addressMessagesPerSecond;
+        this.addressBytesPerSecond = addressBytesPerSecond;
+        this.maxConnections = maxConnections;
+        this.bulkBytesPerSecond = bulkBytesPerSecond;
+    }
+
+    /**
+     * Creates limits that admit everything.
+     *
+     * @return unlimited limits
+     *
+     * @author Albert Veldman
+     */
+    public static RateLimits unlimited() {
+        return new RateLimits(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Creates a copy of these limits with one limit changed.
+     *
+     * @param setting the limit to change as name=value, where name is messages, bytes, address-messages,
+     *                address-bytes, connections or bulk
+     *
+     * @return the changed limits
+     *
+     * @throws IllegalArgumentException when the setting is not a known limit or the value is invalid
+     *
+     * @author Albert Veldman
+     */
+    public RateLimits with(String setting) {
+        int separator = setting.indexOf('=');
+        if(separator == -1) {
+            throw new IllegalArgumentException("Expected name=value: " + setting);
+        }
+        String name = setting.substring(0, separator);
+        long value = Long.parseLong(setting.substring(separator + 1));
+        switch(name) {
+            case "messages":
+                return new RateLimits(value, bytesPerSecond, addressMessagesPerSecond, addressBytesPerSecond,
+                        maxConnections, bulkBytesPerSecond);
+            case "bytes":
+                return new RateLimits(messagesPerSecond, value, addressMessagesPerSecond, addressBytesPerSecond,
+                        maxConnections, bulkBytesPerSecond);
+            case "address-messages":
+                return new RateLimits(messagesPerSecond, bytesPerSecond, value, addressBytesPerSecond,
+                        maxConnections, bulkBytesPerSecond);
+            case "address-bytes":
+                return new RateLimits(messagesPerSecond, bytesPerSecond, addressMessagesPerSecond, value,
+                        maxConnections, bulkBytesPerSecond);
+            case "connections":
+                if(value > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Invalid connection limit: " + value);
+                }
+                return new RateLimits(messagesPerSecond, bytesPerSecond, addressMessagesPerSecond,
+                        addressBytesPerSecond, (int) value, bulkBytesPerSecond);
+            case "bulk":
+                return new RateLimits(messagesPerSecond, bytesPerSecond, addressMessagesPerSecond,
+                        addressBytesPerSecond, maxConnections, value);
+            default:
+                throw new IllegalArgumentException("Unknown limit: " + name);
+        }
+    }
+
+    /**
+     * Get the frames per second every nickname may send.
+     *
+     * @return messages per second or 0 when unlimited
+     *
+     * @author Albert Veldman
+     */
+    public long getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    /**
+     * Get the bytes per second every nickname may send.
+     *
+     * @return bytes per second or 0 when unlimited
+     *
+     * @author Albert Veldman
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Get the frames per second every remote address may send.
+     *
+     * @return messages per second or 0 when unlimited
+     *
+     * @author Albert Veldman
+     */
+    public long getAddressMessagesPerSecond() {
+        return addressMessagesPerSecond;
+    }
+
+    /**
+     * Get the bytes per second every remote address may send.
+     *
+     * @return bytes per second or 0 when unlimited
+     *
+     * @author Albert Veldman
+     */
+    public long getAddressBytesPerSecond() {
+        return addressBytesPerSecond;
+    }
+
+    /**
+     * Get the maximum number of open connections.
+     *
+     * @return maximum connections or 0 when unlimited
+     *
+     * @author Albert Veldman
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Get the bytes per second the file port of the node may receive and send together.
+     *
+     * @return bytes per second or 0 when unlimited
+     *
+     * @author Albert Veldman
+     */
+    public long getBulkBytesPerSecond() {
+        return bulkBytesPerSecond;
+    }
+
+    /**
+     * Get whether frames are rate limited.
+     *
+     * @return true when a message or byte rate is set
+     *
+     * @author Albert Veldman
+     */
+    public boolean isRateLimited() {
+        return messagesPerSecond > 0 || bytesPerSecond > 0 || addressMessagesPerSecond > 0
+                || addressBytesPerSecond > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "messages=" + messagesPerSecond + " bytes=" + bytesPerSecond + " address-messages="
+                + addressMessagesPerSecond + " address-bytes=" + addressBytesPerSecond + " connections="
+                + maxConnections + " bulk=" + bulkBytesPerSecond;
+    }
+}
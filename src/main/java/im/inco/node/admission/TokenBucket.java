@@ -0,0 +1,73 @@
+package im.inco.node.admission;
+
+/**
+ * Token bucket that refills at a fixed rate up to one second worth of tokens. Taking more tokens than the
+ * bucket holds is allowed and leaves the bucket in debt, so a frame larger than the burst is admitted once and
+ * the sender then waits until the debt is paid off.
+ *
+ * @author Albert Veldman
+ */
+class TokenBucket {
+    /**
+     * Tokens in the bucket, negative while in debt
+     */
+    private double tokens;
+
+    /**
+     * System.nanoTime of the last refill
+     */
+    private long refilledNanos;
+
+    /**
+     * Creates a bucket that is full once it is first used.
+     *
+     * @param now current System.nanoTime
+     *
+     * @author Albert Veldman
+     */
+    TokenBucket(long now) {
+        this.tokens = Double.MAX_VALUE;
+        this.refilledNanos = now;
+    }
+
+    /**
+     * Refills the bucket and returns how long to wait until it holds tokens again.
+     *
+     * @param rate tokens per second, the current limit
+     * @param now current System.nanoTime
+     *
+     * @return 0 when tokens are available, otherwise the wait in nanoseconds
+     *
+     * @author Albert Veldman
+     */
+    synchronized long delayNanos(long rate, long now) {
+        tokens = Math.min(rate, tokens + Math.max(0, now - refilledNanos) * (rate / 1e9));
+        refilledNanos = now;
+        if(tokens > 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-tokens / rate * 1e9) + 1;
+    }
+
+    /**
+     * Takes tokens from the bucket.
+     *
+     * @param amount number of tokens
+     *
+     * @author Albert Veldman
+     */
+    synchronized void take(long amount) {
+        tokens -= amount;
+    }
+
+    /**
+     * Get when the bucket was last used.
+     *
+     * @return System.nanoTime of the last refill
+     *
+     * @author Albert Veldman
+     */
+    synchronized long getRefilledNanos() {
+        return refilledNanos;
+    }
+}
@@ -0,0 +1,314 @@
+package im.inco.node.buffer;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of direct buffers in power of two size classes from 512 bytes to 2 MB. Released buffers are kept in a
+ * bounded free list per size class, so the receive and relay path reuse the same buffers instead of
+ * allocating a buffer per message. Requests larger than the largest size class get an unpooled buffer.
+ *
+ * <p>With leak detection on, every lease records where it was made. A buffer that is garbage collected
+ * without being released is reported with that location.
+ *
+ * @author Albert Veldman
+ */
+public class BufferPool {
+    /**
+     * Default number of idle bytes kept per size class
+     */
+    public static final long DEFAULT_MAX_IDLE_BYTES_PER_CLASS = 16 * 1024 * 1024;
+
+    /**
+     * Log2 of the smallest size class
+     */
+    private static final int MIN_CLASS_SHIFT = 9;
+
+    /**
+     * Log2 of the largest size class
+     */
+    private static final int MAX_CLASS_SHIFT = 21;
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(BufferPool.class.getName());
+
+    /**
+     * Size classes, index i holds buffers of 2^(MIN_CLASS_SHIFT + i) bytes
+     */
+    private final SizeClass[] sizeClasses = new SizeClass[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+
+    /**
+     * Whether leases are tracked to find buffers that are never released
+     */
+    private final boolean leakDetection;
+
+    /**
+     * Queue the garbage collector puts trackers of leaked buffers on
+     */
+    private final ReferenceQueue<PooledBuffer> leakQueue = new ReferenceQueue<>();
+
+    /**
+     * Trackers of the buffers that are leased, keeps the trackers reachable
+     */
+    private final Set<LeakTracker> trackers = Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+
+    /**
+     * Number of buffers that were too large to pool
+     */
+    private final AtomicLong unpooledAllocations = new AtomicLong();
+
+    /**
+     * Number of leaked buffers that were found
+     */
+    private final AtomicLong leaks = new AtomicLong();
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxIdleBytesPerClass number of idle bytes kept per size class, at least one buffer is kept
+     * @param leakDetection whether leases are tracked to find buffers that are never released
+     *
+     * @author Albert Veldman
+     */
+    public BufferPool(long maxIdleBytesPerClass, boolean leakDetection) {
+        this.leakDetection = leakDetection;
+        for (int i = 0; i < sizeClasses.length; i++) {
+            int capacity = 1 << (MIN_CLASS_SHIFT + i);
+            sizeClasses[i] = new SizeClass(capacity, (int) Math.max(1, maxIdleBytesPerClass / capacity));
+        }
+    }
+
+    /**
+     * Leases a buffer of at least the given size. The buffer is cleared and holds one reference.
+     *
+     * @param size minimum capacity
+     *
+     * @return the leased buffer
+     *
+     * @author Albert Veldman
+     */
+    public PooledBuffer acquire(int size) {
+        SizeClass sizeClass = sizeClassFor(size);
+        PooledBuffer pooled;
+        if(sizeClass == null) {
+            unpooledAllocations.incrementAndGet();
+            pooled = new PooledBuffer(this, null, ByteBuffer.allocateDirect(size));
+        }
+        else {
+            pooled = sizeClass.idle.poll();
+            if(pooled == null) {
+                sizeClass.allocated.incrementAndGet();
+                pooled = new PooledBuffer(this, sizeClass, ByteBuffer.allocateDirect(sizeClass.capacity));
+            }
+            sizeClass.inUse.incrementAndGet();
+        }
+        pooled.lease(leakDetection ? track(pooled) : null);
+        return pooled;
+    }
+
+    /**
+     * Get the statistics of all size classes.
+     *
+     * @return size classes from small to large
+     *
+     * @author Albert Veldman
+     */
+    public List<SizeClass> getSizeClasses() {
+        List<SizeClass> classes = new ArrayList<>(sizeClasses.length);
+        Collections.addAll(classes, sizeClasses);
+        return classes;
+    }
+
+    /**
+     * Get the number of buffers that were too large to pool.
+     *
+     * @return unpooled allocations
+     *
+     * @author Albert Veldman
+     */
+    public long getUnpooledAllocations() {
+        return unpooledAllocations.get();
+    }
+
+    /**
+     * Get the number of leaked buffers that were found. Always zero without leak detection.
+     *
+     * @return leaked buffers
+     *
+     * @author Albert Veldman
+     */
+    public long getLeaks() {
+        return leaks.get();
+    }
+
+    /**
+     * Puts a released buffer back in its size class, or drops it when the size class is full.
+     *
+     * @param pooled released buffer
+     *
+     * @author Albert Veldman
+     */
+    void recycle(PooledBuffer pooled) {
+        LeakTracker tracker = pooled.getTracker();
+        if(tracker != null) {
+            trackers.remove(tracker);
+            tracker.clear();
+        }
+        SizeClass sizeClass = pooled.getSizeClass();
+        if(sizeClass != null) {
+            sizeClass.inUse.decrementAndGet();
+            if(!sizeClass.idle.offer(pooled)) {
+                sizeClass.allocated.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Starts tracking a lease and reports buffers that were collected without being released.
+     *
+     * @param pooled leased buffer
+     *
+     * @return tracker of the lease
+     *
+     * @author Albert Veldman
+     */
+    private LeakTracker track(PooledBuffer pooled) {
+        LeakTracker leaked;
+        while((leaked = (LeakTracker) leakQueue.poll()) != null) {
+            if(trackers.remove(leaked)) {
+                leaks.incrementAndGet();
+                if(leaked.sizeClass != null) {
+                    leaked.sizeClass.inUse.decrementAndGet();
+                    leaked.sizeClass.allocated.decrementAndGet();
+                }
+                LOGGER.log(Level.SEVERE, "Buffer was garbage collected without being released", leaked.lease);
+            }
+        }
+        LeakTracker tracker = new LeakTracker(pooled, leakQueue);
+        trackers.add(tracker);
+        return tracker;
+    }
+
+    /**
+     * Returns the smallest size class that fits the given size.
+     *
+     * @param size requested capacity
+     *
+     * @return size class or null when the size is larger than the largest size class
+     *
+     * @author Albert Veldman
+     */
+    private SizeClass sizeClassFor(int size) {
+        if(size <= 1 << MIN_CLASS_SHIFT) {
+            return sizeClasses[0];
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > MAX_CLASS_SHIFT ? null : sizeClasses[shift - MIN_CLASS_SHIFT];
+    }
+
+    /**
+     * Buffers of one capacity and their occupancy.
+     */
+    public static class SizeClass {
+        /**
+         * Capacity of the buffers of this class
+         */
+        private final int capacity;
+
+        /**
+         * Released buffers ready to be leased again
+         */
+        private final ArrayBlockingQueue<PooledBuffer> idle;
+
+        /**
+         * Buffers of this class that currently exist, idle or leased
+         */
+        private final AtomicLong allocated = new AtomicLong();
+
+        /**
+         * Buffers of this class that are leased
+         */
+        private final AtomicLong inUse = new AtomicLong();
+
+        private SizeClass(int capacity, int maxIdle) {
+            this.capacity = capacity;
+            this.idle = new ArrayBlockingQueue<>(maxIdle);
+        }
+
+        /**
+         * Get the capacity of the buffers of this class.
+         *
+         * @return capacity in bytes
+         *
+         * @author Albert Veldman
+         */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * Get the number of buffers of this class that exist.
+         *
+         * @return allocated buffers
+         *
+         * @author Albert Veldman
+         */
+        public long getAllocated() {
+            return allocated.get();
+        }
+
+        /**
+         * Get the number of buffers of this class that are leased.
+         *
+         * @return leased buffers
+         *
+         * @author Albert Veldman
+         */
+        public long getInUse() {
+            return inUse.get();
+        }
+
+        /**
+         * Get the number of idle buffers of this class.
+         *
+         * @return idle buffers
+         *
+         * @author Albert Veldman
+         */
+        public int getIdle() {
+            return idle.size();
+        }
+    }
+
+    /**
+     * Remembers where a buffer was leased, enqueued by the garbage collector when the buffer is collected.
+     */
+    static class LeakTracker extends PhantomReference<PooledBuffer> {
+        /**
+         * Stack trace of the lease
+         */
+        private final Throwable lease = new Throwable("Buffer leased here");
+
+        /**
+         * Size class of the tracked buffer
+         */
+        private final SizeClass sizeClass;
+
+        private LeakTracker(PooledBuffer pooled, ReferenceQueue<PooledBuffer> queue) {
+            super(pooled, queue);
+            this.sizeClass = pooled.getSizeClass();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package im.inco.node.buffer;
+
+import im.inco.node.receive.interfaces.IOutbound;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A direct buffer leased from a BufferPool. The buffer is reference counted and returns to its pool when the
+ * last reference is released, it must not be used after that. A pooled buffer can be queued on a connection
+ * directly, the connection releases it once it is written.
+ *
+ * @author Albert Veldman
+ */
+public final class PooledBuffer implements IOutbound {
+    /**
+     * Pool this buffer belongs to
+     */
+    private final BufferPool pool;
+
+    /**
+     * Size class of this buffer, null when the buffer was too large to pool
+     */
+    private final BufferPool.SizeClass sizeClass;
+
+    /**
+     * The direct buffer
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of references, the buffer is recycled when this drops to zero
+     */
+    private final AtomicInteger references = new AtomicInteger();
+
+    /**
+     * Tracks this buffer while it is leased when leak detection is on
+     */
+    private BufferPool.LeakTracker tracker;
+
+    /**
+     * System.nanoTime when the content of this buffer was received, 0 when unknown
+     */
+    private long receivedNanos;
+
+    /**
+     * Creates a pooled buffer.
+     *
+     * @param pool pool the buffer belongs to
+     * @param sizeClass size class of the buffer or null
+     * @param buffer the direct buffer
+     *
+     * @author Albert Veldman
+     */
+    PooledBuffer(BufferPool pool, BufferPool.SizeClass sizeClass, ByteBuffer buffer) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Get the direct buffer.
+     *
+     * @return the buffer
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Get when the content of this buffer was received, used to measure forwarding latency.
+     *
+     * @return System.nanoTime of receiving or 0 when unknown
+     *
+     * @author Albert Veldman
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    /**
+     * Set when the content of this buffer was received.
+     *
+     * @param receivedNanos System.nanoTime of receiving
+     *
+     * @author Albert Veldman
+     */
+    public void setReceivedNanos(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * Adds a reference to this buffer.
+     *
+     * @return this buffer
+     *
+     * @author Albert Veldman
+     */
+    public PooledBuffer retain() {
+        if(references.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Buffer was already released");
+        }
+        return this;
+    }
+
+    /**
+     * Releases a reference, the buffer goes back to its pool when it was the last one.
+     *
+     * @author Albert Veldman
+     */
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if(remaining == 0) {
+            pool.recycle(this);
+        }
+        else if(remaining < 0) {
+            throw new IllegalStateException("Buffer was released too often");
+        }
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public long writeTo(SocketChannel channel, long maxBytes) throws IOException {
+        if(buffer.remaining() <= maxBytes) {
+            return channel.write(buffer);
+        }
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + (int) maxBytes);
+        try {
+            return channel.write(buffer);
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+
+    @Override
+    public long remaining() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public long length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public long memorySize() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public void release(boolean written) {
+        release();
+    }
+
+    /**
+     * Marks the buffer as leased with a single reference.
+     *
+     * @param tracker leak tracker or null when leak detection is off
+     *
+     * @author Albert Veldman
+     */
+    void lease(BufferPool.LeakTracker tracker) {
+        this.tracker = tracker;
+        this.receivedNanos = 0;
+        buffer.clear();
+        references.set(1);
+    }
+
+    /**
+     * Get the leak tracker of the current lease.
+     *
+     * @return leak tracker or null
+     *
+     * @author Albert Veldman
+     */
+    BufferPool.LeakTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * Get the size class of this buffer.
+     *
+     * @return size class or null when the buffer is not pooled
+     *
+     * @author Albert Veldman
+     */
+    BufferPool.SizeClass getSizeClass() {
+        return sizeClass;
+    }
+}
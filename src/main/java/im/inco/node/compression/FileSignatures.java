@@ -0,0 +1,91 @@
+package im.inco.node.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Recognizes files that are compressed already by the signature at their start, so the node doesn't spend
+ * time compressing them again.
+ *
+ * @author Albert Veldman
+ */
+public class FileSignatures {
+    /**
+     * Number of bytes at the start of a file that are enough to recognize it
+     */
+    public static final int HEAD_SIZE = 12;
+
+    /**
+     * Signatures at the start of compressed formats: gzip, zip and its derivatives, 7z, rar, xz, bzip2, zstd,
+     * PNG, JPEG, GIF, Ogg, MP3 with an ID3 tag and FLAC
+     */
+    private static final byte[][] SIGNATURES = {
+            {0x1f, (byte) 0x8b},
+            {'P', 'K', 0x03, 0x04},
+            {'7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},
+            {'R', 'a', 'r', '!', 0x1a, 0x07},
+            {(byte) 0xfd, '7', 'z', 'X', 'Z', 0x00},
+            {'B', 'Z', 'h'},
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},
+            {(byte) 0x89, 'P', 'N', 'G'},
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff},
+            {'G', 'I', 'F', '8'},
+            {'O', 'g', 'g', 'S'},
+            {'I', 'D', '3'},
+            {'f', 'L', 'a', 'C'}};
+
+    /**
+     * Signature of a RIFF container
+     */
+    private static final byte[] RIFF = {'R', 'I', 'F', 'F'};
+
+    /**
+     * Form type of a WebP image in a RIFF container, at offset 8
+     */
+    private static final byte[] WEBP = {'W', 'E', 'B', 'P'};
+
+    /**
+     * Type of the first box of an ISO base media file such as MP4, MOV and HEIF, at offset 4
+     */
+    private static final byte[] FTYP = {'f', 't', 'y', 'p'};
+
+    /**
+     * Returns whether a file is compressed already.
+     *
+     * @param head first bytes of the file, up to HEAD_SIZE, its position is not changed
+     *
+     * @return true when the file starts with the signature of a compressed format
+     *
+     * @author Albert Veldman
+     */
+    public static boolean isCompressed(ByteBuffer head) {
+        for (byte[] signature : SIGNATURES) {
+            if(startsWith(head, signature, 0)) {
+                return true;
+            }
+        }
+        return startsWith(head, RIFF, 0) && startsWith(head, WEBP, 8) || startsWith(head, FTYP, 4);
+    }
+
+    /**
+     * Returns whether the given bytes are at an offset of a buffer.
+     *
+     * @param head bytes to look at, its position is not changed
+     * @param signature expected bytes
+     * @param offset offset from the position of the buffer
+     *
+     * @return true when the buffer holds the signature at the offset
+     *
+     * @author Albert Veldman
+     */
+    private static boolean startsWith(ByteBuffer head, byte[] signature, int offset) {
+        if(head.remaining() < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if(head.get(head.position() + offset + i) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,348 @@
+package im.inco.node.compression;
+
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.buffer.PooledBuffer;
+import im.inco.node.metrics.NodeMetrics;
+import im.inco.node.protocol.Codec;
+import im.inco.node.protocol.CodecOffer;
+import im.inco.node.protocol.Frame;
+import im.inco.node.protocol.FrameType;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the frames and files the node sends to endpoints that negotiated a codec, and decompresses the
+ * frames they send. Every frame and every file block is compressed on its own, so any thread can compress
+ * any frame with the deflater and scratch arrays it keeps for itself; after a thread grew its arrays to the
+ * largest frame it sees, compressing allocates nothing but the pooled buffer of the result.
+ *
+ * <p>A frame is only sent compressed when it is at least MIN_FRAME_SIZE bytes and compressing made it smaller,
+ * so small and encrypted messages cost one attempt and go out as they are.
+ *
+ * <pre>
+ * COMPRESSED payload:  +--------------+-----------------------------------------------+
+ *                      | inner length | deflated inner frame without its length field |
+ *                      | int32        | bytes                                         |
+ *                      +--------------+-----------------------------------------------+
+ *
+ * COMPRESSED_FILE block: +-----------+--------------+-------------------------------------+
+ *                        | raw size  | stored size  | deflated block, or the raw block    |
+ *                        | int32     | int32        | when both sizes are equal           |
+ *                        +-----------+--------------+-------------------------------------+
+ * </pre>
+ *
+ * @author Albert Veldman
+ */
+public class FrameCompressor {
+    /**
+     * Smallest frame that is compressed
+     */
+    public static final int MIN_FRAME_SIZE = 256;
+
+    /**
+     * Bytes of a file compressed into one block
+     */
+    public static final int FILE_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Size of the sizes in front of every file block
+     */
+    public static final int BLOCK_HEADER_SIZE = 8;
+
+    /**
+     * Size of a COMPRESSED frame without its compressed bytes: length, type, two empty nicknames, inner length
+     */
+    private static final int COMPRESSED_HEADER_SIZE = Frame.LENGTH_FIELD_SIZE + 1 + 2 + 2 + 4;
+
+    /**
+     * Codec offered to endpoints, NONE when compression is off
+     */
+    private final Codec codec;
+
+    /**
+     * Largest inner frame a compressed frame may hold
+     */
+    private final int maxFrameLength;
+
+    /**
+     * Pool the compressed frames are encoded into
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * Counters for compressed bytes and time spent
+     */
+    private final NodeMetrics metrics;
+
+    /**
+     * Deflater, inflater and scratch arrays of every thread
+     */
+    private final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return new Context();
+        }
+    };
+
+    /**
+     * Creates a compressor.
+     *
+     * @param codec codec offered to endpoints, NONE to turn compression off
+     * @param maxFrameLength largest inner frame a compressed frame may hold
+     * @param bufferPool pool the compressed frames are encoded into
+     * @param metrics counters for compressed bytes and time spent
+     *
+     * @author Albert Veldman
+     */
+    public FrameCompressor(Codec codec, int maxFrameLength, BufferPool bufferPool, NodeMetrics metrics) {
+        this.codec = codec;
+        this.maxFrameLength = maxFrameLength;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Picks the codec of a connection from the codecs its endpoint offered.
+     *
+     * @param offer codecs the endpoint can decode
+     *
+     * @return the codec of the node when the endpoint offered it, NONE otherwise
+     *
+     * @author Albert Veldman
+     */
+    public Codec negotiate(CodecOffer offer) {
+        return codec != Codec.NONE && offer.getCodecs().contains(codec) ? codec : Codec.NONE;
+    }
+
+    /**
+     * Get the codec offered to endpoints.
+     *
+     * @return codec, NONE when compression is off
+     *
+     * @author Albert Veldman
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Compresses an encoded frame into a COMPRESSED frame and releases the original.
+     *
+     * @param encoded encoded frame including its length field
+     *
+     * @return the COMPRESSED frame, or the original when compressing doesn't make it smaller
+     *
+     * @author Albert Veldman
+     */
+    public PooledBuffer compress(PooledBuffer encoded) {
+        PooledBuffer compressed = compress(encoded.buffer());
+        if(compressed == null) {
+            return encoded;
+        }
+        compressed.setReceivedNanos(encoded.getReceivedNanos());
+        encoded.release();
+        return compressed;
+    }
+
+    /**
+     * Compresses an encoded frame into a COMPRESSED frame.
+     *
+     * @param encoded encoded frame including its length field, its position is not changed
+     *
+     * @return the COMPRESSED frame or null when compressing doesn't make it smaller
+     *
+     * @author Albert Veldman
+     */
+    public PooledBuffer compress(ByteBuffer encoded) {
+        int length = encoded.remaining() - Frame.LENGTH_FIELD_SIZE;
+        if(length + Frame.LENGTH_FIELD_SIZE < MIN_FRAME_SIZE) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Context context = contexts.get();
+        ByteBuffer inner = encoded.duplicate();
+        inner.position(inner.position() + Frame.LENGTH_FIELD_SIZE);
+        byte[] input = context.input(length);
+        inner.get(input, 0, length);
+        int maxSize = length + Frame.LENGTH_FIELD_SIZE - COMPRESSED_HEADER_SIZE - 1;
+        int size = context.deflate(input, length, maxSize);
+        if(size < 0) {
+            metrics.compressed(length + Frame.LENGTH_FIELD_SIZE, length + Frame.LENGTH_FIELD_SIZE,
+                    System.nanoTime() - start);
+            return null;
+        }
+        PooledBuffer compressed = bufferPool.acquire(COMPRESSED_HEADER_SIZE + size);
+        ByteBuffer buffer = compressed.buffer();
+        buffer.putInt(COMPRESSED_HEADER_SIZE - Frame.LENGTH_FIELD_SIZE + size);
+        buffer.put(FrameType.COMPRESSED.getCode());
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putInt(length);
+        buffer.put(context.output, 0, size);
+        buffer.flip();
+        metrics.compressed(length + Frame.LENGTH_FIELD_SIZE, buffer.remaining(), System.nanoTime() - start);
+        return compressed;
+    }
+
+    /**
+     * Decompresses the payload of a COMPRESSED frame. The result is a view of an array of the calling thread,
+     * so it is only valid until the thread decompresses the next frame.
+     *
+     * @param payload payload of the COMPRESSED frame, its position is not changed
+     *
+     * @return the inner frame including its length field, in read mode
+     *
+     * @throws ProtocolException when the payload is malformed or the inner frame is too large
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer decompress(ByteBuffer payload) throws ProtocolException {
+        long start = System.nanoTime();
+        ByteBuffer buffer = payload.duplicate();
+        if(buffer.remaining() < 4) {
+            throw new ProtocolException("Malformed compressed frame");
+        }
+        int length = buffer.getInt();
+        if(length <= 0 || length > maxFrameLength) {
+            throw new ProtocolException("Invalid compressed frame length: " + length);
+        }
+        Context context = contexts.get();
+        int size = buffer.remaining();
+        byte[] input = context.input(size);
+        buffer.get(input, 0, size);
+        ByteBuffer inflated = context.inflate(input, size, length);
+        metrics.decompressed(payload.remaining(), inflated.remaining(), System.nanoTime() - start);
+        return inflated;
+    }
+
+    /**
+     * Reads the next block of a file and writes it compressed, or as it is when compressing doesn't make it
+     * smaller, to a buffer.
+     *
+     * @param channel channel of the file
+     * @param position position of the block in the file
+     * @param size size of the block, at most FILE_BLOCK_SIZE
+     * @param target buffer in write mode with room for BLOCK_HEADER_SIZE + size bytes
+     *
+     * @throws IOException when the file can't be read
+     *
+     * @author Albert Veldman
+     */
+    public void compressBlock(FileChannel channel, long position, int size, ByteBuffer target) throws IOException {
+        Context context = contexts.get();
+        ByteBuffer block = context.block;
+        block.clear().limit(size);
+        while(block.hasRemaining()) {
+            if(channel.read(block, position + block.position()) < 0) {
+                throw new IOException("File shrunk while sending");
+            }
+        }
+        long start = System.nanoTime();
+        int compressed = context.deflate(block.array(), size, size - 1);
+        target.putInt(size);
+        if(compressed < 0) {
+            target.putInt(size);
+            target.put(block.array(), 0, size);
+            metrics.compressed(size, size, System.nanoTime() - start);
+            return;
+        }
+        target.putInt(compressed);
+        target.put(context.output, 0, compressed);
+        metrics.compressed(size, compressed, System.nanoTime() - start);
+    }
+
+    /**
+     * Deflater, inflater and scratch arrays of one thread.
+     */
+    private static class Context {
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        private final Inflater inflater = new Inflater(true);
+        private final ByteBuffer block = ByteBuffer.allocate(FILE_BLOCK_SIZE);
+        private byte[] input = new byte[MIN_FRAME_SIZE];
+        private byte[] output = new byte[FILE_BLOCK_SIZE];
+        private ByteBuffer inflated = ByteBuffer.allocate(FILE_BLOCK_SIZE);
+
+        byte[] input(int size) {
+            if(input.length < size) {
+                input = new byte[Math.max(size, input.length * 2)];
+            }
+            return input;
+        }
+
+        /**
+         * Deflates bytes into the output array.
+         *
+         * @param source bytes to deflate
+         * @param length number of bytes to deflate
+         * @param maxSize largest useful result
+         *
+         * @return size of the result or -1 when it would be larger than maxSize
+         *
+         * @author Albert Veldman
+         */
+        int deflate(byte[] source, int length, int maxSize) {
+            if(maxSize <= 0) {
+                return -1;
+            }
+            if(output.length < maxSize) {
+                output = new byte[Math.max(maxSize, output.length * 2)];
+            }
+            deflater.reset();
+            deflater.setInput(source, 0, length);
+            deflater.finish();
+            int size = 0;
+            while(!deflater.finished() && size < maxSize) {
+                size += deflater.deflate(output, size, maxSize - size);
+            }
+            return deflater.finished() ? size : -1;
+        }
+
+        /**
+         * Inflates bytes into a frame that starts with its length field.
+         *
+         * @param source bytes to inflate
+         * @param size number of bytes to inflate
+         * @param length expected length of the inflated frame
+         *
+         * @return view of the inflated frame in read mode
+         *
+         * @throws ProtocolException when the bytes are not deflated or don't inflate to length bytes
+         *
+         * @author Albert Veldman
+         */
+        ByteBuffer inflate(byte[] source, int size, int length) throws ProtocolException {
+            if(inflated.capacity() < Frame.LENGTH_FIELD_SIZE + length) {
+                inflated = ByteBuffer.allocate(Math.max(Frame.LENGTH_FIELD_SIZE + length, inflated.capacity() * 2));
+            }
+            byte[] target = inflated.array();
+            inflater.reset();
+            inflater.setInput(source, 0, size);
+            int inflatedLength = 0;
+            try {
+                while(inflatedLength < length) {
+                    int count = inflater.inflate(target, Frame.LENGTH_FIELD_SIZE + inflatedLength,
+                            length - inflatedLength);
+                    if(count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflatedLength += count;
+                }
+            } catch (DataFormatException exception) {
+                throw new ProtocolException("Malformed compressed frame: " + exception.getMessage());
+            }
+            if(inflatedLength != length) {
+                throw new ProtocolException("Compressed frame doesn't match its length");
+            }
+            inflated.clear();
+            inflated.putInt(0, length);
+            inflated.limit(Frame.LENGTH_FIELD_SIZE + length);
+            return inflated;
+        }
+    }
+}
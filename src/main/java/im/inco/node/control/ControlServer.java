@@ -0,0 +1,447 @@
+package im.inco.node.control;
+
+import im.inco.node.CommandHandler;
+import im.inco.node.control.interfaces.ICommandOutput;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accepts node commands on a loopback port, so a node running as a daemon can be controlled without a
+ * console. Connections are served by a selector loop; commands are executed one at a time on a separate
+ * thread, so slow commands like /login don't stall the loop.
+ *
+ * <p>A client sends one command per line. The reply is the output of the command, one line each, followed by
+ * a line holding a single dot.
+ *
+ * @author Albert Veldman
+ */
+public class ControlServer implements Runnable {
+    /**
+     * Longest command line that is accepted, longer lines close the connection
+     */
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    /**
+     * Line that ends every reply
+     */
+    private static final String END_OF_REPLY = ".";
+
+    /**
+     * Time pending replies get to be written once the server stops
+     */
+    private static final long STOP_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * Charset of commands and replies
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(ControlServer.class.getName());
+
+    /**
+     * Loopback port to listen on
+     */
+    private final int port;
+
+    /**
+     * Handler executing the commands
+     */
+    private final CommandHandler commandHandler;
+
+    /**
+     * Thread executing the commands
+     */
+    private final ExecutorService commandExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "node-command");
+        }
+    });
+
+    /**
+     * Tasks submitted from other threads, run by the loop
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of commands that are submitted but whose reply is not queued yet
+     */
+    private final AtomicInteger pendingCommands = new AtomicInteger();
+
+    /**
+     * Set when the server should stop
+     */
+    private volatile boolean stopping;
+
+    /**
+     * Selector of the loop
+     */
+    private Selector selector;
+
+    /**
+     * Channel accepting control connections
+     */
+    private ServerSocketChannel server;
+
+    /**
+     * Creates a control server, call start to start it.
+     *
+     * @param port loopback port to listen on
+     * @param commandHandler handler executing the commands
+     *
+     * @author Albert Veldman
+     */
+    public ControlServer(int port, CommandHandler commandHandler) {
+        this.port = port;
+        this.commandHandler = commandHandler;
+    }
+
+    /**
+     * Binds the control port and starts the loop thread.
+     *
+     * @throws IOException when the port can't be bound
+     *
+     * @author Albert Veldman
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        new Thread(this, "node-control").start();
+    }
+
+    /**
+     * Stops accepting connections and commands. Replies that are pending are still written.
+     *
+     * @author Albert Veldman
+     */
+    public void stop() {
+        stopping = true;
+        if(selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs the loop until the server is stopped.
+     *
+     * @author Albert Veldman
+     */
+    @Override
+    public void run() {
+        long deadline = 0;
+        try {
+            while(true) {
+                runTasks();
+                if(stopping) {
+                    if(deadline == 0) {
+                        deadline = System.currentTimeMillis() + STOP_TIMEOUT_MILLIS;
+                        server.close();
+                    }
+                    if(!hasPendingReplies() || System.currentTimeMillis() > deadline) {
+                        break;
+                    }
+                }
+                selector.select(stopping ? 100 : 0);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            }
+        } catch (IOException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * Handles a selected key, a failing connection is closed.
+     *
+     * @param key the selected key
+     *
+     * @author Albert Veldman
+     */
+    private void handle(SelectionKey key) {
+        try {
+            if(!key.isValid()) {
+                return;
+            }
+            if(key.isAcceptable()) {
+                accept();
+                return;
+            }
+            ControlSession session = (ControlSession) key.attachment();
+            if(key.isReadable()) {
+                read(session);
+            }
+            if(key.isValid() && key.isWritable()) {
+                flush(session);
+            }
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+            close(key);
+        }
+    }
+
+    /**
+     * Accepts a pending control connection.
+     *
+     * @throws IOException when the connection can't be set up
+     *
+     * @author Albert Veldman
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if(channel == null || stopping) {
+            if(channel != null) {
+                channel.close();
+            }
+            return;
+        }
+        channel.configureBlocking(false);
+        ControlSession session = new ControlSession(channel);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+    }
+
+    /**
+     * Reads command lines and submits them.
+     *
+     * @param session session of the connection
+     *
+     * @throws IOException when reading fails or the line is too long
+     *
+     * @author Albert Veldman
+     */
+    private void read(ControlSession session) throws IOException {
+        if(session.channel.read(session.input) == -1) {
+            throw new IOException("Control connection closed");
+        }
+        session.input.flip();
+        int start = 0;
+        for (int i = 0; i < session.input.limit(); i++) {
+            if(session.input.get(i) == '\n') {
+                byte[] bytes = new byte[i - start];
+                session.input.position(start);
+                session.input.get(bytes);
+                String line = new String(bytes, UTF_8).trim();
+                if(!line.isEmpty() && !stopping) {
+                    submit(session, line);
+                }
+                start = i + 1;
+            }
+        }
+        session.input.position(start);
+        session.input.compact();
+        if(!session.input.hasRemaining()) {
+            throw new IOException("Control command too long");
+        }
+    }
+
+    /**
+     * Executes a command on the command thread and queues its reply.
+     *
+     * @param session session that sent the command
+     * @param command the command
+     *
+     * @author Albert Veldman
+     */
+    private void submit(final ControlSession session, final String command) {
+        pendingCommands.incrementAndGet();
+        commandExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final StringBuilder reply = new StringBuilder();
+                ICommandOutput output = new ICommandOutput() {
+                    @Override
+                    public void printLine(String line) {
+                        reply.append(line).append('\n');
+                    }
+                };
+                try {
+                    commandHandler.execute(command, output);
+                } catch (RuntimeException exception) {
+                    LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+                    output.printLine("ERROR: " + exception.getMessage());
+                }
+                output.printLine(END_OF_REPLY);
+                final ByteBuffer bytes = ByteBuffer.wrap(reply.toString().getBytes(UTF_8));
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        pendingCommands.decrementAndGet();
+                        if(session.key.isValid()) {
+                            session.output.add(bytes);
+                            try {
+                                flush(session);
+                            } catch (IOException exception) {
+                                LOGGER.log(Level.FINE, exception.getMessage(), exception);
+                                close(session.key);
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Writes queued replies until they are written or the socket buffer is full.
+     *
+     * @param session session to flush
+     *
+     * @throws IOException when writing fails
+     *
+     * @author Albert Veldman
+     */
+    private void flush(ControlSession session) throws IOException {
+        ByteBuffer head;
+        while((head = session.output.peek()) != null) {
+            session.channel.write(head);
+            if(head.hasRemaining()) {
+                session.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            session.output.poll();
+        }
+        session.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Runs a task on the loop thread.
+     *
+     * @param task task to run
+     *
+     * @author Albert Veldman
+     */
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the tasks submitted from other threads.
+     *
+     * @author Albert Veldman
+     */
+    private void runTasks() {
+        Runnable task;
+        while((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Get whether replies still have to be queued or written.
+     *
+     * @return true when replies are pending
+     *
+     * @author Albert Veldman
+     */
+    private boolean hasPendingReplies() {
+        if(pendingCommands.get() > 0) {
+            return true;
+        }
+        for (SelectionKey key : selector.keys()) {
+            if(key.isValid() && key.attachment() instanceof ControlSession
+                    && !((ControlSession) key.attachment()).output.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes a control connection.
+     *
+     * @param key key of the connection
+     *
+     * @author Albert Veldman
+     */
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Closes all connections and the selector.
+     *
+     * @author Albert Veldman
+     */
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            close(key);
+        }
+        try {
+            server.close();
+            selector.close();
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+        }
+        commandExecutor.shutdown();
+        try {
+            commandExecutor.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * State of one control connection, only used by the loop thread.
+     */
+    private static class ControlSession {
+        /**
+         * Channel of the connection
+         */
+        private final SocketChannel channel;
+
+        /**
+         * Bytes of the command line that is being read
+         */
+        private final ByteBuffer input = ByteBuffer.allocate(MAX_LINE_LENGTH);
+
+        /**
+         * Replies waiting to be written
+         */
+        private final Queue<ByteBuffer> output = new ArrayDeque<>();
+
+        /**
+         * Selection key of the channel
+         */
+        private SelectionKey key;
+
+        private ControlSession(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
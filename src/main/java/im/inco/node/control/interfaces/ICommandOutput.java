@@ -0,0 +1,17 @@
+package im.inco.node.control.interfaces;
+
+/**
+ * Destination of the output of a node command, the console or a control connection.
+ *
+ * @author Albert Veldman
+ */
+public interface ICommandOutput {
+    /**
+     * Prints a line of command output.
+     *
+     * @param line line to print
+     *
+     * @author Albert Veldman
+     */
+    void printLine(String line);
+}
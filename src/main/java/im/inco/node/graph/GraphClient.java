@@ -0,0 +1,290 @@
+package im.inco.node.graph;
+
+import im.inco.node.graph.interfaces.IGraphListener;
+import im.inco.node.graph.interfaces.IGraphService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends requests to the graph on a thread of its own, so graph latency never blocks the console, the control
+ * port or the relay path. Requests are queued and sent in batches in the order they were submitted. A login or
+ * logout that is still queued is dropped when a newer login or logout is submitted, only the last online status
+ * is sent. Requests that fail with a retryable error are retried with exponential backoff and jitter, so nodes
+ * that lost the graph at the same moment don't all retry at once.
+ *
+ * @author Albert Veldman
+ */
+public class GraphClient {
+    /**
+     * Delay before the first retry of a failed request
+     */
+    private static final long BASE_BACKOFF_MILLIS = 500;
+
+    /**
+     * Longest delay between two retries of a failed request
+     */
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    /**
+     * Number of times a request is sent before it is given up
+     */
+    private static final int MAX_ATTEMPTS = 6;
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(GraphClient.class.getName());
+
+    /**
+     * Service making the calls to the graph
+     */
+    private final IGraphService service;
+
+    /**
+     * Listener receiving the outcome of the requests
+     */
+    private final IGraphListener listener;
+
+    /**
+     * Thread sending the requests
+     */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "graph-client");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Requests that are not sent yet, guarded by itself
+     */
+    private final Deque<GraphRequest> queue = new ArrayDeque<>();
+
+    /**
+     * Whether a batch is scheduled or being sent, guarded by the queue
+     */
+    private boolean sending;
+
+    /**
+     * Source of the backoff jitter, only used on the client thread
+     */
+    private final Random random = new Random();
+
+    /**
+     * Creates a client.
+     *
+     * @param service service making the calls to the graph
+     * @param listener listener receiving the outcome of the requests
+     *
+     * @author Albert Veldman
+     */
+    public GraphClient(IGraphService service, IGraphListener listener) {
+        this.service = service;
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a request. Returns immediately, the outcome is passed to the listener.
+     *
+     * @param request the request
+     *
+     * @author Albert Veldman
+     */
+    public void submit(GraphRequest request) {
+        synchronized (queue) {
+            queue.addLast(request);
+            coalesce();
+            if(!sending) {
+                sending = true;
+                schedule(0, 1);
+            }
+        }
+    }
+
+    /**
+     * Waits until every queued request was sent or given up and stops the client thread. Requests that are
+     * still waiting for a retry when the timeout passes are dropped.
+     *
+     * @param timeoutMillis maximum time to wait
+     *
+     * @return true when every request was sent in time
+     *
+     * @throws InterruptedException when interrupted while waiting
+     *
+     * @author Albert Veldman
+     */
+    public boolean close(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean flushed;
+        synchronized (queue) {
+            long remaining = timeoutMillis;
+            while(sending && remaining > 0) {
+                queue.wait(remaining);
+                remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            }
+            flushed = !sending;
+        }
+        executor.shutdownNow();
+        return flushed;
+    }
+
+    /**
+     * Drops every queued login and logout that is followed by another login or logout without a register or
+     * unregister in between. Caller holds the queue lock.
+     *
+     * @author Albert Veldman
+     */
+    private void coalesce() {
+        boolean superseded = false;
+        Iterator<GraphRequest> iterator = queue.descendingIterator();
+        while(iterator.hasNext()) {
+            GraphRequest request = iterator.next();
+            if(!request.isStatusUpdate()) {
+                superseded = false;
+            }
+            else if(superseded) {
+                iterator.remove();
+            }
+            else {
+                superseded = true;
+            }
+        }
+    }
+
+    /**
+     * Schedules sending the queued requests. Caller holds the queue lock.
+     *
+     * @param delayMillis delay before the batch is sent
+     * @param attempt attempt of the first request of the batch
+     *
+     * @author Albert Veldman
+     */
+    private void schedule(long delayMillis, final int attempt) {
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    sendBatch(attempt);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException exception) {
+            LOGGER.log(Level.WARNING, "Graph client stopped, dropped " + queue.size() + " requests");
+            queue.clear();
+            sending = false;
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * Sends every queued request. When a request fails with a retryable error, it and the requests after it are
+     * put back in front of the queue and sent again after a backoff.
+     *
+     * @param attempt attempt of the first request of the batch
+     *
+     * @author Albert Veldman
+     */
+    private void sendBatch(int attempt) {
+        List<GraphRequest> batch;
+        synchronized (queue) {
+            batch = new ArrayList<>(queue);
+            queue.clear();
+        }
+        boolean completed = false;
+        int index = 0;
+        for (; index < batch.size(); index++) {
+            GraphRequest request = batch.get(index);
+            try {
+                send(request);
+                completed = true;
+                attempt = 1;
+                listener.onCompleted(request, true);
+            } catch (GraphException exception) {
+                if(exception.isRetryable() && attempt < MAX_ATTEMPTS) {
+                    LOGGER.log(Level.INFO, request + " failed, attempt " + attempt + ": " + exception.getMessage());
+                    break;
+                }
+                LOGGER.log(Level.WARNING, exception.getMessage(), exception);
+                attempt = 1;
+                listener.onCompleted(request, false);
+            } catch (RuntimeException exception) {
+                LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+                attempt = 1;
+                listener.onCompleted(request, false);
+            }
+        }
+        if(completed) {
+            listener.onBatchCompleted();
+        }
+        synchronized (queue) {
+            if(index < batch.size()) {
+                for (int i = batch.size() - 1; i >= index; i--) {
+                    queue.addFirst(batch.get(i));
+                }
+                coalesce();
+                schedule(backoff(attempt), attempt + 1);
+            }
+            else if(!queue.isEmpty()) {
+                schedule(0, 1);
+            }
+            else {
+                sending = false;
+                queue.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Makes the call of a request.
+     *
+     * @param request the request
+     *
+     * @throws GraphException when the call failed
+     *
+     * @author Albert Veldman
+     */
+    private void send(GraphRequest request) throws GraphException {
+        switch(request) {
+            case REGISTER:
+                service.register();
+                break;
+            case UNREGISTER:
+                service.unregister();
+                break;
+            case LOGIN:
+                service.login();
+                break;
+            default:
+                service.logout();
+                break;
+        }
+    }
+
+    /**
+     * Calculates the delay before a retry: the base delay doubled for every failed attempt, capped, of which a
+     * random part between half and all is used.
+     *
+     * @param attempt number of failed attempts
+     *
+     * @return delay in milliseconds
+     *
+     * @author Albert Veldman
+     */
+    private long backoff(int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+}
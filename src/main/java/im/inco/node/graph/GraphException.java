@@ -0,0 +1,43 @@
+package im.inco.node.graph;
+
+/**
+ * Thrown when a call to the graph fails.
+ *
+ * @author Albert Veldman
+ */
+public class GraphException extends Exception {
+    /**
+     * Serialization version
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Whether the call may succeed when it is made again
+     */
+    private final boolean retryable;
+
+    /**
+     * Creates the exception.
+     *
+     * @param cause why the call failed
+     * @param retryable whether the call may succeed when it is made again
+     *
+     * @author Albert Veldman
+     */
+    public GraphException(Throwable cause, boolean retryable) {
+        super(cause.getMessage(), cause);
+        this.retryable = retryable;
+    }
+
+    /**
+     * Get whether the call may succeed when it is made again, like after a timeout or a server error. Calls
+     * that fail because the node is not set up are not retried.
+     *
+     * @return true when the call should be retried
+     *
+     * @author Albert Veldman
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
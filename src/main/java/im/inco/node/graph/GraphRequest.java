@@ -0,0 +1,41 @@
+package im.inco.node.graph;
+
+/**
+ * A call the node makes to the graph.
+ *
+ * @author Albert Veldman
+ */
+public enum GraphRequest {
+    REGISTER(false),
+    UNREGISTER(false),
+    LOGIN(true),
+    LOGOUT(true);
+
+    /**
+     * Whether the request only updates the online status of the node
+     */
+    private final boolean statusUpdate;
+
+    /**
+     * Creates a request.
+     *
+     * @param statusUpdate whether the request only updates the online status of the node
+     *
+     * @author Albert Veldman
+     */
+    GraphRequest(boolean statusUpdate) {
+        this.statusUpdate = statusUpdate;
+    }
+
+    /**
+     * Get whether the request only updates the online status of the node. A status update is superseded by a
+     * later status update, so only the last one that is queued has to be sent.
+     *
+     * @return true for login and logout
+     *
+     * @author Albert Veldman
+     */
+    public boolean isStatusUpdate() {
+        return statusUpdate;
+    }
+}
@@ -0,0 +1,38 @@
+package im.inco.node.graph;
+
+/**
+ * Available implementations of the graph the node registers and logs in at.
+ *
+ * @author Albert Veldman
+ */
+public enum GraphType {
+    /**
+     * The graph server, reached through the register and login services of the shared libraries.
+     */
+    SHARED,
+
+    /**
+     * A stub that accepts every call without a network, for load tests and offline development.
+     */
+    OFFLINE;
+
+    /**
+     * Returns the graph type that belongs to the given command line value.
+     *
+     * @param value value of the --graph option
+     *
+     * @return the matching graph type
+     *
+     * @throws IllegalArgumentException when no graph type matches the value
+     *
+     * @author Albert Veldman
+     */
+    public static GraphType fromOption(String value) {
+        for (GraphType type : values()) {
+            if(type.name().equalsIgnoreCase(value)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown graph: " + value);
+    }
+}
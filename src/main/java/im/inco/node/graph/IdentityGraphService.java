@@ -0,0 +1,116 @@
+package im.inco.node.graph;
+
+import im.inco.node.graph.interfaces.IGraphService;
+import im.inco.shared.components.utils.UserConfig;
+import im.inco.shared.components.utils.UserData;
+
+/**
+ * Graph service that makes its calls as one of the identities a node hosts. The register and login services of
+ * the shared components read the user data from the process wide user config, so every call puts the user data
+ * of its identity in the user config and puts the previous user data back afterwards. Calls of all identities
+ * are made one at a time; each identity still queues its requests on a graph client of its own.
+ *
+ * @author Albert Veldman
+ */
+public class IdentityGraphService implements IGraphService {
+    /**
+     * Lock held while an identity is in the user config
+     */
+    private static final Object CONFIG_LOCK = new Object();
+
+    /**
+     * Service making the calls to the graph
+     */
+    private final IGraphService delegate;
+
+    /**
+     * User data of the identity
+     */
+    private final UserData userData;
+
+    /**
+     * Creates a graph service for one identity.
+     *
+     * @param delegate service making the calls to the graph
+     * @param userData user data of the identity
+     *
+     * @author Albert Veldman
+     */
+    public IdentityGraphService(IGraphService delegate, UserData userData) {
+        this.delegate = delegate;
+        this.userData = userData;
+    }
+
+    @Override
+    public void register() throws GraphException {
+        synchronized (CONFIG_LOCK) {
+            UserData previous = enter();
+            try {
+                delegate.register();
+            } finally {
+                leave(previous);
+            }
+        }
+    }
+
+    @Override
+    public void unregister() throws GraphException {
+        synchronized (CONFIG_LOCK) {
+            UserData previous = enter();
+            try {
+                delegate.unregister();
+            } finally {
+                leave(previous);
+            }
+        }
+    }
+
+    @Override
+    public void login() throws GraphException {
+        synchronized (CONFIG_LOCK) {
+            UserData previous = enter();
+            try {
+                delegate.login();
+            } finally {
+                leave(previous);
+            }
+        }
+    }
+
+    @Override
+    public void logout() throws GraphException {
+        synchronized (CONFIG_LOCK) {
+            UserData previous = enter();
+            try {
+                delegate.logout();
+            } finally {
+                leave(previous);
+            }
+        }
+    }
+
+    /**
+     * Puts the user data of the identity in the user config. Caller holds the config lock.
+     *
+     * @return the user data that was in the user config
+     *
+     * @author Albert Veldman
+     */
+    private UserData enter() {
+        UserConfig config = UserConfig.getInstance();
+        UserData previous = config.getUserData();
+        config.setUserData(userData);
+        return previous;
+    }
+
+    /**
+     * Puts the previous user data back in the user config. Caller holds the config lock.
+     *
+     * @param previous the user data that was in the user config
+     *
+     * @author Albert Veldman
+     */
+    private void leave(UserData previous) {
+        UserConfig.getInstance().setUserData(previous);
+    }
+}
@@ -0,0 +1,64 @@
+package im.inco.node.graph;
+
+import im.inco.node.graph.interfaces.IGraphService;
+
+/**
+ * Graph service that doesn't reach a graph: every call succeeds right away. It keeps the state the graph
+ * would hold, so a node under load test goes through the same register and login steps as in production.
+ *
+ * @author Albert Veldman
+ */
+public class OfflineGraphService implements IGraphService {
+    /**
+     * Whether the node is registered
+     */
+    private volatile boolean registered;
+
+    /**
+     * Whether the node is marked online
+     */
+    private volatile boolean online;
+
+    @Override
+    public void register() {
+        registered = true;
+    }
+
+    @Override
+    public void unregister() {
+        registered = false;
+        online = false;
+    }
+
+    @Override
+    public void login() {
+        online = true;
+    }
+
+    @Override
+    public void logout() {
+        online = false;
+    }
+
+    /**
+     * Get whether the node is registered.
+     *
+     * @return true when registered
+     *
+     * @author Albert Veldman
+     */
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    /**
+     * Get whether the node is marked online.
+     *
+     * @return true when online
+     *
+     * @author Albert Veldman
+     */
+    public boolean isOnline() {
+        return online;
+    }
+}
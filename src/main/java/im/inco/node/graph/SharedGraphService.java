@@ -0,0 +1,76 @@
+package im.inco.node.graph;
+
+import im.inco.node.graph.interfaces.IGraphService;
+import im.inco.shared.components.register.LoginService;
+import im.inco.shared.components.register.RegisterService;
+import im.inco.shared.components.register.exceptions.KeySetNotSetException;
+import im.inco.shared.components.register.exceptions.RoleNotSetException;
+import im.inco.shared.components.register.exceptions.TokenNotSetException;
+import im.inco.shared.components.register.exceptions.UserDataNotSetException;
+import im.inco.shared.components.register.interfaces.ILogin;
+import im.inco.shared.components.register.interfaces.IRegisterOnGraph;
+import im.inco.shared.components.utils.api.exceptions.APIHandlerException;
+
+/**
+ * Graph service backed by the register and login services of the shared components. The services are created
+ * once and reused for every call, API errors are retryable, missing settings are not.
+ *
+ * @author Albert Veldman
+ */
+public class SharedGraphService implements IGraphService {
+    /**
+     * Service registering the node
+     */
+    private final IRegisterOnGraph registerService = new RegisterService();
+
+    /**
+     * Service logging the node in and out
+     */
+    private final ILogin loginService = new LoginService();
+
+    @Override
+    public void register() throws GraphException {
+        try {
+            registerService.register();
+        } catch (APIHandlerException exception) {
+            throw new GraphException(exception, true);
+        } catch (KeySetNotSetException exception) {
+            throw new GraphException(exception, false);
+        } catch (RoleNotSetException exception) {
+            throw new GraphException(exception, false);
+        } catch (UserDataNotSetException exception) {
+            throw new GraphException(exception, false);
+        }
+    }
+
+    @Override
+    public void unregister() throws GraphException {
+        try {
+            registerService.unregister();
+        } catch (APIHandlerException exception) {
+            throw new GraphException(exception, true);
+        } catch (TokenNotSetException exception) {
+            throw new GraphException(exception, false);
+        } catch (UserDataNotSetException exception) {
+            throw new GraphException(exception, false);
+        }
+    }
+
+    @Override
+    public void login() throws GraphException {
+        try {
+            loginService.login();
+        } catch (APIHandlerException exception) {
+            throw new GraphException(exception, true);
+        }
+    }
+
+    @Override
+    public void logout() throws GraphException {
+        try {
+            loginService.logoff();
+        } catch (APIHandlerException exception) {
+            throw new GraphException(exception, true);
+        }
+    }
+}
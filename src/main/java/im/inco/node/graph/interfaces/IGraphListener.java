@@ -0,0 +1,29 @@
+package im.inco.node.graph.interfaces;
+
+import im.inco.node.graph.GraphRequest;
+
+/**
+ * Receives the outcome of the requests sent by the graph client. Methods are called on the graph client
+ * thread.
+ *
+ * @author Albert Veldman
+ */
+public interface IGraphListener {
+    /**
+     * Called when a request succeeded, or failed and is not retried anymore.
+     *
+     * @param request the request
+     * @param success whether the graph accepted the request
+     *
+     * @author Albert Veldman
+     */
+    void onCompleted(GraphRequest request, boolean success);
+
+    /**
+     * Called after a batch of requests was sent of which at least one succeeded, so changes to the user data
+     * are written once per batch instead of once per request.
+     *
+     * @author Albert Veldman
+     */
+    void onBatchCompleted();
+}
@@ -0,0 +1,47 @@
+package im.inco.node.graph.interfaces;
+
+import im.inco.node.graph.GraphException;
+
+/**
+ * The calls the node makes to the graph. Implementations may block, they are only called from the graph
+ * client thread.
+ *
+ * @author Albert Veldman
+ */
+public interface IGraphService {
+    /**
+     * Registers the node at the graph.
+     *
+     * @throws GraphException when the node could not be registered
+     *
+     * @author Albert Veldman
+     */
+    void register() throws GraphException;
+
+    /**
+     * Unregisters the node at the graph.
+     *
+     * @throws GraphException when the node could not be unregistered
+     *
+     * @author Albert Veldman
+     */
+    void unregister() throws GraphException;
+
+    /**
+     * Marks the node online at the graph.
+     *
+     * @throws GraphException when the node could not be logged in
+     *
+     * @author Albert Veldman
+     */
+    void login() throws GraphException;
+
+    /**
+     * Marks the node offline at the graph.
+     *
+     * @throws GraphException when the node could not be logged out
+     *
+     * @author Albert Veldman
+     */
+    void logout() throws GraphException;
+}
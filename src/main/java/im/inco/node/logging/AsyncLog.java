@@ -0,0 +1,401 @@
+package im.inco.node.logging;
+
+import im.inco.node.logging.interfaces.ILogSink;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Log that hands its lines to a background writer thread through a fixed ring of preallocated slots. Logging
+ * never blocks: the level is checked before anything is recorded, the caller only claims a slot and stores the
+ * level, time and message in it, and a line is dropped and counted when the ring is full. The writer formats
+ * the lines, writes them to the sinks and flushes once per batch.
+ *
+ * @author Albert Veldman
+ */
+public class AsyncLog implements Runnable {
+    /**
+     * Default number of lines the ring holds
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * Time the writer sleeps when the ring is empty
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * Capacity of the ring minus one, the capacity is a power of two
+     */
+    private final int mask;
+
+    /**
+     * Sequence of every slot: equal to the position a producer may claim it for, one more when it is written
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * Level of the line in every slot, null for a line without level
+     */
+    private final Level[] levels;
+
+    /**
+     * Time of the line in every slot in milliseconds since the epoch
+     */
+    private final long[] times;
+
+    /**
+     * Message of the line in every slot
+     */
+    private final String[] messages;
+
+    /**
+     * Exception logged with the line in every slot, or null
+     */
+    private final Throwable[] thrown;
+
+    /**
+     * Next position producers claim
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next position the writer reads, only used by the writer
+     */
+    private long head;
+
+    /**
+     * Lines dropped because the ring was full
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Dropped lines the writer already reported
+     */
+    private long reportedDropped;
+
+    /**
+     * Destinations of the lines
+     */
+    private final List<ILogSink> sinks = new CopyOnWriteArrayList<>();
+
+    /**
+     * Formats the timestamps of the lines
+     */
+    private final TimestampFormat timestamps = new TimestampFormat();
+
+    /**
+     * Line being formatted by the writer
+     */
+    private final StringBuilder line = new StringBuilder(256);
+
+    /**
+     * Lowest level that is logged
+     */
+    private volatile Level level = Level.INFO;
+
+    /**
+     * Whether the log was closed, the writer writes the remaining lines and stops
+     */
+    private volatile boolean closed;
+
+    /**
+     * Thread writing the lines
+     */
+    private final Thread writer;
+
+    /**
+     * Creates a log, call start to start writing.
+     *
+     * @param capacity number of lines the ring holds, rounded up to a power of two
+     * @param sink first destination of the lines
+     *
+     * @author Albert Veldman
+     */
+    public AsyncLog(int capacity, ILogSink sink) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        levels = new Level[size];
+        times = new long[size];
+        messages = new String[size];
+        thrown = new Throwable[size];
+        sinks.add(sink);
+        writer = new Thread(this, "log-writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Starts the writer thread.
+     *
+     * @author Albert Veldman
+     */
+    public void start() {
+        writer.start();
+    }
+
+    /**
+     * Adds a destination of the lines.
+     *
+     * @param sink the sink
+     *
+     * @author Albert Veldman
+     */
+    public void addSink(ILogSink sink) {
+        sinks.add(sink);
+    }
+
+    /**
+     * Sets the lowest level that is logged.
+     *
+     * @param level the level
+     *
+     * @author Albert Veldman
+     */
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    /**
+     * Get the lowest level that is logged.
+     *
+     * @return the level
+     *
+     * @author Albert Veldman
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Checks whether lines of a level are logged, check this before building an expensive message.
+     *
+     * @param level level of the line
+     *
+     * @return true when the line would be logged
+     *
+     * @author Albert Veldman
+     */
+    public boolean isLoggable(Level level) {
+        Level lowest = this.level;
+        return level.intValue() >= lowest.intValue() && lowest != Level.OFF;
+    }
+
+    /**
+     * Logs a line with a level.
+     *
+     * @param level level of the line
+     * @param message the message
+     *
+     * @author Albert Veldman
+     */
+    public void log(Level level, String message) {
+        log(level, message, null);
+    }
+
+    /**
+     * Logs a line with a level and the stack trace of an exception.
+     *
+     * @param level level of the line
+     * @param message the message
+     * @param exception exception to log with the line, or null
+     *
+     * @author Albert Veldman
+     */
+    public void log(Level level, String message, Throwable exception) {
+        if(isLoggable(level)) {
+            offer(level, message, exception);
+        }
+    }
+
+    /**
+     * Logs a line without level, like command output, whatever the level of the log is.
+     *
+     * @param message the line
+     *
+     * @author Albert Veldman
+     */
+    public void print(String message) {
+        offer(null, message, null);
+    }
+
+    /**
+     * Get the number of lines dropped because the writer couldn't keep up.
+     *
+     * @return dropped lines
+     *
+     * @author Albert Veldman
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Lets the writer write the remaining lines and close the sinks.
+     *
+     * @param timeoutMillis time to wait for the writer
+     *
+     * @throws InterruptedException when interrupted while waiting
+     *
+     * @author Albert Veldman
+     */
+    public void close(long timeoutMillis) throws InterruptedException {
+        closed = true;
+        LockSupport.unpark(writer);
+        writer.join(timeoutMillis);
+    }
+
+    /**
+     * Writes the lines until the log is closed.
+     *
+     * @author Albert Veldman
+     */
+    @Override
+    public void run() {
+        while(true) {
+            // read before draining, so every line logged before close is still written
+            boolean stopping = closed;
+            if(drain() == 0) {
+                if(stopping) {
+                    break;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        for (ILogSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (IOException exception) {
+                System.err.println("Could not close log: " + exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Claims a slot and stores a line in it, or drops the line when the ring is full.
+     *
+     * @param level level of the line, null for a line without level
+     * @param message the message
+     * @param exception exception to log with the line, or null
+     *
+     * @author Albert Veldman
+     */
+    private void offer(Level level, String message, Throwable exception) {
+        long position = tail.get();
+        while(true) {
+            int index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            if(sequence == position) {
+                if(tail.compareAndSet(position, position + 1)) {
+                    levels[index] = level;
+                    times[index] = System.currentTimeMillis();
+                    messages[index] = message;
+                    thrown[index] = exception;
+                    sequences.set(index, position + 1);
+                    return;
+                }
+                position = tail.get();
+            }
+            else if(sequence < position) {
+                // the writer hasn't freed this slot yet, the ring is full
+                dropped.incrementAndGet();
+                return;
+            }
+            else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Writes the lines in the ring and flushes the sinks.
+     *
+     * @return number of lines written
+     *
+     * @author Albert Veldman
+     */
+    private int drain() {
+        int written = 0;
+        while(written <= mask) {
+            int index = (int) (head & mask);
+            if(sequences.get(index) != head + 1) {
+                break;
+            }
+            format(levels[index], times[index], messages[index], thrown[index]);
+            messages[index] = null;
+            thrown[index] = null;
+            sequences.set(index, head + mask + 1);
+            head++;
+            written++;
+            write();
+        }
+        long droppedNow = dropped.get();
+        if(droppedNow != reportedDropped) {
+            format(Level.WARNING, System.currentTimeMillis(),
+                    (droppedNow - reportedDropped) + " log lines dropped, the log writer couldn't keep up", null);
+            reportedDropped = droppedNow;
+            written++;
+            write();
+        }
+        if(written > 0) {
+            for (ILogSink sink : sinks) {
+                try {
+                    sink.flush();
+                } catch (IOException exception) {
+                    System.err.println("Could not flush log: " + exception.getMessage());
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Formats a line as [HH:mm:ss] LEVEL: message, followed by the stack trace of the exception.
+     *
+     * @param level level of the line, null for a line without level
+     * @param millis time of the line
+     * @param message the message
+     * @param exception exception logged with the line, or null
+     *
+     * @author Albert Veldman
+     */
+    private void format(Level level, long millis, String message, Throwable exception) {
+        line.setLength(0);
+        timestamps.appendTo(millis, line);
+        if(level != null) {
+            line.append(level.getName()).append(": ");
+        }
+        line.append(message);
+        if(exception != null) {
+            StringWriter trace = new StringWriter();
+            exception.printStackTrace(new PrintWriter(trace));
+            line.append(System.lineSeparator()).append(trace.toString().trim());
+        }
+    }
+
+    /**
+     * Writes the formatted line to every sink.
+     *
+     * @author Albert Veldman
+     */
+    private void write() {
+        for (ILogSink sink : sinks) {
+            try {
+                sink.write(line);
+            } catch (IOException exception) {
+                System.err.println("Could not write log: " + exception.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package im.inco.node.logging;
+
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Handler that passes the records of java.util.logging to an asynchronous log, so the loggers of the node
+ * don't write to the console on the calling thread.
+ *
+ * @author Albert Veldman
+ */
+public class AsyncLogHandler extends Handler {
+    /**
+     * Log the records are passed to
+     */
+    private final AsyncLog log;
+
+    /**
+     * Fills in the parameters of a record message, formatting is left to the log
+     */
+    private final Formatter parameters = new SimpleFormatter();
+
+    /**
+     * Creates a handler.
+     *
+     * @param log log the records are passed to
+     *
+     * @author Albert Veldman
+     */
+    public AsyncLogHandler(AsyncLog log) {
+        this.log = log;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if(isLoggable(record) && log.isLoggable(record.getLevel())) {
+            log.log(record.getLevel(), parameters.formatMessage(record), record.getThrown());
+        }
+    }
+
+    @Override
+    public void flush() {
+        // the writer of the log flushes after every batch
+    }
+
+    @Override
+    public void close() {
+        // the log is closed by the node
+    }
+}
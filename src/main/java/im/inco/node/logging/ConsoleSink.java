@@ -0,0 +1,36 @@
+package im.inco.node.logging;
+
+import im.inco.node.logging.interfaces.ILogSink;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the log lines to the standard output, one flush per batch of lines.
+ *
+ * @author Albert Veldman
+ */
+public class ConsoleSink implements ILogSink {
+    /**
+     * Buffered writer on the standard output
+     */
+    private final Writer writer = new BufferedWriter(new OutputStreamWriter(System.out));
+
+    @Override
+    public void write(CharSequence line) throws IOException {
+        writer.append(line).append(System.lineSeparator());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the standard output itself stays open
+        writer.flush();
+    }
+}
@@ -0,0 +1,150 @@
+package im.inco.node.logging;
+
+import im.inco.node.logging.interfaces.ILogSink;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the log lines to a file. When the file reaches its maximum size it is renamed to name.1, the
+ * older files move up one number and the oldest is deleted.
+ *
+ * @author Albert Veldman
+ */
+public class RollingFileSink implements ILogSink {
+    /**
+     * Default maximum size of a log file in bytes
+     */
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024;
+
+    /**
+     * Number of rolled files kept next to the current file
+     */
+    public static final int DEFAULT_MAX_FILES = 5;
+
+    /**
+     * Current log file
+     */
+    private final File file;
+
+    /**
+     * Size in bytes at which the file is rolled
+     */
+    private final long maxBytes;
+
+    /**
+     * Number of rolled files kept
+     */
+    private final int maxFiles;
+
+    /**
+     * Writer on the current file
+     */
+    private Writer writer;
+
+    /**
+     * Bytes in the current file
+     */
+    private long size;
+
+    /**
+     * Opens the log file, lines are appended to an existing file.
+     *
+     * @param file log file
+     * @param maxBytes size in bytes at which the file is rolled
+     * @param maxFiles number of rolled files kept, at least 1
+     *
+     * @throws IOException when the file can't be opened
+     *
+     * @author Albert Veldman
+     */
+    public RollingFileSink(File file, long maxBytes, int maxFiles) throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        File directory = file.getAbsoluteFile().getParentFile();
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create log directory " + directory);
+        }
+        open();
+    }
+
+    @Override
+    public void write(CharSequence line) throws IOException {
+        if(size >= maxBytes) {
+            roll();
+        }
+        writer.append(line).append(System.lineSeparator());
+        // log lines are ASCII apart from the odd nickname, close enough to decide when to roll
+        size += line.length() + System.lineSeparator().length();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Opens the log file for appending.
+     *
+     * @throws IOException when the file can't be opened
+     *
+     * @author Albert Veldman
+     */
+    private void open() throws IOException {
+        size = file.length();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Closes the current file, shifts the rolled files and opens a new file.
+     *
+     * @throws IOException when the files can't be renamed or the new file can't be opened
+     *
+     * @author Albert Veldman
+     */
+    private void roll() throws IOException {
+        writer.close();
+        try {
+            File oldest = rolled(maxFiles);
+            if(oldest.exists() && !oldest.delete()) {
+                throw new IOException("Could not delete log file " + oldest);
+            }
+            for (int i = maxFiles - 1; i > 0; i--) {
+                File rolled = rolled(i);
+                if(rolled.exists() && !rolled.renameTo(rolled(i + 1))) {
+                    throw new IOException("Could not roll log file " + rolled);
+                }
+            }
+            if(!file.renameTo(rolled(1))) {
+                throw new IOException("Could not roll log file " + file);
+            }
+        } finally {
+            // keeps appending to the current file when it couldn't be rolled
+            open();
+        }
+    }
+
+    /**
+     * Get a rolled file.
+     *
+     * @param number number of the rolled file, 1 is the newest
+     *
+     * @return rolled file
+     *
+     * @author Albert Veldman
+     */
+    private File rolled(int number) {
+        return new File(file.getPath() + "." + number);
+    }
+}
@@ -0,0 +1,44 @@
+package im.inco.node.logging;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Formats log timestamps as [HH:mm:ss]. The text of the last second is cached, so lines logged within the same
+ * second share one formatted timestamp. Thread-safe.
+ *
+ * @author Albert Veldman
+ */
+class TimestampFormat {
+    /**
+     * Formatter of the timestamps, only used while holding the lock of this object
+     */
+    private final SimpleDateFormat format = new SimpleDateFormat("'['HH:mm:ss'] '");
+
+    /**
+     * Second the cached text belongs to
+     */
+    private long cachedSecond = -1;
+
+    /**
+     * Formatted timestamp of the cached second
+     */
+    private String cachedText;
+
+    /**
+     * Appends the timestamp of a moment.
+     *
+     * @param millis moment in milliseconds since the epoch
+     * @param out where the timestamp is appended
+     *
+     * @author Albert Veldman
+     */
+    synchronized void appendTo(long millis, StringBuilder out) {
+        long second = millis / 1000;
+        if(second != cachedSecond) {
+            cachedText = format.format(new Date(millis));
+            cachedSecond = second;
+        }
+        out.append(cachedText);
+    }
+}
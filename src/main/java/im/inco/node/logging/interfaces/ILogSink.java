@@ -0,0 +1,39 @@
+package im.inco.node.logging.interfaces;
+
+import java.io.IOException;
+
+/**
+ * Destination of the formatted log lines. Only the writer thread of the log calls a sink.
+ *
+ * @author Albert Veldman
+ */
+public interface ILogSink {
+    /**
+     * Writes a line, without the line separator.
+     *
+     * @param line line to write
+     *
+     * @throws IOException when the line can't be written
+     *
+     * @author Albert Veldman
+     */
+    void write(CharSequence line) throws IOException;
+
+    /**
+     * Flushes the written lines, called after every batch of lines.
+     *
+     * @throws IOException when the lines can't be flushed
+     *
+     * @author Albert Veldman
+     */
+    void flush() throws IOException;
+
+    /**
+     * Flushes and closes the sink.
+     *
+     * @throws IOException when the sink can't be closed
+     *
+     * @author Albert Veldman
+     */
+    void close() throws IOException;
+}
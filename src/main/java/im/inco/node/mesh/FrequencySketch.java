@@ -0,0 +1,171 @@
+package im.inco.node.mesh;
+
+/**
+ * Estimates how often a key was seen recently, in a fixed amount of memory. A count-min sketch of 4-bit
+ * counters: every key increments one counter in each of four rows and its frequency is the smallest of them, so
+ * collisions only ever overestimate. All counters are halved once the sketch saw ten times as many keys as
+ * the cache holds, so the frequencies follow the recent traffic. Not thread-safe.
+ *
+ * @author Albert Veldman
+ */
+class FrequencySketch {
+    /**
+     * Seeds of the four rows
+     */
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    /**
+     * Mask that clears the bit every counter gets from its neighbour when a word is shifted right
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * Highest value of a counter
+     */
+    private static final int MAX_FREQUENCY = 15;
+
+    /**
+     * Words of sixteen 4-bit counters
+     */
+    private final long[] table;
+
+    /**
+     * Mask selecting a word from a hash
+     */
+    private final int tableMask;
+
+    /**
+     * Number of increments after which all counters are halved
+     */
+    private final int sampleSize;
+
+    /**
+     * Increments since the counters were last halved
+     */
+    private int additions;
+
+    /**
+     * Creates a sketch.
+     *
+     * @param capacity number of keys the cache holds
+     *
+     * @author Albert Veldman
+     */
+    FrequencySketch(int capacity) {
+        int words = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.table = new long[words];
+        this.tableMask = words - 1;
+        this.sampleSize = 10 * Math.max(1, capacity);
+    }
+
+    /**
+     * Returns the estimated number of times a key was seen recently.
+     *
+     * @param key the key
+     *
+     * @return frequency from 0 to 15
+     *
+     * @author Albert Veldman
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_FREQUENCY;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long slot = slot(hash, row);
+            frequency = Math.min(frequency, (int) (table[index(slot)] >>> shift(slot)) & MAX_FREQUENCY);
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts a key once.
+     *
+     * @param key the key
+     *
+     * @author Albert Veldman
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long slot = slot(hash, row);
+            int index = index(slot);
+            int shift = shift(slot);
+            if(((table[index] >>> shift) & MAX_FREQUENCY) != MAX_FREQUENCY) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if(added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves every counter.
+     *
+     * @author Albert Veldman
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    /**
+     * Mixes the hash of a key for one row.
+     *
+     * @param hash spread hash of the key
+     * @param row the row
+     *
+     * @return mixed hash, its low bits select the word and its high bits the counter
+     *
+     * @author Albert Veldman
+     */
+    private static long slot(int hash, int row) {
+        long slot = (hash + SEEDS[row]) * SEEDS[row];
+        return slot ^ (slot >>> 32);
+    }
+
+    /**
+     * Get the word a mixed hash selects.
+     *
+     * @param slot mixed hash
+     *
+     * @return index in the table
+     *
+     * @author Albert Veldman
+     */
+    private int index(long slot) {
+        return (int) slot & tableMask;
+    }
+
+    /**
+     * Get the position of the counter a mixed hash selects within its word.
+     *
+     * @param slot mixed hash
+     *
+     * @return shift of the counter
+     *
+     * @author Albert Veldman
+     */
+    private static int shift(long slot) {
+        return (int) (slot >>> 60) << 2;
+    }
+
+    /**
+     * Spreads the bits of a hash code, so keys with similar hash codes use different counters.
+     *
+     * @param hashCode hash code of the key
+     *
+     * @return spread hash
+     *
+     * @author Albert Veldman
+     */
+    private static int spread(int hashCode) {
+        int hash = hashCode * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,337 @@
+package im.inco.node.mesh;
+
+import im.inco.node.metrics.NodeMetrics;
+import im.inco.node.protocol.Frame;
+import im.inco.node.protocol.FrameType;
+import im.inco.node.protocol.PeerHello;
+import im.inco.node.receive.Connection;
+import im.inco.node.receive.NioReceiveHandler;
+
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The links of this node to the other nodes of a mesh and the routes to their endpoints. A message for an
+ * endpoint that is connected to another node is forwarded over the link to that node in one hop, without asking
+ * the graph where the endpoint is.
+ *
+ * <p>Routes are learned from ROUTE frames, which a node sends to all its links when an endpoint connects, to a
+ * new link for every connected endpoint, and in answer to LOCATE. An UNROUTE frame or a closed link invalidates
+ * the routes to a node right away; a route that is not renewed expires after the time to live of the cache.
+ * An endpoint that connects to or leaves this node invalidates its route as well. The nodes are asked about an
+ * endpoint without a route only once while the cache remembers it as unknown.
+ *
+ * @author Albert Veldman
+ */
+public class Mesh {
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(Mesh.class.getName());
+
+    /**
+     * Name of this node in the mesh
+     */
+    private final String name;
+
+    /**
+     * Secret shared by the nodes of the mesh
+     */
+    private final MeshSecret secret;
+
+    /**
+     * Routes to the endpoints of the other nodes and the endpoints no node knew recently
+     */
+    private final RouteCache routes;
+
+    /**
+     * Counters for route lookups and forwarded messages
+     */
+    private final NodeMetrics metrics;
+
+    /**
+     * Links by node name
+     */
+    private final ConcurrentMap<String, PeerLink> links = new ConcurrentHashMap<>();
+
+    /**
+     * Connector keeping the links to the configured peers open, null until started
+     */
+    private volatile PeerConnector connector;
+
+    /**
+     * Creates a mesh.
+     *
+     * @param name name of this node in the mesh
+     * @param secret secret shared by the nodes of the mesh
+     * @param routes routes to the endpoints of the other nodes and the endpoints no node knew recently
+     * @param metrics counters for route lookups and forwarded messages
+     *
+     * @author Albert Veldman
+     */
+    public Mesh(String name, MeshSecret secret, RouteCache routes, NodeMetrics metrics) {
+        this.name = name;
+        this.secret = secret;
+        this.routes = routes;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts opening links to the given peers.
+     *
+     * @param receiveHandler receive handler serving the links
+     * @param peers message ports of the peers
+     *
+     * @author Albert Veldman
+     */
+    public void start(NioReceiveHandler receiveHandler, List<InetSocketAddress> peers) {
+        if(!peers.isEmpty()) {
+            connector = new PeerConnector(this, receiveHandler, peers);
+        }
+    }
+
+    /**
+     * Stops opening links. Open links are closed with the receive handler.
+     *
+     * @author Albert Veldman
+     */
+    public void stop() {
+        if(connector != null) {
+            connector.stop();
+        }
+    }
+
+    /**
+     * Checks the PEER_HELLO of a connection and makes the connection a link to its sender.
+     *
+     * @param connection connection the hello was received on
+     * @param frame the PEER_HELLO frame
+     *
+     * @return the new link
+     *
+     * @throws ProtocolException when the hello is malformed or not signed with the mesh secret
+     *
+     * @author Albert Veldman
+     */
+    public PeerLink accept(Connection connection, Frame frame) throws ProtocolException {
+        String node = frame.getSender();
+        String recipient = frame.getRecipient();
+        if(node.isEmpty() || node.equals(name) || !(recipient.isEmpty() || recipient.equals(name))
+                || !secret.verify(node, recipient, PeerHello.decode(frame.getPayload()))) {
+            throw new ProtocolException("Invalid peer hello from " + node);
+        }
+        connection.setPeer(node);
+        PeerLink link = new PeerLink(node, connection);
+        links.put(node, link);
+        LOGGER.log(Level.INFO, "Linked to node " + node);
+        return link;
+    }
+
+    /**
+     * Creates the PEER_HELLO frame that answers the hello of another node.
+     *
+     * @param node name of the other node
+     *
+     * @return encoded frame
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer answer(String node) {
+        return new Frame(FrameType.PEER_HELLO, name, node, secret.hello(name, node).encode()).encode();
+    }
+
+    /**
+     * Forgets a link that closed and the routes to its node, unless the node has another link already.
+     *
+     * @param connection connection of the link
+     *
+     * @author Albert Veldman
+     */
+    public void closed(Connection connection) {
+        PeerLink link = links.get(connection.getPeer());
+        if(link != null && link.getConnection() == connection && links.remove(link.getNode(), link)) {
+            routes.removeNode(link.getNode());
+            LOGGER.log(Level.INFO, "Link to node " + link.getNode() + " closed");
+        }
+    }
+
+    /**
+     * Returns the link to the node an endpoint is connected to.
+     *
+     * @param nickname nickname of the endpoint
+     *
+     * @return the link or null when no route is known or its node has no link
+     *
+     * @author Albert Veldman
+     */
+    public PeerLink route(String nickname) {
+        String node = routes.get(nickname);
+        PeerLink link = node == null ? null : links.get(node);
+        if(link == null || link.getConnection().isClosed()) {
+            metrics.routeMissed();
+            return null;
+        }
+        metrics.routeHit();
+        return link;
+    }
+
+    /**
+     * Get the current link of the node at the other end of a connection.
+     *
+     * @param connection connection of a link
+     *
+     * @return the link or null when the connection is not the current link of its node
+     *
+     * @author Albert Veldman
+     */
+    public PeerLink getLink(Connection connection) {
+        PeerLink link = links.get(connection.getPeer());
+        return link != null && link.getConnection() == connection ? link : null;
+    }
+
+    /**
+     * Remembers that an endpoint is connected to the node of a link.
+     *
+     * @param nickname nickname of the endpoint
+     * @param node name of the node
+     *
+     * @author Albert Veldman
+     */
+    public void learn(String nickname, String node) {
+        routes.put(nickname, node);
+    }
+
+    /**
+     * Forgets that an endpoint is connected to a node.
+     *
+     * @param nickname nickname of the endpoint
+     * @param node name of the node the endpoint left
+     *
+     * @author Albert Veldman
+     */
+    public void forget(String nickname, String node) {
+        routes.remove(nickname, node);
+    }
+
+    /**
+     * Tells every linked node that an endpoint connected to this node.
+     *
+     * @param nickname nickname of the endpoint
+     *
+     * @author Albert Veldman
+     */
+    public void attached(String nickname) {
+        routes.invalidate(nickname);
+        broadcast(FrameType.ROUTE, nickname);
+    }
+
+    /**
+     * Tells every linked node that an endpoint left this node.
+     *
+     * @param nickname nickname of the endpoint
+     *
+     * @author Albert Veldman
+     */
+    public void detached(String nickname) {
+        routes.invalidate(nickname);
+        broadcast(FrameType.UNROUTE, nickname);
+    }
+
+    /**
+     * Asks every linked node whether an endpoint is connected to it, unless the endpoint is still marked unknown
+     * from an earlier question.
+     *
+     * @param nickname nickname of the endpoint
+     *
+     * @author Albert Veldman
+     */
+    public void locate(String nickname) {
+        if(links.isEmpty()) {
+            return;
+        }
+        if(!routes.markUnknown(nickname)) {
+            metrics.routeUnknown();
+            return;
+        }
+        broadcast(FrameType.LOCATE, nickname);
+    }
+
+    /**
+     * Sends a frame about an endpoint to every linked node.
+     *
+     * @param type LOCATE, ROUTE or UNROUTE
+     * @param nickname nickname of the endpoint
+     *
+     * @author Albert Veldman
+     */
+    public void broadcast(FrameType type, String nickname) {
+        for (PeerLink link : links.values()) {
+            link.getConnection().send(frame(type, nickname));
+        }
+    }
+
+    /**
+     * Creates a frame about an endpoint for a linked node.
+     *
+     * @param type LOCATE, ROUTE or UNROUTE
+     * @param nickname nickname of the endpoint
+     *
+     * @return encoded frame
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer frame(FrameType type, String nickname) {
+        return new Frame(type, name, nickname, ByteBuffer.allocate(0)).encode();
+    }
+
+    /**
+     * Get the name of this node in the mesh.
+     *
+     * @return node name
+     *
+     * @author Albert Veldman
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the secret shared by the nodes of the mesh.
+     *
+     * @return mesh secret
+     *
+     * @author Albert Veldman
+     */
+    MeshSecret getSecret() {
+        return secret;
+    }
+
+    /**
+     * Get the open links.
+     *
+     * @return links, weakly consistent
+     *
+     * @author Albert Veldman
+     */
+    public Collection<PeerLink> getLinks() {
+        return links.values();
+    }
+
+    /**
+     * Get the routes to the endpoints of the other nodes.
+     *
+     * @return route cache
+     *
+     * @author Albert Veldman
+     */
+    public RouteCache getRoutes() {
+        return routes;
+    }
+}
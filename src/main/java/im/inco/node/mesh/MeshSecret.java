@@ -0,0 +1,132 @@
+package im.inco.node.mesh;
+
+import im.inco.node.protocol.PeerHello;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Secret shared by the nodes of a mesh. A node only accepts a link from a node whose hello is signed with the
+ * same secret and was created at most MAX_SKEW_MILLIS ago.
+ *
+ * @author Albert Veldman
+ */
+public class MeshSecret {
+    /**
+     * Largest difference between the time of a hello and the clock of the node that checks it
+     */
+    public static final long MAX_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Charset used for node names
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Source of the hello nonces
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Key of the MAC
+     */
+    private final SecretKeySpec key;
+
+    /**
+     * Creates a mesh secret.
+     *
+     * @param secret the secret, the same on every node of the mesh
+     *
+     * @throws IllegalArgumentException when the secret is empty
+     *
+     * @author Albert Veldman
+     */
+    public MeshSecret(String secret) {
+        if(secret.isEmpty()) {
+            throw new IllegalArgumentException("Mesh secret can't be empty");
+        }
+        this.key = new SecretKeySpec(secret.getBytes(UTF_8), "HmacSHA256");
+    }
+
+    /**
+     * Creates a signed hello.
+     *
+     * @param sender name of the node sending the hello
+     * @param recipient name of the node the hello answers, empty when it opens the link
+     *
+     * @return the hello
+     *
+     * @author Albert Veldman
+     */
+    public PeerHello hello(String sender, String recipient) {
+        byte[] nonce = new byte[PeerHello.NONCE_LENGTH];
+        random.nextBytes(nonce);
+        long now = System.currentTimeMillis();
+        return new PeerHello(now, nonce, mac(sender, recipient, now, nonce));
+    }
+
+    /**
+     * Checks a hello another node sent.
+     *
+     * @param sender name of the node that sent the hello
+     * @param recipient recipient of the hello frame
+     * @param hello the hello
+     *
+     * @return true when the hello is signed with this secret and recent
+     *
+     * @author Albert Veldman
+     */
+    public boolean verify(String sender, String recipient, PeerHello hello) {
+        if(Math.abs(System.currentTimeMillis() - hello.getTimeMillis()) > MAX_SKEW_MILLIS) {
+            return false;
+        }
+        return MessageDigest.isEqual(mac(sender, recipient, hello.getTimeMillis(), hello.getNonce()),
+                hello.getMac());
+    }
+
+    /**
+     * Computes the MAC of a hello: HMAC-SHA256 over sender, recipient, time and nonce.
+     *
+     * @param sender name of the node sending the hello
+     * @param recipient recipient of the hello frame
+     * @param timeMillis time the hello was created
+     * @param nonce nonce of the hello
+     *
+     * @return the MAC
+     *
+     * @author Albert Veldman
+     */
+    private byte[] mac(String sender, String recipient, long timeMillis, byte[] nonce) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            update(mac, sender);
+            update(mac, recipient);
+            mac.update(ByteBuffer.allocate(8).putLong(0, timeMillis));
+            mac.update(nonce);
+            return mac.doFinal();
+        } catch (GeneralSecurityException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Adds a name with its length in front to a MAC, so the boundary between two names is part of the input.
+     *
+     * @param mac the MAC
+     * @param name the name
+     *
+     * @author Albert Veldman
+     */
+    private static void update(Mac mac, String name) {
+        byte[] bytes = name.getBytes(UTF_8);
+        mac.update(ByteBuffer.allocate(4).putInt(0, bytes.length));
+        mac.update(bytes);
+    }
+}
@@ -0,0 +1,209 @@
+package im.inco.node.mesh;
+
+import im.inco.node.protocol.Frame;
+import im.inco.node.protocol.FrameType;
+import im.inco.node.receive.NioReceiveHandler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a link open to the message port of every configured peer. A link is opened with a PEER_HELLO and then
+ * served by the receive loops like any other connection; once it closed it is opened again. The delay before
+ * the next attempt doubles with every attempt that failed or whose link closed within MAX_BACKOFF_MILLIS, for
+ * example because the peer refused the hello.
+ *
+ * @author Albert Veldman
+ */
+class PeerConnector {
+    /**
+     * Time between two checks whether the links are still open
+     */
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Time a connection attempt may take
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Longest delay between two connection attempts to the same peer
+     */
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(PeerConnector.class.getName());
+
+    /**
+     * Mesh the links belong to
+     */
+    private final Mesh mesh;
+
+    /**
+     * Receive handler the links are served by
+     */
+    private final NioReceiveHandler receiveHandler;
+
+    /**
+     * Configured peers, only used by the connector thread
+     */
+    private final List<Peer> peers = new ArrayList<>();
+
+    /**
+     * Thread opening the links
+     */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "mesh-connector");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Creates a connector and starts opening the links.
+     *
+     * @param mesh mesh the links belong to
+     * @param receiveHandler receive handler the links are served by
+     * @param addresses message ports of the peers
+     *
+     * @author Albert Veldman
+     */
+    PeerConnector(Mesh mesh, NioReceiveHandler receiveHandler, List<InetSocketAddress> addresses) {
+        this.mesh = mesh;
+        this.receiveHandler = receiveHandler;
+        for (InetSocketAddress address : addresses) {
+            peers.add(new Peer(address));
+        }
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, 0, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops opening links. Links that are open stay open until the receive handler closes them.
+     *
+     * @author Albert Veldman
+     */
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Opens the link to every peer whose link closed and whose next attempt is due.
+     *
+     * @author Albert Veldman
+     */
+    private void check() {
+        long now = System.nanoTime();
+        for (Peer peer : peers) {
+            if(peer.channel != null) {
+                if(peer.channel.isOpen()) {
+                    continue;
+                }
+                peer.channel = null;
+                if(now - peer.connectedNanos > TimeUnit.MILLISECONDS.toNanos(MAX_BACKOFF_MILLIS)) {
+                    peer.backoffMillis = CHECK_INTERVAL_MILLIS;
+                }
+                backOff(peer, now);
+            }
+            if(now - peer.nextAttemptNanos >= 0) {
+                connect(peer, now);
+            }
+        }
+    }
+
+    /**
+     * Delays the next attempt to open the link to a peer and doubles the delay after that.
+     *
+     * @param peer the peer
+     * @param now current System.nanoTime
+     *
+     * @author Albert Veldman
+     */
+    private static void backOff(Peer peer, long now) {
+        peer.nextAttemptNanos = now + TimeUnit.MILLISECONDS.toNanos(peer.backoffMillis);
+        peer.backoffMillis = Math.min(MAX_BACKOFF_MILLIS, peer.backoffMillis * 2);
+    }
+
+    /**
+     * Opens the link to a peer and hands it to the receive handler.
+     *
+     * @param peer the peer
+     * @param now current System.nanoTime
+     *
+     * @author Albert Veldman
+     */
+    private void connect(Peer peer, long now) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.socket().connect(new InetSocketAddress(peer.address.getHostString(), peer.address.getPort()),
+                    CONNECT_TIMEOUT_MILLIS);
+            ByteBuffer hello = new Frame(FrameType.PEER_HELLO, mesh.getName(), "",
+                    mesh.getSecret().hello(mesh.getName(), "").encode()).encode();
+            while(hello.hasRemaining()) {
+                channel.write(hello);
+            }
+            if(!receiveHandler.connect(channel)) {
+                throw new IOException("Receive handler refused the link");
+            }
+            peer.channel = channel;
+            peer.connectedNanos = now;
+            LOGGER.log(Level.INFO, "Opened link to " + peer.address);
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+            close(channel);
+            backOff(peer, now);
+        }
+    }
+
+    /**
+     * Closes a channel that could not be handed to the receive handler.
+     *
+     * @param channel the channel or null
+     *
+     * @author Albert Veldman
+     */
+    private static void close(SocketChannel channel) {
+        if(channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * A configured peer and the state of its link.
+     */
+    private static class Peer {
+        private final InetSocketAddress address;
+        private SocketChannel channel;
+        private long connectedNanos;
+        private long nextAttemptNanos = System.nanoTime();
+        private long backoffMillis = CHECK_INTERVAL_MILLIS;
+
+        private Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+}
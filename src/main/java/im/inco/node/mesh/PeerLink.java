@@ -0,0 +1,92 @@
+package im.inco.node.mesh;
+
+import im.inco.node.receive.Connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A link to another node of the mesh. All messages forwarded to that node share the connection of the link.
+ * Messages for its endpoints that arrive while the connection has too many pending writes are kept in the
+ * relay store; the link remembers their recipients so they are forwarded once the connection caught up.
+ *
+ * @author Albert Veldman
+ */
+public class PeerLink {
+    /**
+     * Name of the node at the other end
+     */
+    private final String node;
+
+    /**
+     * Connection of the link
+     */
+    private final Connection connection;
+
+    /**
+     * Recipients with messages that were stored while the connection was not writable
+     */
+    private final Set<String> backlog = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Creates a link.
+     *
+     * @param node name of the node at the other end
+     * @param connection connection of the link
+     *
+     * @author Albert Veldman
+     */
+    PeerLink(String node, Connection connection) {
+        this.node = node;
+        this.connection = connection;
+    }
+
+    /**
+     * Remembers a recipient whose message was stored because the connection was not writable.
+     *
+     * @param nickname nickname of the recipient
+     *
+     * @author Albert Veldman
+     */
+    public void addBacklog(String nickname) {
+        backlog.add(nickname);
+    }
+
+    /**
+     * Returns and forgets the recipients whose messages were stored while the connection was not writable.
+     *
+     * @return nicknames of the recipients
+     *
+     * @author Albert Veldman
+     */
+    public List<String> drainBacklog() {
+        List<String> nicknames = new ArrayList<>(backlog);
+        backlog.removeAll(nicknames);
+        return nicknames;
+    }
+
+    /**
+     * Get the name of the node at the other end.
+     *
+     * @return node name
+     *
+     * @author Albert Veldman
+     */
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * Get the connection of the link.
+     *
+     * @return connection
+     *
+     * @author Albert Veldman
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+}
@@ -0,0 +1,530 @@
+package im.inco.node.mesh;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The node every remote endpoint was last seen on, by nickname, and the nicknames no node knew recently.
+ *
+ * <p>A route expires a fixed time after it was learned, so a route whose invalidation was missed is not used
+ * forever. The cache holds at most maxRoutes routes and evicts like W-TinyLFU: a new route enters a small LRU
+ * window, and a route leaving the window only stays when its nickname was looked up more often recently than
+ * the route it would replace. Routes that are looked up again move to a protected segment. Frequent recipients
+ * therefore stay cached while a burst of one-off recipients passes through the window.
+ *
+ * <p>Lookups are a single map read. Recording the lookup for the eviction order takes a lock, but only when it
+ * is free; under contention a few lookups are not recorded, which only makes the order a little less exact.
+ *
+ * <p>A nickname that was looked up without a route is marked unknown for a short time, so the nodes of the mesh
+ * are not asked about it for every message. Learning or invalidating a route clears the mark.
+ *
+ * @author Albert Veldman
+ */
+public class RouteCache {
+    /**
+     * Default time a route is used after it was learned
+     */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Default maximum number of cached routes
+     */
+    public static final int DEFAULT_MAX_ROUTES = 100000;
+
+    /**
+     * Default time a nickname stays marked unknown
+     */
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = 5000;
+
+    /**
+     * Percentage of the routes kept in the window
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * Percentage of the routes outside the window kept in the protected segment
+     */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /**
+     * Time a route is used after it was learned
+     */
+    private final long ttlNanos;
+
+    /**
+     * Time a nickname stays marked unknown
+     */
+    private final long negativeTtlNanos;
+
+    /**
+     * Maximum number of cached routes, also the maximum number of nicknames marked unknown
+     */
+    private final int maxRoutes;
+
+    /**
+     * Maximum number of routes in the window
+     */
+    private final int maxWindow;
+
+    /**
+     * Maximum number of routes in the protected segment
+     */
+    private final int maxProtected;
+
+    /**
+     * Routes by nickname, only changed under the lock
+     */
+    private final ConcurrentMap<String, Entry> routes = new ConcurrentHashMap<>();
+
+    /**
+     * System.nanoTime until which a nickname is marked unknown, by nickname
+     */
+    private final ConcurrentMap<String, Long> unknown = new ConcurrentHashMap<>();
+
+    /**
+     * Guards the eviction order, the sketch and every change to the routes
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Recent lookup frequency of the nicknames, guarded by the lock
+     */
+    private final FrequencySketch sketch;
+
+    /**
+     * New routes in least recently used order, guarded by the lock
+     */
+    private final AccessQueue window = new AccessQueue();
+
+    /**
+     * Routes admitted from the window that were not looked up since, guarded by the lock
+     */
+    private final AccessQueue probation = new AccessQueue();
+
+    /**
+     * Routes that were looked up after their admission, guarded by the lock
+     */
+    private final AccessQueue protectedRoutes = new AccessQueue();
+
+    /**
+     * Number of routes evicted because the cache was full, guarded by the lock
+     */
+    private long evictions;
+
+    /**
+     * System.nanoTime of the next sweep for expired routes
+     */
+    private final AtomicLong nextSweepNanos;
+
+    /**
+     * Creates a route cache.
+     *
+     * @param ttlMillis time a route is used after it was learned
+     * @param maxRoutes maximum number of cached routes
+     * @param negativeTtlMillis time a nickname stays marked unknown
+     *
+     * @author Albert Veldman
+     */
+    public RouteCache(long ttlMillis, int maxRoutes, long negativeTtlMillis) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.maxRoutes = maxRoutes;
+        this.maxWindow = Math.max(1, maxRoutes * WINDOW_PERCENT / 100);
+        this.maxProtected = (maxRoutes - maxWindow) * PROTECTED_PERCENT / 100;
+        this.sketch = new FrequencySketch(maxRoutes);
+        this.nextSweepNanos = new AtomicLong(System.nanoTime() + ttlNanos);
+    }
+
+    /**
+     * Returns the node an endpoint is connected to.
+     *
+     * @param nickname nickname of the endpoint
+     *
+     * @return name of the node or null when no route is known or it expired
+     *
+     * @author Albert Veldman
+     */
+    public String get(String nickname) {
+        Entry entry = routes.get(nickname);
+        if(entry == null) {
+            record(nickname, null);
+            return null;
+        }
+        Route route = entry.route;
+        if(System.nanoTime() - route.expiresNanos > 0) {
+            remove(entry);
+            return null;
+        }
+        record(nickname, entry);
+        return route.node;
+    }
+
+    /**
+     * Remembers the node an endpoint is connected to, replacing an older route.
+     *
+     * @param nickname nickname of the endpoint
+     * @param node name of the node
+     *
+     * @author Albert Veldman
+     */
+    public void put(String nickname, String node) {
+        long now = System.nanoTime();
+        Route route = new Route(node, now + ttlNanos);
+        unknown.remove(nickname);
+        lock.lock();
+        try {
+            sketch.increment(nickname);
+            Entry entry = routes.get(nickname);
+            if(entry != null) {
+                entry.route = route;
+                onAccess(entry);
+            }
+            else {
+                entry = new Entry(nickname, route);
+                routes.put(nickname, entry);
+                window.addLast(entry);
+                evict();
+            }
+            sweep(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets the route of an endpoint, unless it already points to another node.
+     *
+     * @param nickname nickname of the endpoint
+     * @param node name of the node the endpoint left
+     *
+     * @author Albert Veldman
+     */
+    public void remove(String nickname, String node) {
+        unknown.remove(nickname);
+        Entry entry = routes.get(nickname);
+        if(entry != null && entry.route.node.equals(node)) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Forgets the route of an endpoint and that it was unknown, because it connected to or left a node.
+     *
+     * @param nickname nickname of the endpoint
+     *
+     * @author Albert Veldman
+     */
+    public void invalidate(String nickname) {
+        unknown.remove(nickname);
+        Entry entry = routes.get(nickname);
+        if(entry != null) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Forgets every route to a node.
+     *
+     * @param node name of the node
+     *
+     * @author Albert Veldman
+     */
+    public void removeNode(String node) {
+        lock.lock();
+        try {
+            for (Entry entry : routes.values()) {
+                if(entry.route.node.equals(node)) {
+                    unlink(entry);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a nickname unknown, unless it already is.
+     *
+     * @param nickname nickname that was looked up without a route
+     *
+     * @return false when the nickname was already marked unknown, so the nodes don't have to be asked again
+     *
+     * @author Albert Veldman
+     */
+    public boolean markUnknown(String nickname) {
+        long now = System.nanoTime();
+        Long until = unknown.get(nickname);
+        if(until != null && now - until <= 0) {
+            return false;
+        }
+        if(until == null && unknown.size() >= maxRoutes) {
+            trimUnknown(now);
+        }
+        Long next = now + negativeTtlNanos;
+        return until == null ? unknown.putIfAbsent(nickname, next) == null : unknown.replace(nickname, until, next);
+    }
+
+    /**
+     * Get the number of cached routes, including expired routes that were not dropped yet.
+     *
+     * @return number of routes
+     *
+     * @author Albert Veldman
+     */
+    public int size() {
+        return routes.size();
+    }
+
+    /**
+     * Get the maximum number of cached routes.
+     *
+     * @return maximum number of routes
+     *
+     * @author Albert Veldman
+     */
+    public int getMaxRoutes() {
+        return maxRoutes;
+    }
+
+    /**
+     * Get the number of routes that were evicted because the cache was full.
+     *
+     * @return evicted routes
+     *
+     * @author Albert Veldman
+     */
+    public long getEvictions() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a lookup in the sketch and the eviction order, unless another thread holds the lock.
+     *
+     * @param nickname nickname that was looked up
+     * @param entry route that was found or null
+     *
+     * @author Albert Veldman
+     */
+    private void record(String nickname, Entry entry) {
+        if(!lock.tryLock()) {
+            return;
+        }
+        try {
+            sketch.increment(nickname);
+            if(entry != null && entry.queue != null) {
+                onAccess(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves a route that was looked up or renewed to the most recently used end of its segment. A route on
+     * probation is promoted to the protected segment, which makes room by moving its least recently used route
+     * back to probation. Must hold the lock.
+     *
+     * @param entry the route
+     *
+     * @author Albert Veldman
+     */
+    private void onAccess(Entry entry) {
+        if(entry.queue != probation) {
+            entry.queue.moveToBack(entry);
+            return;
+        }
+        probation.remove(entry);
+        protectedRoutes.addLast(entry);
+        if(protectedRoutes.size() > maxProtected) {
+            probation.addLast(protectedRoutes.pollFirst());
+        }
+    }
+
+    /**
+     * Moves routes that don't fit in the window to probation, then evicts until the cache is within its
+     * maximum. The least recently used route on probation is evicted unless the route that just left the
+     * window was looked up less often recently, in which case that one is. Must hold the lock.
+     *
+     * @author Albert Veldman
+     */
+    private void evict() {
+        while(window.size() > maxWindow) {
+            probation.addLast(window.pollFirst());
+        }
+        while(routes.size() > maxRoutes) {
+            Entry victim = probation.first();
+            if(victim == null) {
+                victim = protectedRoutes.size() > 0 ? protectedRoutes.first() : window.first();
+            }
+            else {
+                Entry candidate = probation.last();
+                if(candidate != victim && sketch.frequency(candidate.nickname) <= sketch.frequency(victim.nickname)) {
+                    victim = candidate;
+                }
+            }
+            unlink(victim);
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes a route, unless it was replaced or removed already.
+     *
+     * @param entry the route
+     *
+     * @author Albert Veldman
+     */
+    private void remove(Entry entry) {
+        lock.lock();
+        try {
+            if(entry.queue != null) {
+                unlink(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a route from its segment and the map. Must hold the lock.
+     *
+     * @param entry the route
+     *
+     * @author Albert Veldman
+     */
+    private void unlink(Entry entry) {
+        entry.queue.remove(entry);
+        routes.remove(entry.nickname, entry);
+    }
+
+    /**
+     * Drops the expired routes, at most once per time to live. Must hold the lock.
+     *
+     * @param now current System.nanoTime
+     *
+     * @author Albert Veldman
+     */
+    private void sweep(long now) {
+        long next = nextSweepNanos.get();
+        if(now - next < 0 || !nextSweepNanos.compareAndSet(next, now + ttlNanos)) {
+            return;
+        }
+        for (Entry entry : routes.values()) {
+            if(now - entry.route.expiresNanos > 0) {
+                unlink(entry);
+            }
+        }
+    }
+
+    /**
+     * Drops the nicknames whose unknown mark expired, or all of them when none did.
+     *
+     * @param now current System.nanoTime
+     *
+     * @author Albert Veldman
+     */
+    private void trimUnknown(long now) {
+        Iterator<Long> iterator = unknown.values().iterator();
+        while(iterator.hasNext()) {
+            if(now - iterator.next() > 0) {
+                iterator.remove();
+            }
+        }
+        if(unknown.size() >= maxRoutes) {
+            unknown.clear();
+        }
+    }
+
+    /**
+     * A node and the time its route expires.
+     */
+    private static class Route {
+        private final String node;
+        private final long expiresNanos;
+
+        private Route(String node, long expiresNanos) {
+            this.node = node;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    /**
+     * The cached route of a nickname and its place in the eviction order. The links are guarded by the lock of
+     * the cache.
+     */
+    private static class Entry {
+        private final String nickname;
+        private volatile Route route;
+        private AccessQueue queue;
+        private Entry previous;
+        private Entry next;
+
+        private Entry(String nickname, Route route) {
+            this.nickname = nickname;
+            this.route = route;
+        }
+    }
+
+    /**
+     * Routes in least recently used order, a doubly linked list through the entries.
+     */
+    private static class AccessQueue {
+        private final Entry head = new Entry(null, null);
+        private int size;
+
+        private AccessQueue() {
+            head.previous = head;
+            head.next = head;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private Entry first() {
+            return size == 0 ? null : head.next;
+        }
+
+        private Entry last() {
+            return size == 0 ? null : head.previous;
+        }
+
+        private Entry pollFirst() {
+            Entry entry = first();
+            remove(entry);
+            return entry;
+        }
+
+        private void addLast(Entry entry) {
+            entry.previous = head.previous;
+            entry.next = head;
+            head.previous.next = entry;
+            head.previous = entry;
+            entry.queue = this;
+            size++;
+        }
+
+        private void remove(Entry entry) {
+            entry.previous.next = entry.next;
+            entry.next.previous = entry.previous;
+            entry.previous = null;
+            entry.next = null;
+            entry.queue = null;
+            size--;
+        }
+
+        private void moveToBack(Entry entry) {
+            remove(entry);
+            addLast(entry);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package im.inco.node.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds with log-linear buckets, in the style of HdrHistogram. Values below
+ * 32 get a bucket each, larger values are split into 16 buckets per power of two, so a percentile is never
+ * more than 1/16th above the recorded value. Recording is lock free and doesn't allocate.
+ *
+ * @author Albert Veldman
+ */
+public class LatencyHistogram {
+    /**
+     * Number of buckets for the values that are counted exactly
+     */
+    private static final int LINEAR_BUCKETS = 32;
+
+    /**
+     * Log2 of the number of buckets per power of two
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Number of buckets per power of two
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Log2 of the smallest value that is not counted exactly
+     */
+    private static final int FIRST_EXPONENT = 5;
+
+    /**
+     * Count per bucket
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR_BUCKETS + (63 - FIRST_EXPONENT) * SUB_BUCKETS);
+
+    /**
+     * Number of recorded values
+     */
+    private final StripedCounter count = new StripedCounter();
+
+    /**
+     * Sum of the recorded values
+     */
+    private final StripedCounter sum = new StripedCounter();
+
+    /**
+     * Largest recorded value
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos latency in nanoseconds, negative values are recorded as zero
+     *
+     * @author Albert Veldman
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while(value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Get the number of recorded values.
+     *
+     * @return count
+     *
+     * @author Albert Veldman
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the sum of the recorded values.
+     *
+     * @return sum in nanoseconds
+     *
+     * @author Albert Veldman
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Get the largest recorded value.
+     *
+     * @return maximum in nanoseconds
+     *
+     * @author Albert Veldman
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the value below which the given fraction of the recorded values lies.
+     *
+     * @param quantile fraction between 0 and 1
+     *
+     * @return upper bound of the bucket holding the quantile in nanoseconds, 0 when nothing is recorded
+     *
+     * @author Albert Veldman
+     */
+    public long getQuantile(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if(total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if(seen >= rank) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the bucket a value is counted in.
+     *
+     * @param value non-negative value
+     *
+     * @return bucket index
+     *
+     * @author Albert Veldman
+     */
+    private static int bucketOf(long value) {
+        if(value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value that is counted in a bucket.
+     *
+     * @param bucket bucket index
+     *
+     * @return largest value of the bucket
+     *
+     * @author Albert Veldman
+     */
+    private static long upperBoundOf(int bucket) {
+        if(bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+        long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,518 @@
+package im.inco.node.metrics;
+
+import im.inco.node.receive.PortType;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Instrumentation of the receive and relay path of the node, shared by all receive loops.
+ *
+ * @author Albert Veldman
+ */
+public class NodeMetrics {
+    /**
+     * Counters per port
+     */
+    private final Map<PortType, PortMetrics> ports = new EnumMap<>(PortType.class);
+
+    /**
+     * Messages put in the relay store because their recipient was offline or behind
+     */
+    private final StripedCounter messagesStored = new StripedCounter();
+
+    /**
+     * Stored messages that were written to their recipient or to the node it is connected to
+     */
+    private final StripedCounter messagesDrained = new StripedCounter();
+
+    /**
+     * Memory held by the windows of stored messages that are being written
+     */
+    private final StripedCounter drainBytes = new StripedCounter();
+
+    /**
+     * Windows of stored messages that waited because the drain budget was used up
+     */
+    private final StripedCounter drainsDeferred = new StripedCounter();
+
+    /**
+     * Connections closed right after they were accepted because the connection cap was reached
+     */
+    private final StripedCounter connectionsRejected = new StripedCounter();
+
+    /**
+     * Times a connection stopped reading because its frame exceeded a rate limit
+     */
+    private final StripedCounter framesThrottled = new StripedCounter();
+
+    /**
+     * Times a file port connection paused because the bulk rate was used up
+     */
+    private final StripedCounter bulkThrottled = new StripedCounter();
+
+    /**
+     * Messages forwarded to another node of the mesh
+     */
+    private final StripedCounter messagesForwarded = new StripedCounter();
+
+    /**
+     * Lookups of a remote endpoint that found a route to a linked node
+     */
+    private final StripedCounter routeHits = new StripedCounter();
+
+    /**
+     * Lookups of a remote endpoint that found no usable route
+     */
+    private final StripedCounter routeMisses = new StripedCounter();
+
+    /**
+     * Lookups of a remote endpoint without a route whose nickname was still marked unknown
+     */
+    private final StripedCounter routesUnknown = new StripedCounter();
+
+    /**
+     * Bytes of frames and file blocks the node tried to compress
+     */
+    private final StripedCounter compressionInputBytes = new StripedCounter();
+
+    /**
+     * Bytes those frames and file blocks took on the wire, compressed or not
+     */
+    private final StripedCounter compressionOutputBytes = new StripedCounter();
+
+    /**
+     * Time spent compressing
+     */
+    private final StripedCounter compressionNanos = new StripedCounter();
+
+    /**
+     * Bytes of compressed frames received from the endpoints
+     */
+    private final StripedCounter decompressionInputBytes = new StripedCounter();
+
+    /**
+     * Bytes of those frames once decompressed
+     */
+    private final StripedCounter decompressionOutputBytes = new StripedCounter();
+
+    /**
+     * Time spent decompressing
+     */
+    private final StripedCounter decompressionNanos = new StripedCounter();
+
+    /**
+     * Files sent uncompressed to an endpoint that negotiated a codec because they were compressed already
+     */
+    private final StripedCounter filesNotCompressed = new StripedCounter();
+
+    /**
+     * System.nanoTime when the first connection was accepted, 0 until then
+     */
+    private final AtomicLong firstConnectionNanos = new AtomicLong();
+
+    /**
+     * Creates the counters of all ports.
+     *
+     * @author Albert Veldman
+     */
+    public NodeMetrics() {
+        for (PortType portType : PortType.values()) {
+            ports.put(portType, new PortMetrics());
+        }
+    }
+
+    /**
+     * Get the counters of a port.
+     *
+     * @param portType the port
+     *
+     * @return counters of the port
+     *
+     * @author Albert Veldman
+     */
+    public PortMetrics getPort(PortType portType) {
+        return ports.get(portType);
+    }
+
+    /**
+     * Counts a connection that was accepted on a port.
+     *
+     * @param portType port the connection was accepted on
+     *
+     * @author Albert Veldman
+     */
+    public void connectionAccepted(PortType portType) {
+        ports.get(portType).connectionOpened();
+        if(firstConnectionNanos.get() == 0) {
+            firstConnectionNanos.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    /**
+     * Get when the first connection was accepted.
+     *
+     * @return System.nanoTime of the first connection or 0 when none was accepted yet
+     *
+     * @author Albert Veldman
+     */
+    public long getFirstConnectionNanos() {
+        return firstConnectionNanos.get();
+    }
+
+    /**
+     * Counts a message that was put in the relay store.
+     *
+     * @author Albert Veldman
+     */
+    public void messageStored() {
+        messagesStored.increment();
+    }
+
+    /**
+     * Get the number of messages that were put in the relay store.
+     *
+     * @return stored messages
+     *
+     * @author Albert Veldman
+     */
+    public long getMessagesStored() {
+        return messagesStored.sum();
+    }
+
+    /**
+     * Counts a window of stored messages that was queued on a connection.
+     *
+     * @param bytes memory held by the window
+     *
+     * @author Albert Veldman
+     */
+    public void drainWindowQueued(long bytes) {
+        drainBytes.add(bytes);
+    }
+
+    /**
+     * Counts a window of stored messages that was written or dropped with its connection.
+     *
+     * @param messages number of messages of the window that were written
+     * @param bytes memory held by the window
+     *
+     * @author Albert Veldman
+     */
+    public void drainWindowReleased(int messages, long bytes) {
+        messagesDrained.add(messages);
+        drainBytes.add(-bytes);
+    }
+
+    /**
+     * Counts a window of stored messages that waited for the drain budget.
+     *
+     * @author Albert Veldman
+     */
+    public void drainDeferred() {
+        drainsDeferred.increment();
+    }
+
+    /**
+     * Get the number of stored messages that were written to their recipient or to the node it is connected to.
+     *
+     * @return drained messages
+     *
+     * @author Albert Veldman
+     */
+    public long getMessagesDrained() {
+        return messagesDrained.sum();
+    }
+
+    /**
+     * Get the memory held by the windows of stored messages that are being written.
+     *
+     * @return bytes in drain windows
+     *
+     * @author Albert Veldman
+     */
+    public long getDrainBytes() {
+        return drainBytes.sum();
+    }
+
+    /**
+     * Get the number of windows of stored messages that waited for the drain budget.
+     *
+     * @return deferred windows
+     *
+     * @author Albert Veldman
+     */
+    public long getDrainsDeferred() {
+        return drainsDeferred.sum();
+    }
+
+    /**
+     * Counts a connection that was rejected because the connection cap was reached.
+     *
+     * @author Albert Veldman
+     */
+    public void connectionRejected() {
+        connectionsRejected.increment();
+    }
+
+    /**
+     * Get the number of connections that were rejected because the connection cap was reached.
+     *
+     * @return rejected connections
+     *
+     * @author Albert Veldman
+     */
+    public long getConnectionsRejected() {
+        return connectionsRejected.sum();
+    }
+
+    /**
+     * Counts a frame that was held back because it exceeded a rate limit.
+     *
+     * @author Albert Veldman
+     */
+    public void frameThrottled() {
+        framesThrottled.increment();
+    }
+
+    /**
+     * Get the number of times a frame was held back because it exceeded a rate limit.
+     *
+     * @return throttled frames
+     *
+     * @author Albert Veldman
+     */
+    public long getFramesThrottled() {
+        return framesThrottled.sum();
+    }
+
+    /**
+     * Counts a file port connection that paused because the bulk rate was used up.
+     *
+     * @author Albert Veldman
+     */
+    public void bulkThrottled() {
+        bulkThrottled.increment();
+    }
+
+    /**
+     * Get the number of times a file port connection paused because the bulk rate was used up.
+     *
+     * @return throttled bulk transfers
+     *
+     * @author Albert Veldman
+     */
+    public long getBulkThrottled() {
+        return bulkThrottled.sum();
+    }
+
+    /**
+     * Counts a message that was forwarded to another node of the mesh.
+     *
+     * @author Albert Veldman
+     */
+    public void messageForwarded() {
+        messagesForwarded.increment();
+    }
+
+    /**
+     * Counts messages that were forwarded to another node of the mesh together.
+     *
+     * @param count number of messages
+     *
+     * @author Albert Veldman
+     */
+    public void messagesForwarded(int count) {
+        messagesForwarded.add(count);
+    }
+
+    /**
+     * Get the number of messages that were forwarded to another node of the mesh.
+     *
+     * @return forwarded messages
+     *
+     * @author Albert Veldman
+     */
+    public long getMessagesForwarded() {
+        return messagesForwarded.sum();
+    }
+
+    /**
+     * Counts a lookup of a remote endpoint that found a route to a linked node.
+     *
+     * @author Albert Veldman
+     */
+    public void routeHit() {
+        routeHits.increment();
+    }
+
+    /**
+     * Get the number of lookups of a remote endpoint that found a route to a linked node.
+     *
+     * @return route hits
+     *
+     * @author Albert Veldman
+     */
+    public long getRouteHits() {
+        return routeHits.sum();
+    }
+
+    /**
+     * Counts a lookup of a remote endpoint that found no usable route.
+     *
+     * @author Albert Veldman
+     */
+    public void routeMissed() {
+        routeMisses.increment();
+    }
+
+    /**
+     * Get the number of lookups of a remote endpoint that found no usable route.
+     *
+     * @return route misses
+     *
+     * @author Albert Veldman
+     */
+    public long getRouteMisses() {
+        return routeMisses.sum();
+    }
+
+    /**
+     * Counts a lookup of a remote endpoint without a route whose nickname was still marked unknown, so the
+     * other nodes were not asked.
+     *
+     * @author Albert Veldman
+     */
+    public void routeUnknown() {
+        routesUnknown.increment();
+    }
+
+    /**
+     * Get the number of lookups of a remote endpoint without a route whose nickname was still marked unknown.
+     *
+     * @return negative route hits
+     *
+     * @author Albert Veldman
+     */
+    public long getRoutesUnknown() {
+        return routesUnknown.sum();
+    }
+
+    /**
+     * Counts a frame or file block the node tried to compress.
+     *
+     * @param inputBytes size before compression
+     * @param outputBytes size on the wire, the input size when compressing didn't make it smaller
+     * @param nanos time spent compressing
+     *
+     * @author Albert Veldman
+     */
+    public void compressed(long inputBytes, long outputBytes, long nanos) {
+        compressionInputBytes.add(inputBytes);
+        compressionOutputBytes.add(outputBytes);
+        compressionNanos.add(nanos);
+    }
+
+    /**
+     * Get the number of bytes the node tried to compress.
+     *
+     * @return bytes before compression
+     *
+     * @author Albert Veldman
+     */
+    public long getCompressionInputBytes() {
+        return compressionInputBytes.sum();
+    }
+
+    /**
+     * Get the number of bytes the frames and file blocks the node tried to compress took on the wire.
+     *
+     * @return bytes after compression
+     *
+     * @author Albert Veldman
+     */
+    public long getCompressionOutputBytes() {
+        return compressionOutputBytes.sum();
+    }
+
+    /**
+     * Get the time spent compressing.
+     *
+     * @return nanoseconds
+     *
+     * @author Albert Veldman
+     */
+    public long getCompressionNanos() {
+        return compressionNanos.sum();
+    }
+
+    /**
+     * Counts a compressed frame that was received from an endpoint.
+     *
+     * @param inputBytes size of the compressed frame
+     * @param outputBytes size once decompressed
+     * @param nanos time spent decompressing
+     *
+     * @author Albert Veldman
+     */
+    public void decompressed(long inputBytes, long outputBytes, long nanos) {
+        decompressionInputBytes.add(inputBytes);
+        decompressionOutputBytes.add(outputBytes);
+        decompressionNanos.add(nanos);
+    }
+
+    /**
+     * Get the number of bytes of compressed frames received from the endpoints.
+     *
+     * @return bytes before decompression
+     *
+     * @author Albert Veldman
+     */
+    public long getDecompressionInputBytes() {
+        return decompressionInputBytes.sum();
+    }
+
+    /**
+     * Get the number of bytes the compressed frames received from the endpoints decompressed to.
+     *
+     * @return bytes after decompression
+     *
+     * @author Albert Veldman
+     */
+    public long getDecompressionOutputBytes() {
+        return decompressionOutputBytes.sum();
+    }
+
+    /**
+     * Get the time spent decompressing.
+     *
+     * @return nanoseconds
+     *
+     * @author Albert Veldman
+     */
+    public long getDecompressionNanos() {
+        return decompressionNanos.sum();
+    }
+
+    /**
+     * Counts a file that was sent uncompressed to an endpoint that negotiated a codec, because it was
+     * compressed already.
+     *
+     * @author Albert Veldman
+     */
+    public void fileNotCompressed() {
+        filesNotCompressed.increment();
+    }
+
+    /**
+     * Get the number of files that were sent uncompressed because they were compressed already.
+     *
+     * @return skipped files
+     *
+     * @author Albert Veldman
+     */
+    public long getFilesNotCompressed() {
+        return filesNotCompressed.sum();
+    }
+}
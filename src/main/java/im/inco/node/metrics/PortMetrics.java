@@ -0,0 +1,219 @@
+package im.inco.node.metrics;
+
+/**
+ * Traffic counters of one port of the node.
+ *
+ * @author Albert Veldman
+ */
+public class PortMetrics {
+    /**
+     * Frames decoded from endpoints
+     */
+    private final StripedCounter framesReceived = new StripedCounter();
+
+    /**
+     * Bytes read from endpoints, including raw file contents
+     */
+    private final StripedCounter bytesReceived = new StripedCounter();
+
+    /**
+     * Writes completed to endpoints
+     */
+    private final StripedCounter framesSent = new StripedCounter();
+
+    /**
+     * Bytes written to endpoints
+     */
+    private final StripedCounter bytesSent = new StripedCounter();
+
+    /**
+     * Connections accepted
+     */
+    private final StripedCounter connectionsOpened = new StripedCounter();
+
+    /**
+     * Connections closed
+     */
+    private final StripedCounter connectionsClosed = new StripedCounter();
+
+    /**
+     * Writes queued on connections and not written yet
+     */
+    private final StripedCounter queuedWrites = new StripedCounter();
+
+    /**
+     * Memory held by writes queued on connections
+     */
+    private final StripedCounter queuedBytes = new StripedCounter();
+
+    /**
+     * Time from receiving a frame until it is written to its recipient
+     */
+    private final LatencyHistogram forwardingLatency = new LatencyHistogram();
+
+    /**
+     * Counts a frame that was decoded.
+     *
+     * @author Albert Veldman
+     */
+    public void frameReceived() {
+        framesReceived.increment();
+    }
+
+    /**
+     * Counts bytes that were read.
+     *
+     * @param bytes number of bytes
+     *
+     * @author Albert Veldman
+     */
+    public void bytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    /**
+     * Counts a write that was queued.
+     *
+     * @param memorySize memory held by the write
+     *
+     * @author Albert Veldman
+     */
+    public void writeQueued(long memorySize) {
+        queuedWrites.increment();
+        queuedBytes.add(memorySize);
+    }
+
+    /**
+     * Counts a queued write that was removed from its queue, written or not.
+     *
+     * @param memorySize memory held by the write
+     *
+     * @author Albert Veldman
+     */
+    public void writeDequeued(long memorySize) {
+        queuedWrites.add(-1);
+        queuedBytes.add(-memorySize);
+    }
+
+    /**
+     * Counts a write that was completed.
+     *
+     * @param bytes number of bytes written
+     * @param receivedNanos System.nanoTime when the written frame was received, 0 when unknown
+     *
+     * @author Albert Veldman
+     */
+    public void written(long bytes, long receivedNanos) {
+        framesSent.increment();
+        bytesSent.add(bytes);
+        if(receivedNanos != 0) {
+            forwardingLatency.record(System.nanoTime() - receivedNanos);
+        }
+    }
+
+    /**
+     * Counts a connection that was accepted.
+     *
+     * @author Albert Veldman
+     */
+    public void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    /**
+     * Counts a connection that was closed.
+     *
+     * @author Albert Veldman
+     */
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    /**
+     * Get the number of frames decoded from endpoints.
+     *
+     * @return frames received
+     *
+     * @author Albert Veldman
+     */
+    public long getFramesReceived() {
+        return framesReceived.sum();
+    }
+
+    /**
+     * Get the number of bytes read from endpoints.
+     *
+     * @return bytes received
+     *
+     * @author Albert Veldman
+     */
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * Get the number of writes completed to endpoints.
+     *
+     * @return frames sent
+     *
+     * @author Albert Veldman
+     */
+    public long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    /**
+     * Get the number of bytes written to endpoints.
+     *
+     * @return bytes sent
+     *
+     * @author Albert Veldman
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * Get the number of connections that are open.
+     *
+     * @return open connections
+     *
+     * @author Albert Veldman
+     */
+    public long getConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    /**
+     * Get the number of writes waiting on connections.
+     *
+     * @return queue depth
+     *
+     * @author Albert Veldman
+     */
+    public long getQueuedWrites() {
+        return queuedWrites.sum();
+    }
+
+    /**
+     * Get the memory held by writes waiting on connections.
+     *
+     * @return queued bytes
+     *
+     * @author Albert Veldman
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.sum();
+    }
+
+    /**
+     * Get the histogram of the time from receiving a frame until it is written to its recipient.
+     *
+     * @return forwarding latency
+     *
+     * @author Albert Veldman
+     */
+    public LatencyHistogram getForwardingLatency() {
+        return forwardingLatency;
+    }
+}
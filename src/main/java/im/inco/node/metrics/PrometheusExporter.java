@@ -0,0 +1,279 @@
+package im.inco.node.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.receive.PortType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Serves the node metrics in the Prometheus text format on /metrics. The server only listens on the loopback
+ * interface, a local agent is expected to scrape and forward it.
+ *
+ * @author Albert Veldman
+ */
+public class PrometheusExporter implements HttpHandler {
+    /**
+     * Quantiles reported for latency histograms
+     */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Charset of the response
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Metrics to export
+     */
+    private final NodeMetrics metrics;
+
+    /**
+     * Pool whose occupancy is exported
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * The HTTP server, null until started
+     */
+    private HttpServer server;
+
+    /**
+     * Creates an exporter.
+     *
+     * @param metrics metrics to export
+     * @param bufferPool pool whose occupancy is exported
+     *
+     * @author Albert Veldman
+     */
+    public PrometheusExporter(NodeMetrics metrics, BufferPool bufferPool) {
+        this.metrics = metrics;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Starts serving on the given loopback port.
+     *
+     * @param port port to listen on
+     *
+     * @throws IOException when the port can't be bound
+     *
+     * @author Albert Veldman
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this);
+        server.start();
+    }
+
+    /**
+     * Stops serving.
+     *
+     * @author Albert Veldman
+     */
+    public void stop() {
+        if(server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = scrape().getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text format.
+     *
+     * @return the metrics
+     *
+     * @author Albert Veldman
+     */
+    public String scrape() {
+        StringBuilder text = new StringBuilder();
+        header(text, "inco_node_frames_received_total", "counter", "Frames received from endpoints");
+        for (PortType portType : PortType.values()) {
+            sample(text, "inco_node_frames_received_total", portLabel(portType),
+                    metrics.getPort(portType).getFramesReceived());
+        }
+        header(text, "inco_node_bytes_received_total", "counter", "Bytes received from endpoints");
+        for (PortType portType : PortType.values()) {
+            sample(text, "inco_node_bytes_received_total", portLabel(portType),
+                    metrics.getPort(portType).getBytesReceived());
+        }
+        header(text, "inco_node_frames_sent_total", "counter", "Writes completed to endpoints");
+        for (PortType portType : PortType.values()) {
+            sample(text, "inco_node_frames_sent_total", portLabel(portType),
+                    metrics.getPort(portType).getFramesSent());
+        }
+        header(text, "inco_node_bytes_sent_total", "counter", "Bytes sent to endpoints");
+        for (PortType portType : PortType.values()) {
+            sample(text, "inco_node_bytes_sent_total", portLabel(portType),
+                    metrics.getPort(portType).getBytesSent());
+        }
+        header(text, "inco_node_connections", "gauge", "Open endpoint connections");
+        for (PortType portType : PortType.values()) {
+            sample(text, "inco_node_connections", portLabel(portType), metrics.getPort(portType).getConnections());
+        }
+        header(text, "inco_node_queued_writes", "gauge", "Writes queued on endpoint connections");
+        for (PortType portType : PortType.values()) {
+            sample(text, "inco_node_queued_writes", portLabel(portType),
+                    metrics.getPort(portType).getQueuedWrites());
+        }
+        header(text, "inco_node_queued_bytes", "gauge", "Memory held by writes queued on endpoint connections");
+        for (PortType portType : PortType.values()) {
+            sample(text, "inco_node_queued_bytes", portLabel(portType), metrics.getPort(portType).getQueuedBytes());
+        }
+        header(text, "inco_node_forwarding_latency_seconds", "summary",
+                "Time from receiving a frame until it is written to its recipient");
+        for (PortType portType : PortType.values()) {
+            LatencyHistogram latency = metrics.getPort(portType).getForwardingLatency();
+            for (double quantile : QUANTILES) {
+                sample(text, "inco_node_forwarding_latency_seconds",
+                        portLabel(portType) + ",quantile=\"" + quantile + "\"", latency.getQuantile(quantile) / 1e9);
+            }
+            sample(text, "inco_node_forwarding_latency_seconds_sum", portLabel(portType), latency.getSum() / 1e9);
+            sample(text, "inco_node_forwarding_latency_seconds_count", portLabel(portType), latency.getCount());
+        }
+        header(text, "inco_node_messages_stored_total", "counter", "Messages put in the relay store");
+        sample(text, "inco_node_messages_stored_total", null, metrics.getMessagesStored());
+        header(text, "inco_node_messages_drained_total", "counter",
+                "Stored messages written to their recipient or to its node");
+        sample(text, "inco_node_messages_drained_total", null, metrics.getMessagesDrained());
+        header(text, "inco_node_drain_bytes", "gauge", "Memory held by windows of stored messages being written");
+        sample(text, "inco_node_drain_bytes", null, metrics.getDrainBytes());
+        header(text, "inco_node_drains_deferred_total", "counter",
+                "Windows of stored messages that waited for the drain budget");
+        sample(text, "inco_node_drains_deferred_total", null, metrics.getDrainsDeferred());
+        header(text, "inco_node_connections_rejected_total", "counter",
+                "Connections closed on accept because the connection cap was reached");
+        sample(text, "inco_node_connections_rejected_total", null, metrics.getConnectionsRejected());
+        header(text, "inco_node_frames_throttled_total", "counter",
+                "Frames held back because they exceeded a rate limit");
+        sample(text, "inco_node_frames_throttled_total", null, metrics.getFramesThrottled());
+        header(text, "inco_node_bulk_throttled_total", "counter",
+                "File port connections paused because the bulk rate was used up");
+        sample(text, "inco_node_bulk_throttled_total", null, metrics.getBulkThrottled());
+        header(text, "inco_node_messages_forwarded_total", "counter", "Messages forwarded to another node");
+        sample(text, "inco_node_messages_forwarded_total", null, metrics.getMessagesForwarded());
+        header(text, "inco_node_route_hits_total", "counter", "Remote endpoint lookups that found a route");
+        sample(text, "inco_node_route_hits_total", null, metrics.getRouteHits());
+        header(text, "inco_node_route_misses_total", "counter", "Remote endpoint lookups without a usable route");
+        sample(text, "inco_node_route_misses_total", null, metrics.getRouteMisses());
+        header(text, "inco_node_routes_unknown_total", "counter",
+                "Remote endpoint lookups answered by the negative route cache");
+        sample(text, "inco_node_routes_unknown_total", null, metrics.getRoutesUnknown());
+        header(text, "inco_node_compression_input_bytes_total", "counter", "Bytes the node tried to compress");
+        sample(text, "inco_node_compression_input_bytes_total", null, metrics.getCompressionInputBytes());
+        header(text, "inco_node_compression_output_bytes_total", "counter",
+                "Bytes the node tried to compress as sent on the wire");
+        sample(text, "inco_node_compression_output_bytes_total", null, metrics.getCompressionOutputBytes());
+        header(text, "inco_node_compression_seconds_total", "counter", "Time spent compressing");
+        sample(text, "inco_node_compression_seconds_total", null, metrics.getCompressionNanos() / 1e9);
+        header(text, "inco_node_decompression_input_bytes_total", "counter",
+                "Bytes of compressed frames received from the endpoints");
+        sample(text, "inco_node_decompression_input_bytes_total", null, metrics.getDecompressionInputBytes());
+        header(text, "inco_node_decompression_output_bytes_total", "counter",
+                "Bytes the compressed frames received from the endpoints decompressed to");
+        sample(text, "inco_node_decompression_output_bytes_total", null, metrics.getDecompressionOutputBytes());
+        header(text, "inco_node_decompression_seconds_total", "counter", "Time spent decompressing");
+        sample(text, "inco_node_decompression_seconds_total", null, metrics.getDecompressionNanos() / 1e9);
+        header(text, "inco_node_files_not_compressed_total", "counter",
+                "Files sent uncompressed because they were compressed already");
+        sample(text, "inco_node_files_not_compressed_total", null, metrics.getFilesNotCompressed());
+        if(bufferPool != null) {
+            header(text, "inco_node_buffer_pool_in_use", "gauge", "Pooled buffers that are leased");
+            for (BufferPool.SizeClass sizeClass : bufferPool.getSizeClasses()) {
+                sample(text, "inco_node_buffer_pool_in_use", sizeLabel(sizeClass), sizeClass.getInUse());
+            }
+            header(text, "inco_node_buffer_pool_idle", "gauge", "Pooled buffers ready to be leased");
+            for (BufferPool.SizeClass sizeClass : bufferPool.getSizeClasses()) {
+                sample(text, "inco_node_buffer_pool_idle", sizeLabel(sizeClass), sizeClass.getIdle());
+            }
+            header(text, "inco_node_buffer_pool_unpooled_total", "counter", "Buffers too large to pool");
+            sample(text, "inco_node_buffer_pool_unpooled_total", null, bufferPool.getUnpooledAllocations());
+            header(text, "inco_node_buffer_pool_leaks_total", "counter", "Pooled buffers that were never released");
+            sample(text, "inco_node_buffer_pool_leaks_total", null, bufferPool.getLeaks());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Appends the HELP and TYPE lines of a metric.
+     *
+     * @param text text to append to
+     * @param name metric name
+     * @param type metric type
+     * @param help description of the metric
+     *
+     * @author Albert Veldman
+     */
+    private static void header(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Appends a sample.
+     *
+     * @param text text to append to
+     * @param name metric name
+     * @param labels labels without braces or null
+     * @param value sample value
+     *
+     * @author Albert Veldman
+     */
+    private static void sample(StringBuilder text, String name, String labels, double value) {
+        text.append(name);
+        if(labels != null) {
+            text.append('{').append(labels).append('}');
+        }
+        text.append(' ');
+        if(value == Math.rint(value)) {
+            text.append((long) value);
+        }
+        else {
+            text.append(String.format(Locale.ENGLISH, "%.9f", value));
+        }
+        text.append('\n');
+    }
+
+    /**
+     * Returns the label of a port.
+     *
+     * @param portType the port
+     *
+     * @return label without braces
+     *
+     * @author Albert Veldman
+     */
+    private static String portLabel(PortType portType) {
+        return "port=\"" + portType.name().toLowerCase(Locale.ENGLISH) + "\"";
+    }
+
+    /**
+     * Returns the label of a buffer size class.
+     *
+     * @param sizeClass the size class
+     *
+     * @return label without braces
+     *
+     * @author Albert Veldman
+     */
+    private static String sizeLabel(BufferPool.SizeClass sizeClass) {
+        return "capacity=\"" + sizeClass.getCapacity() + "\"";
+    }
+}
@@ -0,0 +1,167 @@
+package im.inco.node.metrics;
+
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.receive.PortType;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Formats the node metrics for the console. Rates are computed over the time since the previous report.
+ *
+ * @author Albert Veldman
+ */
+public class StatsReport {
+    /**
+     * Metrics to report
+     */
+    private final NodeMetrics metrics;
+
+    /**
+     * Pool whose occupancy is reported
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * Totals of the previous report per port
+     */
+    private final Map<PortType, long[]> previous = new EnumMap<>(PortType.class);
+
+    /**
+     * System.nanoTime of the previous report
+     */
+    private long previousNanos = System.nanoTime();
+
+    /**
+     * Creates a report.
+     *
+     * @param metrics metrics to report
+     * @param bufferPool pool whose occupancy is reported
+     *
+     * @author Albert Veldman
+     */
+    public StatsReport(NodeMetrics metrics, BufferPool bufferPool) {
+        this.metrics = metrics;
+        this.bufferPool = bufferPool;
+        for (PortType portType : PortType.values()) {
+            previous.put(portType, new long[4]);
+        }
+    }
+
+    /**
+     * Creates the lines of a new report.
+     *
+     * @return lines to print
+     *
+     * @author Albert Veldman
+     */
+    public synchronized List<String> lines() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - previousNanos) / 1e9);
+        previousNanos = now;
+        List<String> lines = new ArrayList<>();
+        for (PortType portType : PortType.values()) {
+            PortMetrics port = metrics.getPort(portType);
+            long[] totals = {port.getFramesReceived(), port.getBytesReceived(), port.getFramesSent(),
+                    port.getBytesSent()};
+            long[] last = previous.get(portType);
+            String name = portType.name().charAt(0) + portType.name().substring(1).toLowerCase(Locale.ENGLISH);
+            lines.add(name + " port: " + port.getConnections() + " connections, queue " + port.getQueuedWrites()
+                    + " writes / " + formatBytes(port.getQueuedBytes()));
+            lines.add("  in:  " + totals[0] + " frames (" + formatRate(totals[0] - last[0], seconds) + " /s), "
+                    + formatBytes(totals[1]) + " (" + formatBytes((long) ((totals[1] - last[1]) / seconds)) + "/s)");
+            lines.add("  out: " + totals[2] + " frames (" + formatRate(totals[2] - last[2], seconds) + " /s), "
+                    + formatBytes(totals[3]) + " (" + formatBytes((long) ((totals[3] - last[3]) / seconds)) + "/s)");
+            LatencyHistogram latency = port.getForwardingLatency();
+            if(latency.getCount() > 0) {
+                lines.add("  forwarding latency: p50 " + formatNanos(latency.getQuantile(0.5))
+                        + ", p99 " + formatNanos(latency.getQuantile(0.99))
+                        + ", max " + formatNanos(latency.getMax()));
+            }
+            previous.put(portType, totals);
+        }
+        lines.add("Relay store: " + metrics.getMessagesStored() + " messages stored, " + metrics.getMessagesDrained()
+                + " drained, " + formatBytes(metrics.getDrainBytes()) + " in drain windows, "
+                + metrics.getDrainsDeferred() + " windows deferred");
+        lines.add("Admission: " + metrics.getConnectionsRejected() + " connections rejected, "
+                + metrics.getFramesThrottled() + " frames throttled, " + metrics.getBulkThrottled()
+                + " bulk transfers throttled");
+        lines.add("Mesh: " + metrics.getMessagesForwarded() + " messages forwarded, " + metrics.getRouteHits()
+                + " route hits, " + metrics.getRouteMisses() + " route misses, " + metrics.getRoutesUnknown()
+                + " known unknown");
+        long compressionInput = metrics.getCompressionInputBytes();
+        long compressionOutput = metrics.getCompressionOutputBytes();
+        lines.add("Compression: " + formatBytes(compressionInput - compressionOutput) + " saved of "
+                + formatBytes(compressionInput) + " in " + formatNanos(metrics.getCompressionNanos()) + ", "
+                + formatBytes(metrics.getDecompressionInputBytes()) + " decompressed to "
+                + formatBytes(metrics.getDecompressionOutputBytes()) + " in "
+                + formatNanos(metrics.getDecompressionNanos()) + ", " + metrics.getFilesNotCompressed()
+                + " files compressed already");
+        if(bufferPool != null) {
+            long inUse = 0;
+            long idle = 0;
+            long bytes = 0;
+            for (BufferPool.SizeClass sizeClass : bufferPool.getSizeClasses()) {
+                inUse += sizeClass.getInUse();
+                idle += sizeClass.getIdle();
+                bytes += sizeClass.getAllocated() * sizeClass.getCapacity();
+            }
+            lines.add("Buffer pool: " + inUse + " in use, " + idle + " idle, " + formatBytes(bytes) + " allocated, "
+                    + bufferPool.getUnpooledAllocations() + " unpooled, " + bufferPool.getLeaks() + " leaks");
+        }
+        return lines;
+    }
+
+    /**
+     * Formats a rate with one decimal.
+     *
+     * @param count number of events
+     * @param seconds period in seconds
+     *
+     * @return formatted rate
+     *
+     * @author Albert Veldman
+     */
+    private static String formatRate(long count, double seconds) {
+        return String.format(Locale.ENGLISH, "%.1f", count / seconds);
+    }
+
+    /**
+     * Formats a number of bytes with a binary unit.
+     *
+     * @param bytes number of bytes
+     *
+     * @return formatted size
+     *
+     * @author Albert Veldman
+     */
+    public static String formatBytes(long bytes) {
+        if(bytes < 1024) {
+            return bytes + " B";
+        }
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format(Locale.ENGLISH, "%.1f %siB", bytes / Math.pow(1024, unit), "KMGTPE".charAt(unit - 1));
+    }
+
+    /**
+     * Formats a duration in a readable unit.
+     *
+     * @param nanos duration in nanoseconds
+     *
+     * @return formatted duration
+     *
+     * @author Albert Veldman
+     */
+    public static String formatNanos(long nanos) {
+        if(nanos < 1000) {
+            return nanos + " ns";
+        }
+        if(nanos < 1000000) {
+            return String.format(Locale.ENGLISH, "%.1f us", nanos / 1e3);
+        }
+        return String.format(Locale.ENGLISH, "%.1f ms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,62 @@
+package im.inco.node.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads updates over padded cells, so threads updating it at the same time don't contend on
+ * a single cache line. Reading sums all cells and is only consistent when no updates happen concurrently.
+ *
+ * @author Albert Veldman
+ */
+public class StripedCounter {
+    /**
+     * Number of longs between two cells, keeps every cell on its own cache line
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * Number of cells, a power of two
+     */
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+
+    /**
+     * The padded cells
+     */
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Adds a value to the counter.
+     *
+     * @param value value to add, can be negative
+     *
+     * @author Albert Veldman
+     */
+    public void add(long value) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.getAndAdd(stripe * PADDING, value);
+    }
+
+    /**
+     * Adds one to the counter.
+     *
+     * @author Albert Veldman
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Get the current value of the counter.
+     *
+     * @return sum of all cells
+     *
+     * @author Albert Veldman
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,104 @@
+package im.inco.node.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Payload of a CHUNK frame. The frame is followed by exactly length raw bytes holding the chunk, whose SHA-256
+ * hash has to match.
+ *
+ * <pre>
+ * +----------+--------+
+ * | hash     | length |
+ * | 32 bytes | int32  |
+ * +----------+--------+
+ * </pre>
+ *
+ * @author Albert Veldman
+ */
+public class ChunkHeader {
+    /**
+     * SHA-256 hash of the chunk
+     */
+    private final byte[] hash;
+
+    /**
+     * Size of the chunk in bytes
+     */
+    private final int length;
+
+    /**
+     * Creates a chunk header.
+     *
+     * @param hash SHA-256 hash of the chunk
+     * @param length size of the chunk in bytes
+     *
+     * @author Albert Veldman
+     */
+    public ChunkHeader(byte[] hash, int length) {
+        this.hash = hash;
+        this.length = length;
+    }
+
+    /**
+     * Decodes a chunk header from the payload of a CHUNK frame.
+     *
+     * @param payload frame payload, its position is not changed
+     *
+     * @return the decoded header
+     *
+     * @throws ProtocolException when the payload is malformed or the chunk is too large
+     *
+     * @author Albert Veldman
+     */
+    public static ChunkHeader decode(ByteBuffer payload) throws ProtocolException {
+        ByteBuffer buffer = payload.duplicate();
+        if(buffer.remaining() != ChunkManifest.HASH_LENGTH + 4) {
+            throw new ProtocolException("Malformed chunk header");
+        }
+        byte[] hash = new byte[ChunkManifest.HASH_LENGTH];
+        buffer.get(hash);
+        int length = buffer.getInt();
+        if(length <= 0 || length > ChunkManifest.MAX_CHUNK_SIZE) {
+            throw new ProtocolException("Invalid chunk length: " + length);
+        }
+        return new ChunkHeader(hash, length);
+    }
+
+    /**
+     * Encodes this header into a frame payload.
+     *
+     * @return payload in read mode
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(ChunkManifest.HASH_LENGTH + 4);
+        buffer.put(hash);
+        buffer.putInt(length);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Get the hash of the chunk.
+     *
+     * @return SHA-256 hash
+     *
+     * @author Albert Veldman
+     */
+    public byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * Get the size of the chunk.
+     *
+     * @return size in bytes
+     *
+     * @author Albert Veldman
+     */
+    public int getLength() {
+        return length;
+    }
+}
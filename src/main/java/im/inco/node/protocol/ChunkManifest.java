@@ -0,0 +1,191 @@
+package im.inco.node.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Payload of a CHUNK_OFFER frame. Describes a file split in chunks of chunkSize bytes, only the last chunk may
+ * be shorter, by the SHA-256 hash of every chunk.
+ *
+ * <pre>
+ * +--------+------------+----------------+--------+-------------------+
+ * | size   | chunk size | name           | count  | hashes            |
+ * | int64  | int32      | uint16 + UTF-8 | int32  | count * 32 bytes  |
+ * +--------+------------+----------------+--------+-------------------+
+ * </pre>
+ *
+ * @author Albert Veldman
+ */
+public class ChunkManifest {
+    /**
+     * Size of a chunk hash in bytes
+     */
+    public static final int HASH_LENGTH = 32;
+
+    /**
+     * Largest chunk size that is accepted
+     */
+    public static final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Charset used for file names
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Size of the file in bytes
+     */
+    private final long size;
+
+    /**
+     * Size of every chunk but the last
+     */
+    private final int chunkSize;
+
+    /**
+     * Name of the file
+     */
+    private final String name;
+
+    /**
+     * SHA-256 hash of every chunk, in file order
+     */
+    private final List<byte[]> hashes;
+
+    /**
+     * Creates a manifest.
+     *
+     * @param size size of the file in bytes
+     * @param chunkSize size of every chunk but the last
+     * @param name name of the file
+     * @param hashes SHA-256 hash of every chunk, in file order
+     *
+     * @author Albert Veldman
+     */
+    public ChunkManifest(long size, int chunkSize, String name, List<byte[]> hashes) {
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.name = name;
+        this.hashes = Collections.unmodifiableList(new ArrayList<>(hashes));
+    }
+
+    /**
+     * Decodes a manifest from the payload of a CHUNK_OFFER frame.
+     *
+     * @param payload frame payload, its position is not changed
+     *
+     * @return the decoded manifest
+     *
+     * @throws ProtocolException when the payload is malformed or the chunks don't cover the file
+     *
+     * @author Albert Veldman
+     */
+    public static ChunkManifest decode(ByteBuffer payload) throws ProtocolException {
+        ByteBuffer buffer = payload.duplicate();
+        if(buffer.remaining() < 14) {
+            throw new ProtocolException("Chunk manifest too short");
+        }
+        long size = buffer.getLong();
+        int chunkSize = buffer.getInt();
+        int nameLength = buffer.getShort() & 0xFFFF;
+        if(size < 0 || chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE || buffer.remaining() < nameLength + 4) {
+            throw new ProtocolException("Malformed chunk manifest");
+        }
+        byte[] name = new byte[nameLength];
+        buffer.get(name);
+        int count = buffer.getInt();
+        if(count != (size + chunkSize - 1) / chunkSize || buffer.remaining() != (long) count * HASH_LENGTH) {
+            throw new ProtocolException("Chunk manifest doesn't cover the file");
+        }
+        List<byte[]> hashes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[HASH_LENGTH];
+            buffer.get(hash);
+            hashes.add(hash);
+        }
+        return new ChunkManifest(size, chunkSize, new String(name, UTF_8), hashes);
+    }
+
+    /**
+     * Encodes this manifest into a frame payload.
+     *
+     * @return payload in read mode
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer encode() {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 4 + 2 + nameBytes.length + 4 + hashes.size() * HASH_LENGTH);
+        buffer.putLong(size);
+        buffer.putInt(chunkSize);
+        buffer.putShort((short) nameBytes.length);
+        buffer.put(nameBytes);
+        buffer.putInt(hashes.size());
+        for (byte[] hash : hashes) {
+            buffer.put(hash);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Get the size of a chunk.
+     *
+     * @param index index of the chunk
+     *
+     * @return size of the chunk in bytes
+     *
+     * @author Albert Veldman
+     */
+    public int getChunkLength(int index) {
+        return (int) Math.min(chunkSize, size - (long) index * chunkSize);
+    }
+
+    /**
+     * Get the size of the file.
+     *
+     * @return size in bytes
+     *
+     * @author Albert Veldman
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the size of every chunk but the last.
+     *
+     * @return chunk size in bytes
+     *
+     * @author Albert Veldman
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Get the name of the file.
+     *
+     * @return file name
+     *
+     * @author Albert Veldman
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the hashes of the chunks.
+     *
+     * @return SHA-256 hash of every chunk, in file order
+     *
+     * @author Albert Veldman
+     */
+    public List<byte[]> getHashes() {
+        return hashes;
+    }
+}
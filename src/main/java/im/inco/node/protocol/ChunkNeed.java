@@ -0,0 +1,115 @@
+package im.inco.node.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Payload of a CHUNK_NEED frame. Lists the indexes of the chunks of an offered file the node doesn't have,
+ * so a sender that resumes a transfer only sends those. An empty list means the file was accepted.
+ *
+ * <pre>
+ * +-----------+--------+------------------+
+ * | file size | count  | indexes          |
+ * | int64     | int32  | count * int32    |
+ * +-----------+--------+------------------+
+ * </pre>
+ *
+ * Offers on one connection are answered in the order they arrived.
+ *
+ * @author Albert Veldman
+ */
+public class ChunkNeed {
+    /**
+     * Size of the offered file in bytes
+     */
+    private final long size;
+
+    /**
+     * Indexes of the missing chunks
+     */
+    private final List<Integer> missing;
+
+    /**
+     * Creates a chunk need.
+     *
+     * @param size size of the offered file in bytes
+     * @param missing indexes of the missing chunks
+     *
+     * @author Albert Veldman
+     */
+    public ChunkNeed(long size, List<Integer> missing) {
+        this.size = size;
+        this.missing = Collections.unmodifiableList(new ArrayList<>(missing));
+    }
+
+    /**
+     * Decodes a chunk need from the payload of a CHUNK_NEED frame.
+     *
+     * @param payload frame payload, its position is not changed
+     *
+     * @return the decoded chunk need
+     *
+     * @throws ProtocolException when the payload is malformed
+     *
+     * @author Albert Veldman
+     */
+    public static ChunkNeed decode(ByteBuffer payload) throws ProtocolException {
+        ByteBuffer buffer = payload.duplicate();
+        if(buffer.remaining() < 12) {
+            throw new ProtocolException("Chunk need too short");
+        }
+        long size = buffer.getLong();
+        int count = buffer.getInt();
+        if(count < 0 || buffer.remaining() != (long) count * 4) {
+            throw new ProtocolException("Malformed chunk need");
+        }
+        List<Integer> missing = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            missing.add(buffer.getInt());
+        }
+        return new ChunkNeed(size, missing);
+    }
+
+    /**
+     * Encodes this chunk need into a frame payload.
+     *
+     * @return payload in read mode
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 4 + missing.size() * 4);
+        buffer.putLong(size);
+        buffer.putInt(missing.size());
+        for (int index : missing) {
+            buffer.putInt(index);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Get the size of the offered file.
+     *
+     * @return size in bytes
+     *
+     * @author Albert Veldman
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the indexes of the chunks the node doesn't have.
+     *
+     * @return missing chunk indexes, empty when the file was accepted
+     *
+     * @author Albert Veldman
+     */
+    public List<Integer> getMissing() {
+        return missing;
+    }
+}
@@ -0,0 +1,76 @@
+package im.inco.node.protocol;
+
+/**
+ * Codecs an endpoint and the node can compress the frames of a connection with.
+ *
+ * @author Albert Veldman
+ */
+public enum Codec {
+    /**
+     * Frames are sent as they are.
+     */
+    NONE((byte) 0),
+
+    /**
+     * Raw deflate at its fastest level, without header or checksum.
+     */
+    DEFLATE((byte) 1);
+
+    /**
+     * Code of the codec on the wire
+     */
+    private final byte code;
+
+    Codec(byte code) {
+        this.code = code;
+    }
+
+    /**
+     * Get the code of this codec on the wire.
+     *
+     * @return codec code
+     *
+     * @author Albert Veldman
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the codec that belongs to the given wire code.
+     *
+     * @param code codec code read from the wire
+     *
+     * @return the matching codec or null when the code is unknown
+     *
+     * @author Albert Veldman
+     */
+    public static Codec fromCode(byte code) {
+        for (Codec codec : values()) {
+            if(codec.code == code) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the codec that belongs to the given command line value.
+     *
+     * @param value value of the --compression option
+     *
+     * @return the matching codec
+     *
+     * @throws IllegalArgumentException when no codec matches the value
+     *
+     * @author Albert Veldman
+     */
+    public static Codec fromOption(String value) {
+        for (Codec codec : values()) {
+            if(codec.name().equalsIgnoreCase(value)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression: " + value);
+    }
+}
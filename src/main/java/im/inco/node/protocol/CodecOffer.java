@@ -0,0 +1,97 @@
+package im.inco.node.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Payload of a HELLO frame. The endpoint lists the codecs it can decode, the node answers with a HELLO that
+ * holds the one codec it picked. An empty payload offers no codecs, so endpoints that send an empty HELLO keep
+ * getting every frame as it is.
+ *
+ * <pre>
+ * +-------+--------------+
+ * | count | codecs       |
+ * | uint8 | count x int8 |
+ * +-------+--------------+
+ * </pre>
+ *
+ * @author Albert Veldman
+ */
+public class CodecOffer {
+    /**
+     * Offered codecs in order of preference, codecs the node doesn't know are left out
+     */
+    private final List<Codec> codecs;
+
+    /**
+     * Creates an offer.
+     *
+     * @param codecs offered codecs in order of preference
+     *
+     * @author Albert Veldman
+     */
+    public CodecOffer(List<Codec> codecs) {
+        this.codecs = codecs;
+    }
+
+    /**
+     * Decodes an offer from the payload of a HELLO frame.
+     *
+     * @param payload frame payload, its position is not changed
+     *
+     * @return the decoded offer
+     *
+     * @throws ProtocolException when the payload is malformed
+     *
+     * @author Albert Veldman
+     */
+    public static CodecOffer decode(ByteBuffer payload) throws ProtocolException {
+        ByteBuffer buffer = payload.duplicate();
+        if(!buffer.hasRemaining()) {
+            return new CodecOffer(Collections.<Codec>emptyList());
+        }
+        int count = buffer.get() & 0xFF;
+        if(buffer.remaining() != count) {
+            throw new ProtocolException("Malformed codec offer");
+        }
+        List<Codec> codecs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Codec codec = Codec.fromCode(buffer.get());
+            if(codec != null) {
+                codecs.add(codec);
+            }
+        }
+        return new CodecOffer(codecs);
+    }
+
+    /**
+     * Encodes this offer into a frame payload.
+     *
+     * @return payload in read mode
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + codecs.size());
+        buffer.put((byte) codecs.size());
+        for (Codec codec : codecs) {
+            buffer.put(codec.getCode());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Get the offered codecs.
+     *
+     * @return codecs in order of preference
+     *
+     * @author Albert Veldman
+     */
+    public List<Codec> getCodecs() {
+        return codecs;
+    }
+}
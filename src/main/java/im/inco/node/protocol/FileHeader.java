@@ -0,0 +1,112 @@
+package im.inco.node.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Payload of a FILE frame. The frame is followed by exactly size raw bytes holding the file contents.
+ *
+ * <pre>
+ * +--------+----------------+
+ * | size   | name           |
+ * | int64  | uint16 + UTF-8 |
+ * +--------+----------------+
+ * </pre>
+ *
+ * @author Albert Veldman
+ */
+public class FileHeader {
+    /**
+     * Charset used for file names
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Size of the file in bytes
+     */
+    private final long size;
+
+    /**
+     * Name of the file
+     */
+    private final String name;
+
+    /**
+     * Creates a file header.
+     *
+     * @param size size of the file in bytes
+     * @param name name of the file
+     *
+     * @author Albert Veldman
+     */
+    public FileHeader(long size, String name) {
+        this.size = size;
+        this.name = name;
+    }
+
+    /**
+     * Decodes a file header from the payload of a FILE frame.
+     *
+     * @param payload frame payload, its position is not changed
+     *
+     * @return the decoded header
+     *
+     * @throws ProtocolException when the payload is malformed
+     *
+     * @author Albert Veldman
+     */
+    public static FileHeader decode(ByteBuffer payload) throws ProtocolException {
+        ByteBuffer buffer = payload.duplicate();
+        if(buffer.remaining() < 10) {
+            throw new ProtocolException("File header too short");
+        }
+        long size = buffer.getLong();
+        int nameLength = buffer.getShort() & 0xFFFF;
+        if(size < 0 || buffer.remaining() < nameLength) {
+            throw new ProtocolException("Malformed file header");
+        }
+        byte[] name = new byte[nameLength];
+        buffer.get(name);
+        return new FileHeader(size, new String(name, UTF_8));
+    }
+
+    /**
+     * Encodes this header into a frame payload.
+     *
+     * @return payload in read mode
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer encode() {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 2 + nameBytes.length);
+        buffer.putLong(size);
+        buffer.putShort((short) nameBytes.length);
+        buffer.put(nameBytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Get the size of the file.
+     *
+     * @return size in bytes
+     *
+     * @author Albert Veldman
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the name of the file.
+     *
+     * @return file name
+     *
+     * @author Albert Veldman
+     */
+    public String getName() {
+        return name;
+    }
+}
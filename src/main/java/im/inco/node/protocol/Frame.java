@@ -0,0 +1,236 @@
+package im.inco.node.protocol;
+
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.buffer.PooledBuffer;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A single frame of the node relay protocol.
+ *
+ * <pre>
+ * +--------+------+------------------+---------------------+---------+
+ * | length | type | sender           | recipient           | payload |
+ * | int32  | int8 | uint16 + UTF-8   | uint16 + UTF-8      | bytes   |
+ * +--------+------+------------------+---------------------+---------+
+ * </pre>
+ *
+ * The length field counts all bytes that follow it.
+ *
+ * @author Albert Veldman
+ */
+public class Frame {
+    /**
+     * Size of the length field in front of every frame
+     */
+    public static final int LENGTH_FIELD_SIZE = 4;
+
+    /**
+     * Charset used for nicknames
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Type of the frame
+     */
+    private final FrameType type;
+
+    /**
+     * Nickname of the sending endpoint
+     */
+    private final String sender;
+
+    /**
+     * Nickname of the receiving endpoint, empty for frames addressed to the node
+     */
+    private final String recipient;
+
+    /**
+     * Frame payload
+     */
+    private final ByteBuffer payload;
+
+    /**
+     * Creates a new frame.
+     *
+     * @param type type of the frame
+     * @param sender nickname of the sending endpoint
+     * @param recipient nickname of the receiving endpoint
+     * @param payload frame payload
+     *
+     * @author Albert Veldman
+     */
+    public Frame(FrameType type, String sender, String recipient, ByteBuffer payload) {
+        this.type = type;
+        this.sender = sender;
+        this.recipient = recipient;
+        this.payload = payload;
+    }
+
+    /**
+     * Decodes a frame from the given buffer. The buffer must be positioned directly after the length field
+     * and contain at least length bytes. The payload is a view of the buffer, so it is only valid as long as
+     * the buffer content is not overwritten.
+     *
+     * @param buffer buffer to read from
+     * @param length value of the length field
+     *
+     * @return the decoded frame
+     *
+     * @throws ProtocolException when the frame is malformed
+     *
+     * @author Albert Veldman
+     */
+    public static Frame decode(ByteBuffer buffer, int length) throws ProtocolException {
+        int end = buffer.position() + length;
+        FrameType type = FrameType.fromCode(buffer.get());
+        String sender = readString(buffer, end);
+        String recipient = readString(buffer, end);
+        if(buffer.position() > end) {
+            throw new ProtocolException("Frame header exceeds frame length");
+        }
+        int limit = buffer.limit();
+        buffer.limit(end);
+        ByteBuffer payload = buffer.slice();
+        buffer.limit(limit);
+        buffer.position(end);
+        return new Frame(type, sender, recipient, payload);
+    }
+
+    /**
+     * Encodes this frame including its length field.
+     *
+     * @return buffer ready to be written to a channel
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer encode() {
+        byte[] senderBytes = sender.getBytes(UTF_8);
+        byte[] recipientBytes = recipient.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(senderBytes, recipientBytes));
+        encodeTo(buffer, senderBytes, recipientBytes);
+        return buffer;
+    }
+
+    /**
+     * Encodes this frame including its length field into a buffer leased from the given pool.
+     *
+     * @param pool pool to lease the buffer from
+     *
+     * @return leased buffer in read mode, ready to be written to a channel
+     *
+     * @author Albert Veldman
+     */
+    public PooledBuffer encode(BufferPool pool) {
+        byte[] senderBytes = sender.getBytes(UTF_8);
+        byte[] recipientBytes = recipient.getBytes(UTF_8);
+        PooledBuffer pooled = pool.acquire(encodedSize(senderBytes, recipientBytes));
+        encodeTo(pooled.buffer(), senderBytes, recipientBytes);
+        return pooled;
+    }
+
+    /**
+     * Get the size of this frame once encoded.
+     *
+     * @param senderBytes encoded sender nickname
+     * @param recipientBytes encoded recipient nickname
+     *
+     * @return size including the length field
+     *
+     * @author Albert Veldman
+     */
+    private int encodedSize(byte[] senderBytes, byte[] recipientBytes) {
+        return LENGTH_FIELD_SIZE + 1 + 2 + senderBytes.length + 2 + recipientBytes.length + payload.remaining();
+    }
+
+    /**
+     * Writes this frame to the given buffer and flips it.
+     *
+     * @param buffer buffer in write mode with enough room for the frame
+     * @param senderBytes encoded sender nickname
+     * @param recipientBytes encoded recipient nickname
+     *
+     * @author Albert Veldman
+     */
+    private void encodeTo(ByteBuffer buffer, byte[] senderBytes, byte[] recipientBytes) {
+        buffer.putInt(encodedSize(senderBytes, recipientBytes) - LENGTH_FIELD_SIZE);
+        buffer.put(type.getCode());
+        buffer.putShort((short) senderBytes.length);
+        buffer.put(senderBytes);
+        buffer.putShort((short) recipientBytes.length);
+        buffer.put(recipientBytes);
+        buffer.put(payload.duplicate());
+        buffer.flip();
+    }
+
+    /**
+     * Reads a length prefixed UTF-8 string.
+     *
+     * @param buffer buffer to read from
+     * @param end position the string may not exceed
+     *
+     * @return the string
+     *
+     * @throws ProtocolException when the string runs past the end of the frame
+     *
+     * @author Albert Veldman
+     */
+    private static String readString(ByteBuffer buffer, int end) throws ProtocolException {
+        if(end - buffer.position() < 2) {
+            throw new ProtocolException("Frame header exceeds frame length");
+        }
+        int size = buffer.getShort() & 0xFFFF;
+        if(end - buffer.position() < size) {
+            throw new ProtocolException("Frame header exceeds frame length");
+        }
+        byte[] bytes = new byte[size];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Get the type of this frame.
+     *
+     * @return frame type
+     *
+     * @author Albert Veldman
+     */
+    public FrameType getType() {
+        return type;
+    }
+
+    /**
+     * Get the nickname of the sending endpoint.
+     *
+     * @return sender nickname
+     *
+     * @author Albert Veldman
+     */
+    public String getSender() {
+        return sender;
+    }
+
+    /**
+     * Get the nickname of the receiving endpoint.
+     *
+     * @return recipient nickname
+     *
+     * @author Albert Veldman
+     */
+    public String getRecipient() {
+        return recipient;
+    }
+
+    /**
+     * Get the payload of this frame.
+     *
+     * @return payload
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,225 @@
+package im.inco.node.protocol;
+
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.buffer.PooledBuffer;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Collects bytes read from a non-blocking channel and cuts them into frames.
+ *
+ * <p>The read buffer is leased from a pool while bytes are buffered and returned as soon as everything is
+ * decoded, so idle connections don't hold a buffer. Decoded frames are views of the read buffer, their
+ * payload is only valid until the next call to getReadBuffer.
+ *
+ * @author Albert Veldman
+ */
+public class FrameDecoder {
+    /**
+     * Initial size of the read buffer
+     */
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Largest frame that is accepted, frames announcing a bigger length are rejected before they are buffered
+     */
+    private final int maxFrameLength;
+
+    /**
+     * Pool the read buffer is leased from
+     */
+    private final BufferPool pool;
+
+    /**
+     * Leased read buffer, null while nothing is buffered
+     */
+    private PooledBuffer leased;
+
+    /**
+     * Buffer holding bytes that have not been decoded yet, always in write mode, null while nothing is buffered
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Position of the first byte in the buffer that is not decoded yet
+     */
+    private int readIndex;
+
+    /**
+     * Creates a decoder.
+     *
+     * @param maxFrameLength largest frame length that is accepted
+     * @param pool pool the read buffer is leased from
+     *
+     * @author Albert Veldman
+     */
+    public FrameDecoder(int maxFrameLength, BufferPool pool) {
+        this.maxFrameLength = maxFrameLength;
+        this.pool = pool;
+    }
+
+    /**
+     * Get the buffer the channel should read into. Bytes that were decoded are discarded first, so frames
+     * returned before this call may not be used anymore.
+     *
+     * @return buffer in write mode
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer getReadBuffer() {
+        if(buffer == null) {
+            lease(INITIAL_BUFFER_SIZE);
+        }
+        else {
+            discardDecoded();
+        }
+        return buffer;
+    }
+
+    /**
+     * Decodes the next complete frame from the buffered bytes.
+     *
+     * @return the next frame or null when more bytes are needed
+     *
+     * @throws ProtocolException when the peer sent a malformed or too large frame
+     *
+     * @author Albert Veldman
+     */
+    public Frame next() throws ProtocolException {
+        int length = nextLength();
+        if(length == 0) {
+            return null;
+        }
+        int end = readIndex + Frame.LENGTH_FIELD_SIZE + length;
+        if(buffer.position() < end) {
+            ensureCapacity(Frame.LENGTH_FIELD_SIZE + length);
+            return null;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.limit(end);
+        view.position(readIndex + Frame.LENGTH_FIELD_SIZE);
+        readIndex = end;
+        return Frame.decode(view, length);
+    }
+
+    /**
+     * Get the length of the next frame as soon as its length field is buffered, before its payload is.
+     *
+     * @return length of the next frame or 0 when its length field is not buffered yet
+     *
+     * @throws ProtocolException when the peer announced a malformed or too large frame
+     *
+     * @author Albert Veldman
+     */
+    public int nextLength() throws ProtocolException {
+        if(buffer == null || buffer.position() - readIndex < Frame.LENGTH_FIELD_SIZE) {
+            return 0;
+        }
+        int length = buffer.getInt(readIndex);
+        if(length <= 0 || length > maxFrameLength) {
+            throw new ProtocolException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Get a view of the bytes that are buffered but not decoded yet.
+     *
+     * @return read mode view of the buffered bytes, changes to its position don't affect the decoder
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer buffered() {
+        if(buffer == null) {
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.limit(buffer.position());
+        view.position(readIndex);
+        return view;
+    }
+
+    /**
+     * Discards buffered bytes that were consumed through buffered().
+     *
+     * @param count number of bytes to discard
+     *
+     * @author Albert Veldman
+     */
+    public void skip(int count) {
+        readIndex += count;
+    }
+
+    /**
+     * Returns the read buffer to the pool when all buffered bytes are decoded.
+     *
+     * @author Albert Veldman
+     */
+    public void releaseIfEmpty() {
+        if(buffer != null && readIndex == buffer.position()) {
+            release();
+        }
+    }
+
+    /**
+     * Returns the read buffer to the pool and discards all buffered bytes.
+     *
+     * @author Albert Veldman
+     */
+    public void release() {
+        if(leased != null) {
+            leased.release();
+            leased = null;
+            buffer = null;
+            readIndex = 0;
+        }
+    }
+
+    /**
+     * Grows the buffer so a frame of the given size fits from the start of the buffer.
+     *
+     * @param size total size of the frame including the length field
+     *
+     * @author Albert Veldman
+     */
+    private void ensureCapacity(int size) {
+        if(buffer.capacity() - readIndex < size) {
+            discardDecoded();
+            if(buffer.capacity() < size) {
+                PooledBuffer previous = leased;
+                ByteBuffer pending = buffered();
+                lease(size);
+                buffer.put(pending);
+                previous.release();
+            }
+        }
+    }
+
+    /**
+     * Moves the bytes that are not decoded yet to the start of the buffer.
+     *
+     * @author Albert Veldman
+     */
+    private void discardDecoded() {
+        if(readIndex > 0) {
+            buffer.limit(buffer.position());
+            buffer.position(readIndex);
+            buffer.compact();
+            readIndex = 0;
+        }
+    }
+
+    /**
+     * Leases a new read buffer of at least the given size.
+     *
+     * @param size minimum capacity
+     *
+     * @author Albert Veldman
+     */
+    private void lease(int size) {
+        leased = pool.acquire(size);
+        buffer = leased.buffer();
+        readIndex = 0;
+    }
+}
@@ -0,0 +1,116 @@
+package im.inco.node.protocol;
+
+import java.net.ProtocolException;
+
+/**
+ * Types of frames that are exchanged between endpoints and the node.
+ *
+ * @author Albert Veldman
+ */
+public enum FrameType {
+    /**
+     * Sent by an endpoint after connecting, announces its nickname.
+     */
+    HELLO((byte) 1),
+
+    /**
+     * A message that has to be relayed to the recipient.
+     */
+    MESSAGE((byte) 2),
+
+    /**
+     * A file that has to be relayed to the recipient.
+     */
+    FILE((byte) 3),
+
+    /**
+     * Offers a file in chunks to the node, holds the chunk manifest. The node answers with CHUNK_NEED.
+     */
+    CHUNK_OFFER((byte) 4),
+
+    /**
+     * Sent by the node in answer to CHUNK_OFFER, lists the chunks the node doesn't have yet. An empty list
+     * means the file was accepted.
+     */
+    CHUNK_NEED((byte) 5),
+
+    /**
+     * A chunk of an offered file, the chunk bytes follow the frame.
+     */
+    CHUNK((byte) 6),
+
+    /**
+     * Opens a link between two nodes, the sender is the name of the node and the payload proves it knows the
+     * mesh secret. Sent with an empty recipient by the node that connects, the other node answers with the
+     * connecting node as recipient.
+     */
+    PEER_HELLO((byte) 11),
+
+    /**
+     * Sent over a link to ask the other node whether the recipient is connected to it. The node answers with
+     * ROUTE when it is.
+     */
+    LOCATE((byte) 12),
+
+    /**
+     * Sent over a link to tell the other node that the recipient is connected to the sending node.
+     */
+    ROUTE((byte) 13),
+
+    /**
+     * Sent over a link to tell the other node that the recipient disconnected from the sending node.
+     */
+    UNROUTE((byte) 14),
+
+    /**
+     * A MESSAGE frame compressed with the codec the connection negotiated in its HELLO. The payload holds the
+     * length of the inner frame and the compressed inner frame, without its length field.
+     */
+    COMPRESSED((byte) 15),
+
+    /**
+     * Sent by the node instead of FILE to an endpoint that negotiated a codec. The payload is the FILE header,
+     * the body follows as blocks that are compressed one by one.
+     */
+    COMPRESSED_FILE((byte) 16);
+
+    /**
+     * Code of the type on the wire
+     */
+    private final byte code;
+
+    FrameType(byte code) {
+        this.code = code;
+    }
+
+    /**
+     * Get the code of this type on the wire.
+     *
+     * @return type code
+     *
+     * @author Albert Veldman
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the type that belongs to the given wire code.
+     *
+     * @param code type code read from the wire
+     *
+     * @return the matching frame type
+     *
+     * @throws ProtocolException when the code is unknown
+     *
+     * @author Albert Veldman
+     */
+    public static FrameType fromCode(byte code) throws ProtocolException {
+        for (FrameType type : values()) {
+            if(type.code == code) {
+                return type;
+            }
+        }
+        throw new ProtocolException("Unknown frame type: " + code);
+    }
+}
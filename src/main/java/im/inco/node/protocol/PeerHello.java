@@ -0,0 +1,132 @@
+package im.inco.node.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Payload of a PEER_HELLO frame. The node proves it knows the mesh secret; the time bounds how long a captured
+ * hello can be replayed.
+ *
+ * <pre>
+ * +------------+----------+-------------------------------------------------------------+
+ * | time       | nonce    | mac                                                         |
+ * | int64 (ms) | 16 bytes | HMAC-SHA256(mesh secret, sender + recipient + time + nonce) |
+ * +------------+----------+-------------------------------------------------------------+
+ * </pre>
+ *
+ * @author Albert Veldman
+ */
+public class PeerHello {
+    /**
+     * Length of the nonce chosen by the node
+     */
+    public static final int NONCE_LENGTH = 16;
+
+    /**
+     * Length of an HMAC-SHA256
+     */
+    public static final int MAC_LENGTH = 32;
+
+    /**
+     * Time the hello was created, milliseconds since the epoch
+     */
+    private final long timeMillis;
+
+    /**
+     * Nonce chosen by the node
+     */
+    private final byte[] nonce;
+
+    /**
+     * Proof that the node knows the mesh secret
+     */
+    private final byte[] mac;
+
+    /**
+     * Creates a hello.
+     *
+     * @param timeMillis time the hello was created, milliseconds since the epoch
+     * @param nonce nonce chosen by the node
+     * @param mac proof that the node knows the mesh secret
+     *
+     * @author Albert Veldman
+     */
+    public PeerHello(long timeMillis, byte[] nonce, byte[] mac) {
+        this.timeMillis = timeMillis;
+        this.nonce = nonce;
+        this.mac = mac;
+    }
+
+    /**
+     * Decodes a hello from the payload of a PEER_HELLO frame.
+     *
+     * @param payload frame payload, its position is not changed
+     *
+     * @return the decoded hello
+     *
+     * @throws ProtocolException when the payload is malformed
+     *
+     * @author Albert Veldman
+     */
+    public static PeerHello decode(ByteBuffer payload) throws ProtocolException {
+        ByteBuffer buffer = payload.duplicate();
+        if(buffer.remaining() != 8 + NONCE_LENGTH + MAC_LENGTH) {
+            throw new ProtocolException("Malformed peer hello");
+        }
+        long timeMillis = buffer.getLong();
+        byte[] nonce = new byte[NONCE_LENGTH];
+        byte[] mac = new byte[MAC_LENGTH];
+        buffer.get(nonce);
+        buffer.get(mac);
+        return new PeerHello(timeMillis, nonce, mac);
+    }
+
+    /**
+     * Encodes this hello into a frame payload.
+     *
+     * @return payload in read mode
+     *
+     * @author Albert Veldman
+     */
+    public ByteBuffer encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + NONCE_LENGTH + MAC_LENGTH);
+        buffer.putLong(timeMillis);
+        buffer.put(nonce);
+        buffer.put(mac);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Get the time the hello was created.
+     *
+     * @return milliseconds since the epoch
+     *
+     * @author Albert Veldman
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * Get the nonce chosen by the node.
+     *
+     * @return nonce
+     *
+     * @author Albert Veldman
+     */
+    public byte[] getNonce() {
+        return nonce;
+    }
+
+    /**
+     * Get the proof that the node knows the mesh secret.
+     *
+     * @return HMAC-SHA256 of sender, recipient, time and nonce
+     *
+     * @author Albert Veldman
+     */
+    public byte[] getMac() {
+        return mac;
+    }
+}
@@ -0,0 +1,74 @@
+package im.inco.node.receive;
+
+import im.inco.node.receive.interfaces.IOutbound;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A buffer queued to be written to a connection.
+ *
+ * @author Albert Veldman
+ */
+public class BufferOutbound implements IOutbound {
+    /**
+     * Buffer to write
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of bytes to write
+     */
+    private final int length;
+
+    /**
+     * Creates an outbound for the given buffer.
+     *
+     * @param buffer buffer in read mode
+     *
+     * @author Albert Veldman
+     */
+    public BufferOutbound(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.length = buffer.remaining();
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long memorySize() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public long writeTo(SocketChannel channel, long maxBytes) throws IOException {
+        if(buffer.remaining() <= maxBytes) {
+            return channel.write(buffer);
+        }
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + (int) maxBytes);
+        try {
+            return channel.write(buffer);
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+
+    @Override
+    public long remaining() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void release(boolean written) {
+    }
+}
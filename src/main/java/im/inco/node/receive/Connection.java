@@ -0,0 +1,947 @@
+package im.inco.node.receive;
+
+import im.inco.node.admission.AdmissionControl;
+import im.inco.node.buffer.PooledBuffer;
+import im.inco.node.metrics.PortMetrics;
+import im.inco.node.protocol.Codec;
+import im.inco.node.protocol.Frame;
+import im.inco.node.protocol.FrameDecoder;
+import im.inco.node.receive.interfaces.IFrameHandler;
+import im.inco.node.receive.interfaces.IOutbound;
+import im.inco.node.receive.interfaces.IStreamConsumer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A non-blocking endpoint connection that is served by a SelectorLoop.
+ *
+ * <p>Writes are queued and flushed by the loop, so a burst of writes to the same connection is combined into
+ * gathering writes of at most maxBatchMessages buffers. When more than maxPendingBytes are queued the
+ * connection stops being writable until half of it is flushed, the frame handler is then notified.
+ *
+ * <p>On the message port every frame is passed to admission control as soon as its length is read. A frame
+ * that exceeds a rate limit stops the connection from reading until the limit allows it, before its payload is
+ * buffered. Links to other nodes are not rate limited.
+ *
+ * <p>A connection on the file port reads and writes no more than BULK_QUANTUM_BYTES each time the loop serves
+ * it, so all file transfers of a loop advance in turn and a large file can't hold up the loop. The bytes are
+ * passed to admission control for the bulk rate; when it is used up the connection pauses until it may
+ * transfer again.
+ *
+ * @author Albert Veldman
+ */
+public class Connection {
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(Connection.class.getName());
+
+    /**
+     * Bytes a file port connection may read or write each time the loop serves it
+     */
+    static final long BULK_QUANTUM_BYTES = 64 * 1024;
+
+    /**
+     * Channel of this connection
+     */
+    private final SocketChannel channel;
+
+    /**
+     * Port the connection was accepted on
+     */
+    private final PortType portType;
+
+    /**
+     * Class of the traffic of this connection
+     */
+    private final TrafficClass trafficClass;
+
+    /**
+     * Bytes this connection may read or write each time the loop serves it
+     */
+    private final long quantum;
+
+    /**
+     * Loop that owns this connection
+     */
+    private final SelectorLoop loop;
+
+    /**
+     * Handler that receives the decoded frames
+     */
+    private final IFrameHandler handler;
+
+    /**
+     * Decoder for incoming bytes
+     */
+    private final FrameDecoder decoder;
+
+    /**
+     * Limits for batching and buffering writes
+     */
+    private final OutboundOptions outboundOptions;
+
+    /**
+     * Traffic counters of the port of this connection
+     */
+    private final PortMetrics metrics;
+
+    /**
+     * Admission control the frames of this connection are passed to
+     */
+    private final AdmissionControl admission;
+
+    /**
+     * Remote address of the connection
+     */
+    private final InetAddress address;
+
+    /**
+     * Writes waiting to be flushed, filled from any thread and drained by the loop
+     */
+    private final Queue<IOutbound> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of queued writes
+     */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    /**
+     * Memory held by queued writes
+     */
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    /**
+     * Buffers of the current gathering write, only used by the loop
+     */
+    private final ByteBuffer[] batch;
+
+    /**
+     * Set while a flush is scheduled on the loop
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * Task that flushes the pending writes on the loop thread
+     */
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flushQuietly();
+        }
+    };
+
+    /**
+     * Task that schedules a lingering flush on the loop thread
+     */
+    private final Runnable lingerTask = new Runnable() {
+        @Override
+        public void run() {
+            loop.schedule(flushTask, outboundOptions.getLingerMillis());
+        }
+    };
+
+    /**
+     * Task that resumes reading once the rate limits allow the next frame
+     */
+    private final Runnable resumeTask = new Runnable() {
+        @Override
+        public void run() {
+            resume();
+        }
+    };
+
+    /**
+     * Task that resumes reading and writing once the bulk rate allows it
+     */
+    private final Runnable bulkResumeTask = new Runnable() {
+        @Override
+        public void run() {
+            resumeBulk();
+        }
+    };
+
+    /**
+     * Set once the connection is closed
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Whether new writes are accepted without exceeding maxPendingBytes
+     */
+    private volatile boolean writable = true;
+
+    /**
+     * Set by the frame handler while writes for this connection are diverted because it was not writable
+     */
+    private volatile boolean overflowed;
+
+    /**
+     * Selection key of the channel, set by the loop after registering
+     */
+    private SelectionKey key;
+
+    /**
+     * Consumer of the raw bytes that follow the last frame, null while frames are decoded
+     */
+    private IStreamConsumer stream;
+
+    /**
+     * Set once the connection stops reading because the node shuts down, only used by the loop
+     */
+    private boolean draining;
+
+    /**
+     * Set once the frame that is being received was admitted, only used by the loop
+     */
+    private boolean admitted;
+
+    /**
+     * Set while reading is paused because a frame exceeded a rate limit, only used by the loop
+     */
+    private boolean throttled;
+
+    /**
+     * Set while reading and writing are paused because the bulk rate was used up, only used by the loop
+     */
+    private boolean paused;
+
+    /**
+     * Bytes the current flush may still write, only used by the loop
+     */
+    private long budget;
+
+    /**
+     * Nickname the endpoint announced, null until it did
+     */
+    private volatile String nickname;
+
+    /**
+     * Name of the node at the other end when this connection is a link between two nodes, null otherwise
+     */
+    private volatile String peer;
+
+    /**
+     * Codec the endpoint negotiated in its HELLO, NONE until it did
+     */
+    private volatile Codec codec = Codec.NONE;
+
+    /**
+     * Creates a connection.
+     *
+     * @param channel non-blocking channel of the connection
+     * @param portType port the connection was accepted on
+     * @param loop loop that owns this connection
+     * @param handler handler that receives the decoded frames
+     * @param decoder decoder for incoming bytes
+     * @param outboundOptions limits for batching and buffering writes
+     * @param metrics traffic counters of the port of this connection
+     * @param admission admission control the frames of this connection are passed to
+     *
+     * @author Albert Veldman
+     */
+    Connection(SocketChannel channel, PortType portType, SelectorLoop loop, IFrameHandler handler,
+               FrameDecoder decoder, OutboundOptions outboundOptions, PortMetrics metrics,
+               AdmissionControl admission) {
+        this.channel = channel;
+        this.portType = portType;
+        this.trafficClass = TrafficClass.of(portType);
+        this.quantum = trafficClass == TrafficClass.BULK ? BULK_QUANTUM_BYTES : Long.MAX_VALUE;
+        this.loop = loop;
+        this.handler = handler;
+        this.decoder = decoder;
+        this.outboundOptions = outboundOptions;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.address = channel.socket().getInetAddress();
+        this.batch = new ByteBuffer[outboundOptions.getMaxBatchMessages()];
+    }
+
+    /**
+     * Queues a buffer to be written to the endpoint. Can be called from any thread.
+     *
+     * @param buffer buffer to write
+     *
+     * @author Albert Veldman
+     */
+    public void send(ByteBuffer buffer) {
+        send(new BufferOutbound(buffer));
+    }
+
+    /**
+     * Queues a write to the endpoint. Can be called from any thread. The write is released when it is written
+     * or when the connection closes first. Writes are always queued, callers that want to respect the pending
+     * limit check isWritable first.
+     *
+     * @param outbound write to queue
+     *
+     * @author Albert Veldman
+     */
+    public void send(IOutbound outbound) {
+        if(closed.get()) {
+            outbound.release(false);
+            return;
+        }
+        metrics.writeQueued(outbound.memorySize());
+        pendingWrites.add(outbound);
+        int count = pendingCount.incrementAndGet();
+        if(pendingBytes.addAndGet(outbound.memorySize()) > outboundOptions.getMaxPendingBytes()) {
+            writable = false;
+        }
+        if(closed.get()) {
+            releasePending();
+            return;
+        }
+        scheduleFlush(count);
+    }
+
+    /**
+     * Runs a task on the loop thread once the loop handled the events that are ready now, so work that goes on
+     * write after write doesn't keep the other connections of the loop waiting. Can be called from any thread.
+     *
+     * @param task task to run
+     *
+     * @author Albert Veldman
+     */
+    public void defer(final Runnable task) {
+        if(loop.inLoop()) {
+            loop.schedule(task, 0);
+            return;
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                loop.schedule(task, 0);
+            }
+        });
+    }
+
+    /**
+     * Get whether the connection accepts new writes without exceeding its pending limit.
+     *
+     * @return true when writable
+     *
+     * @author Albert Veldman
+     */
+    public boolean isWritable() {
+        return writable && !closed.get();
+    }
+
+    /**
+     * Get whether writes for this connection are being diverted by the frame handler.
+     *
+     * @return true while writes are diverted
+     *
+     * @author Albert Veldman
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Set whether writes for this connection are being diverted by the frame handler.
+     *
+     * @param overflowed true while writes are diverted
+     *
+     * @author Albert Veldman
+     */
+    public void setOverflowed(boolean overflowed) {
+        this.overflowed = overflowed;
+    }
+
+    /**
+     * Passes the raw bytes that follow the frame that is being handled to the given consumer, until it has
+     * consumed all bytes it expects. Must be called from the frame handler.
+     *
+     * @param consumer consumer of the raw bytes
+     *
+     * @author Albert Veldman
+     */
+    public void stream(IStreamConsumer consumer) {
+        this.stream = consumer;
+    }
+
+    /**
+     * Closes the connection and notifies the handler. Calling this more than once has no effect.
+     *
+     * @author Albert Veldman
+     */
+    public void close() {
+        if(closed.compareAndSet(false, true)) {
+            if(key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                LOGGER.log(Level.FINE, exception.getMessage(), exception);
+            }
+            releasePending();
+            if(loop.inLoop()) {
+                releaseDecoder();
+            }
+            else {
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        releaseDecoder();
+                    }
+                });
+            }
+            metrics.connectionClosed();
+            admission.connectionClosed();
+            handler.onClosed(this);
+        }
+    }
+
+    /**
+     * Reads available bytes and passes every complete frame to the handler.
+     *
+     * @throws IOException when reading fails or the endpoint sent a malformed frame
+     *
+     * @author Albert Veldman
+     */
+    void onReadable() throws IOException {
+        if(paused || !admitBulk()) {
+            return;
+        }
+        if(stream != null) {
+            long transferred = stream.transferFrom(channel, quantum);
+            if(transferred == -1) {
+                close();
+                return;
+            }
+            metrics.bytesReceived(transferred);
+            bulkTransferred(transferred);
+            if(stream.remaining() > 0) {
+                return;
+            }
+            completeStream();
+        }
+        else {
+            int read = channel.read(decoder.getReadBuffer());
+            if(read == -1) {
+                close();
+                return;
+            }
+            metrics.bytesReceived(read);
+            bulkTransferred(read);
+        }
+        decodeFrames();
+    }
+
+    /**
+     * Continues writing pending buffers once the channel accepts more bytes.
+     *
+     * @throws IOException when writing fails
+     *
+     * @author Albert Veldman
+     */
+    void onWritable() throws IOException {
+        flush();
+    }
+
+    /**
+     * Passes every complete buffered frame to the handler, until a handler starts a stream.
+     *
+     * @throws IOException when a frame is malformed or can't be handled
+     *
+     * @author Albert Veldman
+     */
+    private void decodeFrames() throws IOException {
+        Frame frame;
+        while(!closed.get() && stream == null && admitNext() && (frame = decoder.next()) != null) {
+            admitted = false;
+            metrics.frameReceived();
+            handler.onFrame(this, frame);
+            if(stream != null) {
+                streamBuffered();
+            }
+        }
+        if(!closed.get()) {
+            decoder.releaseIfEmpty();
+        }
+    }
+
+    /**
+     * Passes the next frame of the message port to admission control once its length is buffered. When the
+     * frame is not admitted the connection stops reading until it may ask again.
+     *
+     * @return false when the next frame is not admitted
+     *
+     * @throws IOException when the frame length is malformed
+     *
+     * @author Albert Veldman
+     */
+    private boolean admitNext() throws IOException {
+        if(admitted || portType != PortType.MESSAGE || peer != null) {
+            return true;
+        }
+        int length = decoder.nextLength();
+        if(length == 0) {
+            return true;
+        }
+        long delayNanos = admission.admitFrame(address, nickname, length);
+        if(delayNanos > 0) {
+            throttled = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            loop.schedule(resumeTask, Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos)));
+            return false;
+        }
+        admitted = true;
+        return true;
+    }
+
+    /**
+     * Resumes reading after the connection was throttled and handles the frames that are buffered already.
+     * Runs on the loop thread.
+     *
+     * @author Albert Veldman
+     */
+    private void resume() {
+        throttled = false;
+        if(closed.get()) {
+            return;
+        }
+        if(!draining) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+        try {
+            decodeFrames();
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+            close();
+        } catch (RuntimeException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+            close();
+        }
+    }
+
+    /**
+     * Asks admission control whether a file port connection may transfer more bytes under the bulk rate. When
+     * it may not, the connection stops reading and writing until it may ask again.
+     *
+     * @return false when the connection paused
+     *
+     * @author Albert Veldman
+     */
+    private boolean admitBulk() {
+        if(trafficClass != TrafficClass.BULK) {
+            return true;
+        }
+        long delayNanos = admission.bulkDelayNanos();
+        if(delayNanos == 0) {
+            return true;
+        }
+        paused = true;
+        key.interestOps(0);
+        loop.schedule(bulkResumeTask, Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos)));
+        return false;
+    }
+
+    /**
+     * Takes the bytes a file port connection transferred from the bulk rate.
+     *
+     * @param bytes number of bytes read or written
+     *
+     * @author Albert Veldman
+     */
+    private void bulkTransferred(long bytes) {
+        if(trafficClass == TrafficClass.BULK) {
+            admission.bulkTransferred(bytes);
+        }
+    }
+
+    /**
+     * Resumes reading and writing after the bulk rate paused the connection. Runs on the loop thread.
+     *
+     * @author Albert Veldman
+     */
+    private void resumeBulk() {
+        paused = false;
+        if(closed.get()) {
+            return;
+        }
+        if(!draining || stream != null) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+        flushQuietly();
+    }
+
+    /**
+     * Passes bytes that were read together with the last frame to the stream consumer.
+     *
+     * @throws IOException when the consumer fails
+     *
+     * @author Albert Veldman
+     */
+    private void streamBuffered() throws IOException {
+        ByteBuffer buffered = decoder.buffered();
+        int count = (int) Math.min(buffered.remaining(), stream.remaining());
+        buffered.limit(buffered.position() + count);
+        stream.write(buffered);
+        decoder.skip(count);
+        if(stream.remaining() == 0) {
+            completeStream();
+        }
+    }
+
+    /**
+     * Completes the current stream and switches back to decoding frames.
+     *
+     * @throws IOException when the consumer fails
+     *
+     * @author Albert Veldman
+     */
+    private void completeStream() throws IOException {
+        IStreamConsumer completed = stream;
+        stream = null;
+        completed.complete();
+        if(draining && !closed.get()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Stops reading from the endpoint because the node shuts down. A stream that is being received is read
+     * until it is complete. Runs on the loop thread.
+     *
+     * @author Albert Veldman
+     */
+    void stopReading() {
+        draining = true;
+        if(stream == null && !closed.get()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Get whether the connection has nothing left to receive or write. Runs on the loop thread.
+     *
+     * @return true when no stream is being received, no frame is held back and no write is pending
+     *
+     * @author Albert Veldman
+     */
+    boolean isDrained() {
+        return stream == null && !throttled && pendingCount.get() == 0;
+    }
+
+    /**
+     * Passes the complete frames of all pending writes to the handler and closes the connection. Used when the
+     * connection is not drained before the node shuts down. Runs on the loop thread.
+     *
+     * @author Albert Veldman
+     */
+    void handOff() {
+        IOutbound outbound;
+        while((outbound = pendingWrites.poll()) != null) {
+            pendingCount.decrementAndGet();
+            pendingBytes.addAndGet(-outbound.memorySize());
+            metrics.writeDequeued(outbound.memorySize());
+            ByteBuffer buffer = outbound.getBuffer();
+            if(buffer != null) {
+                ByteBuffer frame = buffer.duplicate();
+                frame.position((int) (frame.limit() - outbound.length()));
+                handler.onUndelivered(this, frame);
+            }
+            outbound.release(false);
+        }
+        close();
+    }
+
+    /**
+     * Makes sure a flush is scheduled. Without linger the flush runs before the loop selects again, so all
+     * writes queued while the loop handles the current events are flushed together. With linger a full batch
+     * is flushed right away.
+     *
+     * @param count number of queued writes including the new one
+     *
+     * @author Albert Veldman
+     */
+    private void scheduleFlush(int count) {
+        boolean linger = outboundOptions.getLingerMillis() > 0;
+        if(!linger || count == outboundOptions.getMaxBatchMessages()) {
+            if(flushScheduled.compareAndSet(false, true) || linger) {
+                loop.execute(flushTask);
+            }
+        }
+        else if(flushScheduled.compareAndSet(false, true)) {
+            loop.execute(lingerTask);
+        }
+    }
+
+    /**
+     * Writes pending writes until they are all written, the socket buffer is full or the quantum of the
+     * connection is used. Consecutive buffers are combined into gathering writes.
+     *
+     * @throws IOException when writing fails
+     *
+     * @author Albert Veldman
+     */
+    private void flush() throws IOException {
+        if(closed.get() || paused) {
+            return;
+        }
+        budget = quantum;
+        try {
+            IOutbound head;
+            while((head = pendingWrites.peek()) != null) {
+                if(!admitBulk()) {
+                    return;
+                }
+                boolean written = budget > 0 && (head.getBuffer() != null ? writeBatch() : writeSingle(head));
+                if(!written) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } finally {
+            bulkTransferred(quantum - budget);
+        }
+    }
+
+    /**
+     * Writes the write at the head of the queue, no more than the budget of the current flush.
+     *
+     * @param head write at the head of the queue
+     *
+     * @return true when it was written completely
+     *
+     * @throws IOException when writing fails
+     *
+     * @author Albert Veldman
+     */
+    private boolean writeSingle(IOutbound head) throws IOException {
+        budget -= head.writeTo(channel, budget);
+        if(head.remaining() > 0) {
+            return false;
+        }
+        completeHead();
+        return true;
+    }
+
+    /**
+     * Writes the buffers at the head of the queue with one gathering write.
+     *
+     * @return true when all buffers of the batch were written completely
+     *
+     * @throws IOException when writing fails
+     *
+     * @author Albert Veldman
+     */
+    private boolean writeBatch() throws IOException {
+        int count = 0;
+        long bytes = 0;
+        Iterator<IOutbound> iterator = pendingWrites.iterator();
+        long maxBytes = Math.min(outboundOptions.getMaxBatchBytes(), budget);
+        while(iterator.hasNext() && count < batch.length && bytes < maxBytes) {
+            ByteBuffer buffer = iterator.next().getBuffer();
+            if(buffer == null) {
+                break;
+            }
+            batch[count] = buffer;
+            bytes += batch[count].remaining();
+            count++;
+        }
+        budget -= channel.write(batch, 0, count);
+        boolean complete = true;
+        for (int i = 0; i < count; i++) {
+            if(batch[i].hasRemaining()) {
+                complete = false;
+                break;
+            }
+            completeHead();
+        }
+        for (int i = 0; i < count; i++) {
+            batch[i] = null;
+        }
+        return complete;
+    }
+
+    /**
+     * Removes the written head of the queue and makes the connection writable again once enough is flushed.
+     *
+     * @author Albert Veldman
+     */
+    private void completeHead() {
+        IOutbound written = pendingWrites.poll();
+        pendingCount.decrementAndGet();
+        long remaining = pendingBytes.addAndGet(-written.memorySize());
+        metrics.writeDequeued(written.memorySize());
+        metrics.written(written.length(),
+                written instanceof PooledBuffer ? ((PooledBuffer) written).getReceivedNanos() : 0);
+        written.release(true);
+        if(!writable && remaining <= outboundOptions.getMaxPendingBytes() / 2) {
+            writable = true;
+            handler.onWritable(this);
+        }
+    }
+
+    /**
+     * Releases all writes that will not be written anymore.
+     *
+     * @author Albert Veldman
+     */
+    private void releasePending() {
+        IOutbound outbound;
+        while((outbound = pendingWrites.poll()) != null) {
+            pendingCount.decrementAndGet();
+            pendingBytes.addAndGet(-outbound.memorySize());
+            metrics.writeDequeued(outbound.memorySize());
+            outbound.release(false);
+        }
+    }
+
+    /**
+     * Aborts the current stream and returns the read buffer to the pool. Runs on the loop thread, which is
+     * the only thread using the decoder.
+     *
+     * @author Albert Veldman
+     */
+    private void releaseDecoder() {
+        if(stream != null) {
+            stream.abort();
+            stream = null;
+        }
+        decoder.release();
+    }
+
+    /**
+     * Flushes and closes the connection when writing fails.
+     *
+     * @author Albert Veldman
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+            close();
+        }
+    }
+
+    /**
+     * Set the selection key after the channel is registered.
+     *
+     * @param key selection key of the channel
+     *
+     * @author Albert Veldman
+     */
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the port this connection was accepted on.
+     *
+     * @return port type
+     *
+     * @author Albert Veldman
+     */
+    public PortType getPortType() {
+        return portType;
+    }
+
+    /**
+     * Get the class of the traffic of this connection.
+     *
+     * @return traffic class
+     *
+     * @author Albert Veldman
+     */
+    TrafficClass getTrafficClass() {
+        return trafficClass;
+    }
+
+    /**
+     * Get the nickname the endpoint announced.
+     *
+     * @return nickname or null when the endpoint didn't announce itself yet
+     *
+     * @author Albert Veldman
+     */
+    public String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * Set the nickname the endpoint announced.
+     *
+     * @param nickname nickname of the endpoint
+     *
+     * @author Albert Veldman
+     */
+    public void setNickname(String nickname) {
+        this.nickname = nickname;
+    }
+
+    /**
+     * Get the node at the other end of this connection.
+     *
+     * @return name of the node or null when this connection is not a link between two nodes
+     *
+     * @author Albert Veldman
+     */
+    public String getPeer() {
+        return peer;
+    }
+
+    /**
+     * Marks this connection as a link to another node.
+     *
+     * @param peer name of the node at the other end
+     *
+     * @author Albert Veldman
+     */
+    public void setPeer(String peer) {
+        this.peer = peer;
+    }
+
+    /**
+     * Get the codec the frames to and from the endpoint are compressed with.
+     *
+     * @return codec, NONE when the endpoint negotiated none
+     *
+     * @author Albert Veldman
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Set the codec the endpoint negotiated.
+     *
+     * @param codec codec the frames to and from the endpoint are compressed with
+     *
+     * @author Albert Veldman
+     */
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Get whether this connection is closed.
+     *
+     * @return true when closed
+     *
+     * @author Albert Veldman
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+}
@@ -0,0 +1,129 @@
+package im.inco.node.receive;
+
+import im.inco.node.receive.interfaces.IOutbound;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A region of a file queued to be written to a connection. The bytes are sent with FileChannel.transferTo so
+ * they go from the page cache to the socket without passing through the heap.
+ *
+ * @author Albert Veldman
+ */
+public class FileRegion implements IOutbound {
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(FileRegion.class.getName());
+
+    /**
+     * File to send
+     */
+    private final File file;
+
+    /**
+     * Position of the next byte to send
+     */
+    private long position;
+
+    /**
+     * Position after the last byte to send
+     */
+    private final long end;
+
+    /**
+     * Number of bytes to send
+     */
+    private final long count;
+
+    /**
+     * Channel of the file, opened on the first write so queued regions don't hold file handles
+     */
+    private FileChannel channel;
+
+    /**
+     * Creates a region.
+     *
+     * @param file file to send
+     * @param position position of the first byte to send
+     * @param count number of bytes to send
+     *
+     * @author Albert Veldman
+     */
+    public FileRegion(File file, long position, long count) {
+        this.file = file;
+        this.position = position;
+        this.end = position + count;
+        this.count = count;
+    }
+
+    @Override
+    public long writeTo(SocketChannel target, long maxBytes) throws IOException {
+        if(channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+        long total = 0;
+        while(position < end && total < maxBytes) {
+            long written = channel.transferTo(position, Math.min(end - position, maxBytes - total), target);
+            if(written == 0) {
+                if(position >= channel.size()) {
+                    throw new IOException("File shrunk while sending: " + file);
+                }
+                break;
+            }
+            position += written;
+            total += written;
+        }
+        return total;
+    }
+
+    @Override
+    public long remaining() {
+        return end - position;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return null;
+    }
+
+    @Override
+    public long length() {
+        return count;
+    }
+
+    @Override
+    public long memorySize() {
+        return 0;
+    }
+
+    @Override
+    public void release(boolean written) {
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                LOGGER.log(Level.FINE, exception.getMessage(), exception);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Get the file of this region.
+     *
+     * @return the file
+     *
+     * @author Albert Veldman
+     */
+    public File getFile() {
+        return file;
+    }
+}
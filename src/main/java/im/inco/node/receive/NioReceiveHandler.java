@@ -0,0 +1,280 @@
+package im.inco.node.receive;
+
+import im.inco.node.admission.AdmissionControl;
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.metrics.NodeMetrics;
+import im.inco.node.receive.interfaces.IFrameHandler;
+import im.inco.shared.components.receivehandler.interfaces.IReceive;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receive service that serves the message and file port from selector threads instead of a thread per
+ * connection. The first loop runs on the thread that runs this handler and accepts the connections of both
+ * ports; with more than one loop it hands them round robin to all loops, each running on a thread of its own.
+ * All loops stop when the thread running this handler is interrupted. More port pairs, each passing its frames
+ * to a handler of its own, can be bound on the same loops with listen.
+ *
+ * @author Albert Veldman
+ */
+public class NioReceiveHandler implements IReceive {
+    /**
+     * Maximum number of pending connections per port
+     */
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(NioReceiveHandler.class.getName());
+
+    /**
+     * Port used to receive messages
+     */
+    private final int messagePort;
+
+    /**
+     * Port used to receive files
+     */
+    private final int filePort;
+
+    /**
+     * Handler that receives the decoded frames
+     */
+    private final IFrameHandler handler;
+
+    /**
+     * Limits for the writes to the connections
+     */
+    private final OutboundOptions outboundOptions;
+
+    /**
+     * Pool the read buffers of both ports are leased from
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * Instrumentation of both ports
+     */
+    private final NodeMetrics metrics;
+
+    /**
+     * Admission control for the connections of both ports
+     */
+    private final AdmissionControl admission;
+
+    /**
+     * Number of loops serving the connections
+     */
+    private final int receiveLoops;
+
+    /**
+     * Loops serving both ports, the first one accepts the connections, null when setup failed
+     */
+    private volatile SelectorLoop[] loops;
+
+    /**
+     * Index of the loop that gets the next outgoing connection
+     */
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    /**
+     * Creates the handler, call setupHandler before running it.
+     *
+     * @param messagePort port used to receive messages
+     * @param filePort port used to receive files
+     * @param handler handler that receives the decoded frames
+     * @param outboundOptions limits for the writes to the connections
+     * @param bufferPool pool the read buffers of both ports are leased from
+     * @param metrics instrumentation of both ports
+     * @param admission admission control for the connections of both ports
+     * @param receiveLoops number of loops serving the connections
+     *
+     * @author Albert Veldman
+     */
+    public NioReceiveHandler(int messagePort, int filePort, IFrameHandler handler, OutboundOptions outboundOptions,
+                             BufferPool bufferPool, NodeMetrics metrics, AdmissionControl admission,
+                             int receiveLoops) {
+        this.messagePort = messagePort;
+        this.filePort = filePort;
+        this.handler = handler;
+        this.outboundOptions = outboundOptions;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.receiveLoops = receiveLoops;
+    }
+
+    /**
+     * Creates the loops and binds the message and file port.
+     *
+     * @author Albert Veldman
+     */
+    @Override
+    public void setupHandler() {
+        try {
+            SelectorLoop[] created = new SelectorLoop[receiveLoops];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new SelectorLoop(handler, outboundOptions, bufferPool, metrics, admission);
+            }
+            if(created.length > 1) {
+                created[0].shardTo(created);
+            }
+            created[0].listen(bind(messagePort), PortType.MESSAGE);
+            created[0].listen(bind(filePort), PortType.FILE);
+            loops = created;
+        } catch (IOException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+            loops = null;
+        }
+    }
+
+    /**
+     * Starts the other loops and runs the first loop until the thread is interrupted or the loop is drained,
+     * then waits for the other loops to stop.
+     *
+     * @author Albert Veldman
+     */
+    @Override
+    public void run() {
+        if(loops == null) {
+            return;
+        }
+        Thread[] threads = new Thread[loops.length - 1];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(loops[i + 1], "node-loop-" + (i + 1));
+            threads[i].start();
+        }
+        try {
+            loops[0].run();
+        } finally {
+            stopLoops(threads);
+        }
+    }
+
+    /**
+     * Binds another message and file port on the loops of this handler. The connections of these ports are
+     * served like the others, but their frames are passed to the given handler. Can be called from any thread
+     * once the handler is set up.
+     *
+     * @param extraMessagePort port used to receive messages
+     * @param extraFilePort port used to receive files
+     * @param frameHandler handler that receives the decoded frames of both ports
+     *
+     * @throws IOException when a port can't be bound, neither port is bound then
+     * @throws IllegalStateException when the loops are not set up
+     *
+     * @author Albert Veldman
+     */
+    public void listen(int extraMessagePort, int extraFilePort, IFrameHandler frameHandler) throws IOException {
+        SelectorLoop[] current = loops;
+        if(current == null) {
+            throw new IllegalStateException("Receive loops are not set up");
+        }
+        ServerSocketChannel messageServer = bind(extraMessagePort);
+        ServerSocketChannel fileServer;
+        try {
+            fileServer = bind(extraFilePort);
+        } catch (IOException exception) {
+            messageServer.close();
+            throw exception;
+        }
+        current[0].listen(messageServer, PortType.MESSAGE, frameHandler);
+        current[0].listen(fileServer, PortType.FILE, frameHandler);
+    }
+
+    /**
+     * Lets one of the loops serve a connection this node opened to the message port of another node, in turn.
+     * The connection counts against the connection cap like an accepted one. Can be called from any thread.
+     *
+     * @param channel connected channel
+     *
+     * @return false when the loops are not set up or the connection cap is reached, the channel is then not
+     * closed
+     *
+     * @author Albert Veldman
+     */
+    public boolean connect(SocketChannel channel) {
+        SelectorLoop[] current = loops;
+        if(current == null || !admission.admitConnection()) {
+            return false;
+        }
+        int index = (nextLoop.getAndIncrement() & Integer.MAX_VALUE) % current.length;
+        current[index].adopt(channel, PortType.MESSAGE);
+        return true;
+    }
+
+    /**
+     * Drains the connections of all loops, see SelectorLoop.drain. The thread running this handler ends once
+     * every loop stopped.
+     *
+     * @param timeoutMillis time the connections get to drain
+     *
+     * @author Albert Veldman
+     */
+    public void drain(long timeoutMillis) {
+        if(loops == null) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (SelectorLoop loop : loops) {
+            loop.drain(deadline);
+        }
+    }
+
+    /**
+     * Waits until the other loops closed their connections. When the thread running this handler was
+     * interrupted the other loops are interrupted as well, otherwise they are draining.
+     *
+     * @param threads threads of the other loops
+     *
+     * @author Albert Veldman
+     */
+    private void stopLoops(Thread[] threads) {
+        if(Thread.currentThread().isInterrupted()) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while(thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException exception) {
+                    interrupted = true;
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Opens a non-blocking server channel on the given port.
+     *
+     * @param port port to bind
+     *
+     * @return the bound server channel
+     *
+     * @throws IOException when the port can't be bound
+     *
+     * @author Albert Veldman
+     */
+    private ServerSocketChannel bind(int port) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        return server;
+    }
+}
@@ -0,0 +1,114 @@
+package im.inco.node.receive;
+
+/**
+ * Limits for batching and buffering the writes to a connection.
+ *
+ * @author Albert Veldman
+ */
+public class OutboundOptions {
+    /**
+     * Largest linger time that can be configured
+     */
+    public static final int MAX_LINGER_MILLIS = 1000;
+
+    /**
+     * Maximum number of buffers written with one gathering write
+     */
+    private final int maxBatchMessages;
+
+    /**
+     * Maximum number of bytes written with one gathering write
+     */
+    private final int maxBatchBytes;
+
+    /**
+     * Time a write may wait for more writes to the same connection before it is flushed, 0 flushes at the end
+     * of the current loop iteration
+     */
+    private final int lingerMillis;
+
+    /**
+     * Pending bytes above which a connection stops being writable
+     */
+    private final long maxPendingBytes;
+
+    /**
+     * Creates outbound options.
+     *
+     * @param maxBatchMessages maximum number of buffers written with one gathering write
+     * @param maxBatchBytes maximum number of bytes written with one gathering write
+     * @param lingerMillis time a write may wait for more writes before it is flushed
+     * @param maxPendingBytes pending bytes above which a connection stops being writable
+     *
+     * @throws IllegalArgumentException when a value is out of range
+     *
+     * @author Albert Veldman
+     */
+    public OutboundOptions(int maxBatchMessages, int maxBatchBytes, int lingerMillis, long maxPendingBytes) {
+        if(maxBatchMessages < 1 || maxBatchBytes < 1 || maxPendingBytes < 1) {
+            throw new IllegalArgumentException("Batch and pending limits must be positive");
+        }
+        if(lingerMillis < 0 || lingerMillis > MAX_LINGER_MILLIS) {
+            throw new IllegalArgumentException("Linger time must be between 0 and " + MAX_LINGER_MILLIS + " ms");
+        }
+        this.maxBatchMessages = maxBatchMessages;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerMillis = lingerMillis;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * Creates the default options: batches of 64 buffers or 256 KB, no linger and 4 MB pending per connection.
+     *
+     * @return default options
+     *
+     * @author Albert Veldman
+     */
+    public static OutboundOptions defaults() {
+        return new OutboundOptions(64, 256 * 1024, 0, 4 * 1024 * 1024);
+    }
+
+    /**
+     * Get the maximum number of buffers written with one gathering write.
+     *
+     * @return maximum batch size in buffers
+     *
+     * @author Albert Veldman
+     */
+    public int getMaxBatchMessages() {
+        return maxBatchMessages;
+    }
+
+    /**
+     * Get the maximum number of bytes written with one gathering write.
+     *
+     * @return maximum batch size in bytes
+     *
+     * @author Albert Veldman
+     */
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * Get the time a write may wait for more writes before it is flushed.
+     *
+     * @return linger time in milliseconds
+     *
+     * @author Albert Veldman
+     */
+    public int getLingerMillis() {
+        return lingerMillis;
+    }
+
+    /**
+     * Get the pending bytes above which a connection stops being writable.
+     *
+     * @return maximum pending bytes
+     *
+     * @author Albert Veldman
+     */
+    public long getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+}
@@ -0,0 +1,11 @@
+package im.inco.node.receive;
+
+/**
+ * The node port a connection was accepted on.
+ *
+ * @author Albert Veldman
+ */
+public enum PortType {
+    MESSAGE,
+    FILE
+}
@@ -0,0 +1,38 @@
+package im.inco.node.receive;
+
+/**
+ * Available implementations of the receive service.
+ *
+ * @author Albert Veldman
+ */
+public enum ReceiveEngine {
+    /**
+     * The ReceiveHandler of the shared libraries, one blocking listener per port.
+     */
+    LEGACY,
+
+    /**
+     * Selector based engine that serves all connections from a fixed set of threads.
+     */
+    NIO;
+
+    /**
+     * Returns the engine that belongs to the given command line value.
+     *
+     * @param value value of the --receive-engine option
+     *
+     * @return the matching engine
+     *
+     * @throws IllegalArgumentException when no engine matches the value
+     *
+     * @author Albert Veldman
+     */
+    public static ReceiveEngine fromOption(String value) {
+        for (ReceiveEngine engine : values()) {
+            if(engine.name().equalsIgnoreCase(value)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown receive engine: " + value);
+    }
+}
@@ -0,0 +1,654 @@
+package im.inco.node.receive;
+
+import im.inco.node.admission.AdmissionControl;
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.metrics.NodeMetrics;
+import im.inco.node.metrics.PortMetrics;
+import im.inco.node.protocol.FrameDecoder;
+import im.inco.node.receive.interfaces.IFrameHandler;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Event loop that accepts connections and serves all of their I/O from a single thread. A loop can hand the
+ * connections it accepts to a set of loops, so the I/O of a node is spread over several threads while every
+ * connection stays on the loop that adopted it.
+ *
+ * <p>The selected keys are served by traffic class: accepts first, then the message connections, then the
+ * file connections. A message that arrives while files are being transferred therefore waits for no more than
+ * one quantum of every file connection of its loop.
+ *
+ * <p>A server channel can have a frame handler of its own, so one set of loops can serve the ports of several
+ * node identities while each identity only sees the frames of its own connections.
+ *
+ * @author Albert Veldman
+ */
+public class SelectorLoop implements Runnable {
+    /**
+     * Largest frame accepted on the message port
+     */
+    public static final int MAX_MESSAGE_FRAME_LENGTH = 1024 * 1024;
+
+    /**
+     * Largest frame accepted on the file port, file contents follow the frame and are not part of it
+     */
+    public static final int MAX_FILE_FRAME_LENGTH = 64 * 1024;
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(SelectorLoop.class.getName());
+
+    /**
+     * Selector of this loop
+     */
+    private final Selector selector;
+
+    /**
+     * Handler that receives the decoded frames of the connections of this loop, unless their listener has a
+     * handler of its own
+     */
+    private final IFrameHandler handler;
+
+    /**
+     * Tasks submitted from other threads, run by the loop before it selects
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Timers ordered by deadline, only used by the loop thread
+     */
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+
+    /**
+     * Selected keys of file connections, served after the other keys, only used by the loop thread
+     */
+    private final List<SelectionKey> bulkKeys = new ArrayList<>();
+
+    /**
+     * Limits for the writes of the connections of this loop
+     */
+    private final OutboundOptions outboundOptions;
+
+    /**
+     * Pool the read buffers of the connections of this loop are leased from
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * Instrumentation shared with the other loops of the node
+     */
+    private final NodeMetrics metrics;
+
+    /**
+     * Admission control for the accepted connections and their frames, shared with the other loops
+     */
+    private final AdmissionControl admission;
+
+    /**
+     * Thread running the loop
+     */
+    private volatile Thread thread;
+
+    /**
+     * Loops accepted connections are handed to, null when this loop serves them itself
+     */
+    private volatile SelectorLoop[] shards;
+
+    /**
+     * Index of the loop that gets the next accepted connection, only used by the loop thread
+     */
+    private int nextShard;
+
+    /**
+     * Set once the loop drains its connections before it stops, only used by the loop thread
+     */
+    private boolean draining;
+
+    /**
+     * Creates a loop with its own selector.
+     *
+     * @param handler handler that receives the decoded frames, unless a listener has a handler of its own
+     * @param outboundOptions limits for the writes of the connections of this loop
+     * @param bufferPool pool the read buffers of the connections are leased from
+     * @param metrics instrumentation shared with the other loops of the node
+     * @param admission admission control shared with the other loops of the node
+     *
+     * @throws IOException when the selector can't be opened
+     *
+     * @author Albert Veldman
+     */
+    public SelectorLoop(IFrameHandler handler, OutboundOptions outboundOptions, BufferPool bufferPool,
+                        NodeMetrics metrics, AdmissionControl admission) throws IOException {
+        this.handler = handler;
+        this.outboundOptions = outboundOptions;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Lets this loop accept connections on the given server channel.
+     *
+     * @param server bound, non-blocking server channel
+     * @param portType port the server channel listens on
+     *
+     * @author Albert Veldman
+     */
+    public void listen(ServerSocketChannel server, PortType portType) {
+        listen(server, portType, handler);
+    }
+
+    /**
+     * Lets this loop accept connections on the given server channel and pass their frames to the given handler.
+     *
+     * @param server bound, non-blocking server channel
+     * @param portType port the server channel listens on
+     * @param frameHandler handler that receives the decoded frames of the accepted connections
+     *
+     * @author Albert Veldman
+     */
+    public void listen(final ServerSocketChannel server, PortType portType, IFrameHandler frameHandler) {
+        final Listener listener = new Listener(portType, frameHandler);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.register(selector, SelectionKey.OP_ACCEPT, listener);
+                } catch (IOException exception) {
+                    LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+                }
+            }
+        });
+    }
+
+    /**
+     * Hands the connections accepted by this loop to the given loops in turn. This loop may be one of them.
+     *
+     * @param loops loops that serve the accepted connections
+     *
+     * @author Albert Veldman
+     */
+    public void shardTo(SelectorLoop[] loops) {
+        shards = loops.clone();
+    }
+
+    /**
+     * Lets this loop serve a connection accepted by another loop.
+     *
+     * @param channel accepted channel
+     * @param portType port the channel was accepted on
+     *
+     * @author Albert Veldman
+     */
+    public void adopt(SocketChannel channel, PortType portType) {
+        adopt(channel, portType, handler);
+    }
+
+    /**
+     * Lets this loop serve a connection accepted by another loop and pass its frames to the given handler.
+     *
+     * @param channel accepted channel
+     * @param portType port the channel was accepted on
+     * @param frameHandler handler that receives the decoded frames of the connection
+     *
+     * @author Albert Veldman
+     */
+    public void adopt(final SocketChannel channel, final PortType portType, final IFrameHandler frameHandler) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                register(channel, portType, frameHandler);
+            }
+        });
+    }
+
+    /**
+     * Stops accepting connections and stops reading from the connections of this loop, then closes every
+     * connection once its pending writes are written. Uploads that are being received are read until they are
+     * complete. Connections that are not drained when the deadline passes hand their pending frames to the
+     * frame handler. The loop stops when all connections are closed.
+     *
+     * @param deadlineNanos System.nanoTime() at which the remaining connections are closed
+     *
+     * @author Albert Veldman
+     */
+    public void drain(final long deadlineNanos) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                startDrain(deadlineNanos);
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the loop thread.
+     *
+     * @param task task to run
+     *
+     * @author Albert Veldman
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if(!inLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs a task on the loop thread after the given delay. Must be called from the loop thread.
+     *
+     * @param task task to run
+     * @param delayMillis delay in milliseconds
+     *
+     * @author Albert Veldman
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        timers.add(new Timer(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis), task));
+    }
+
+    /**
+     * Get whether the calling thread is the loop thread.
+     *
+     * @return true when called from the loop thread
+     *
+     * @author Albert Veldman
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Selects and dispatches events until the thread is interrupted, then closes all channels.
+     *
+     * @author Albert Veldman
+     */
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        try {
+            while(!thread.isInterrupted()) {
+                runTasks();
+                runTimers();
+                if(draining && closeDrained()) {
+                    break;
+                }
+                select();
+                processSelectedKeys();
+            }
+        } catch (IOException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * Closes the server channels, stops reading from all connections and schedules the hand off of the
+     * connections that are not drained at the deadline.
+     *
+     * @param deadlineNanos System.nanoTime() at which the remaining connections are closed
+     *
+     * @author Albert Veldman
+     */
+    private void startDrain(long deadlineNanos) {
+        draining = true;
+        for (SelectionKey key : selector.keys()) {
+            if(!key.isValid()) {
+                continue;
+            }
+            if(key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).stopReading();
+                continue;
+            }
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException exception) {
+                LOGGER.log(Level.FINE, exception.getMessage(), exception);
+            }
+        }
+        timers.add(new Timer(deadlineNanos, new Runnable() {
+            @Override
+            public void run() {
+                handOffAll();
+            }
+        }));
+    }
+
+    /**
+     * Closes every connection that is drained.
+     *
+     * @return true when no connection is left
+     *
+     * @author Albert Veldman
+     */
+    private boolean closeDrained() {
+        boolean remaining = false;
+        for (SelectionKey key : selector.keys()) {
+            if(!key.isValid() || !(key.attachment() instanceof Connection)) {
+                continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            if(connection.isDrained()) {
+                connection.close();
+            }
+            else {
+                remaining = true;
+            }
+        }
+        return !remaining;
+    }
+
+    /**
+     * Hands off the pending frames of every connection that is left and closes it.
+     *
+     * @author Albert Veldman
+     */
+    private void handOffAll() {
+        int count = 0;
+        for (SelectionKey key : selector.keys()) {
+            if(key.isValid() && key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).handOff();
+                count++;
+            }
+        }
+        if(count > 0) {
+            LOGGER.log(Level.WARNING, count + " connections not drained before the deadline");
+        }
+    }
+
+    /**
+     * Runs all tasks that were submitted to this loop.
+     *
+     * @author Albert Veldman
+     */
+    private void runTasks() {
+        Runnable task;
+        while((task = tasks.poll()) != null) {
+            runTask(task);
+        }
+    }
+
+    /**
+     * Runs all timers whose deadline passed.
+     *
+     * @author Albert Veldman
+     */
+    private void runTimers() {
+        long now = System.nanoTime();
+        while(!timers.isEmpty() && timers.peek().deadline - now <= 0) {
+            runTask(timers.poll().task);
+        }
+    }
+
+    /**
+     * Runs a task or timer. A task that fails is logged, so it doesn't end the loop and close every connection
+     * of the loop.
+     *
+     * @param task the task
+     *
+     * @author Albert Veldman
+     */
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Waits for events, but not longer than until the next timer is due.
+     *
+     * @throws IOException when selecting fails
+     *
+     * @author Albert Veldman
+     */
+    private void select() throws IOException {
+        if(!tasks.isEmpty()) {
+            selector.selectNow();
+        }
+        else if(timers.isEmpty()) {
+            selector.select();
+        }
+        else {
+            long remaining = timers.peek().deadline - System.nanoTime();
+            if(remaining > 0) {
+                // rounded up, a timer less than a millisecond away would otherwise spin on selectNow
+                selector.select(TimeUnit.NANOSECONDS.toMillis(remaining + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+            }
+            else {
+                selector.selectNow();
+            }
+        }
+    }
+
+    /**
+     * Dispatches the keys selected by the last select call. Accepts are served right away and before the
+     * connections; the keys of file connections are served after all other keys.
+     *
+     * @author Albert Veldman
+     */
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while(iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if(!key.isValid()) {
+                continue;
+            }
+            if(key.isAcceptable()) {
+                accept((ServerSocketChannel) key.channel(), (Listener) key.attachment());
+            }
+            else if(((Connection) key.attachment()).getTrafficClass() == TrafficClass.BULK) {
+                bulkKeys.add(key);
+            }
+            else {
+                process(key);
+            }
+        }
+        for (SelectionKey key : bulkKeys) {
+            if(key.isValid()) {
+                process(key);
+            }
+        }
+        bulkKeys.clear();
+    }
+
+    /**
+     * Dispatches the events of a connection key.
+     *
+     * @param key selected key of a connection
+     *
+     * @author Albert Veldman
+     */
+    private void process(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            if(key.isReadable()) {
+                connection.onReadable();
+            }
+            if(key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+            connection.close();
+        } catch (RuntimeException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+            connection.close();
+        }
+    }
+
+    /**
+     * Accepts all pending connections of a server channel. Connections above the connection cap are closed
+     * before anything is read from them.
+     *
+     * @param server server channel with pending connections
+     * @param listener port and frame handler of the server channel
+     *
+     * @author Albert Veldman
+     */
+    private void accept(ServerSocketChannel server, Listener listener) {
+        try {
+            SocketChannel channel;
+            while((channel = server.accept()) != null) {
+                if(!admission.admitConnection()) {
+                    closeRejected(channel);
+                    continue;
+                }
+                SelectorLoop shard = nextShard();
+                if(shard == this) {
+                    register(channel, listener.portType, listener.handler);
+                }
+                else {
+                    shard.adopt(channel, listener.portType, listener.handler);
+                }
+            }
+        } catch (IOException exception) {
+            LOGGER.log(Level.WARNING, exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Closes a connection that was not admitted.
+     *
+     * @param channel accepted channel
+     *
+     * @author Albert Veldman
+     */
+    private void closeRejected(SocketChannel channel) {
+        try {
+            channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            channel.close();
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Picks the loop that serves the next accepted connection, round robin over the shards.
+     *
+     * @return the loop
+     *
+     * @author Albert Veldman
+     */
+    private SelectorLoop nextShard() {
+        SelectorLoop[] loops = shards;
+        if(loops == null) {
+            return this;
+        }
+        if(nextShard >= loops.length) {
+            nextShard = 0;
+        }
+        return loops[nextShard++];
+    }
+
+    /**
+     * Registers an accepted channel with this loop.
+     *
+     * @param channel accepted channel
+     * @param portType port the channel was accepted on
+     * @param frameHandler handler that receives the decoded frames of the connection
+     *
+     * @author Albert Veldman
+     */
+    private void register(SocketChannel channel, PortType portType, IFrameHandler frameHandler) {
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            int maxFrameLength = portType == PortType.MESSAGE ? MAX_MESSAGE_FRAME_LENGTH : MAX_FILE_FRAME_LENGTH;
+            PortMetrics portMetrics = metrics.getPort(portType);
+            Connection connection = new Connection(channel, portType, this, frameHandler,
+                    new FrameDecoder(maxFrameLength, bufferPool), outboundOptions, portMetrics, admission);
+            connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            metrics.connectionAccepted(portType);
+            if(draining) {
+                connection.stopReading();
+            }
+        } catch (IOException exception) {
+            LOGGER.log(Level.WARNING, exception.getMessage(), exception);
+            admission.connectionClosed();
+            try {
+                channel.close();
+            } catch (IOException closeException) {
+                LOGGER.log(Level.FINE, closeException.getMessage(), closeException);
+            }
+        }
+    }
+
+    /**
+     * Closes all channels registered with this loop and the selector itself. Tasks that are still queued run
+     * first, so connections handed to this loop while it stopped are closed as well.
+     *
+     * @author Albert Veldman
+     */
+    private void closeAll() {
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            if(key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+            else {
+                try {
+                    key.channel().close();
+                } catch (IOException exception) {
+                    LOGGER.log(Level.FINE, exception.getMessage(), exception);
+                }
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * The port a server channel listens on and the handler of the connections it accepts.
+     */
+    private static class Listener {
+        private final PortType portType;
+        private final IFrameHandler handler;
+
+        private Listener(PortType portType, IFrameHandler handler) {
+            this.portType = portType;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * A task that runs once its deadline passed.
+     */
+    private static class Timer implements Comparable<Timer> {
+        private final long deadline;
+        private final Runnable task;
+
+        private Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+}
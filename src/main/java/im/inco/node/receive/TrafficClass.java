@@ -0,0 +1,27 @@
+package im.inco.node.receive;
+
+/**
+ * The class of traffic a selector loop serves in priority order. In every pass of a loop the accepts are
+ * served first, then the message connections, then the file connections, each of which may move no more than
+ * a fixed quantum of bytes before the next file connection is served.
+ *
+ * @author Albert Veldman
+ */
+public enum TrafficClass {
+    CONTROL,
+    CHAT,
+    BULK;
+
+    /**
+     * Get the class of the connections accepted on a port.
+     *
+     * @param portType port the connection was accepted on
+     *
+     * @return CHAT for the message port, BULK for the file port
+     *
+     * @author Albert Veldman
+     */
+    public static TrafficClass of(PortType portType) {
+        return portType == PortType.FILE ? BULK : CHAT;
+    }
+}
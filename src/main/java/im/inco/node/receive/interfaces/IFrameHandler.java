@@ -0,0 +1,57 @@
+package im.inco.node.receive.interfaces;
+
+import im.inco.node.protocol.Frame;
+import im.inco.node.receive.Connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the frames decoded by the receive engine. Methods are called on the I/O thread that owns the
+ * connection, so implementations should not block.
+ *
+ * @author Albert Veldman
+ */
+public interface IFrameHandler {
+    /**
+     * Called for every frame that was read from a connection.
+     *
+     * @param connection connection the frame was read from
+     * @param frame the decoded frame
+     *
+     * @throws IOException when the frame can't be handled, the connection is closed afterwards
+     *
+     * @author Albert Veldman
+     */
+    void onFrame(Connection connection, Frame frame) throws IOException;
+
+    /**
+     * Called when a connection that stopped being writable has flushed enough of its pending writes to accept
+     * new writes again.
+     *
+     * @param connection connection that is writable again
+     *
+     * @author Albert Veldman
+     */
+    void onWritable(Connection connection);
+
+    /**
+     * Called for every frame that was queued for a connection but is not written because the node shuts down,
+     * before the connection is closed. Control frames are passed as well; the handler decides what to keep.
+     *
+     * @param connection connection the frame was queued for
+     * @param frame the complete encoded frame
+     *
+     * @author Albert Veldman
+     */
+    void onUndelivered(Connection connection, ByteBuffer frame);
+
+    /**
+     * Called once when a connection is closed.
+     *
+     * @param connection the closed connection
+     *
+     * @author Albert Veldman
+     */
+    void onClosed(Connection connection);
+}
@@ -0,0 +1,73 @@
+package im.inco.node.receive.interfaces;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Something that is queued to be written to a connection.
+ *
+ * @author Albert Veldman
+ */
+public interface IOutbound {
+    /**
+     * Get the buffer of this write when it is a plain buffer, so it can be combined with other buffers into
+     * gathering writes.
+     *
+     * @return buffer in read mode or null when this write is not a plain buffer
+     *
+     * @author Albert Veldman
+     */
+    ByteBuffer getBuffer();
+
+    /**
+     * Writes as much as the channel accepts, but no more than maxBytes.
+     *
+     * @param channel non-blocking channel to write to
+     * @param maxBytes maximum number of bytes to write
+     *
+     * @return number of bytes written
+     *
+     * @throws IOException when writing fails
+     *
+     * @author Albert Veldman
+     */
+    long writeTo(SocketChannel channel, long maxBytes) throws IOException;
+
+    /**
+     * Get the number of bytes this write still has to put on the connection.
+     *
+     * @return remaining bytes, 0 when everything is written
+     *
+     * @author Albert Veldman
+     */
+    long remaining();
+
+    /**
+     * Get the number of bytes this write puts on the connection.
+     *
+     * @return length in bytes
+     *
+     * @author Albert Veldman
+     */
+    long length();
+
+    /**
+     * Get the number of bytes of memory this write holds until it is released. Used to limit the memory a
+     * slow endpoint can take up.
+     *
+     * @return bytes held in memory
+     *
+     * @author Albert Veldman
+     */
+    long memorySize();
+
+    /**
+     * Called once when this is fully written or when the connection closed before that.
+     *
+     * @param written true when everything was written
+     *
+     * @author Albert Veldman
+     */
+    void release(boolean written);
+}
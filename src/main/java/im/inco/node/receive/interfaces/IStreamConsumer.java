@@ -0,0 +1,63 @@
+package im.inco.node.receive.interfaces;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Consumes a fixed number of raw bytes that follow a frame, for example the body of a file. While a consumer
+ * is set on a connection the bytes are passed to it instead of the frame decoder.
+ *
+ * @author Albert Veldman
+ */
+public interface IStreamConsumer {
+    /**
+     * Get the number of bytes this consumer still expects.
+     *
+     * @return remaining bytes
+     *
+     * @author Albert Veldman
+     */
+    long remaining();
+
+    /**
+     * Consumes bytes that were already read from the connection.
+     *
+     * @param source bytes to consume, never more than remaining
+     *
+     * @throws IOException when the bytes can't be stored
+     *
+     * @author Albert Veldman
+     */
+    void write(ByteBuffer source) throws IOException;
+
+    /**
+     * Consumes the bytes that are available on the channel, never more than remaining or maxBytes.
+     *
+     * @param channel non-blocking channel to read from
+     * @param maxBytes maximum number of bytes to consume
+     *
+     * @return number of bytes consumed or -1 when the channel reached end of stream
+     *
+     * @throws IOException when reading or storing fails
+     *
+     * @author Albert Veldman
+     */
+    long transferFrom(SocketChannel channel, long maxBytes) throws IOException;
+
+    /**
+     * Called once all expected bytes are consumed.
+     *
+     * @throws IOException when the consumed bytes can't be handed on
+     *
+     * @author Albert Veldman
+     */
+    void complete() throws IOException;
+
+    /**
+     * Called when the connection closed before all bytes were consumed.
+     *
+     * @author Albert Veldman
+     */
+    void abort();
+}
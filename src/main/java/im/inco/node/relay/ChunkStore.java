@@ -0,0 +1,266 @@
+package im.inco.node.relay;
+
+import im.inco.node.protocol.ChunkManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content addressed store for the chunks of files offered in chunks. Every chunk is kept once under its
+ * SHA-256 hash, no matter how many files or recipients refer to it. A chunk is deleted as soon as the last
+ * file referring to it was delivered. Chunks that no file refers to yet belong to transfers that were
+ * interrupted, they are kept for the retention time so the transfer can be resumed.
+ *
+ * @author Albert Veldman
+ */
+public class ChunkStore {
+    /**
+     * Default time chunks no file refers to are kept
+     */
+    public static final long DEFAULT_RETENTION_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Digits of hexadecimal chunk names
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(ChunkStore.class.getName());
+
+    /**
+     * Directory holding the chunks
+     */
+    private final File directory;
+
+    /**
+     * Time chunks no file refers to are kept
+     */
+    private final long retentionMillis;
+
+    /**
+     * Number of kept or queued files referring to each chunk, by chunk name, guarded by this
+     */
+    private final Map<String, Integer> references = new HashMap<>();
+
+    /**
+     * Creates a chunk store, call open before using it.
+     *
+     * @param directory directory holding the chunks
+     * @param retentionMillis time chunks no file refers to are kept
+     *
+     * @author Albert Veldman
+     */
+    public ChunkStore(File directory, long retentionMillis) {
+        this.directory = directory;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Counts the references of the offers kept by the file relay and removes chunks that no offer refers to
+     * and that are older than the retention time.
+     *
+     * @param fileRelay file relay holding the kept offers
+     *
+     * @author Albert Veldman
+     */
+    public synchronized void open(FileRelay fileRelay) {
+        for (File offer : fileRelay.storedOffers()) {
+            try {
+                reference(ChunkManifest.decode(fileRelay.readOffer(offer).getPayload()));
+            } catch (IOException exception) {
+                LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+            }
+        }
+        long expired = System.currentTimeMillis() - retentionMillis;
+        File[] prefixes = directory.listFiles();
+        if(prefixes == null) {
+            return;
+        }
+        for (File prefix : prefixes) {
+            File[] chunks = prefix.listFiles();
+            if(chunks == null) {
+                continue;
+            }
+            for (File chunk : chunks) {
+                if(!references.containsKey(chunk.getName()) && chunk.lastModified() < expired) {
+                    delete(chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the chunks of a manifest that are not in the store.
+     *
+     * @param manifest manifest of the offered file
+     *
+     * @return indexes of the missing chunks
+     *
+     * @author Albert Veldman
+     */
+    public synchronized List<Integer> missing(ChunkManifest manifest) {
+        List<Integer> missing = new ArrayList<>();
+        List<byte[]> hashes = manifest.getHashes();
+        for (int i = 0; i < hashes.size(); i++) {
+            if(!file(hashes.get(i)).isFile()) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * References the chunks of a file that will be kept or delivered, so they stay in the store until release
+     * is called. Fails when a chunk is not in the store.
+     *
+     * @param manifest manifest of the file
+     *
+     * @return true when all chunks are in the store and were referenced
+     *
+     * @author Albert Veldman
+     */
+    public synchronized boolean retain(ChunkManifest manifest) {
+        if(!missing(manifest).isEmpty()) {
+            return false;
+        }
+        reference(manifest);
+        return true;
+    }
+
+    /**
+     * Drops the references of a file that was delivered or dropped, and deletes the chunks no file refers to
+     * anymore.
+     *
+     * @param manifest manifest of the file
+     *
+     * @author Albert Veldman
+     */
+    public synchronized void release(ChunkManifest manifest) {
+        for (byte[] hash : manifest.getHashes()) {
+            String name = hex(hash);
+            Integer count = references.get(name);
+            if(count == null) {
+                continue;
+            }
+            if(count > 1) {
+                references.put(name, count - 1);
+            }
+            else {
+                references.remove(name);
+                delete(file(hash));
+            }
+        }
+    }
+
+    /**
+     * Adds a received chunk to the store. The chunk is synced to disk and moved in place, or deleted when the
+     * store already holds it.
+     *
+     * @param upload file holding the chunk
+     * @param hash SHA-256 hash of the chunk
+     *
+     * @throws IOException when the chunk can't be stored
+     *
+     * @author Albert Veldman
+     */
+    void add(File upload, byte[] hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(upload.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        File chunk = file(hash);
+        synchronized (this) {
+            if(chunk.isFile()) {
+                delete(upload);
+                return;
+            }
+            File prefix = chunk.getParentFile();
+            if(!prefix.isDirectory() && !prefix.mkdirs()) {
+                throw new IOException("Could not create chunk directory " + prefix);
+            }
+            Files.move(upload.toPath(), chunk.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Get the file a chunk is stored in.
+     *
+     * @param hash SHA-256 hash of the chunk
+     *
+     * @return chunk file, which may not exist
+     *
+     * @author Albert Veldman
+     */
+    File file(byte[] hash) {
+        String name = hex(hash);
+        return new File(new File(directory, name.substring(0, 2)), name);
+    }
+
+    /**
+     * Get the number of chunks kept or queued files refer to.
+     *
+     * @return referenced chunks
+     *
+     * @author Albert Veldman
+     */
+    public synchronized int getReferencedChunks() {
+        return references.size();
+    }
+
+    /**
+     * Adds a reference to every chunk of a manifest. Caller holds the lock of this store.
+     *
+     * @param manifest manifest of the file
+     *
+     * @author Albert Veldman
+     */
+    private void reference(ChunkManifest manifest) {
+        for (byte[] hash : manifest.getHashes()) {
+            String name = hex(hash);
+            Integer count = references.get(name);
+            references.put(name, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Deletes a chunk file.
+     *
+     * @param file file to delete
+     *
+     * @author Albert Veldman
+     */
+    private void delete(File file) {
+        if(!file.delete() && file.exists()) {
+            LOGGER.log(Level.WARNING, "Could not delete " + file);
+        }
+    }
+
+    /**
+     * Returns the hexadecimal form of a hash.
+     *
+     * @param hash the hash
+     *
+     * @return lower case hexadecimal string
+     *
+     * @author Albert Veldman
+     */
+    private static String hex(byte[] hash) {
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
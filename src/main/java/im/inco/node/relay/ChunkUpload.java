@@ -0,0 +1,178 @@
+package im.inco.node.relay;
+
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.buffer.PooledBuffer;
+import im.inco.node.protocol.ChunkHeader;
+import im.inco.node.receive.interfaces.IStreamConsumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams a chunk from the sending connection into a staged file while hashing it, and adds it to the chunk
+ * store once it is complete and its hash matches. A chunk with the wrong hash is dropped, the sender sends it
+ * again after its next offer.
+ *
+ * @author Albert Veldman
+ */
+class ChunkUpload implements IStreamConsumer {
+    /**
+     * Size of the buffer chunk bytes are read into
+     */
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(ChunkUpload.class.getName());
+
+    /**
+     * Store the chunk is added to
+     */
+    private final ChunkStore chunkStore;
+
+    /**
+     * File relay the staged file belongs to
+     */
+    private final FileRelay fileRelay;
+
+    /**
+     * Header of the chunk
+     */
+    private final ChunkHeader header;
+
+    /**
+     * Staged file
+     */
+    private final File file;
+
+    /**
+     * Channel of the staged file
+     */
+    private final FileChannel channel;
+
+    /**
+     * Hash of the bytes received so far
+     */
+    private final MessageDigest digest;
+
+    /**
+     * Buffer chunk bytes are read into, null once released
+     */
+    private PooledBuffer buffer;
+
+    /**
+     * Write position in the staged file
+     */
+    private long position;
+
+    /**
+     * Bytes of the chunk that are still expected
+     */
+    private long remaining;
+
+    /**
+     * Creates an upload.
+     *
+     * @param chunkStore store the chunk is added to
+     * @param fileRelay file relay to stage the chunk in
+     * @param bufferPool pool the transfer buffer is leased from
+     * @param header header of the chunk
+     *
+     * @throws IOException when the staged file can't be created
+     *
+     * @author Albert Veldman
+     */
+    ChunkUpload(ChunkStore chunkStore, FileRelay fileRelay, BufferPool bufferPool, ChunkHeader header)
+            throws IOException {
+        this.chunkStore = chunkStore;
+        this.fileRelay = fileRelay;
+        this.header = header;
+        this.remaining = header.getLength();
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException(exception);
+        }
+        this.file = fileRelay.createUploadFile();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        this.buffer = bufferPool.acquire(TRANSFER_BUFFER_SIZE);
+    }
+
+    @Override
+    public long remaining() {
+        return remaining;
+    }
+
+    @Override
+    public void write(ByteBuffer source) throws IOException {
+        digest.update(source.duplicate());
+        while(source.hasRemaining()) {
+            int written = channel.write(source, position);
+            position += written;
+            remaining -= written;
+        }
+    }
+
+    @Override
+    public long transferFrom(SocketChannel source, long maxBytes) throws IOException {
+        ByteBuffer target = buffer.buffer();
+        target.clear();
+        target.limit((int) Math.min(target.capacity(), Math.min(remaining, maxBytes)));
+        int read = source.read(target);
+        if(read <= 0) {
+            return read;
+        }
+        target.flip();
+        write(target);
+        return read;
+    }
+
+    @Override
+    public void complete() throws IOException {
+        close();
+        if(!Arrays.equals(digest.digest(), header.getHash())) {
+            LOGGER.log(Level.WARNING, "Dropped chunk with wrong hash");
+            fileRelay.delete(file);
+            return;
+        }
+        try {
+            chunkStore.add(file, header.getHash());
+        } catch (IOException exception) {
+            fileRelay.delete(file);
+            throw exception;
+        }
+    }
+
+    @Override
+    public void abort() {
+        close();
+        fileRelay.delete(file);
+    }
+
+    /**
+     * Closes the staged file and returns the transfer buffer.
+     *
+     * @author Albert Veldman
+     */
+    private void close() {
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+        }
+        if(buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+    }
+}
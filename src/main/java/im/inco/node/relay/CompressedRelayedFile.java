@@ -0,0 +1,250 @@
+package im.inco.node.relay;
+
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.buffer.PooledBuffer;
+import im.inco.node.compression.FileSignatures;
+import im.inco.node.compression.FrameCompressor;
+import im.inco.node.protocol.Frame;
+import im.inco.node.protocol.FrameType;
+import im.inco.node.receive.interfaces.IOutbound;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A staged or kept file that is being sent compressed to a recipient that negotiated a codec. The FILE frame
+ * at the start of the file is sent as COMPRESSED_FILE, then the body is compressed one block at a time into a
+ * pooled buffer while the connection takes it, so no more than one block is held in memory. Like RelayedFile
+ * the file is deleted once it is sent and kept for the recipient when the connection closes before that.
+ *
+ * @author Albert Veldman
+ */
+class CompressedRelayedFile implements IOutbound {
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(CompressedRelayedFile.class.getName());
+
+    /**
+     * File relay the file belongs to
+     */
+    private final FileRelay fileRelay;
+
+    /**
+     * Compressor of the blocks
+     */
+    private final FrameCompressor compressor;
+
+    /**
+     * Pool the block buffer is leased from
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * File to send
+     */
+    private final File file;
+
+    /**
+     * Nickname of the recipient
+     */
+    private final String recipient;
+
+    /**
+     * Channel of the file, opened on the first write so queued files don't hold file handles
+     */
+    private FileChannel channel;
+
+    /**
+     * Bytes that are ready to be written: the frame header or the current block
+     */
+    private PooledBuffer block;
+
+    /**
+     * Position of the next block in the file
+     */
+    private long position;
+
+    /**
+     * Size of the file
+     */
+    private long end;
+
+    /**
+     * Bytes written to the connection
+     */
+    private long written;
+
+    /**
+     * Creates a compressed relayed file.
+     *
+     * @param fileRelay file relay the file belongs to
+     * @param compressor compressor of the blocks
+     * @param bufferPool pool the block buffer is leased from
+     * @param file staged or kept file starting with the encoded FILE frame
+     * @param recipient nickname of the recipient
+     *
+     * @author Albert Veldman
+     */
+    CompressedRelayedFile(FileRelay fileRelay, FrameCompressor compressor, BufferPool bufferPool, File file,
+                          String recipient) {
+        this.fileRelay = fileRelay;
+        this.compressor = compressor;
+        this.bufferPool = bufferPool;
+        this.file = file;
+        this.recipient = recipient;
+    }
+
+    /**
+     * Returns whether the body of a staged or kept file is worth compressing.
+     *
+     * @param file file starting with the encoded FILE frame
+     *
+     * @return false when the body starts with the signature of a compressed format
+     *
+     * @throws IOException when the file can't be read
+     *
+     * @author Albert Veldman
+     */
+    static boolean isCompressible(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer length = ByteBuffer.allocate(Frame.LENGTH_FIELD_SIZE);
+            readFully(channel, length, 0);
+            ByteBuffer head = ByteBuffer.allocate(FileSignatures.HEAD_SIZE);
+            long start = Frame.LENGTH_FIELD_SIZE + length.getInt(0);
+            head.limit((int) Math.min(head.capacity(), Math.max(0, channel.size() - start)));
+            readFully(channel, head, start);
+            head.flip();
+            return !FileSignatures.isCompressed(head);
+        }
+    }
+
+    @Override
+    public long writeTo(SocketChannel target, long maxBytes) throws IOException {
+        if(channel == null) {
+            open();
+        }
+        ByteBuffer buffer = block.buffer();
+        long total = 0;
+        while(total < maxBytes) {
+            if(!buffer.hasRemaining()) {
+                if(position == end) {
+                    break;
+                }
+                int size = (int) Math.min(FrameCompressor.FILE_BLOCK_SIZE, end - position);
+                buffer.clear();
+                compressor.compressBlock(channel, position, size, buffer);
+                buffer.flip();
+                position += size;
+            }
+            int limit = buffer.limit();
+            buffer.limit((int) Math.min(limit, buffer.position() + maxBytes - total));
+            int count = target.write(buffer);
+            buffer.limit(limit);
+            if(count == 0) {
+                break;
+            }
+            total += count;
+        }
+        written += total;
+        return total;
+    }
+
+    @Override
+    public long remaining() {
+        if(block == null) {
+            return file.length();
+        }
+        return block.buffer().remaining() + end - position;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return null;
+    }
+
+    @Override
+    public long length() {
+        return written;
+    }
+
+    @Override
+    public long memorySize() {
+        return 0;
+    }
+
+    @Override
+    public void release(boolean written) {
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                LOGGER.log(Level.FINE, exception.getMessage(), exception);
+            }
+            channel = null;
+        }
+        if(block != null) {
+            block.release();
+            block = null;
+        }
+        if(written) {
+            fileRelay.delete(file);
+            return;
+        }
+        try {
+            fileRelay.keep(file, recipient);
+        } catch (IOException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Opens the file, leases the block buffer and fills it with the frame header, turned into COMPRESSED_FILE.
+     *
+     * @throws IOException when the file can't be read
+     *
+     * @author Albert Veldman
+     */
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        block = bufferPool.acquire(FrameCompressor.BLOCK_HEADER_SIZE + FrameCompressor.FILE_BLOCK_SIZE);
+        ByteBuffer buffer = block.buffer();
+        buffer.limit(Frame.LENGTH_FIELD_SIZE);
+        readFully(channel, buffer, 0);
+        int length = buffer.getInt(0);
+        if(length < 1 || length > buffer.capacity() - Frame.LENGTH_FIELD_SIZE) {
+            throw new IOException("Malformed staged file: " + file);
+        }
+        buffer.limit(Frame.LENGTH_FIELD_SIZE + length);
+        readFully(channel, buffer, 0);
+        buffer.put(Frame.LENGTH_FIELD_SIZE, FrameType.COMPRESSED_FILE.getCode());
+        buffer.flip();
+        position = buffer.limit();
+        end = channel.size();
+    }
+
+    /**
+     * Reads from a file until the buffer is full.
+     *
+     * @param channel channel of the file
+     * @param buffer buffer to fill from its position to its limit
+     * @param offset position in the file the buffer starts at
+     *
+     * @throws IOException when the file ends first or can't be read
+     *
+     * @author Albert Veldman
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package im.inco.node.relay;
+
+import im.inco.node.receive.Connection;
+import im.inco.node.receive.PortType;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of the endpoints connected to this node, keyed by nickname. Lookups are a single map read and
+ * updates replace the immutable route of an endpoint with compare-and-set, so readers never block and never
+ * see a half updated route. Iteration is weakly consistent: it never fails while endpoints connect or
+ * disconnect, but may or may not show those changes.
+ *
+ * @author Albert Veldman
+ */
+public class ConnectedEndpoints implements Iterable<EndpointRoute> {
+    /**
+     * Routes by nickname
+     */
+    private final ConcurrentMap<String, EndpointRoute> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Number of endpoints connected on the message port
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Returns the route of an endpoint.
+     *
+     * @param nickname nickname of the endpoint
+     *
+     * @return route or null when the endpoint is not connected
+     *
+     * @author Albert Veldman
+     */
+    public EndpointRoute get(String nickname) {
+        return routes.get(nickname);
+    }
+
+    /**
+     * Returns the connection of an endpoint on the given port.
+     *
+     * @param nickname nickname of the endpoint
+     * @param portType port type
+     *
+     * @return connection or null when the endpoint is not connected on that port
+     *
+     * @author Albert Veldman
+     */
+    public Connection getConnection(String nickname, PortType portType) {
+        EndpointRoute route = routes.get(nickname);
+        return route == null ? null : route.getConnection(portType);
+    }
+
+    /**
+     * Registers a connection for its nickname, replacing an older connection on the same port.
+     *
+     * @param connection connection that announced its nickname
+     *
+     * @author Albert Veldman
+     */
+    public void attach(Connection connection) {
+        String nickname = connection.getNickname();
+        PortType portType = connection.getPortType();
+        while(true) {
+            EndpointRoute current = routes.get(nickname);
+            if(current == null) {
+                if(routes.putIfAbsent(nickname, new EndpointRoute(nickname, null, null).with(portType, connection))
+                        == null) {
+                    updateSize(portType, null, connection);
+                    return;
+                }
+            }
+            else if(routes.replace(nickname, current, current.with(portType, connection))) {
+                updateSize(portType, current.getConnection(portType), connection);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a connection, unless it was already replaced by a newer connection of the same endpoint.
+     *
+     * @param connection closed connection
+     *
+     * @author Albert Veldman
+     */
+    public void detach(Connection connection) {
+        String nickname = connection.getNickname();
+        PortType portType = connection.getPortType();
+        while(true) {
+            EndpointRoute current = routes.get(nickname);
+            if(current == null || current.getConnection(portType) != connection) {
+                return;
+            }
+            EndpointRoute updated = current.with(portType, null);
+            boolean replaced = updated.isEmpty()
+                    ? routes.remove(nickname, current)
+                    : routes.replace(nickname, current, updated);
+            if(replaced) {
+                updateSize(portType, connection, null);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the number of endpoints connected on the message port.
+     *
+     * @return number of connected endpoints
+     *
+     * @author Albert Veldman
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the routes of all connected endpoints.
+     *
+     * @return route iterator
+     *
+     * @author Albert Veldman
+     */
+    @Override
+    public Iterator<EndpointRoute> iterator() {
+        return routes.values().iterator();
+    }
+
+    /**
+     * Keeps the size counter in sync after a route was replaced.
+     *
+     * @param portType port of the replaced connection
+     * @param previous connection before the update or null
+     * @param current connection after the update or null
+     *
+     * @author Albert Veldman
+     */
+    private void updateSize(PortType portType, Connection previous, Connection current) {
+        if(portType != PortType.MESSAGE) {
+            return;
+        }
+        if(previous == null && current != null) {
+            size.incrementAndGet();
+        }
+        else if(previous != null && current == null) {
+            size.decrementAndGet();
+        }
+    }
+}
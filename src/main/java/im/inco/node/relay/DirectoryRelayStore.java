@@ -0,0 +1,170 @@
+package im.inco.node.relay;
+
+import im.inco.node.relay.interfaces.IRelayStore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relay store that keeps every frame in its own file in a directory per recipient. A frame file is deleted
+ * when the frame is acknowledged.
+ *
+ * @author Albert Veldman
+ */
+public class DirectoryRelayStore implements IRelayStore {
+    /**
+     * Extension of the stored frame files
+     */
+    private static final String FRAME_EXTENSION = ".frame";
+
+    /**
+     * Root directory of the store
+     */
+    private final File directory;
+
+    /**
+     * Sequence that keeps frames stored in the same millisecond in order
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Frame files of the recipients that are being drained, oldest first, so a drain lists a directory once
+     * instead of once per window. Frames stored later sort after them and are listed when these are gone.
+     */
+    private final Map<String, ArrayDeque<File>> listed = new HashMap<>();
+
+    /**
+     * Creates a store in the given directory.
+     *
+     * @param directory root directory of the store, created when missing
+     *
+     * @author Albert Veldman
+     */
+    public DirectoryRelayStore(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void store(String recipient, ByteBuffer frame) throws IOException {
+        File recipientDirectory = recipientDirectory(directory, recipient);
+        if(!recipientDirectory.isDirectory() && !recipientDirectory.mkdirs()) {
+            throw new IOException("Could not create relay directory " + recipientDirectory);
+        }
+        String name = String.format("%019d-%019d", System.currentTimeMillis(), sequence.incrementAndGet());
+        try (FileOutputStream out = new FileOutputStream(new File(recipientDirectory, name + FRAME_EXTENSION))) {
+            ByteBuffer source = frame.duplicate();
+            while(source.hasRemaining()) {
+                out.getChannel().write(source);
+            }
+            out.getFD().sync();
+        }
+    }
+
+    @Override
+    public synchronized List<ByteBuffer> read(String recipient, int maxFrames, long maxBytes) throws IOException {
+        ArrayDeque<File> files = frameFiles(recipient);
+        List<ByteBuffer> frames = new ArrayList<>(Math.min(files.size(), maxFrames));
+        long bytes = 0;
+        for (File file : files) {
+            if(frames.size() == maxFrames || (!frames.isEmpty() && bytes + file.length() > maxBytes)) {
+                break;
+            }
+            try (FileInputStream in = new FileInputStream(file)) {
+                FileChannel channel = in.getChannel();
+                ByteBuffer frame = ByteBuffer.allocate((int) channel.size());
+                while(frame.hasRemaining() && channel.read(frame) != -1) {
+                    // keep reading until the whole frame is in memory
+                }
+                frame.flip();
+                frames.add(frame);
+                bytes += frame.remaining();
+            }
+        }
+        return frames;
+    }
+
+    @Override
+    public synchronized void acknowledge(String recipient, int count) throws IOException {
+        ArrayDeque<File> files = frameFiles(recipient);
+        for (int i = 0; i < count && !files.isEmpty(); i++) {
+            File file = files.poll();
+            if(!file.delete()) {
+                throw new IOException("Could not delete relayed frame " + file);
+            }
+        }
+        if(files.isEmpty()) {
+            listed.remove(recipient);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Returns the frame files of a recipient that are not acknowledged, oldest first. The directory is listed
+     * when no listed files are left.
+     *
+     * @param recipient nickname of the recipient
+     *
+     * @return the frame files, empty when nothing is stored
+     *
+     * @throws IOException when the nickname can't be used as a directory name
+     *
+     * @author Albert Veldman
+     */
+    private ArrayDeque<File> frameFiles(String recipient) throws IOException {
+        ArrayDeque<File> frameFiles = listed.get(recipient);
+        if(frameFiles != null && !frameFiles.isEmpty()) {
+            return frameFiles;
+        }
+        frameFiles = new ArrayDeque<>();
+        File[] files = recipientDirectory(directory, recipient).listFiles();
+        if(files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if(file.getName().endsWith(FRAME_EXTENSION)) {
+                    frameFiles.add(file);
+                }
+            }
+        }
+        if(frameFiles.isEmpty()) {
+            listed.remove(recipient);
+        }
+        else {
+            listed.put(recipient, frameFiles);
+        }
+        return frameFiles;
+    }
+
+    /**
+     * Returns the directory of a recipient.
+     *
+     * @param directory root directory
+     * @param recipient nickname of the recipient
+     *
+     * @return directory holding the frames of the recipient
+     *
+     * @throws IOException when the nickname can't be used as a directory name
+     *
+     * @author Albert Veldman
+     */
+    static File recipientDirectory(File directory, String recipient) throws IOException {
+        if(recipient.isEmpty() || recipient.contains(File.separator) || recipient.contains("/")
+                || recipient.startsWith(".")) {
+            throw new IOException("Invalid recipient nickname: " + recipient);
+        }
+        return new File(directory, recipient);
+    }
+}
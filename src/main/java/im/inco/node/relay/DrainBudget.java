@@ -0,0 +1,142 @@
+package im.inco.node.relay;
+
+import im.inco.node.relay.interfaces.IWindowWaiter;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Limits the memory held by the windows of stored messages that are being sent. Every drain sends one window
+ * at a time and reserves a window from the budget before it reads one; a drain that finds the budget used up
+ * waits in line and is handed the window that is released next. The budget is shared by all dispatchers of a
+ * node, so a reconnect storm holds at most the budget in memory however many endpoints come back at once.
+ *
+ * @author Albert Veldman
+ */
+public class DrainBudget {
+    /**
+     * Default maximum size of a window
+     */
+    public static final int DEFAULT_WINDOW_BYTES = 256 * 1024;
+
+    /**
+     * Default memory all windows may hold together
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Maximum number of messages in a window
+     */
+    static final int WINDOW_MESSAGES = 1024;
+
+    /**
+     * Maximum size of a window, a window holds at least one message however large it is
+     */
+    private final int windowBytes;
+
+    /**
+     * Memory all windows may hold together
+     */
+    private final long maxBytes;
+
+    /**
+     * Drains waiting for a window, in the order they asked
+     */
+    private final Queue<IWindowWaiter> waiting = new ArrayDeque<>();
+
+    /**
+     * Bytes reserved by the windows that are being sent
+     */
+    private long reservedBytes;
+
+    /**
+     * Creates a drain budget.
+     *
+     * @param windowBytes maximum size of a window
+     * @param maxBytes memory all windows may hold together, at least one window
+     *
+     * @throws IllegalArgumentException when a value is out of range
+     *
+     * @author Albert Veldman
+     */
+    public DrainBudget(int windowBytes, long maxBytes) {
+        if(windowBytes < 1 || maxBytes < windowBytes) {
+            throw new IllegalArgumentException("Drain window must be positive and fit in the drain budget");
+        }
+        this.windowBytes = windowBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Creates the default budget: windows of 256 KB and 64 MB for all windows together.
+     *
+     * @return default budget
+     *
+     * @author Albert Veldman
+     */
+    public static DrainBudget defaults() {
+        return new DrainBudget(DEFAULT_WINDOW_BYTES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Reserves a window, or queues the drain when the budget is used up or other drains are waiting already.
+     *
+     * @param waiter the drain, called once a window is passed to it
+     *
+     * @return true when the window is reserved
+     *
+     * @author Albert Veldman
+     */
+    synchronized boolean reserve(IWindowWaiter waiter) {
+        if(reservedBytes + windowBytes > maxBytes || !waiting.isEmpty()) {
+            waiting.add(waiter);
+            return false;
+        }
+        reservedBytes += windowBytes;
+        return true;
+    }
+
+    /**
+     * Releases a window. The window is passed to the drain that waits longest, and on to the next one when
+     * that drain has nothing to send anymore.
+     *
+     * @author Albert Veldman
+     */
+    void release() {
+        while(true) {
+            IWindowWaiter next;
+            synchronized (this) {
+                next = waiting.poll();
+                if(next == null) {
+                    reservedBytes -= windowBytes;
+                    return;
+                }
+            }
+            if(next.windowReserved()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the maximum size of a window.
+     *
+     * @return window size in bytes
+     *
+     * @author Albert Veldman
+     */
+    public int getWindowBytes() {
+        return windowBytes;
+    }
+
+    /**
+     * Get the memory all windows may hold together.
+     *
+     * @return budget in bytes
+     *
+     * @author Albert Veldman
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,115 @@
+package im.inco.node.relay;
+
+import im.inco.node.receive.Connection;
+import im.inco.node.receive.PortType;
+
+/**
+ * Routing info of a connected endpoint: its connections on the message and file port. Routes are immutable,
+ * the registry replaces a route when a connection is attached or detached.
+ *
+ * @author Albert Veldman
+ */
+public class EndpointRoute {
+    /**
+     * Nickname of the endpoint
+     */
+    private final String nickname;
+
+    /**
+     * Connection on the message port, null when not connected
+     */
+    private final Connection messageConnection;
+
+    /**
+     * Connection on the file port, null when not connected
+     */
+    private final Connection fileConnection;
+
+    /**
+     * Creates a route.
+     *
+     * @param nickname nickname of the endpoint
+     * @param messageConnection connection on the message port or null
+     * @param fileConnection connection on the file port or null
+     *
+     * @author Albert Veldman
+     */
+    EndpointRoute(String nickname, Connection messageConnection, Connection fileConnection) {
+        this.nickname = nickname;
+        this.messageConnection = messageConnection;
+        this.fileConnection = fileConnection;
+    }
+
+    /**
+     * Returns a copy of this route with the connection of the given port replaced.
+     *
+     * @param portType port of the connection
+     * @param connection new connection or null
+     *
+     * @return the new route
+     *
+     * @author Albert Veldman
+     */
+    EndpointRoute with(PortType portType, Connection connection) {
+        return portType == PortType.MESSAGE
+                ? new EndpointRoute(nickname, connection, fileConnection)
+                : new EndpointRoute(nickname, messageConnection, connection);
+    }
+
+    /**
+     * Get the connection on the given port.
+     *
+     * @param portType port type
+     *
+     * @return connection or null when not connected on that port
+     *
+     * @author Albert Veldman
+     */
+    public Connection getConnection(PortType portType) {
+        return portType == PortType.MESSAGE ? messageConnection : fileConnection;
+    }
+
+    /**
+     * Get whether the endpoint has no connections left.
+     *
+     * @return true when not connected on any port
+     *
+     * @author Albert Veldman
+     */
+    boolean isEmpty() {
+        return messageConnection == null && fileConnection == null;
+    }
+
+    /**
+     * Get the nickname of the endpoint.
+     *
+     * @return nickname
+     *
+     * @author Albert Veldman
+     */
+    public String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * Get the connection on the message port.
+     *
+     * @return connection or null when not connected
+     *
+     * @author Albert Veldman
+     */
+    public Connection getMessageConnection() {
+        return messageConnection;
+    }
+
+    /**
+     * Get the connection on the file port.
+     *
+     * @return connection or null when not connected
+     *
+     * @author Albert Veldman
+     */
+    public Connection getFileConnection() {
+        return fileConnection;
+    }
+}
@@ -0,0 +1,289 @@
+package im.inco.node.relay;
+
+import im.inco.node.protocol.Frame;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the files that pass through the file port on disk. Uploads are staged in the temp directory and
+ * files for offline endpoints are moved to a directory per recipient, so file contents never have to be
+ * held in memory. Files offered in chunks are kept as their CHUNK_OFFER frame, the chunks themselves are
+ * kept once in the chunk store.
+ *
+ * @author Albert Veldman
+ */
+public class FileRelay {
+    /**
+     * Extension of files that are still being uploaded
+     */
+    private static final String UPLOAD_EXTENSION = ".part";
+
+    /**
+     * Extension of files waiting for their recipient
+     */
+    private static final String RELAY_EXTENSION = ".file";
+
+    /**
+     * Extension of offers of chunked files waiting for their recipient
+     */
+    private static final String OFFER_EXTENSION = ".chunks";
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(FileRelay.class.getName());
+
+    /**
+     * Directory uploads are staged in
+     */
+    private final File tempDirectory;
+
+    /**
+     * Directory holding files for offline endpoints
+     */
+    private final File relayDirectory;
+
+    /**
+     * Sequence that keeps file names unique and in order
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Creates a file relay.
+     *
+     * @param tempDirectory directory uploads are staged in
+     * @param relayDirectory directory holding files for offline endpoints
+     *
+     * @author Albert Veldman
+     */
+    public FileRelay(File tempDirectory, File relayDirectory) {
+        this.tempDirectory = tempDirectory;
+        this.relayDirectory = relayDirectory;
+    }
+
+    /**
+     * Removes uploads that were left in the temp directory when the node stopped during a transfer.
+     *
+     * @author Albert Veldman
+     */
+    public void removeStaleUploads() {
+        File[] files = tempDirectory.listFiles();
+        if(files != null) {
+            for (File file : files) {
+                if(file.getName().endsWith(UPLOAD_EXTENSION)) {
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a new file to stage an upload in.
+     *
+     * @return the created file
+     *
+     * @throws IOException when the file can't be created
+     *
+     * @author Albert Veldman
+     */
+    File createUploadFile() throws IOException {
+        if(!tempDirectory.isDirectory() && !tempDirectory.mkdirs()) {
+            throw new IOException("Could not create temp directory " + tempDirectory);
+        }
+        File file = new File(tempDirectory, nextName() + UPLOAD_EXTENSION);
+        if(!file.createNewFile()) {
+            throw new IOException("Upload file already exists: " + file);
+        }
+        return file;
+    }
+
+    /**
+     * Keeps a file until the recipient connects. The file is synced to disk and moved to the directory of the
+     * recipient, unless it is already stored there.
+     *
+     * @param file file to keep
+     * @param recipient nickname of the recipient
+     *
+     * @throws IOException when the file can't be moved
+     *
+     * @author Albert Veldman
+     */
+    void keep(File file, String recipient) throws IOException {
+        move(file, recipient, RELAY_EXTENSION);
+    }
+
+    /**
+     * Keeps the offer of a chunked file until the recipient connects.
+     *
+     * @param offer encoded CHUNK_OFFER frame
+     * @param recipient nickname of the recipient
+     *
+     * @throws IOException when the offer can't be written
+     *
+     * @author Albert Veldman
+     */
+    void keepOffer(ByteBuffer offer, String recipient) throws IOException {
+        File file = createUploadFile();
+        try {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer source = offer.duplicate();
+                while(source.hasRemaining()) {
+                    channel.write(source);
+                }
+            }
+            move(file, recipient, OFFER_EXTENSION);
+        } catch (IOException exception) {
+            delete(file);
+            throw exception;
+        }
+    }
+
+    /**
+     * Reads a kept offer of a chunked file.
+     *
+     * @param file the kept offer
+     *
+     * @return the CHUNK_OFFER frame
+     *
+     * @throws IOException when the file can't be read or holds no valid frame
+     *
+     * @author Albert Veldman
+     */
+    Frame readOffer(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if(buffer.remaining() < Frame.LENGTH_FIELD_SIZE || buffer.getInt() != buffer.remaining()) {
+            throw new ProtocolException("Corrupt offer: " + file);
+        }
+        return Frame.decode(buffer, buffer.remaining());
+    }
+
+    /**
+     * Get whether a kept file is the offer of a chunked file.
+     *
+     * @param file kept file
+     *
+     * @return true for an offer
+     *
+     * @author Albert Veldman
+     */
+    boolean isOffer(File file) {
+        return file.getName().endsWith(OFFER_EXTENSION);
+    }
+
+    /**
+     * Returns the offers of chunked files kept for all recipients.
+     *
+     * @return kept offers
+     *
+     * @author Albert Veldman
+     */
+    List<File> storedOffers() {
+        List<File> offers = new ArrayList<>();
+        File[] recipients = relayDirectory.listFiles();
+        if(recipients == null) {
+            return offers;
+        }
+        for (File recipient : recipients) {
+            File[] files = recipient.listFiles();
+            if(files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if(isOffer(file)) {
+                    offers.add(file);
+                }
+            }
+        }
+        return offers;
+    }
+
+    /**
+     * Syncs a file to disk and moves it to the directory of the recipient, unless it is already stored there.
+     *
+     * @param file file to move
+     * @param recipient nickname of the recipient
+     * @param extension extension of the kept file
+     *
+     * @throws IOException when the file can't be moved
+     *
+     * @author Albert Veldman
+     */
+    private void move(File file, String recipient, String extension) throws IOException {
+        File recipientDirectory = DirectoryRelayStore.recipientDirectory(relayDirectory, recipient);
+        if(recipientDirectory.equals(file.getParentFile())) {
+            return;
+        }
+        if(!recipientDirectory.isDirectory() && !recipientDirectory.mkdirs()) {
+            throw new IOException("Could not create relay directory " + recipientDirectory);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(file.toPath(), new File(recipientDirectory, nextName() + extension).toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the files and offers kept for a recipient, oldest first.
+     *
+     * @param recipient nickname of the recipient
+     *
+     * @return kept files
+     *
+     * @throws IOException when the nickname can't be used as a directory name
+     *
+     * @author Albert Veldman
+     */
+    List<File> stored(String recipient) throws IOException {
+        File[] files = DirectoryRelayStore.recipientDirectory(relayDirectory, recipient).listFiles();
+        if(files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);
+        List<File> stored = new ArrayList<>(files.length);
+        for (File file : files) {
+            if(file.getName().endsWith(RELAY_EXTENSION) || isOffer(file)) {
+                stored.add(file);
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Deletes a file that was relayed or aborted.
+     *
+     * @param file file to delete
+     *
+     * @author Albert Veldman
+     */
+    void delete(File file) {
+        if(!file.delete() && file.exists()) {
+            LOGGER.log(Level.WARNING, "Could not delete " + file);
+        }
+    }
+
+    /**
+     * Returns a new unique file name that sorts after all earlier names.
+     *
+     * @return file name without extension
+     *
+     * @author Albert Veldman
+     */
+    private String nextName() {
+        return String.format("%019d-%019d", System.currentTimeMillis(), sequence.incrementAndGet());
+    }
+}
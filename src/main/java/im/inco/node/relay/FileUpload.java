@@ -0,0 +1,141 @@
+package im.inco.node.relay;
+
+import im.inco.node.receive.interfaces.IStreamConsumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams the body of a file from the sending connection straight into a staged file with
+ * FileChannel.transferFrom. The staged file starts with the encoded FILE frame, so relaying it is a single
+ * transfer of the whole file.
+ *
+ * @author Albert Veldman
+ */
+class FileUpload implements IStreamConsumer {
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(FileUpload.class.getName());
+
+    /**
+     * Dispatcher that relays the file once it is complete
+     */
+    private final RelayDispatcher dispatcher;
+
+    /**
+     * File relay the staged file belongs to
+     */
+    private final FileRelay fileRelay;
+
+    /**
+     * Nickname of the recipient
+     */
+    private final String recipient;
+
+    /**
+     * Staged file
+     */
+    private final File file;
+
+    /**
+     * Channel of the staged file
+     */
+    private final FileChannel channel;
+
+    /**
+     * Write position in the staged file
+     */
+    private long position;
+
+    /**
+     * Bytes of the body that are still expected
+     */
+    private long remaining;
+
+    /**
+     * Creates an upload and writes the frame header to the staged file.
+     *
+     * @param dispatcher dispatcher that relays the file once it is complete
+     * @param fileRelay file relay to stage the file in
+     * @param recipient nickname of the recipient
+     * @param header encoded FILE frame
+     * @param size size of the file body
+     *
+     * @throws IOException when the staged file can't be created
+     *
+     * @author Albert Veldman
+     */
+    FileUpload(RelayDispatcher dispatcher, FileRelay fileRelay, String recipient, ByteBuffer header, long size)
+            throws IOException {
+        this.dispatcher = dispatcher;
+        this.fileRelay = fileRelay;
+        this.recipient = recipient;
+        this.file = fileRelay.createUploadFile();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        this.remaining = size;
+        try {
+            while(header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+        } catch (IOException exception) {
+            abort();
+            throw exception;
+        }
+    }
+
+    @Override
+    public long remaining() {
+        return remaining;
+    }
+
+    @Override
+    public void write(ByteBuffer source) throws IOException {
+        while(source.hasRemaining()) {
+            int written = channel.write(source, position);
+            position += written;
+            remaining -= written;
+        }
+    }
+
+    @Override
+    public long transferFrom(SocketChannel source, long maxBytes) throws IOException {
+        long transferred = channel.transferFrom(source, position, Math.min(remaining, maxBytes));
+        if(transferred == 0) {
+            // transferFrom can't report end of stream, so check the channel when nothing was transferred
+            ByteBuffer probe = ByteBuffer.allocate(1);
+            int read = source.read(probe);
+            if(read <= 0) {
+                return read;
+            }
+            probe.flip();
+            write(probe);
+            return read;
+        }
+        position += transferred;
+        remaining -= transferred;
+        return transferred;
+    }
+
+    @Override
+    public void complete() throws IOException {
+        channel.close();
+        dispatcher.relayFile(recipient, file);
+    }
+
+    @Override
+    public void abort() {
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            LOGGER.log(Level.FINE, exception.getMessage(), exception);
+        }
+        fileRelay.delete(file);
+    }
+}
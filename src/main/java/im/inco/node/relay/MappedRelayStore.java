@@ -0,0 +1,925 @@
+package im.inco.node.relay;
+
+import im.inco.node.relay.interfaces.IRelayStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Relay store that appends frames to a log of memory-mapped segment files and keeps an index of the pending
+ * records per recipient.
+ *
+ * <p>Storing a frame is a single append to the active segment. Reading returns the oldest pending records of a
+ * recipient as views of the mapped segments, so a drain doesn't copy them to the heap, and acknowledging them
+ * appends an ack record with the position of the last one. A background task compacts the oldest segments:
+ * segments without pending records are deleted and segments with few pending records, or that hold up a segment
+ * that can be compacted, have them copied to the active segment first. It then syncs the segments and writes a
+ * checkpoint of the index outside the store lock, from a snapshot of the index, so storing and reading never
+ * wait for the disk. After a crash the index is loaded from the checkpoint and only the records appended after
+ * it are replayed.
+ *
+ * <p>Frames keep the position they were first stored at when they are copied, and segments are only deleted
+ * from the start of the log, so an ack record is never deleted while a copy of a frame it acknowledges is kept.
+ * Without a usable checkpoint replaying all segments therefore gives the same index.
+ *
+ * <p>Every record starts with its length and a CRC32 of its body, the length is written last so a record
+ * that was cut off by a crash is never replayed.
+ *
+ * @author Albert Veldman
+ */
+public class MappedRelayStore implements IRelayStore {
+    /**
+     * Default size of a segment file
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Seconds between two runs of the maintenance task
+     */
+    private static final long MAINTENANCE_INTERVAL_SECONDS = 1;
+
+    /**
+     * Segments whose pending records take up less than this part of the segment are compacted
+     */
+    private static final double COMPACTION_THRESHOLD = 0.25;
+
+    /**
+     * Size of the length and checksum in front of every record
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Record holding a frame
+     */
+    private static final byte RECORD_FRAME = 1;
+
+    /**
+     * Record marking that the frames of a recipient up to a position are acknowledged, followed by the position
+     * the last acknowledged frame was first stored at
+     */
+    private static final byte RECORD_ACK = 2;
+
+    /**
+     * Record holding a frame that was copied from a compacted segment, followed by the position the frame was
+     * first stored at
+     */
+    private static final byte RECORD_RELOCATED = 3;
+
+    /**
+     * First bytes of a checkpoint file
+     */
+    private static final int CHECKPOINT_MAGIC = 0x494E434F;
+
+    /**
+     * Name of the checkpoint file
+     */
+    private static final String CHECKPOINT_FILE = "relay.index";
+
+    /**
+     * Prefix of segment file names
+     */
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    /**
+     * Extension of segment file names
+     */
+    private static final String SEGMENT_EXTENSION = ".log";
+
+    /**
+     * Charset used for nicknames
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(MappedRelayStore.class.getName());
+
+    /**
+     * Directory holding the segments and the checkpoint
+     */
+    private final File directory;
+
+    /**
+     * Size of new segment files
+     */
+    private final int segmentSize;
+
+    /**
+     * All segments by id
+     */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+
+    /**
+     * Positions of the pending records per recipient, in the order they have to be delivered
+     */
+    private final Map<String, ArrayDeque<Long>> pending = new HashMap<>();
+
+    /**
+     * Scratch buffer used to calculate checksums of mapped bytes
+     */
+    private final byte[] scratch = new byte[8192];
+
+    /**
+     * Lock held while a checkpoint is written, so checkpoints are written one at a time and in order
+     */
+    private final Object checkpointLock = new Object();
+
+    /**
+     * Compacted segments that are deleted once a checkpoint without them is written, guarded by the checkpoint
+     * lock
+     */
+    private final List<Segment> retired = new ArrayList<>();
+
+    /**
+     * Id of the first segment that may hold records that were not synced yet, guarded by the checkpoint lock
+     */
+    private int unsyncedSegment;
+
+    /**
+     * Segment new records are appended to
+     */
+    private Segment active;
+
+    /**
+     * Whether records were appended since the last checkpoint
+     */
+    private boolean dirty;
+
+    /**
+     * Runs the maintenance task
+     */
+    private ScheduledExecutorService maintenance;
+
+    /**
+     * Creates a store, call open before using it.
+     *
+     * @param directory directory holding the segments and the checkpoint
+     * @param segmentSize size of new segment files
+     *
+     * @author Albert Veldman
+     */
+    public MappedRelayStore(File directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Maps the existing segments, recovers the index and starts the maintenance task.
+     *
+     * @throws IOException when the store can't be opened
+     *
+     * @author Albert Veldman
+     */
+    public synchronized void open() throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create relay directory " + directory);
+        }
+        recover();
+        maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "relay-store-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        maintenance.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    maintain();
+                } catch (IOException exception) {
+                    LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+                }
+            }
+        }, MAINTENANCE_INTERVAL_SECONDS, MAINTENANCE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void store(String recipient, ByteBuffer frame) throws IOException {
+        long position = append(RECORD_FRAME, recipient.getBytes(UTF_8), -1, frame);
+        addPending(recipient, position);
+        active.liveRecords++;
+        active.liveBytes += recordSize(active, offset(position));
+        dirty = true;
+    }
+
+    @Override
+    public synchronized List<ByteBuffer> read(String recipient, int maxFrames, long maxBytes) {
+        ArrayDeque<Long> positions = pending.get(recipient);
+        if(positions == null) {
+            return Collections.emptyList();
+        }
+        List<ByteBuffer> frames = new ArrayList<>(Math.min(positions.size(), maxFrames));
+        long bytes = 0;
+        for (long position : positions) {
+            ByteBuffer frame = frameView(position);
+            if(frames.size() == maxFrames || (!frames.isEmpty() && bytes + frame.remaining() > maxBytes)) {
+                break;
+            }
+            frames.add(frame);
+            bytes += frame.remaining();
+        }
+        return frames;
+    }
+
+    @Override
+    public synchronized void acknowledge(String recipient, int count) throws IOException {
+        ArrayDeque<Long> positions = pending.get(recipient);
+        if(positions == null || count < 1) {
+            return;
+        }
+        count = Math.min(count, positions.size());
+        long last = 0;
+        for (int i = 0; i < count; i++) {
+            long position = positions.poll();
+            last = originalPosition(position);
+            Segment segment = segments.get(segmentId(position));
+            segment.liveRecords--;
+            segment.liveBytes -= recordSize(segment, offset(position));
+        }
+        if(positions.isEmpty()) {
+            pending.remove(recipient);
+        }
+        ByteBuffer acknowledged = ByteBuffer.allocate(8);
+        acknowledged.putLong(0, last);
+        append(RECORD_ACK, recipient.getBytes(UTF_8), -1, acknowledged);
+        dirty = true;
+    }
+
+    /**
+     * Stops the maintenance task, writes a final checkpoint and closes all segments.
+     *
+     * @throws IOException when the checkpoint can't be written
+     *
+     * @author Albert Veldman
+     */
+    @Override
+    public void close() throws IOException {
+        if(maintenance != null) {
+            maintenance.shutdown();
+            try {
+                maintenance.awaitTermination(MAINTENANCE_INTERVAL_SECONDS * 10, TimeUnit.SECONDS);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (checkpointLock) {
+            synchronized (this) {
+                if(active != null) {
+                    writeCheckpoint(snapshot());
+                    deleteRetired();
+                }
+                for (Segment segment : segments.values()) {
+                    segment.channel.close();
+                }
+                segments.clear();
+                active = null;
+            }
+        }
+    }
+
+    /**
+     * Compacts the oldest segments, then syncs the segments and writes a checkpoint of the index. Only the
+     * compaction and the snapshot of the index hold the store lock; syncing and writing the checkpoint don't.
+     *
+     * @throws IOException when syncing or writing the checkpoint fails
+     *
+     * @author Albert Veldman
+     */
+    void maintain() throws IOException {
+        synchronized (checkpointLock) {
+            IndexSnapshot snapshot;
+            synchronized (this) {
+                if(!dirty || active == null) {
+                    return;
+                }
+                List<Segment> sealed = new ArrayList<>(segments.headMap(active.id).values());
+                for (int i = 0; i < sealed.size(); i++) {
+                    Segment segment = sealed.get(i);
+                    if(!isCompactable(segment) && (i + 1 == sealed.size() || !isCompactable(sealed.get(i + 1)))) {
+                        break;
+                    }
+                    if(segment.liveRecords > 0) {
+                        relocate(segment);
+                    }
+                    retire(segment);
+                }
+                snapshot = snapshot();
+                dirty = false;
+            }
+            try {
+                writeCheckpoint(snapshot);
+            } catch (IOException exception) {
+                synchronized (this) {
+                    dirty = true;
+                }
+                throw exception;
+            }
+            deleteRetired();
+        }
+    }
+
+    /**
+     * Checks whether few enough records of a segment are pending to copy them and delete the segment.
+     *
+     * @param segment sealed segment
+     *
+     * @return true when the segment should be compacted
+     *
+     * @author Albert Veldman
+     */
+    private static boolean isCompactable(Segment segment) {
+        return segment.liveBytes < segment.writeOffset * COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Removes a compacted segment from the log. Its file is deleted once a checkpoint without it is written,
+     * until then the last checkpoint may still refer to it.
+     *
+     * @param segment segment without pending records
+     *
+     * @author Albert Veldman
+     */
+    private void retire(Segment segment) {
+        segments.remove(segment.id);
+        retired.add(segment);
+    }
+
+    /**
+     * Deletes the files of the retired segments.
+     *
+     * @author Albert Veldman
+     */
+    private void deleteRetired() {
+        for (Segment segment : retired) {
+            try {
+                segment.channel.close();
+            } catch (IOException exception) {
+                LOGGER.log(Level.FINE, exception.getMessage(), exception);
+            }
+            if(!segment.file.delete()) {
+                LOGGER.log(Level.WARNING, "Could not delete relay segment " + segment.file);
+            }
+        }
+        retired.clear();
+    }
+
+    /**
+     * Copies the index and the current end of the log, together with the segments that have to be synced
+     * before a checkpoint of them is written.
+     *
+     * @return snapshot of the index
+     *
+     * @author Albert Veldman
+     */
+    private IndexSnapshot snapshot() {
+        Map<String, long[]> index = new HashMap<>();
+        for (Map.Entry<String, ArrayDeque<Long>> entry : pending.entrySet()) {
+            long[] positions = new long[entry.getValue().size()];
+            int i = 0;
+            for (long position : entry.getValue()) {
+                positions[i++] = position;
+            }
+            index.put(entry.getKey(), positions);
+        }
+        List<MappedByteBuffer> unsynced = new ArrayList<>();
+        for (Segment segment : segments.tailMap(unsyncedSegment, true).values()) {
+            unsynced.add(segment.buffer);
+        }
+        return new IndexSnapshot(position(active.id, active.writeOffset), index, unsynced);
+    }
+
+    /**
+     * Copies the pending records of a segment to the active segment.
+     *
+     * @param segment segment to empty
+     *
+     * @throws IOException when the records can't be appended
+     *
+     * @author Albert Veldman
+     */
+    private void relocate(Segment segment) throws IOException {
+        for (Map.Entry<String, ArrayDeque<Long>> entry : pending.entrySet()) {
+            ArrayDeque<Long> positions = entry.getValue();
+            ArrayDeque<Long> relocated = new ArrayDeque<>(positions.size());
+            byte[] recipient = entry.getKey().getBytes(UTF_8);
+            for (long position : positions) {
+                if(segmentId(position) == segment.id) {
+                    long moved = append(RECORD_RELOCATED, recipient, originalPosition(position),
+                            frameView(position));
+                    Segment target = segments.get(segmentId(moved));
+                    target.liveRecords++;
+                    target.liveBytes += recordSize(target, offset(moved));
+                    relocated.add(moved);
+                }
+                else {
+                    relocated.add(position);
+                }
+            }
+            entry.setValue(relocated);
+        }
+        segment.liveRecords = 0;
+        segment.liveBytes = 0;
+    }
+
+    /**
+     * Appends a record to the active segment, starting a new segment when it doesn't fit.
+     *
+     * @param type record type
+     * @param recipient UTF-8 nickname of the recipient
+     * @param relocatedFrom position a relocated frame was first stored at
+     * @param frame encoded frame or the position of an ack record
+     *
+     * @return position of the record
+     *
+     * @throws IOException when the record is too big or a new segment can't be created
+     *
+     * @author Albert Veldman
+     */
+    private long append(byte type, byte[] recipient, long relocatedFrom, ByteBuffer frame) throws IOException {
+        int bodyLength = 1 + 2 + recipient.length + (type == RECORD_RELOCATED ? 8 : 0)
+                + (frame == null ? 0 : frame.remaining());
+        int recordSize = RECORD_HEADER_SIZE + bodyLength;
+        if(recordSize > segmentSize) {
+            throw new IOException("Frame too large for relay segment: " + recordSize);
+        }
+        if(active == null || active.writeOffset + recordSize > active.capacity) {
+            roll();
+        }
+        int offset = active.writeOffset;
+        ByteBuffer target = active.buffer.duplicate();
+        target.position(offset + RECORD_HEADER_SIZE);
+        target.put(type);
+        target.putShort((short) recipient.length);
+        target.put(recipient);
+        if(type == RECORD_RELOCATED) {
+            target.putLong(relocatedFrom);
+        }
+        if(frame != null) {
+            target.put(frame.duplicate());
+        }
+        active.buffer.putInt(offset + 4, checksum(active.buffer, offset + RECORD_HEADER_SIZE, bodyLength));
+        active.buffer.putInt(offset, bodyLength);
+        active.writeOffset += recordSize;
+        return position(active.id, offset);
+    }
+
+    /**
+     * Seals the active segment and starts a new one. The sealed segment is synced with the next checkpoint.
+     *
+     * @throws IOException when the new segment can't be created
+     *
+     * @author Albert Veldman
+     */
+    private void roll() throws IOException {
+        int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        active = mapSegment(id, new File(directory, segmentName(id)));
+        segments.put(id, active);
+    }
+
+    /**
+     * Loads the index from the checkpoint and replays the records that were appended after it. When there is
+     * no usable checkpoint all segments are replayed.
+     *
+     * @throws IOException when a segment can't be mapped
+     *
+     * @author Albert Veldman
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles();
+        if(files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if(name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXTENSION)) {
+                    int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_EXTENSION.length()));
+                    segments.put(id, mapSegment(id, file));
+                }
+            }
+        }
+        long replayFrom = segments.isEmpty() ? 0 : position(segments.firstKey(), 0);
+        Long checkpointEnd = readCheckpoint();
+        if(checkpointEnd != null) {
+            replayFrom = checkpointEnd;
+        }
+        else {
+            pending.clear();
+        }
+        Map<String, TreeMap<Long, Long>> index = new HashMap<>();
+        for (Map.Entry<String, ArrayDeque<Long>> entry : pending.entrySet()) {
+            TreeMap<Long, Long> positions = new TreeMap<>();
+            for (long position : entry.getValue()) {
+                positions.put(originalPosition(position), position);
+            }
+            index.put(entry.getKey(), positions);
+        }
+        pending.clear();
+        for (Segment segment : segments.values()) {
+            if(segment.id < segmentId(replayFrom)) {
+                segment.writeOffset = segment.capacity;
+            }
+            else {
+                replay(segment, segment.id == segmentId(replayFrom) ? offset(replayFrom) : 0, index);
+            }
+        }
+        for (Map.Entry<String, TreeMap<Long, Long>> entry : index.entrySet()) {
+            pending.put(entry.getKey(), new ArrayDeque<>(entry.getValue().values()));
+        }
+        for (ArrayDeque<Long> positions : pending.values()) {
+            for (long position : positions) {
+                Segment segment = segments.get(segmentId(position));
+                segment.liveRecords++;
+                segment.liveBytes += recordSize(segment, offset(position));
+            }
+        }
+        if(segments.isEmpty()) {
+            roll();
+        }
+        else {
+            active = segments.lastEntry().getValue();
+        }
+        dirty = true;
+    }
+
+    /**
+     * Applies the valid records of a segment, starting at the given offset, to the index.
+     *
+     * @param segment segment to replay
+     * @param offset offset of the first record to replay
+     * @param index current position of the pending records per recipient by the position they were first
+     *              stored at, in the order they have to be delivered
+     *
+     * @author Albert Veldman
+     */
+    private void replay(Segment segment, int offset, Map<String, TreeMap<Long, Long>> index) {
+        MappedByteBuffer buffer = segment.buffer;
+        while(offset + RECORD_HEADER_SIZE <= segment.capacity) {
+            int bodyLength = buffer.getInt(offset);
+            if(bodyLength <= 3 || offset + RECORD_HEADER_SIZE + bodyLength > segment.capacity
+                    || buffer.getInt(offset + 4) != checksum(buffer, offset + RECORD_HEADER_SIZE, bodyLength)) {
+                break;
+            }
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset + RECORD_HEADER_SIZE);
+            byte type = record.get();
+            byte[] recipientBytes = new byte[record.getShort() & 0xFFFF];
+            record.get(recipientBytes);
+            String recipient = new String(recipientBytes, UTF_8);
+            long position = position(segment.id, offset);
+            if(type == RECORD_FRAME) {
+                replayed(index, recipient).put(position, position);
+            }
+            else if(type == RECORD_RELOCATED) {
+                replayed(index, recipient).put(record.getLong(), position);
+            }
+            else if(type == RECORD_ACK) {
+                TreeMap<Long, Long> positions = index.get(recipient);
+                if(positions != null) {
+                    positions.headMap(record.getLong(), true).clear();
+                    if(positions.isEmpty()) {
+                        index.remove(recipient);
+                    }
+                }
+            }
+            offset += RECORD_HEADER_SIZE + bodyLength;
+        }
+        segment.writeOffset = offset;
+    }
+
+    /**
+     * Returns the replayed records of a recipient, adding an empty map for a new recipient.
+     *
+     * @param index replayed records per recipient
+     * @param recipient nickname of the recipient
+     *
+     * @return current position of the records by the position they were first stored at
+     *
+     * @author Albert Veldman
+     */
+    private static TreeMap<Long, Long> replayed(Map<String, TreeMap<Long, Long>> index, String recipient) {
+        TreeMap<Long, Long> positions = index.get(recipient);
+        if(positions == null) {
+            positions = new TreeMap<>();
+            index.put(recipient, positions);
+        }
+        return positions;
+    }
+
+    /**
+     * Syncs the segments of a snapshot, then writes its index and end of the log to the checkpoint file. The
+     * file is replaced atomically so a crash leaves either the old or the new checkpoint. Call with the
+     * checkpoint lock held.
+     *
+     * @param snapshot snapshot of the index
+     *
+     * @throws IOException when the checkpoint can't be written
+     *
+     * @author Albert Veldman
+     */
+    private void writeCheckpoint(IndexSnapshot snapshot) throws IOException {
+        for (MappedByteBuffer buffer : snapshot.unsynced) {
+            buffer.force();
+        }
+        File checkpoint = new File(directory, CHECKPOINT_FILE);
+        File temp = new File(directory, CHECKPOINT_FILE + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(snapshot.end);
+            out.writeInt(snapshot.index.size());
+            for (Map.Entry<String, long[]> entry : snapshot.index.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                for (long position : entry.getValue()) {
+                    out.writeLong(position);
+                }
+            }
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temp.toPath(), checkpoint.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        unsyncedSegment = segmentId(snapshot.end);
+    }
+
+    /**
+     * Loads the index from the checkpoint file.
+     *
+     * @return end of the log at the time of the checkpoint, or null when there is no usable checkpoint
+     *
+     * @author Albert Veldman
+     */
+    private Long readCheckpoint() {
+        File checkpoint = new File(directory, CHECKPOINT_FILE);
+        if(!checkpoint.isFile()) {
+            return null;
+        }
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(checkpoint)), new CRC32())) {
+            DataInputStream in = new DataInputStream(checked);
+            if(in.readInt() != CHECKPOINT_MAGIC) {
+                throw new IOException("Invalid checkpoint header");
+            }
+            long end = in.readLong();
+            int recipients = in.readInt();
+            for (int i = 0; i < recipients; i++) {
+                String recipient = in.readUTF();
+                int count = in.readInt();
+                for (int j = 0; j < count; j++) {
+                    long position = in.readLong();
+                    if(!segments.containsKey(segmentId(position))) {
+                        throw new IOException("Checkpoint refers to a missing segment");
+                    }
+                    addPending(recipient, position);
+                }
+            }
+            long expected = checked.getChecksum().getValue();
+            if(in.readLong() != expected || !segments.containsKey(segmentId(end))) {
+                throw new IOException("Checkpoint is corrupt");
+            }
+            return end;
+        } catch (IOException exception) {
+            LOGGER.log(Level.WARNING, "Relay checkpoint unusable, replaying all segments", exception);
+            pending.clear();
+            return null;
+        }
+    }
+
+    /**
+     * Adds a record to the pending records of a recipient.
+     *
+     * @param recipient nickname of the recipient
+     * @param position position of the record
+     *
+     * @author Albert Veldman
+     */
+    private void addPending(String recipient, long position) {
+        ArrayDeque<Long> positions = pending.get(recipient);
+        if(positions == null) {
+            positions = new ArrayDeque<>();
+            pending.put(recipient, positions);
+        }
+        positions.add(position);
+    }
+
+    /**
+     * Returns the position the frame of a record was first stored at, which is its own position unless the
+     * record is a copy made by compaction.
+     *
+     * @param position position of the record
+     *
+     * @return position of the first record of the frame
+     *
+     * @author Albert Veldman
+     */
+    private long originalPosition(long position) {
+        MappedByteBuffer buffer = segments.get(segmentId(position)).buffer;
+        int offset = offset(position) + RECORD_HEADER_SIZE;
+        if(buffer.get(offset) != RECORD_RELOCATED) {
+            return position;
+        }
+        return buffer.getLong(offset + 3 + (buffer.getShort(offset + 1) & 0xFFFF));
+    }
+
+    /**
+     * Returns a read-only view of the frame of a record in its mapped segment. Segments are never written
+     * again once a record is appended and stay mapped while a view is in use, also when they are compacted.
+     *
+     * @param position position of the record
+     *
+     * @return the encoded frame
+     *
+     * @author Albert Veldman
+     */
+    private ByteBuffer frameView(long position) {
+        Segment segment = segments.get(segmentId(position));
+        int offset = offset(position);
+        ByteBuffer record = segment.buffer.duplicate();
+        record.position(offset + RECORD_HEADER_SIZE);
+        record.limit(offset + recordSize(segment, offset));
+        byte type = record.get();
+        int recipientLength = record.getShort() & 0xFFFF;
+        record.position(record.position() + recipientLength + (type == RECORD_RELOCATED ? 8 : 0));
+        return record.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Maps a segment file.
+     *
+     * @param id segment id
+     * @param file segment file, created when missing
+     *
+     * @return the mapped segment
+     *
+     * @throws IOException when the file can't be mapped
+     *
+     * @author Albert Veldman
+     */
+    private Segment mapSegment(int id, File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        int capacity = (int) Math.max(channel.size(), segmentSize);
+        return new Segment(id, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), capacity);
+    }
+
+    /**
+     * Calculates the CRC32 of mapped bytes.
+     *
+     * @param buffer mapped buffer
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     *
+     * @return checksum truncated to an int
+     *
+     * @author Albert Veldman
+     */
+    private int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        while(length > 0) {
+            int chunk = Math.min(length, scratch.length);
+            source.get(scratch, 0, chunk);
+            crc.update(scratch, 0, chunk);
+            length -= chunk;
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the size of the record at the given offset, including its header.
+     *
+     * @param segment segment of the record
+     * @param offset offset of the record
+     *
+     * @return record size
+     *
+     * @author Albert Veldman
+     */
+    private static int recordSize(Segment segment, int offset) {
+        return RECORD_HEADER_SIZE + segment.buffer.getInt(offset);
+    }
+
+    /**
+     * Combines a segment id and an offset into a log position.
+     *
+     * @param segmentId segment id
+     * @param offset offset in the segment
+     *
+     * @return log position
+     *
+     * @author Albert Veldman
+     */
+    private static long position(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the segment id of a log position.
+     *
+     * @param position log position
+     *
+     * @return segment id
+     *
+     * @author Albert Veldman
+     */
+    private static int segmentId(long position) {
+        return (int) (position >>> 32);
+    }
+
+    /**
+     * Returns the offset in the segment of a log position.
+     *
+     * @param position log position
+     *
+     * @return offset in the segment
+     *
+     * @author Albert Veldman
+     */
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    /**
+     * Returns the file name of a segment, padded so the names sort by id.
+     *
+     * @param id segment id
+     *
+     * @return file name
+     *
+     * @author Albert Veldman
+     */
+    private static String segmentName(int id) {
+        return String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_EXTENSION);
+    }
+
+    /**
+     * A mapped segment file with the statistics used to decide when it can be compacted.
+     */
+    private static class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private int writeOffset;
+        private int liveRecords;
+        private long liveBytes;
+
+        private Segment(int id, File file, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * The index and end of the log at one point in time, with the segments that may hold unsynced records.
+     */
+    private static class IndexSnapshot {
+        private final long end;
+        private final Map<String, long[]> index;
+        private final List<MappedByteBuffer> unsynced;
+
+        private IndexSnapshot(long end, Map<String, long[]> index, List<MappedByteBuffer> unsynced) {
+            this.end = end;
+            this.index = index;
+            this.unsynced = unsynced;
+        }
+    }
+}
@@ -0,0 +1,921 @@
+package im.inco.node.relay;
+
+import im.inco.node.buffer.BufferPool;
+import im.inco.node.buffer.PooledBuffer;
+import im.inco.node.compression.FrameCompressor;
+import im.inco.node.mesh.Mesh;
+import im.inco.node.mesh.PeerLink;
+import im.inco.node.metrics.NodeMetrics;
+import im.inco.node.protocol.ChunkHeader;
+import im.inco.node.protocol.ChunkManifest;
+import im.inco.node.protocol.ChunkNeed;
+import im.inco.node.protocol.Codec;
+import im.inco.node.protocol.CodecOffer;
+import im.inco.node.protocol.FileHeader;
+import im.inco.node.protocol.Frame;
+import im.inco.node.protocol.FrameType;
+import im.inco.node.receive.Connection;
+import im.inco.node.receive.PortType;
+import im.inco.node.receive.SelectorLoop;
+import im.inco.node.receive.interfaces.IFrameHandler;
+import im.inco.node.relay.interfaces.IRelayStore;
+import im.inco.node.relay.interfaces.IWindowWaiter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Relays frames between the endpoints connected to this node. Messages for endpoints that are offline are kept
+ * in a relay store and files in the file relay, both are sent as soon as the endpoint announces itself again.
+ * Messages for an endpoint that reads slower than they arrive are kept in the relay store as well once its
+ * connection has too many pending writes, and are sent when it caught up. Messages that are still queued when
+ * the node shuts down are kept in the relay store too.
+ *
+ * <p>Stored messages are sent in windows: the next window is read from the store once the previous one is
+ * written to the connection, and the messages of a window are removed from the store only then. The TCP
+ * window of the endpoint paces the drain, new messages are queued between the windows instead of behind the
+ * whole backlog, and a drain that is cut off continues at the first message that was not written when the
+ * endpoint connects again. The windows of all drains share a budget, so endpoints that reconnect at once wait
+ * for a window instead of reading their backlogs into memory together.
+ *
+ * <p>Files can also be offered in chunks. The node answers an offer with the chunks it doesn't have, so an
+ * interrupted transfer is resumed by offering the file again, and stores every chunk once in the chunk store.
+ * Once all chunks are there the file is relayed to its recipient as an ordinary FILE frame.
+ *
+ * <p>When the node is part of a mesh, messages for endpoints connected to another node are forwarded over the
+ * link to that node. A forwarded message is delivered or stored by the node that receives it and never
+ * forwarded again, so a stale route costs at most one extra hop. Messages for endpoints without a known route
+ * are stored and the other nodes are asked where the endpoint is; the answer forwards them.
+ *
+ * <p>An endpoint can offer codecs in its HELLO. When the node picks one, the messages relayed to that
+ * connection are sent compressed when that makes them smaller, files are sent as COMPRESSED_FILE unless they are
+ * compressed already, and the endpoint may send its messages compressed. Messages are stored and forwarded
+ * uncompressed, so every connection gets them in the form it negotiated.
+ *
+ * @author Albert Veldman
+ */
+public class RelayDispatcher implements IFrameHandler {
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(RelayDispatcher.class.getName());
+
+    /**
+     * Endpoints connected to this node
+     */
+    private final ConnectedEndpoints endpoints = new ConnectedEndpoints();
+
+    /**
+     * Store for messages to offline endpoints
+     */
+    private final IRelayStore messageStore;
+
+    /**
+     * Files that are being uploaded or wait for an offline endpoint
+     */
+    private final FileRelay fileRelay;
+
+    /**
+     * Chunks of the files that are offered in chunks
+     */
+    private final ChunkStore chunkStore;
+
+    /**
+     * Pool the relayed frames are encoded into
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * Instrumentation of the node
+     */
+    private final NodeMetrics metrics;
+
+    /**
+     * Mesh of this node, null when the node relays between its own endpoints only
+     */
+    private final Mesh mesh;
+
+    /**
+     * Compressor for the connections that negotiated a codec
+     */
+    private final FrameCompressor compressor;
+
+    /**
+     * Memory the windows of stored messages may hold, shared with the other dispatchers of the node
+     */
+    private final DrainBudget drainBudget;
+
+    /**
+     * Connection the stored messages of a recipient are being sent to, by nickname of the recipient. A
+     * recipient has one drain at a time, whether its messages go to its own connection or over a link.
+     */
+    private final Map<String, Connection> drains = new HashMap<>();
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param messageStore store for messages to offline endpoints
+     * @param fileRelay file relay for files that pass through the file port
+     * @param chunkStore store for the chunks of files that are offered in chunks
+     * @param bufferPool pool the relayed frames are encoded into
+     * @param metrics instrumentation of the node
+     * @param mesh mesh of this node or null
+     * @param compressor compressor for the connections that negotiate a codec
+     * @param drainBudget memory the windows of stored messages may hold, shared by the dispatchers of the node
+     *
+     * @author Albert Veldman
+     */
+    public RelayDispatcher(IRelayStore messageStore, FileRelay fileRelay, ChunkStore chunkStore,
+                           BufferPool bufferPool, NodeMetrics metrics, Mesh mesh, FrameCompressor compressor,
+                           DrainBudget drainBudget) {
+        this.messageStore = messageStore;
+        this.fileRelay = fileRelay;
+        this.chunkStore = chunkStore;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.mesh = mesh;
+        this.compressor = compressor;
+        this.drainBudget = drainBudget;
+    }
+
+    @Override
+    public void onFrame(Connection connection, Frame frame) throws IOException {
+        if(connection.getPeer() != null) {
+            onPeerFrame(connection, frame);
+            return;
+        }
+        switch(frame.getType()) {
+            case PEER_HELLO:
+                link(connection, frame);
+                break;
+            case HELLO:
+                announce(connection, frame);
+                break;
+            case MESSAGE:
+                relay(connection, frame);
+                break;
+            case COMPRESSED:
+                relayCompressed(connection, frame);
+                break;
+            case FILE:
+                receiveFile(connection, frame);
+                break;
+            case CHUNK_OFFER:
+                offerChunks(connection, frame);
+                break;
+            case CHUNK:
+                receiveChunk(connection, frame);
+                break;
+            default:
+                throw new ProtocolException("Unexpected frame type: " + frame.getType());
+        }
+    }
+
+    @Override
+    public void onWritable(Connection connection) {
+        if(!connection.isOverflowed()) {
+            return;
+        }
+        if(connection.getPeer() != null) {
+            forwardBacklog(connection);
+        }
+        else {
+            sendStored(connection);
+        }
+    }
+
+    @Override
+    public void onUndelivered(Connection connection, ByteBuffer frame) {
+        if(connection.getPortType() != PortType.MESSAGE) {
+            return;
+        }
+        if(frame.get(frame.position() + Frame.LENGTH_FIELD_SIZE) == FrameType.COMPRESSED.getCode()) {
+            frame = decompressUndelivered(frame);
+            if(frame == null) {
+                return;
+            }
+        }
+        if(frame.get(frame.position() + Frame.LENGTH_FIELD_SIZE) != FrameType.MESSAGE.getCode()) {
+            return;
+        }
+        String recipient = connection.getPeer() != null ? forwardedRecipient(frame) : connection.getNickname();
+        if(recipient == null) {
+            return;
+        }
+        try {
+            messageStore.store(recipient, frame);
+            metrics.messageStored();
+        } catch (IOException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+        }
+    }
+
+    @Override
+    public void onClosed(Connection connection) {
+        if(connection.getPeer() != null) {
+            mesh.closed(connection);
+        }
+        else if(connection.getNickname() != null) {
+            endpoints.detach(connection);
+            if(mesh != null && connection.getPortType() == PortType.MESSAGE
+                    && endpoints.getConnection(connection.getNickname(), PortType.MESSAGE) == null) {
+                mesh.detached(connection.getNickname());
+            }
+        }
+    }
+
+    /**
+     * Get the registry of the endpoints connected to this node.
+     *
+     * @return connected endpoints
+     *
+     * @author Albert Veldman
+     */
+    public ConnectedEndpoints getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Registers the nickname of a connection and sends everything that was stored for it. When the endpoint
+     * offered codecs the hello is answered with the codec the node picked.
+     *
+     * @param connection connection that announced itself
+     * @param frame the HELLO frame
+     *
+     * @throws IOException when the hello is malformed or the stored frames can't be read
+     *
+     * @author Albert Veldman
+     */
+    private void announce(Connection connection, Frame frame) throws IOException {
+        String nickname = frame.getSender();
+        if(nickname.isEmpty() || connection.getNickname() != null) {
+            throw new ProtocolException("Invalid hello from " + nickname);
+        }
+        CodecOffer offer = CodecOffer.decode(frame.getPayload());
+        connection.setNickname(nickname);
+        if(frame.getPayload().hasRemaining()) {
+            Codec codec = compressor.negotiate(offer);
+            connection.send(new Frame(FrameType.HELLO, "", nickname,
+                    new CodecOffer(Collections.singletonList(codec)).encode()).encode());
+            connection.setCodec(codec);
+        }
+        endpoints.attach(connection);
+        if(connection.getPortType() == PortType.MESSAGE) {
+            sendStored(connection);
+            if(mesh != null) {
+                mesh.attached(nickname);
+            }
+        }
+        else {
+            for (File file : fileRelay.stored(nickname)) {
+                if(fileRelay.isOffer(file)) {
+                    sendKeptOffer(connection, file);
+                }
+                else {
+                    sendFile(connection, file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Relays a file that was completely uploaded. The file is sent to the recipient when it is connected
+     * on the file port and kept for it otherwise.
+     *
+     * @param recipient nickname of the recipient
+     * @param file staged file starting with the encoded FILE frame
+     *
+     * @throws IOException when the file can't be kept
+     *
+     * @author Albert Veldman
+     */
+    void relayFile(String recipient, File file) throws IOException {
+        Connection connection = endpoints.getConnection(recipient, PortType.FILE);
+        if(connection != null) {
+            sendFile(connection, file);
+        }
+        else {
+            fileRelay.keep(file, recipient);
+        }
+    }
+
+    /**
+     * Sends a staged or kept file to its recipient, compressed when the connection negotiated a codec and the
+     * file is not compressed already.
+     *
+     * @param connection file connection of the recipient
+     * @param file file starting with the encoded FILE frame
+     *
+     * @throws IOException when the start of the file can't be read
+     *
+     * @author Albert Veldman
+     */
+    private void sendFile(Connection connection, File file) throws IOException {
+        if(connection.getCodec() != Codec.NONE) {
+            if(CompressedRelayedFile.isCompressible(file)) {
+                connection.send(new CompressedRelayedFile(fileRelay, compressor, bufferPool, file,
+                        connection.getNickname()));
+                return;
+            }
+            metrics.fileNotCompressed();
+        }
+        connection.send(new RelayedFile(fileRelay, file, connection.getNickname()));
+    }
+
+    /**
+     * Sends a kept chunked file to its recipient. An offer whose chunks are gone is dropped.
+     *
+     * @param connection file connection of the recipient
+     * @param file the kept offer
+     *
+     * @throws IOException when the offer can't be read
+     *
+     * @author Albert Veldman
+     */
+    private void sendKeptOffer(Connection connection, File file) throws IOException {
+        Frame offer = fileRelay.readOffer(file);
+        ChunkManifest manifest = ChunkManifest.decode(offer.getPayload());
+        if(!chunkStore.missing(manifest).isEmpty()) {
+            LOGGER.log(Level.SEVERE, "Dropped offer with missing chunks: " + file);
+            chunkStore.release(manifest);
+            fileRelay.delete(file);
+            return;
+        }
+        connection.send(new RelayedChunkedFile(fileRelay, chunkStore, null, manifest, offer.getSender(),
+                connection.getNickname(), file));
+    }
+
+    /**
+     * Answers an offer of a chunked file with the chunks that are missing. When none are missing the file is
+     * relayed to its recipient, or kept for it when it is offline.
+     *
+     * @param connection connection the CHUNK_OFFER frame was received on
+     * @param frame the CHUNK_OFFER frame
+     *
+     * @throws IOException when the frame is malformed or the offer can't be kept
+     *
+     * @author Albert Veldman
+     */
+    private void offerChunks(Connection connection, Frame frame) throws IOException {
+        checkSender(connection, PortType.FILE);
+        ChunkManifest manifest = ChunkManifest.decode(frame.getPayload());
+        List<Integer> missing = chunkStore.missing(manifest);
+        if(missing.isEmpty()) {
+            if(chunkStore.retain(manifest)) {
+                ByteBuffer offer = new Frame(frame.getType(), connection.getNickname(), frame.getRecipient(),
+                        frame.getPayload()).encode();
+                relayChunkedFile(frame.getRecipient(), offer, manifest, connection.getNickname());
+            }
+            else {
+                missing = chunkStore.missing(manifest);
+            }
+        }
+        connection.send(new Frame(FrameType.CHUNK_NEED, "", connection.getNickname(),
+                new ChunkNeed(manifest.getSize(), missing).encode()).encode());
+    }
+
+    /**
+     * Relays a chunked file whose chunks are all stored and retained. The file is sent to the recipient when
+     * it is connected on the file port and its offer is kept for it otherwise.
+     *
+     * @param recipient nickname of the recipient
+     * @param offer encoded CHUNK_OFFER frame
+     * @param manifest manifest of the file
+     * @param sender nickname of the sender
+     *
+     * @throws IOException when the offer can't be kept
+     *
+     * @author Albert Veldman
+     */
+    private void relayChunkedFile(String recipient, ByteBuffer offer, ChunkManifest manifest, String sender)
+            throws IOException {
+        Connection connection = endpoints.getConnection(recipient, PortType.FILE);
+        if(connection != null) {
+            connection.send(new RelayedChunkedFile(fileRelay, chunkStore, offer, manifest, sender, recipient,
+                    null));
+            return;
+        }
+        try {
+            fileRelay.keepOffer(offer, recipient);
+        } catch (IOException exception) {
+            chunkStore.release(manifest);
+            throw exception;
+        }
+    }
+
+    /**
+     * Starts streaming a chunk into the chunk store.
+     *
+     * @param connection connection the CHUNK frame was received on
+     * @param frame the CHUNK frame
+     *
+     * @throws IOException when the frame is malformed or the chunk can't be staged
+     *
+     * @author Albert Veldman
+     */
+    private void receiveChunk(Connection connection, Frame frame) throws IOException {
+        checkSender(connection, PortType.FILE);
+        ChunkHeader header = ChunkHeader.decode(frame.getPayload());
+        connection.stream(new ChunkUpload(chunkStore, fileRelay, bufferPool, header));
+    }
+
+    /**
+     * Sends a frame to its recipient, or stores it when the recipient is offline. The frame is encoded again
+     * with the nickname of the sender, a message that no longer fits in a frame is rejected, so it is never
+     * stored or forwarded to a node that would close the link over it.
+     *
+     * @param connection connection the frame was received on
+     * @param frame frame to relay
+     *
+     * @throws ProtocolException when the message is too large to relay
+     * @throws IOException when the frame can't be stored
+     *
+     * @author Albert Veldman
+     */
+    private void relay(Connection connection, Frame frame) throws IOException {
+        long receivedNanos = System.nanoTime();
+        checkSender(connection, PortType.MESSAGE);
+        PooledBuffer encoded = new Frame(frame.getType(), connection.getNickname(), frame.getRecipient(),
+                frame.getPayload()).encode(bufferPool);
+        if(encoded.length() - Frame.LENGTH_FIELD_SIZE > SelectorLoop.MAX_MESSAGE_FRAME_LENGTH) {
+            encoded.release();
+            throw new ProtocolException("Message from " + connection.getNickname() + " too large to relay");
+        }
+        encoded.setReceivedNanos(receivedNanos);
+        deliver(frame.getRecipient(), encoded, mesh != null);
+    }
+
+    /**
+     * Decompresses a message an endpoint sent compressed and relays it.
+     *
+     * @param connection connection the COMPRESSED frame was received on
+     * @param frame the COMPRESSED frame
+     *
+     * @throws IOException when the frame is malformed or the message can't be stored
+     *
+     * @author Albert Veldman
+     */
+    private void relayCompressed(Connection connection, Frame frame) throws IOException {
+        checkSender(connection, PortType.MESSAGE);
+        if(connection.getCodec() == Codec.NONE) {
+            throw new ProtocolException("Compressed frame without a negotiated codec");
+        }
+        ByteBuffer inner = compressor.decompress(frame.getPayload());
+        Frame message = Frame.decode(inner, inner.getInt());
+        if(message.getType() != FrameType.MESSAGE) {
+            throw new ProtocolException("Unexpected compressed frame type: " + message.getType());
+        }
+        relay(connection, message);
+    }
+
+    /**
+     * Sends an encoded message to an endpoint of this node, forwards it to the node the endpoint is connected
+     * to, or stores it.
+     *
+     * @param nickname nickname of the recipient
+     * @param encoded encoded MESSAGE frame
+     * @param forward whether the message may be forwarded to another node
+     *
+     * @throws IOException when the frame can't be stored
+     *
+     * @author Albert Veldman
+     */
+    private void deliver(String nickname, PooledBuffer encoded, boolean forward) throws IOException {
+        Connection recipient = endpoints.getConnection(nickname, PortType.MESSAGE);
+        if(recipient == null) {
+            if(forward && forward(nickname, encoded)) {
+                return;
+            }
+            store(nickname, encoded);
+            recipient = endpoints.getConnection(nickname, PortType.MESSAGE);
+            if(recipient != null) {
+                sendStored(recipient);
+            }
+            else if(forward) {
+                mesh.locate(nickname);
+            }
+            return;
+        }
+        if(!recipient.isWritable() || recipient.isOverflowed()) {
+            synchronized (recipient) {
+                if(!recipient.isWritable() || recipient.isOverflowed()) {
+                    recipient.setOverflowed(true);
+                    store(nickname, encoded);
+                    return;
+                }
+            }
+        }
+        recipient.send(recipient.getCodec() != Codec.NONE ? compressor.compress(encoded) : encoded);
+    }
+
+    /**
+     * Forwards an encoded message over the link to the node its recipient is connected to. While the link has
+     * too many pending writes the message is stored and forwarded once the link caught up.
+     *
+     * @param nickname nickname of the recipient
+     * @param encoded encoded MESSAGE frame
+     *
+     * @return false when no route to the recipient is known
+     *
+     * @throws IOException when the frame can't be stored
+     *
+     * @author Albert Veldman
+     */
+    private boolean forward(String nickname, PooledBuffer encoded) throws IOException {
+        PeerLink link = mesh.route(nickname);
+        if(link == null) {
+            return false;
+        }
+        Connection connection = link.getConnection();
+        if(!connection.isWritable() || connection.isOverflowed()) {
+            synchronized (connection) {
+                if(!connection.isWritable() || connection.isOverflowed()) {
+                    connection.setOverflowed(true);
+                    link.addBacklog(nickname);
+                    store(nickname, encoded);
+                    return true;
+                }
+            }
+        }
+        connection.send(encoded);
+        metrics.messageForwarded();
+        return true;
+    }
+
+    /**
+     * Opens a link to another node of the mesh on a connection that sent a PEER_HELLO. A hello that opens a
+     * link is answered with a hello, then the routes to the endpoints of this node are sent over the link.
+     *
+     * @param connection connection the PEER_HELLO frame was received on
+     * @param frame the PEER_HELLO frame
+     *
+     * @throws ProtocolException when the node is not part of a mesh or the hello is invalid
+     *
+     * @author Albert Veldman
+     */
+    private void link(Connection connection, Frame frame) throws ProtocolException {
+        if(mesh == null || connection.getPortType() != PortType.MESSAGE || connection.getNickname() != null) {
+            throw new ProtocolException("Unexpected peer hello from " + frame.getSender());
+        }
+        PeerLink link = mesh.accept(connection, frame);
+        if(frame.getRecipient().isEmpty()) {
+            connection.send(mesh.answer(link.getNode()));
+        }
+        for (EndpointRoute route : endpoints) {
+            if(route.getMessageConnection() != null) {
+                connection.send(mesh.frame(FrameType.ROUTE, route.getNickname()));
+            }
+        }
+    }
+
+    /**
+     * Handles a frame received over a link to another node of the mesh.
+     *
+     * @param connection connection of the link
+     * @param frame the frame
+     *
+     * @throws IOException when a forwarded message can't be stored
+     *
+     * @author Albert Veldman
+     */
+    private void onPeerFrame(Connection connection, Frame frame) throws IOException {
+        String nickname = frame.getRecipient();
+        switch(frame.getType()) {
+            case MESSAGE:
+                PooledBuffer encoded = new Frame(frame.getType(), frame.getSender(), nickname,
+                        frame.getPayload()).encode(bufferPool);
+                encoded.setReceivedNanos(System.nanoTime());
+                deliver(nickname, encoded, false);
+                break;
+            case LOCATE:
+                if(endpoints.getConnection(nickname, PortType.MESSAGE) != null) {
+                    connection.send(mesh.frame(FrameType.ROUTE, nickname));
+                }
+                break;
+            case ROUTE:
+                PeerLink link = mesh.getLink(connection);
+                if(link != null) {
+                    mesh.learn(nickname, link.getNode());
+                    forwardStored(link, nickname);
+                }
+                break;
+            case UNROUTE:
+                mesh.forget(nickname, connection.getPeer());
+                break;
+            default:
+                throw new ProtocolException("Unexpected frame type on link: " + frame.getType());
+        }
+    }
+
+    /**
+     * Starts forwarding the messages stored for a remote endpoint over the link to its node, unless the
+     * endpoint is connected to this node as well.
+     *
+     * @param link link to the node of the endpoint
+     * @param nickname nickname of the endpoint
+     *
+     * @author Albert Veldman
+     */
+    private void forwardStored(PeerLink link, String nickname) {
+        if(endpoints.getConnection(nickname, PortType.MESSAGE) != null) {
+            return;
+        }
+        startDrain(link.getConnection(), nickname);
+    }
+
+    /**
+     * Forwards the messages that were stored while a link had too many pending writes.
+     *
+     * @param connection connection of the link
+     *
+     * @author Albert Veldman
+     */
+    private void forwardBacklog(Connection connection) {
+        PeerLink link = mesh.getLink(connection);
+        if(link == null) {
+            return;
+        }
+        synchronized (connection) {
+            connection.setOverflowed(false);
+            for (String nickname : link.drainBacklog()) {
+                Connection local = endpoints.getConnection(nickname, PortType.MESSAGE);
+                if(local != null) {
+                    sendStored(local);
+                }
+                else {
+                    forwardStored(link, nickname);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the recipient of a message that was queued on a link when the link closed.
+     *
+     * @param frame encoded frame including its length field
+     *
+     * @return nickname of the recipient or null when the frame is not a message
+     *
+     * @author Albert Veldman
+     */
+    private static String forwardedRecipient(ByteBuffer frame) {
+        ByteBuffer view = frame.duplicate();
+        try {
+            Frame decoded = Frame.decode(view, view.getInt());
+            return decoded.getType() == FrameType.MESSAGE ? decoded.getRecipient() : null;
+        } catch (ProtocolException | RuntimeException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+            return null;
+        }
+    }
+
+    /**
+     * Decompresses a message that was queued compressed when its connection closed, so it is stored like any
+     * other message.
+     *
+     * @param frame encoded COMPRESSED frame including its length field
+     *
+     * @return the encoded message or null when the frame is malformed
+     *
+     * @author Albert Veldman
+     */
+    private ByteBuffer decompressUndelivered(ByteBuffer frame) {
+        ByteBuffer view = frame.duplicate();
+        try {
+            return compressor.decompress(Frame.decode(view, view.getInt()).getPayload());
+        } catch (ProtocolException | RuntimeException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+            return null;
+        }
+    }
+
+    /**
+     * Starts sending everything that was stored for the endpoint of a message connection. Messages are no longer
+     * diverted to the store from here on. Clears the overflow under the lock of the connection, so a message
+     * that is stored concurrently is stored before the drain reads the store.
+     *
+     * @param connection message connection of the endpoint
+     *
+     * @author Albert Veldman
+     */
+    private void sendStored(Connection connection) {
+        synchronized (connection) {
+            connection.setOverflowed(false);
+        }
+        startDrain(connection, connection.getNickname());
+    }
+
+    /**
+     * Starts sending the messages stored for a recipient to a connection, unless they are being sent already.
+     * The running drain reads the messages that were stored since it started, or hands the recipient over
+     * when it ends.
+     *
+     * @param connection connection of the recipient or link to its node
+     * @param recipient nickname of the recipient
+     *
+     * @author Albert Veldman
+     */
+    private void startDrain(Connection connection, String recipient) {
+        synchronized (drains) {
+            if(drains.containsKey(recipient)) {
+                return;
+            }
+            drains.put(recipient, connection);
+        }
+        sendWindow(connection, recipient);
+    }
+
+    /**
+     * Sends the next window of a drain once the drain budget has room for it.
+     *
+     * @param connection connection of the recipient or link to its node
+     * @param recipient nickname of the recipient
+     *
+     * @author Albert Veldman
+     */
+    private void sendWindow(final Connection connection, final String recipient) {
+        boolean reserved = drainBudget.reserve(new IWindowWaiter() {
+            @Override
+            public boolean windowReserved() {
+                return sendReservedWindow(connection, recipient);
+            }
+        });
+        if(!reserved) {
+            metrics.drainDeferred();
+        }
+        else if(!sendReservedWindow(connection, recipient)) {
+            drainBudget.release();
+        }
+    }
+
+    /**
+     * Reads the next window of a drain and queues it on the connection. The drain ends when nothing is left,
+     * the connection closed or a forwarded recipient connected to this node.
+     *
+     * @param connection connection of the recipient or link to its node
+     * @param recipient nickname of the recipient
+     *
+     * @return true when a window was queued, false when the reserved window is not used
+     *
+     * @author Albert Veldman
+     */
+    private boolean sendReservedWindow(Connection connection, String recipient) {
+        boolean forwarded = connection.getPeer() != null;
+        if(connection.isClosed() || (forwarded && endpoints.getConnection(recipient, PortType.MESSAGE) != null)) {
+            endDrain(connection, recipient);
+            return false;
+        }
+        List<ByteBuffer> frames = Collections.emptyList();
+        IOException failure = null;
+        synchronized (drains) {
+            try {
+                frames = messageStore.read(recipient, DrainBudget.WINDOW_MESSAGES, drainBudget.getWindowBytes());
+            } catch (IOException exception) {
+                failure = exception;
+            }
+            if(frames.isEmpty() && drains.get(recipient) == connection) {
+                drains.remove(recipient);
+            }
+        }
+        if(failure != null) {
+            LOGGER.log(Level.SEVERE, failure.getMessage(), failure);
+            if(!forwarded) {
+                connection.close();
+            }
+        }
+        if(frames.isEmpty()) {
+            return false;
+        }
+        StoredWindow window = new StoredWindow(this, connection, recipient, frames,
+                connection.getCodec() != Codec.NONE ? compressor : null);
+        metrics.drainWindowQueued(window.memorySize());
+        if(forwarded) {
+            metrics.messagesForwarded(window.size());
+        }
+        connection.send(window);
+        return true;
+    }
+
+    /**
+     * Acknowledges the messages of a window that were written and sends the next window once the loop of the
+     * connection served its other connections, or ends the drain when the connection closed before the window
+     * was written.
+     *
+     * @param connection connection the window was sent to
+     * @param recipient nickname of the recipient
+     * @param written number of messages that were written completely
+     * @param complete true when the whole window was written
+     * @param bytes memory held by the window
+     *
+     * @author Albert Veldman
+     */
+    void windowReleased(final Connection connection, final String recipient, int written, boolean complete,
+                        long bytes) {
+        metrics.drainWindowReleased(written, bytes);
+        if(written > 0) {
+            try {
+                messageStore.acknowledge(recipient, written);
+            } catch (IOException exception) {
+                LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+                complete = false;
+            }
+        }
+        drainBudget.release();
+        if(complete) {
+            connection.defer(new Runnable() {
+                @Override
+                public void run() {
+                    sendWindow(connection, recipient);
+                }
+            });
+        }
+        else {
+            endDrain(connection, recipient);
+        }
+    }
+
+    /**
+     * Ends a drain whose connection can't take the messages anymore. The messages stay stored; when the
+     * recipient is connected again by now, a drain to its new connection starts.
+     *
+     * @param connection connection of the drain
+     * @param recipient nickname of the recipient
+     *
+     * @author Albert Veldman
+     */
+    private void endDrain(Connection connection, String recipient) {
+        synchronized (drains) {
+            if(drains.get(recipient) == connection) {
+                drains.remove(recipient);
+            }
+        }
+        Connection current = endpoints.getConnection(recipient, PortType.MESSAGE);
+        if(current != null && current != connection) {
+            sendStored(current);
+        }
+    }
+
+    /**
+     * Stores an encoded frame and releases its buffer.
+     *
+     * @param recipient nickname of the receiving endpoint
+     * @param encoded encoded frame
+     *
+     * @throws IOException when the frame can't be stored
+     *
+     * @author Albert Veldman
+     */
+    private void store(String recipient, PooledBuffer encoded) throws IOException {
+        try {
+            messageStore.store(recipient, encoded.buffer());
+            metrics.messageStored();
+        } finally {
+            encoded.release();
+        }
+    }
+
+    /**
+     * Starts streaming the body of a file into the file relay.
+     *
+     * @param connection connection the FILE frame was received on
+     * @param frame the FILE frame
+     *
+     * @throws IOException when the frame is malformed or the upload can't be staged
+     *
+     * @author Albert Veldman
+     */
+    private void receiveFile(Connection connection, Frame frame) throws IOException {
+        checkSender(connection, PortType.FILE);
+        FileHeader header = FileHeader.decode(frame.getPayload());
+        ByteBuffer encoded = new Frame(frame.getType(), connection.getNickname(), frame.getRecipient(),
+                frame.getPayload()).encode();
+        connection.stream(new FileUpload(this, fileRelay, frame.getRecipient(), encoded, header.getSize()));
+    }
+
+    /**
+     * Checks that a connection announced itself and the frame arrived on the right port.
+     *
+     * @param connection connection the frame was received on
+     * @param portType port the frame belongs to
+     *
+     * @throws ProtocolException when the frame is not allowed on the connection
+     *
+     * @author Albert Veldman
+     */
+    private void checkSender(Connection connection, PortType portType) throws ProtocolException {
+        if(connection.getNickname() == null) {
+            throw new ProtocolException("Frame received before hello");
+        }
+        if(connection.getPortType() != portType) {
+            throw new ProtocolException("Frame not allowed on the " + connection.getPortType() + " port");
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package im.inco.node.relay;
+
+/**
+ * Available implementations of the relay store for messages to offline endpoints.
+ *
+ * @author Albert Veldman
+ */
+public enum RelayStoreType {
+    /**
+     * Append-only log of memory-mapped segments, see MappedRelayStore.
+     */
+    MAPPED,
+
+    /**
+     * A file per message in a directory per recipient, see DirectoryRelayStore.
+     */
+    DIRECTORY;
+
+    /**
+     * Returns the store type that belongs to the given command line value.
+     *
+     * @param value value of the --relay-store option
+     *
+     * @return the matching store type
+     *
+     * @throws IllegalArgumentException when no store type matches the value
+     *
+     * @author Albert Veldman
+     */
+    public static RelayStoreType fromOption(String value) {
+        for (RelayStoreType type : values()) {
+            if(type.name().equalsIgnoreCase(value)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown relay store: " + value);
+    }
+}
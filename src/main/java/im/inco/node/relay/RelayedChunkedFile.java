@@ -0,0 +1,216 @@
+package im.inco.node.relay;
+
+import im.inco.node.protocol.ChunkManifest;
+import im.inco.node.protocol.FileHeader;
+import im.inco.node.protocol.Frame;
+import im.inco.node.protocol.FrameType;
+import im.inco.node.receive.interfaces.IOutbound;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A file offered in chunks that is sent to its recipient as an ordinary FILE frame. The body is transferred
+ * chunk by chunk from the chunk store, so a file sent to many recipients is read from the same files. Once the
+ * file is written the chunks are released; when it is not written the offer is kept for the recipient.
+ *
+ * @author Albert Veldman
+ */
+class RelayedChunkedFile implements IOutbound {
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(RelayedChunkedFile.class.getName());
+
+    /**
+     * File relay that keeps the offer when the file is not written
+     */
+    private final FileRelay fileRelay;
+
+    /**
+     * Store holding the chunks
+     */
+    private final ChunkStore chunkStore;
+
+    /**
+     * Encoded CHUNK_OFFER frame
+     */
+    private final ByteBuffer offer;
+
+    /**
+     * Manifest of the file
+     */
+    private final ChunkManifest manifest;
+
+    /**
+     * Nickname of the recipient
+     */
+    private final String recipient;
+
+    /**
+     * Kept offer this file was read from, null when the offer is not kept yet
+     */
+    private final File kept;
+
+    /**
+     * Encoded FILE frame sent in front of the body
+     */
+    private final ByteBuffer header;
+
+    /**
+     * Number of bytes to send
+     */
+    private final long length;
+
+    /**
+     * Index of the chunk that is being sent
+     */
+    private int chunk;
+
+    /**
+     * Position in the chunk that is being sent
+     */
+    private long chunkPosition;
+
+    /**
+     * Number of body bytes sent
+     */
+    private long sent;
+
+    /**
+     * Channel of the chunk that is being sent
+     */
+    private FileChannel channel;
+
+    /**
+     * Creates a relayed chunked file.
+     *
+     * @param fileRelay file relay that keeps the offer when the file is not written
+     * @param chunkStore store holding the chunks, which are retained for this file
+     * @param offer encoded CHUNK_OFFER frame
+     * @param manifest manifest of the file
+     * @param sender nickname of the sender
+     * @param recipient nickname of the recipient
+     * @param kept kept offer this file was read from, null when the offer is not kept yet
+     *
+     * @author Albert Veldman
+     */
+    RelayedChunkedFile(FileRelay fileRelay, ChunkStore chunkStore, ByteBuffer offer, ChunkManifest manifest,
+                       String sender, String recipient, File kept) {
+        this.fileRelay = fileRelay;
+        this.chunkStore = chunkStore;
+        this.offer = offer;
+        this.manifest = manifest;
+        this.recipient = recipient;
+        this.kept = kept;
+        this.header = new Frame(FrameType.FILE, sender, recipient,
+                new FileHeader(manifest.getSize(), manifest.getName()).encode()).encode();
+        this.length = header.remaining() + manifest.getSize();
+    }
+
+    @Override
+    public long writeTo(SocketChannel target, long maxBytes) throws IOException {
+        long total = 0;
+        if(header.hasRemaining()) {
+            int limit = header.limit();
+            header.limit(header.position() + (int) Math.min(header.remaining(), maxBytes));
+            try {
+                total = target.write(header);
+            } finally {
+                header.limit(limit);
+            }
+            if(header.hasRemaining()) {
+                return total;
+            }
+        }
+        while(chunk < manifest.getHashes().size() && total < maxBytes) {
+            int chunkLength = manifest.getChunkLength(chunk);
+            if(channel == null) {
+                File file = chunkStore.file(manifest.getHashes().get(chunk));
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                if(channel.size() != chunkLength) {
+                    throw new IOException("Chunk has the wrong size: " + file);
+                }
+            }
+            while(chunkPosition < chunkLength && total < maxBytes) {
+                long written = channel.transferTo(chunkPosition,
+                        Math.min(chunkLength - chunkPosition, maxBytes - total), target);
+                if(written == 0) {
+                    return total;
+                }
+                chunkPosition += written;
+                total += written;
+                sent += written;
+            }
+            if(chunkPosition < chunkLength) {
+                return total;
+            }
+            closeChannel();
+            chunk++;
+            chunkPosition = 0;
+        }
+        return total;
+    }
+
+    @Override
+    public long remaining() {
+        return header.remaining() + manifest.getSize() - sent;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return null;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long memorySize() {
+        return header.capacity();
+    }
+
+    @Override
+    public void release(boolean written) {
+        closeChannel();
+        if(written) {
+            chunkStore.release(manifest);
+            if(kept != null) {
+                fileRelay.delete(kept);
+            }
+            return;
+        }
+        if(kept == null) {
+            try {
+                fileRelay.keepOffer(offer, recipient);
+            } catch (IOException exception) {
+                LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+                chunkStore.release(manifest);
+            }
+        }
+    }
+
+    /**
+     * Closes the channel of the chunk that is being sent.
+     *
+     * @author Albert Veldman
+     */
+    private void closeChannel() {
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                LOGGER.log(Level.FINE, exception.getMessage(), exception);
+            }
+            channel = null;
+        }
+    }
+}
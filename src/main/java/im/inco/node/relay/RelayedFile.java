@@ -0,0 +1,60 @@
+package im.inco.node.relay;
+
+import im.inco.node.receive.FileRegion;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A staged or kept file that is being sent to its recipient. The file is deleted once it is sent and kept for
+ * the recipient when the connection closes before that.
+ *
+ * @author Albert Veldman
+ */
+class RelayedFile extends FileRegion {
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(RelayedFile.class.getName());
+
+    /**
+     * File relay the file belongs to
+     */
+    private final FileRelay fileRelay;
+
+    /**
+     * Nickname of the recipient
+     */
+    private final String recipient;
+
+    /**
+     * Creates a relayed file covering the whole file.
+     *
+     * @param fileRelay file relay the file belongs to
+     * @param file file to send
+     * @param recipient nickname of the recipient
+     *
+     * @author Albert Veldman
+     */
+    RelayedFile(FileRelay fileRelay, File file, String recipient) {
+        super(file, 0, file.length());
+        this.fileRelay = fileRelay;
+        this.recipient = recipient;
+    }
+
+    @Override
+    public void release(boolean written) {
+        super.release(written);
+        if(written) {
+            fileRelay.delete(getFile());
+            return;
+        }
+        try {
+            fileRelay.keep(getFile(), recipient);
+        } catch (IOException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package im.inco.node.relay;
+
+import im.inco.node.buffer.PooledBuffer;
+import im.inco.node.compression.FrameCompressor;
+import im.inco.node.receive.Connection;
+import im.inco.node.receive.interfaces.IOutbound;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * A window of stored messages that is being sent to their recipient or to the node it is connected to. The
+ * messages are written with gathering writes and stay in the relay store until the window is released, then
+ * the messages that were written completely are acknowledged. The window is not a plain buffer, so a connection
+ * that is handed off on shutdown leaves its messages in the store instead of storing them a second time.
+ *
+ * @author Albert Veldman
+ */
+class StoredWindow implements IOutbound {
+    /**
+     * Dispatcher that sent the window
+     */
+    private final RelayDispatcher dispatcher;
+
+    /**
+     * Connection the window is sent to
+     */
+    private final Connection connection;
+
+    /**
+     * Nickname of the recipient of the messages
+     */
+    private final String recipient;
+
+    /**
+     * Encoded messages as they are written, compressed or not
+     */
+    private final ByteBuffer[] buffers;
+
+    /**
+     * Compressed messages by index, null for messages that are written as stored
+     */
+    private final PooledBuffer[] compressed;
+
+    /**
+     * Number of bytes the window puts on the connection
+     */
+    private final long length;
+
+    /**
+     * Number of bytes still to write
+     */
+    private long remaining;
+
+    /**
+     * Index of the first message that is not written completely
+     */
+    private int next;
+
+    /**
+     * Creates a window.
+     *
+     * @param dispatcher dispatcher that sends the window
+     * @param connection connection the window is sent to
+     * @param recipient nickname of the recipient of the messages
+     * @param frames stored messages, oldest first
+     * @param compressor compressor for a connection that negotiated a codec, null to send the messages as stored
+     *
+     * @author Albert Veldman
+     */
+    StoredWindow(RelayDispatcher dispatcher, Connection connection, String recipient, List<ByteBuffer> frames,
+                 FrameCompressor compressor) {
+        this.dispatcher = dispatcher;
+        this.connection = connection;
+        this.recipient = recipient;
+        this.buffers = new ByteBuffer[frames.size()];
+        this.compressed = new PooledBuffer[frames.size()];
+        long bytes = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            ByteBuffer frame = frames.get(i);
+            compressed[i] = compressor != null ? compressor.compress(frame) : null;
+            buffers[i] = compressed[i] != null ? compressed[i].buffer() : frame.duplicate();
+            bytes += buffers[i].remaining();
+        }
+        this.length = bytes;
+        this.remaining = bytes;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return null;
+    }
+
+    @Override
+    public long writeTo(SocketChannel channel, long maxBytes) throws IOException {
+        int end = next;
+        long bytes = 0;
+        while(end < buffers.length && bytes < maxBytes) {
+            bytes += buffers[end].remaining();
+            end++;
+        }
+        if(end == next) {
+            return 0;
+        }
+        ByteBuffer last = buffers[end - 1];
+        int limit = last.limit();
+        if(bytes > maxBytes) {
+            last.limit((int) (limit - (bytes - maxBytes)));
+        }
+        long written;
+        try {
+            written = channel.write(buffers, next, end - next);
+        } finally {
+            last.limit(limit);
+        }
+        while(next < buffers.length && !buffers[next].hasRemaining()) {
+            next++;
+        }
+        remaining -= written;
+        return written;
+    }
+
+    @Override
+    public long remaining() {
+        return remaining;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long memorySize() {
+        return length;
+    }
+
+    @Override
+    public void release(boolean written) {
+        for (PooledBuffer buffer : compressed) {
+            if(buffer != null) {
+                buffer.release();
+            }
+        }
+        dispatcher.windowReleased(connection, recipient, written ? buffers.length : next, written, length);
+    }
+
+    /**
+     * Get the number of messages in the window.
+     *
+     * @return message count
+     *
+     * @author Albert Veldman
+     */
+    int size() {
+        return buffers.length;
+    }
+}
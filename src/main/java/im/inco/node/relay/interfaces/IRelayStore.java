@@ -0,0 +1,54 @@
+package im.inco.node.relay.interfaces;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Stores encoded frames for endpoints that are offline until they connect again.
+ *
+ * @author Albert Veldman
+ */
+public interface IRelayStore extends Closeable {
+    /**
+     * Stores an encoded frame for the given recipient.
+     *
+     * @param recipient nickname of the offline endpoint
+     * @param frame encoded frame including its length field
+     *
+     * @throws IOException when the frame can't be stored
+     *
+     * @author Albert Veldman
+     */
+    void store(String recipient, ByteBuffer frame) throws IOException;
+
+    /**
+     * Returns the oldest frames stored for the given recipient without removing them. Frames stay stored until
+     * they are acknowledged, so a drain that is interrupted starts again at the first frame that was not
+     * acknowledged, also after a restart.
+     *
+     * @param recipient nickname of the endpoint the frames are sent to
+     * @param maxFrames maximum number of frames to return
+     * @param maxBytes maximum number of bytes to return, the first frame is returned even when it is larger
+     *
+     * @return the oldest frames, empty when nothing is stored
+     *
+     * @throws IOException when the stored frames can't be read
+     *
+     * @author Albert Veldman
+     */
+    List<ByteBuffer> read(String recipient, int maxFrames, long maxBytes) throws IOException;
+
+    /**
+     * Removes the oldest frames stored for the given recipient once they were sent.
+     *
+     * @param recipient nickname of the endpoint the frames were sent to
+     * @param count number of frames to remove, at most the number of frames read since the last acknowledgement
+     *
+     * @throws IOException when the frames can't be removed
+     *
+     * @author Albert Veldman
+     */
+    void acknowledge(String recipient, int count) throws IOException;
+}
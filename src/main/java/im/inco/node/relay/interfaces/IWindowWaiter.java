@@ -0,0 +1,18 @@
+package im.inco.node.relay.interfaces;
+
+/**
+ * A drain of stored messages that waits for a window of the drain budget.
+ *
+ * @author Albert Veldman
+ */
+public interface IWindowWaiter {
+    /**
+     * Called when a window is reserved for the drain, on the thread that released it.
+     *
+     * @return true when the drain sends the window, false when it has nothing to send anymore and the window
+     * is passed on
+     *
+     * @author Albert Veldman
+     */
+    boolean windowReserved();
+}
@@ -0,0 +1,154 @@
+package im.inco.node.storage;
+
+import im.inco.shared.components.utils.UserData;
+import im.inco.shared.components.utils.interfaces.ILocalStorageManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Storage manager that keeps the user data in a file of its own, for the node and every identity it hosts. The
+ * file is written to a temporary file, synced and moved over the old one atomically, so a crash leaves either
+ * the old or the new user data. The serialized user data is followed by a CRC32, so a damaged file is
+ * rejected instead of read.
+ *
+ * @author Albert Veldman
+ */
+public class FileStorageManager implements ILocalStorageManager {
+    /**
+     * First bytes of a user data file
+     */
+    private static final int FILE_MAGIC = 0x494E4355;
+
+    /**
+     * File the user data is kept in
+     */
+    private final File file;
+
+    /**
+     * Storage manager the user data is read from while the file doesn't exist yet, or null
+     */
+    private final ILocalStorageManager fallback;
+
+    /**
+     * Creates a storage manager.
+     *
+     * @param file file the user data is kept in, its directory is created on the first write
+     *
+     * @author Albert Veldman
+     */
+    public FileStorageManager(File file) {
+        this(file, null);
+    }
+
+    /**
+     * Creates a storage manager that reads the user data from another storage manager until it wrote the file
+     * once, so user data kept elsewhere before moves to the file on the first write.
+     *
+     * @param file file the user data is kept in, its directory is created on the first write
+     * @param fallback storage manager the user data is read from while the file doesn't exist, or null
+     *
+     * @author Albert Veldman
+     */
+    public FileStorageManager(File file, ILocalStorageManager fallback) {
+        this.file = file;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Reads the user data from the file, or from the fallback when the file doesn't exist yet.
+     *
+     * @return the user data
+     *
+     * @throws FileNotFoundException when no user data was written yet and there is no fallback
+     * @throws IOException when the file can't be read, is damaged or doesn't hold user data
+     *
+     * @author Albert Veldman
+     */
+    @Override
+    public UserData readUserData() throws IOException {
+        if(fallback != null && !file.exists()) {
+            return fallback.readUserData();
+        }
+        byte[] serialized;
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), new CRC32())) {
+            DataInputStream in = new DataInputStream(checked);
+            if(in.readInt() != FILE_MAGIC) {
+                throw new IOException("No user data in " + file);
+            }
+            serialized = new byte[in.readInt()];
+            in.readFully(serialized);
+            long expected = checked.getChecksum().getValue();
+            if(in.readLong() != expected) {
+                throw new IOException("User data in " + file + " is damaged");
+            }
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return (UserData) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException exception) {
+            throw new IOException("No user data in " + file, exception);
+        }
+    }
+
+    /**
+     * Writes the user data with its checksum to a temporary file, syncs it and moves it over the file.
+     *
+     * @param userData the user data to write
+     *
+     * @throws IOException when the user data can't be written
+     *
+     * @author Albert Veldman
+     */
+    @Override
+    public void writeUserData(UserData userData) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File temp = new File(directory, file.getName() + ".tmp");
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream objects = new ObjectOutputStream(serialized)) {
+            objects.writeObject(userData);
+        }
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(serialized.size());
+            serialized.writeTo(out);
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Get the file the user data is kept in.
+     *
+     * @return user data file
+     *
+     * @author Albert Veldman
+     */
+    public File getFile() {
+        return file;
+    }
+}
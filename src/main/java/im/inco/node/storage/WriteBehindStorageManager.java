@@ -0,0 +1,221 @@
+package im.inco.node.storage;
+
+import im.inco.shared.components.utils.UserData;
+import im.inco.shared.components.utils.interfaces.ILocalStorageManager;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Storage manager that writes the user data behind the caller. A write only marks the user data dirty; it is
+ * written by the wrapped storage manager after a short delay, so a burst of status changes costs one write.
+ * Writes are made by one writer at a time, so two threads never rewrite the user data file at once, and a
+ * write that fails is retried on the next flush.
+ *
+ * @author Albert Veldman
+ */
+public class WriteBehindStorageManager implements ILocalStorageManager {
+    /**
+     * Default delay between the first dirty update and the write
+     */
+    public static final long DEFAULT_FLUSH_DELAY_MILLIS = 1000;
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(WriteBehindStorageManager.class.getName());
+
+    /**
+     * Storage manager that writes the user data
+     */
+    private final ILocalStorageManager delegate;
+
+    /**
+     * Delay between the first dirty update and the write
+     */
+    private final long flushDelayMillis;
+
+    /**
+     * Lock held while the user data is written
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Thread flushing the user data after the delay
+     */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "user-data-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * User data that is not written yet, null when nothing is dirty, guarded by this
+     */
+    private UserData dirty;
+
+    /**
+     * Whether a flush is scheduled, guarded by this
+     */
+    private boolean scheduled;
+
+    /**
+     * Number of writes requested, guarded by this
+     */
+    private long requestedWrites;
+
+    /**
+     * Number of writes made by the wrapped storage manager, guarded by this
+     */
+    private long completedWrites;
+
+    /**
+     * Creates a write behind storage manager.
+     *
+     * @param delegate storage manager that writes the user data
+     * @param flushDelayMillis delay between the first dirty update and the write
+     *
+     * @author Albert Veldman
+     */
+    public WriteBehindStorageManager(ILocalStorageManager delegate, long flushDelayMillis) {
+        this.delegate = delegate;
+        this.flushDelayMillis = flushDelayMillis;
+    }
+
+    @Override
+    public UserData readUserData() throws IOException {
+        return delegate.readUserData();
+    }
+
+    /**
+     * Marks the user data dirty and schedules a flush. Never blocks on the disk.
+     *
+     * @param userData the user data to write
+     *
+     * @author Albert Veldman
+     */
+    @Override
+    public synchronized void writeUserData(UserData userData) {
+        dirty = userData;
+        requestedWrites++;
+        scheduleFlush();
+    }
+
+    /**
+     * Writes the user data now when it is dirty.
+     *
+     * @throws IOException when the user data could not be written, it stays dirty
+     *
+     * @author Albert Veldman
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            UserData userData;
+            synchronized (this) {
+                userData = dirty;
+                dirty = null;
+            }
+            if(userData == null) {
+                return;
+            }
+            try {
+                delegate.writeUserData(userData);
+            } catch (IOException | RuntimeException exception) {
+                synchronized (this) {
+                    if(dirty == null) {
+                        dirty = userData;
+                    }
+                }
+                throw exception;
+            }
+            synchronized (this) {
+                completedWrites++;
+            }
+        }
+    }
+
+    /**
+     * Stops the flush timer and writes the user data when it is dirty.
+     *
+     * @throws IOException when the user data could not be written
+     *
+     * @author Albert Veldman
+     */
+    public void close() throws IOException {
+        executor.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Get the number of writes that were requested.
+     *
+     * @return requested writes
+     *
+     * @author Albert Veldman
+     */
+    public synchronized long getRequestedWrites() {
+        return requestedWrites;
+    }
+
+    /**
+     * Get the number of times the user data was actually written.
+     *
+     * @return completed writes
+     *
+     * @author Albert Veldman
+     */
+    public synchronized long getCompletedWrites() {
+        return completedWrites;
+    }
+
+    /**
+     * Schedules a flush unless one is scheduled already. Caller holds the lock of this object.
+     *
+     * @author Albert Veldman
+     */
+    private void scheduleFlush() {
+        if(scheduled) {
+            return;
+        }
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushScheduled();
+                }
+            }, flushDelayMillis, TimeUnit.MILLISECONDS);
+            scheduled = true;
+        } catch (RejectedExecutionException exception) {
+            LOGGER.log(Level.FINE, "Flush timer stopped, user data is written on close");
+        }
+    }
+
+    /**
+     * Flushes the user data from the timer. When the write fails, also with a runtime exception of the wrapped
+     * storage manager, another flush is scheduled.
+     *
+     * @author Albert Veldman
+     */
+    private void flushScheduled() {
+        synchronized (this) {
+            scheduled = false;
+        }
+        try {
+            flush();
+        } catch (IOException | RuntimeException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+            synchronized (this) {
+                scheduleFlush();
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package im.inco.node.tenant;
+
+import im.inco.node.graph.GraphClient;
+import im.inco.node.graph.GraphRequest;
+import im.inco.node.graph.IdentityGraphService;
+import im.inco.node.graph.interfaces.IGraphListener;
+import im.inco.node.graph.interfaces.IGraphService;
+import im.inco.node.relay.RelayDispatcher;
+import im.inco.node.relay.interfaces.IRelayStore;
+import im.inco.node.storage.WriteBehindStorageManager;
+import im.inco.shared.components.cryptography.KeyGenerator;
+import im.inco.shared.components.utils.UserData;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An identity a node hosts next to its own. A tenant has its own ports, user data, relay directories and graph
+ * session, and a relay dispatcher of its own so its endpoints only reach each other. The receive loops, buffer
+ * pool, compressor, admission control and metrics are those of the node.
+ *
+ * @author Albert Veldman
+ */
+public class Tenant {
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER = Logger.getLogger(Tenant.class.getName());
+
+    /**
+     * Name and ports of the tenant
+     */
+    private final TenantConfig config;
+
+    /**
+     * User data of the tenant
+     */
+    private final UserData userData;
+
+    /**
+     * Storage manager writing the user data of the tenant behind the caller
+     */
+    private final WriteBehindStorageManager storageManager;
+
+    /**
+     * Store for messages to offline endpoints of the tenant
+     */
+    private final IRelayStore messageStore;
+
+    /**
+     * Dispatcher relaying frames between the endpoints of the tenant
+     */
+    private final RelayDispatcher relayDispatcher;
+
+    /**
+     * Client sending the register, login and logout requests of the tenant
+     */
+    private final GraphClient graphClient;
+
+    /**
+     * Creates a tenant. Bind its ports with the dispatcher, then call start.
+     *
+     * @param config name and ports of the tenant
+     * @param userData user data of the tenant
+     * @param storageManager storage manager writing the user data of the tenant
+     * @param messageStore store for messages to offline endpoints of the tenant
+     * @param relayDispatcher dispatcher relaying frames between the endpoints of the tenant
+     * @param graphService service making the calls to the graph, called as the tenant
+     *
+     * @author Albert Veldman
+     */
+    public Tenant(TenantConfig config, UserData userData, WriteBehindStorageManager storageManager,
+                  IRelayStore messageStore, RelayDispatcher relayDispatcher, IGraphService graphService) {
+        this.config = config;
+        this.userData = userData;
+        this.storageManager = storageManager;
+        this.messageStore = messageStore;
+        this.relayDispatcher = relayDispatcher;
+        this.graphClient = new GraphClient(new IdentityGraphService(graphService, userData), createGraphListener());
+    }
+
+    /**
+     * Generates the key set of the tenant when it has none, writes its user data and queues its registration
+     * when it has no nickname yet, otherwise its login. Blocks while the key set is generated.
+     *
+     * @author Albert Veldman
+     */
+    public void start() {
+        if(userData.getKeySet() == null) {
+            userData.setKeySet(KeyGenerator.toKeySet(KeyGenerator.generateRSAKeyPair()));
+        }
+        storageManager.writeUserData(userData);
+        graphClient.submit(userData.getNickname() == null ? GraphRequest.REGISTER : GraphRequest.LOGIN);
+    }
+
+    /**
+     * Queues the logout of the tenant when it is registered.
+     *
+     * @author Albert Veldman
+     */
+    public void logout() {
+        if(userData.getNickname() != null) {
+            graphClient.submit(GraphRequest.LOGOUT);
+        }
+    }
+
+    /**
+     * Waits for the queued graph requests to be sent, then closes the relay store and writes the user data
+     * when it changed. Call once the receive loops stopped.
+     *
+     * @param graphTimeoutMillis time the queued graph requests get to be sent
+     *
+     * @author Albert Veldman
+     */
+    public void close(long graphTimeoutMillis) {
+        try {
+            if(!graphClient.close(graphTimeoutMillis)) {
+                LOGGER.log(Level.WARNING, "Graph requests of tenant " + config.getName() + " were dropped");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            messageStore.close();
+        } catch (IOException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+        }
+        try {
+            storageManager.close();
+        } catch (IOException exception) {
+            LOGGER.log(Level.SEVERE, exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Creates the listener that logs the outcome of the graph requests of the tenant and writes its user data
+     * once per batch.
+     *
+     * @return the listener
+     *
+     * @author Albert Veldman
+     */
+    private IGraphListener createGraphListener() {
+        return new IGraphListener() {
+            @Override
+            public void onCompleted(GraphRequest request, boolean success) {
+                if(!success) {
+                    LOGGER.log(Level.WARNING, request + " of tenant " + config.getName() + " at graph failed");
+                    return;
+                }
+                if(request == GraphRequest.REGISTER) {
+                    userData.setOnline(true);
+                }
+                LOGGER.log(Level.INFO, request + " of tenant " + config.getName() + " completed");
+            }
+
+            @Override
+            public void onBatchCompleted() {
+                storageManager.writeUserData(userData);
+            }
+        };
+    }
+
+    /**
+     * Get the name and ports of the tenant.
+     *
+     * @return tenant config
+     *
+     * @author Albert Veldman
+     */
+    public TenantConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Get the nickname of the tenant.
+     *
+     * @return nickname, null until the tenant is registered
+     *
+     * @author Albert Veldman
+     */
+    public String getNickname() {
+        return userData.getNickname();
+    }
+
+    /**
+     * Get the dispatcher relaying the frames of the tenant.
+     *
+     * @return relay dispatcher
+     *
+     * @author Albert Veldman
+     */
+    public RelayDispatcher getRelayDispatcher() {
+        return relayDispatcher;
+    }
+}
@@ -0,0 +1,100 @@
+package im.inco.node.tenant;
+
+/**
+ * Name and ports of an identity a node hosts next to its own, parsed from a name:messagePort:filePort option.
+ *
+ * @author Albert Veldman
+ */
+public class TenantConfig {
+    /**
+     * Name of the tenant, also the name of its directory
+     */
+    private final String name;
+
+    /**
+     * Port the tenant receives messages on
+     */
+    private final int messagePort;
+
+    /**
+     * Port the tenant receives files on
+     */
+    private final int filePort;
+
+    /**
+     * Creates a tenant config.
+     *
+     * @param name name of the tenant, also the name of its directory
+     * @param messagePort port the tenant receives messages on
+     * @param filePort port the tenant receives files on
+     *
+     * @author Albert Veldman
+     */
+    public TenantConfig(String name, int messagePort, int filePort) {
+        this.name = name;
+        this.messagePort = messagePort;
+        this.filePort = filePort;
+    }
+
+    /**
+     * Parses a tenant config.
+     *
+     * @param option name:messagePort:filePort, the name may hold letters, digits, '-' and '_'
+     *
+     * @return the tenant config
+     *
+     * @throws IllegalArgumentException when the name or a port is invalid
+     *
+     * @author Albert Veldman
+     */
+    public static TenantConfig fromOption(String option) {
+        String[] parts = option.split(":");
+        if(parts.length != 3 || !parts[0].matches("[A-Za-z0-9_-]+")) {
+            throw new IllegalArgumentException("Invalid tenant: " + option);
+        }
+        int messagePort = Integer.parseInt(parts[1]);
+        int filePort = Integer.parseInt(parts[2]);
+        if(messagePort < 1 || messagePort > 65535 || filePort < 1 || filePort > 65535 || messagePort == filePort) {
+            throw new IllegalArgumentException("Invalid tenant ports: " + option);
+        }
+        return new TenantConfig(parts[0], messagePort, filePort);
+    }
+
+    /**
+     * Get the name of the tenant.
+     *
+     * @return tenant name
+     *
+     * @author Albert Veldman
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the port the tenant receives messages on.
+     *
+     * @return message port
+     *
+     * @author Albert Veldman
+     */
+    public int getMessagePort() {
+        return messagePort;
+    }
+
+    /**
+     * Get the port the tenant receives files on.
+     *
+     * @return file port
+     *
+     * @author Albert Veldman
+     */
+    public int getFilePort() {
+        return filePort;
+    }
+
+    @Override
+    public String toString() {
+        return name + ":" + messagePort + ":" + filePort;
+    }
+}
@@ -0,0 +1,197 @@
+package im.inco.node.relay;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Recovery of the memory-mapped relay store from its checkpoint and, without one, from the segments alone.
+ *
+ * @author Albert Veldman
+ */
+public class MappedRelayStoreTest {
+    /**
+     * Segment size small enough that the frames of a test span many segments
+     */
+    private static final int SEGMENT_SIZE = 4096;
+
+    /**
+     * Size of the test frames
+     */
+    private static final int FRAME_SIZE = 100;
+
+    /**
+     * Directory of the store under test
+     */
+    private File directory;
+
+    /**
+     * Creates an empty store directory.
+     *
+     * @throws IOException when the directory can't be created
+     *
+     * @author Albert Veldman
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("relay-store").toFile();
+    }
+
+    /**
+     * Deletes the store directory.
+     *
+     * @author Albert Veldman
+     */
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if(files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(directory.delete());
+    }
+
+    /**
+     * Compacts segments whose frames were mostly acknowledged, so the pending frames are copied and their first
+     * records deleted, then replays the store without its checkpoint.
+     *
+     * @throws IOException when the store fails
+     *
+     * @author Albert Veldman
+     */
+    @Test
+    public void recoversAfterCompactionWithoutCheckpoint() throws IOException {
+        MappedRelayStore store = open();
+        for (int i = 0; i < 200; i++) {
+            store.store("alice", frame(i));
+        }
+        for (int i = 0; i < 5; i++) {
+            store.store("bob", frame(1000 + i));
+        }
+        store.acknowledge("alice", 150);
+        store.maintain();
+        store.acknowledge("alice", 5);
+        store.store("alice", frame(200));
+        store.maintain();
+        store.acknowledge("alice", 10);
+        store.close();
+        assertTrue(new File(directory, "relay.index").delete());
+
+        store = open();
+        assertFrames(store, "alice", 165, 36);
+        assertFrames(store, "bob", 1000, 5);
+        store.close();
+    }
+
+    /**
+     * Replays the records appended after the checkpoint, as after a crash.
+     *
+     * @throws IOException when the store fails
+     *
+     * @author Albert Veldman
+     */
+    @Test
+    public void recoversRecordsAfterCheckpoint() throws IOException {
+        MappedRelayStore store = open();
+        for (int i = 0; i < 200; i++) {
+            store.store("alice", frame(i));
+        }
+        store.acknowledge("alice", 150);
+        store.maintain();
+        store.acknowledge("alice", 5);
+        store.store("alice", frame(200));
+
+        MappedRelayStore recovered = open();
+        assertFrames(recovered, "alice", 155, 46);
+        recovered.close();
+        store.close();
+    }
+
+    /**
+     * Acknowledges every frame, then replays the store without its checkpoint.
+     *
+     * @throws IOException when the store fails
+     *
+     * @author Albert Veldman
+     */
+    @Test
+    public void staysEmptyWhenEverythingIsAcknowledged() throws IOException {
+        MappedRelayStore store = open();
+        for (int i = 0; i < 100; i++) {
+            store.store("alice", frame(i));
+        }
+        store.acknowledge("alice", 60);
+        store.maintain();
+        store.acknowledge("alice", 40);
+        store.maintain();
+        store.close();
+        assertTrue(new File(directory, "relay.index").delete());
+
+        store = open();
+        assertTrue(store.read("alice", 10, Long.MAX_VALUE).isEmpty());
+        store.close();
+    }
+
+    /**
+     * Opens the store under test.
+     *
+     * @return the opened store
+     *
+     * @throws IOException when the store can't be opened
+     *
+     * @author Albert Veldman
+     */
+    private MappedRelayStore open() throws IOException {
+        MappedRelayStore store = new MappedRelayStore(directory, SEGMENT_SIZE);
+        store.open();
+        return store;
+    }
+
+    /**
+     * Creates a test frame starting with its number.
+     *
+     * @param number number of the frame
+     *
+     * @return the frame
+     *
+     * @author Albert Veldman
+     */
+    private static ByteBuffer frame(int number) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+        frame.putInt(0, number);
+        return frame;
+    }
+
+    /**
+     * Checks that exactly the given run of frames is pending for a recipient, in order.
+     *
+     * @param store the store
+     * @param recipient nickname of the recipient
+     * @param first number of the oldest pending frame
+     * @param count number of pending frames
+     *
+     * @throws IOException when the store can't be read
+     *
+     * @author Albert Veldman
+     */
+    private static void assertFrames(MappedRelayStore store, String recipient, int first, int count)
+            throws IOException {
+        List<ByteBuffer> frames = store.read(recipient, Integer.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals(count, frames.size());
+        for (int i = 0; i < count; i++) {
+            ByteBuffer frame = frames.get(i);
+            assertEquals(first + i, frame.getInt(frame.position()));
+        }
+    }
+}